@@ -0,0 +1,4 @@
+alter table snapshot add column `content_item_count` bigint(20) DEFAULT NULL;
+update snapshot s set s.content_item_count =
+  (select count(*) from snapshot_content_item i where i.snapshot_id = s.id)
+  where s.status in ('REPLICATING_TO_STORAGE', 'CLEANING_UP', 'SNAPSHOT_COMPLETE');
@@ -0,0 +1 @@
+alter table snapshot_content_item add index sci_snapshot_id_id (snapshot_id, id);
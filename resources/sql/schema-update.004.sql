@@ -0,0 +1,2 @@
+alter table snapshot add column `parent_snapshot_id` bigint(20) DEFAULT NULL;
+alter table snapshot_content_item add column `referenced_snapshot_id` bigint(20) DEFAULT NULL;
@@ -28,6 +28,7 @@ public class Application extends ResourceConfig {
               GeneralResource.class,
               SnapshotResource.class,
               RestoreResource.class,
+              BandwidthResource.class,
               SnapshotObjectMapperProvider.class,
               JacksonFeature.class,
               MissingJsonBodyInterceptor.class);
@@ -0,0 +1,84 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.bridge.rest;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.duracloud.snapshot.service.BandwidthManager;
+import org.duracloud.snapshot.service.BandwidthSchedule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Defines the REST resource layer for viewing and changing the bandwidth
+ * schedule which shapes snapshot and restore content transfers.
+ *
+ * @author Daniel Bernstein
+ */
+@Component
+@Path("/bandwidth")
+public class BandwidthResource {
+
+    private static Logger log = LoggerFactory.getLogger(BandwidthResource.class);
+
+    private BandwidthManager bandwidthManager;
+
+    @Autowired
+    public BandwidthResource(BandwidthManager bandwidthManager) {
+        this.bandwidthManager = bandwidthManager;
+    }
+
+    /**
+     * @return the bandwidth schedule
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getSchedule() {
+        return Response.ok().entity(bandwidthManager.getSchedule()).build();
+    }
+
+    /**
+     * Replaces the bandwidth schedule. Running jobs adopt it immediately.
+     *
+     * @param schedule
+     * @return the new schedule
+     */
+    @PUT
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response setSchedule(BandwidthSchedule schedule) {
+        try {
+            bandwidthManager.setSchedule(schedule);
+            log.info("bandwidth schedule updated");
+            return Response.ok().entity(bandwidthManager.getSchedule()).build();
+        } catch (IllegalArgumentException ex) {
+            log.error("invalid bandwidth schedule: " + ex.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST)
+                           .entity(new ResponseDetails(ex.getMessage()))
+                           .build();
+        }
+    }
+
+    /**
+     * @return the bandwidth budgets in effect now
+     */
+    @Path("current")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getCurrentLimits() {
+        return Response.ok().entity(bandwidthManager.getCurrentLimits()).build();
+    }
+}
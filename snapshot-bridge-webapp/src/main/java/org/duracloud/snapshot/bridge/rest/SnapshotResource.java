@@ -14,8 +14,10 @@ import static org.duracloud.snapshot.common.SnapshotServiceConstants.SNAPSHOT_AL
 import static org.duracloud.snapshot.common.SnapshotServiceConstants.SNAPSHOT_ID_TITLE;
 import static org.duracloud.snapshot.common.SnapshotServiceConstants.SNAPSHOT_USER_TITLE;
 
+import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -40,6 +42,7 @@ import org.duracloud.client.ContentStore;
 import org.duracloud.common.constant.Constants;
 import org.duracloud.error.ContentStoreException;
 import org.duracloud.snapshot.EmptySpaceException;
+import org.duracloud.snapshot.InsufficientDiskCapacityException;
 import org.duracloud.snapshot.SnapshotException;
 import org.duracloud.snapshot.SnapshotNotFoundException;
 import org.duracloud.snapshot.db.model.DuracloudEndPointConfig;
@@ -71,6 +74,7 @@ import org.duracloud.snapshot.dto.bridge.UpdateSnapshotHistoryBridgeParameters;
 import org.duracloud.snapshot.dto.bridge.UpdateSnapshotHistoryBridgeResult;
 import org.duracloud.snapshot.id.SnapshotIdentifier;
 import org.duracloud.snapshot.service.AlternateIdAlreadyExistsException;
+import org.duracloud.snapshot.service.BridgeConfiguration;
 import org.duracloud.snapshot.service.EventLog;
 import org.duracloud.snapshot.service.SnapshotJobManager;
 import org.duracloud.snapshot.service.SnapshotJobManagerConfig;
@@ -95,6 +99,12 @@ public class SnapshotResource {
 
     private static Logger log = LoggerFactory.getLogger(SnapshotResource.class);
 
+    /**
+     * Response header carrying the token with which to request the next page
+     * of snapshot content
+     */
+    public static final String CONTINUATION_TOKEN_HEADER = "X-Continuation-Token";
+
     @Context
     HttpServletRequest request;
 
@@ -292,48 +302,12 @@ public class SnapshotResource {
 
     /*
      * Returns a total size of snapshots. The parameters of host, store ID and status are all
-     * considered optional, so depending on which are provided (i.e. not null), the
-     * query used will vary.
+     * considered optional; those which are null do not restrict the sum.
      */
     protected long getSnapshotsSize(String host,
                                     String storeId,
                                     SnapshotStatus status) {
-        long totalSizeInBytes = 0L;
-        List<Snapshot> snapshots = null;
-
-        if (null != host) {
-            if (null != storeId) {
-                if (null != status) { // Host & Store ID & Status
-                    snapshots = snapshotRepo.findBySourceHostAndSourceStoreIdAndStatus(host, storeId, status);
-                } else { // Host & Store ID
-                    snapshots = snapshotRepo.findBySourceHostAndSourceStoreId(host, storeId);
-                }
-            } else if (null != status) { // Host & Status
-                snapshots = snapshotRepo.findBySourceHostAndStatus(host, status);
-            } else { // Host
-                snapshots = snapshotRepo.findBySourceHost(host);
-            }
-        } else if (null != storeId) {
-            if (null != status) { // Store ID & Status
-                snapshots = snapshotRepo.findBySourceStoreIdAndStatus(storeId, status);
-            } else { // Store ID
-                snapshots = snapshotRepo.findBySourceStoreId(storeId);
-            }
-        } else if (null != status) { // Status
-            snapshots = snapshotRepo.findByStatusOrderBySnapshotDateAsc(status);
-        } else { // No filters
-            snapshots = snapshotRepo.findAll();
-        }
-
-        if (null != snapshots) {
-            Iterator<Snapshot> snapshotsItr = snapshots.iterator();
-            while (snapshotsItr.hasNext()) {
-                Snapshot snapshot = snapshotsItr.next();
-                totalSizeInBytes += snapshot.getTotalSizeInBytes();
-            }
-        }
-
-        return totalSizeInBytes;
+        return snapshotRepo.sumTotalSizeInBytes(host, storeId, status);
     }
 
     /**
@@ -364,48 +338,15 @@ public class SnapshotResource {
 
     /*
      * Returns a total files of snapshots. The parameters of host, store ID and status are all
-     * considered optional, so depending on which are provided (i.e. not null), the
-     * query used will vary.
+     * considered optional; those which are null do not restrict the sum. Snapshots which
+     * have finished transferring from DuraCloud carry their item count; the items of the
+     * remaining snapshots are counted directly.
      */
     protected long getSnapshotsFiles(String host,
                                      String storeId,
                                      SnapshotStatus status) {
-        long totalFiles = 0L;
-        List<Snapshot> snapshots = null;
-
-        if (null != host) {
-            if (null != storeId) {
-                if (null != status) { // Host & Store ID & Status
-                    snapshots = snapshotRepo.findBySourceHostAndSourceStoreIdAndStatus(host, storeId, status);
-                } else { // Host & Store ID
-                    snapshots = snapshotRepo.findBySourceHostAndSourceStoreId(host, storeId);
-                }
-            } else if (null != status) { // Host & Status
-                snapshots = snapshotRepo.findBySourceHostAndStatus(host, status);
-            } else { // Host
-                snapshots = snapshotRepo.findBySourceHost(host);
-            }
-        } else if (null != storeId) {
-            if (null != status) { // Store ID & Status
-                snapshots = snapshotRepo.findBySourceStoreIdAndStatus(storeId, status);
-            } else { // Store ID
-                snapshots = snapshotRepo.findBySourceStoreId(storeId);
-            }
-        } else if (null != status) { // Status
-            snapshots = snapshotRepo.findByStatusOrderBySnapshotDateAsc(status);
-        } else { // No filters
-            snapshots = snapshotRepo.findAll();
-        }
-
-        if (null != snapshots) {
-            Iterator<Snapshot> snapshotsItr = snapshots.iterator();
-            while (snapshotsItr.hasNext()) {
-                Snapshot snapshot = snapshotsItr.next();
-                totalFiles += snapshotContentItemRepo.countBySnapshotId(snapshot.getId());
-            }
-        }
-
-        return totalFiles;
+        return snapshotRepo.sumContentItemCount(host, storeId, status) +
+               snapshotContentItemRepo.countBySnapshotsWithoutContentItemCount(host, storeId, status);
     }
 
     /**
@@ -465,8 +406,9 @@ public class SnapshotResource {
             result.setStatus(snapshot.getStatus());
             result.setMemberId(snapshot.getMemberId());
             result.setTotalSizeInBytes(snapshot.getTotalSizeInBytes());
-            result.setContentItemCount(
-                snapshotContentItemRepo.countBySnapshotName(snapshotId));
+            Long contentItemCount = snapshot.getContentItemCount();
+            result.setContentItemCount(null != contentItemCount ? contentItemCount :
+                                       snapshotContentItemRepo.countBySnapshotName(snapshotId));
             result.setAlternateIds(snapshot.getSnapshotAlternateIds());
 
             log.debug("got snapshot:" + result);
@@ -597,6 +539,9 @@ public class SnapshotResource {
             String userEmail = params.getUserEmail();
             snapshot.setUserEmail(userEmail);
             snapshot.setMemberId(params.getMemberId());
+            if (BridgeConfiguration.isIncrementalSnapshots()) {
+                snapshot.setParentSnapshotId(findParentSnapshotId(source));
+            }
             snapshot = this.snapshotRepo.saveAndFlush(snapshot);
             eventLog.logSnapshotUpdate(snapshot);
 
@@ -631,6 +576,8 @@ public class SnapshotResource {
             Status status = Status.INTERNAL_SERVER_ERROR;
             if (ex instanceof EmptySpaceException) {
                 status = Status.CONFLICT;
+            } else if (ex instanceof InsufficientDiskCapacityException) {
+                status = Status.SERVICE_UNAVAILABLE;
             }
 
             return Response.status(status)
@@ -639,6 +586,25 @@ public class SnapshotResource {
         }
     }
 
+    /**
+     * @param source
+     * @return the id of the last completed snapshot of the space, which a new
+     * incremental snapshot of the space is taken relative to, or null if there
+     * is none
+     */
+    private Long findParentSnapshotId(DuracloudEndPointConfig source) {
+        Snapshot parent = this.snapshotRepo
+            .findFirstBySourceHostAndSourceStoreIdAndSourceSpaceIdAndStatusOrderBySnapshotDateDesc(
+                source.getHost(), source.getStoreId(), source.getSpaceId(), SnapshotStatus.SNAPSHOT_COMPLETE);
+        if (parent == null) {
+            log.info("no completed snapshot of space {} found: snapshot will hold all content",
+                     source.getSpaceId());
+            return null;
+        }
+        log.info("snapshot of space {} will be incremental to snapshot {}", source.getSpaceId(), parent.getName());
+        return parent.getId();
+    }
+
     private void checkForEmptySpace(DuracloudEndPointConfig source) throws SnapshotException {
         SnapshotJobManagerConfig config = this.jobManager.getConfig();
         ContentStore contentStore =
@@ -763,13 +729,31 @@ public class SnapshotResource {
         }
     }
 
+    /**
+     * Returns a page of the content items of a snapshot. Pages may be
+     * requested either by number, ordered by content id, or, preferably, by
+     * continuation token, in the order the items were added to the snapshot.
+     * An empty token requests the first page; the token for each following
+     * page is returned in the CONTINUATION_TOKEN_HEADER of the previous page,
+     * which is only included when the page is full. Requests by token seek
+     * directly to the first item after the previous page rather than skipping
+     * over all preceding items.
+     *
+     * @param snapshotId
+     * @param page       page number, ignored when a token is provided
+     * @param pageSize
+     * @param prefix     optional content id prefix
+     * @param token      optional continuation token
+     * @return
+     */
     @Path("{snapshotId}/content")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     public Response getContent(@PathParam("snapshotId") String snapshotId,
                                @QueryParam(value = "page") Integer page,
                                @QueryParam(value = "pageSize") Integer pageSize,
-                               @QueryParam(value = "prefix") String prefix) {
+                               @QueryParam(value = "prefix") String prefix,
+                               @QueryParam(value = "token") String token) {
         try {
             if (page == null) {
                 page = 0;
@@ -778,19 +762,42 @@ public class SnapshotResource {
                 pageSize = 1000;
             }
 
-            PageRequest pageable = PageRequest.of(page, pageSize);
-
+            boolean hasPrefix = null != prefix && !prefix.equals("");
             List<SnapshotContentItem> items;
-            if (null == prefix || prefix.equals("")) {
-                items = this.snapshotContentItemRepo
-                    .findBySnapshotNameOrderByContentIdAsc(snapshotId,
-                                                           pageable);
+            if (null != token) {
+                long lastId;
+                try {
+                    lastId = decodeContinuationToken(token);
+                } catch (IllegalArgumentException ex) {
+                    return Response.status(HttpStatus.SC_BAD_REQUEST)
+                                   .entity(new ResponseDetails("Invalid continuation token: " + token))
+                                   .build();
+                }
 
+                PageRequest pageable = PageRequest.of(0, pageSize);
+                if (!hasPrefix) {
+                    items = this.snapshotContentItemRepo
+                        .findBySnapshotNameAndIdGreaterThanOrderByIdAsc(snapshotId, lastId, pageable);
+                } else {
+                    items = this.snapshotContentItemRepo
+                        .findBySnapshotNameAndContentIdStartingWithAndIdGreaterThanOrderByIdAsc(snapshotId,
+                                                                                                 prefix,
+                                                                                                 lastId,
+                                                                                                 pageable);
+                }
             } else {
-                items = this.snapshotContentItemRepo
-                    .findBySnapshotNameAndContentIdStartingWithOrderByContentIdAsc(snapshotId,
-                                                                                   prefix,
-                                                                                   pageable);
+                PageRequest pageable = PageRequest.of(page, pageSize);
+                if (!hasPrefix) {
+                    items = this.snapshotContentItemRepo
+                        .findBySnapshotNameOrderByContentIdAsc(snapshotId,
+                                                               pageable);
+
+                } else {
+                    items = this.snapshotContentItemRepo
+                        .findBySnapshotNameAndContentIdStartingWithOrderByContentIdAsc(snapshotId,
+                                                                                       prefix,
+                                                                                       pageable);
+                }
             }
 
             List<org.duracloud.snapshot.dto.SnapshotContentItem> snapshotItems =
@@ -810,12 +817,15 @@ public class SnapshotResource {
             GetSnapshotContentBridgeResult result =
                 new GetSnapshotContentBridgeResult();
             result.setContentItems(snapshotItems);
-            result.setTotalCount(snapshotContentItemRepo.countBySnapshotName(snapshotId));
+            result.setTotalCount(getContentItemCount(snapshotId));
 
             log.debug("returning results: {}", result);
-            return Response.ok(null)
-                           .entity(result)
-                           .build();
+            Response.ResponseBuilder response = Response.ok(null).entity(result);
+            if (null != token && items.size() == pageSize) {
+                response.header(CONTINUATION_TOKEN_HEADER,
+                                encodeContinuationToken(items.get(items.size() - 1).getId()));
+            }
+            return response.build();
         } catch (Exception ex) {
             log.error(ex.getMessage(), ex);
             return Response.serverError()
@@ -824,6 +834,37 @@ public class SnapshotResource {
         }
     }
 
+    /*
+     * Returns the number of content items in the snapshot, using the count
+     * recorded on the snapshot when it is available.
+     */
+    private long getContentItemCount(String snapshotId) {
+        Snapshot snapshot = this.snapshotRepo.findByName(snapshotId);
+        if (null != snapshot && null != snapshot.getContentItemCount()) {
+            return snapshot.getContentItemCount();
+        }
+        return snapshotContentItemRepo.countBySnapshotName(snapshotId);
+    }
+
+    protected static String encodeContinuationToken(Long lastId) {
+        return Base64.getUrlEncoder()
+                     .withoutPadding()
+                     .encodeToString(String.valueOf(lastId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param token
+     * @return the id of the last content item of the previous page, or 0 for
+     * an empty token
+     * @throws IllegalArgumentException if the token is not valid
+     */
+    protected static long decodeContinuationToken(String token) {
+        if (token.isEmpty()) {
+            return 0;
+        }
+        return Long.parseLong(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+    }
+
     @Path("{snapshotId}/history")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
@@ -0,0 +1,61 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.bridge.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import javax.ws.rs.core.Response;
+
+import org.duracloud.snapshot.common.test.SnapshotTestBase;
+import org.duracloud.snapshot.service.BandwidthManager;
+import org.duracloud.snapshot.service.BandwidthSchedule;
+import org.easymock.EasyMock;
+import org.easymock.Mock;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class BandwidthResourceTest extends SnapshotTestBase {
+
+    @Mock
+    private BandwidthManager manager;
+
+    private BandwidthResource resource;
+
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        resource = new BandwidthResource(manager);
+    }
+
+    @Test
+    public void testSetSchedule() {
+        BandwidthSchedule schedule = new BandwidthSchedule(1000L, null, null);
+        manager.setSchedule(schedule);
+        EasyMock.expectLastCall();
+        EasyMock.expect(manager.getSchedule()).andReturn(schedule);
+        replayAll();
+
+        Response response = resource.setSchedule(schedule);
+        assertEquals(200, response.getStatus());
+        assertSame(schedule, response.getEntity());
+    }
+
+    @Test
+    public void testSetInvalidSchedule() {
+        BandwidthSchedule schedule = new BandwidthSchedule(-1L, null, null);
+        manager.setSchedule(schedule);
+        EasyMock.expectLastCall().andThrow(new IllegalArgumentException("negative"));
+        replayAll();
+
+        Response response = resource.setSchedule(schedule);
+        assertEquals(400, response.getStatus());
+    }
+}
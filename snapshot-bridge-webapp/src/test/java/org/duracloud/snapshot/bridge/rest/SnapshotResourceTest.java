@@ -14,6 +14,7 @@ import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.isA;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -124,6 +125,7 @@ public class SnapshotResourceTest extends SnapshotTestBase {
 
         expect(snapshotRepo.findByName("snapshotId"))
             .andReturn(snapshot);
+        expect(snapshot.getContentItemCount()).andReturn(null);
         expect(snapshotContentItemRepo
                    .countBySnapshotName("snapshotId"))
             .andReturn(300l);
@@ -585,29 +587,35 @@ public class SnapshotResourceTest extends SnapshotTestBase {
 
     @Test
     public void testCountSnapshotsFilesNoParams() {
-        expect(snapshotRepo.findAll())
-            .andReturn(new ArrayList<Snapshot>());
+        expect(snapshotRepo.sumContentItemCount(null, null, null))
+            .andReturn(3L);
+        expect(snapshotContentItemRepo.countBySnapshotsWithoutContentItemCount(null, null, null))
+            .andReturn(2L);
         replayAll();
-        resource.getSnapshotsFiles(null, null, null);
+        assertEquals(5L, resource.getSnapshotsFiles(null, null, null));
     }
 
     @Test
     public void testCountSnapshotsFilesHost() {
         String host = "host";
-        expect(snapshotRepo.findBySourceHost(host))
-            .andReturn(new ArrayList<Snapshot>());
+        expect(snapshotRepo.sumContentItemCount(host, null, null))
+            .andReturn(3L);
+        expect(snapshotContentItemRepo.countBySnapshotsWithoutContentItemCount(host, null, null))
+            .andReturn(2L);
         replayAll();
-        resource.getSnapshotsFiles(host, null, null);
+        assertEquals(5L, resource.getSnapshotsFiles(host, null, null));
     }
 
     @Test
     public void testCountSnapshotsFilesHostStoreId() {
         String host = "host";
         String storeId = "store-id";
-        expect(snapshotRepo.findBySourceHostAndSourceStoreId(host, storeId))
-            .andReturn(new ArrayList<Snapshot>());
+        expect(snapshotRepo.sumContentItemCount(host, storeId, null))
+            .andReturn(3L);
+        expect(snapshotContentItemRepo.countBySnapshotsWithoutContentItemCount(host, storeId, null))
+            .andReturn(2L);
         replayAll();
-        resource.getSnapshotsFiles(host, storeId, null);
+        assertEquals(5L, resource.getSnapshotsFiles(host, storeId, null));
     }
 
     @Test
@@ -615,49 +623,68 @@ public class SnapshotResourceTest extends SnapshotTestBase {
         String host = "host";
         String storeId = "store-id";
         SnapshotStatus status = SnapshotStatus.SNAPSHOT_COMPLETE;
-        expect(snapshotRepo
-                   .findBySourceHostAndSourceStoreIdAndStatus(host, storeId, status))
-            .andReturn(new ArrayList<Snapshot>());
+        expect(snapshotRepo.sumContentItemCount(host, storeId, status))
+            .andReturn(3L);
+        expect(snapshotContentItemRepo.countBySnapshotsWithoutContentItemCount(host, storeId, status))
+            .andReturn(2L);
         replayAll();
-        resource.getSnapshotsFiles(host, storeId, status);
+        assertEquals(5L, resource.getSnapshotsFiles(host, storeId, status));
     }
 
     @Test
     public void testCountSnapshotsFilesStoreId() {
         String storeId = "store-id";
-        expect(snapshotRepo.findBySourceStoreId(storeId))
-            .andReturn(new ArrayList<Snapshot>());
+        expect(snapshotRepo.sumContentItemCount(null, storeId, null))
+            .andReturn(3L);
+        expect(snapshotContentItemRepo.countBySnapshotsWithoutContentItemCount(null, storeId, null))
+            .andReturn(2L);
         replayAll();
-        resource.getSnapshotsFiles(null, storeId, null);
+        assertEquals(5L, resource.getSnapshotsFiles(null, storeId, null));
     }
 
     @Test
     public void testCountSnapshotsFilesStatus() {
         SnapshotStatus status = SnapshotStatus.SNAPSHOT_COMPLETE;
-        expect(snapshotRepo.findByStatusOrderBySnapshotDateAsc(status))
-            .andReturn(new ArrayList<Snapshot>());
+        expect(snapshotRepo.sumContentItemCount(null, null, status))
+            .andReturn(3L);
+        expect(snapshotContentItemRepo.countBySnapshotsWithoutContentItemCount(null, null, status))
+            .andReturn(2L);
         replayAll();
-        resource.getSnapshotsFiles(null, null, status);
+        assertEquals(5L, resource.getSnapshotsFiles(null, null, status));
     }
 
     @Test
     public void testCountSnapshotsFilesHostStatus() {
         String host = "host";
         SnapshotStatus status = SnapshotStatus.SNAPSHOT_COMPLETE;
-        expect(snapshotRepo.findBySourceHostAndStatus(host, status))
-            .andReturn(new ArrayList<Snapshot>());
+        expect(snapshotRepo.sumContentItemCount(host, null, status))
+            .andReturn(3L);
+        expect(snapshotContentItemRepo.countBySnapshotsWithoutContentItemCount(host, null, status))
+            .andReturn(2L);
         replayAll();
-        resource.getSnapshotsFiles(host, null, status);
+        assertEquals(5L, resource.getSnapshotsFiles(host, null, status));
     }
 
     @Test
     public void testCountSnapshotsFilesStoreIdStatus() {
         String storeId = "store-id";
         SnapshotStatus status = SnapshotStatus.SNAPSHOT_COMPLETE;
-        expect(snapshotRepo.findBySourceStoreIdAndStatus(storeId, status))
-            .andReturn(new ArrayList<Snapshot>());
+        expect(snapshotRepo.sumContentItemCount(null, storeId, status))
+            .andReturn(3L);
+        expect(snapshotContentItemRepo.countBySnapshotsWithoutContentItemCount(null, storeId, status))
+            .andReturn(2L);
+        replayAll();
+        assertEquals(5L, resource.getSnapshotsFiles(null, storeId, status));
+    }
+
+    @Test
+    public void testSnapshotsSize() {
+        String host = "host";
+        SnapshotStatus status = SnapshotStatus.SNAPSHOT_COMPLETE;
+        expect(snapshotRepo.sumTotalSizeInBytes(host, null, status))
+            .andReturn(1000L);
         replayAll();
-        resource.getSnapshotsFiles(null, storeId, status);
+        assertEquals(1000L, resource.getSnapshotsSize(host, null, status));
     }
 
     @Test
@@ -684,6 +711,7 @@ public class SnapshotResourceTest extends SnapshotTestBase {
                                                                                   capture(pageRequestCapture)))
             .andReturn(contentIds);
 
+        expect(snapshotRepo.findByName(snapshotId)).andReturn(null);
         expect(snapshotContentItemRepo
                    .countBySnapshotName(eq(snapshotId)))
             .andReturn(count);
@@ -691,7 +719,7 @@ public class SnapshotResourceTest extends SnapshotTestBase {
         replayAll();
 
         Response response =
-            resource.getContent(snapshotId, page, pageSize, prefix);
+            resource.getContent(snapshotId, page, pageSize, prefix, null);
         GetSnapshotContentBridgeResult result =
             (GetSnapshotContentBridgeResult) response.getEntity();
 
@@ -708,6 +736,77 @@ public class SnapshotResourceTest extends SnapshotTestBase {
 
     }
 
+    @Test
+    public void testGetSnapshotContentWithToken() {
+        String snapshotId = "snapshot-id";
+        Long lastId = 40L;
+        int pageSize = 2;
+
+        SnapshotContentItem item1 = new SnapshotContentItem();
+        item1.setId(41L);
+        item1.setContentId("dir/next-item-1");
+        SnapshotContentItem item2 = new SnapshotContentItem();
+        item2.setId(45L);
+        item2.setContentId("dir/next-item-2");
+
+        Capture<PageRequest> pageRequestCapture = Capture.newInstance(CaptureType.FIRST);
+        expect(snapshotContentItemRepo
+                   .findBySnapshotNameAndIdGreaterThanOrderByIdAsc(eq(snapshotId),
+                                                                   eq(lastId),
+                                                                   capture(pageRequestCapture)))
+            .andReturn(Arrays.asList(item1, item2));
+
+        // the count recorded on the snapshot is used rather than counting items
+        expect(snapshotRepo.findByName(snapshotId)).andReturn(snapshot);
+        expect(snapshot.getContentItemCount()).andReturn(10L).atLeastOnce();
+
+        replayAll();
+
+        String token = SnapshotResource.encodeContinuationToken(lastId);
+        Response response = resource.getContent(snapshotId, 7, pageSize, null, token);
+        GetSnapshotContentBridgeResult result =
+            (GetSnapshotContentBridgeResult) response.getEntity();
+
+        assertEquals(0, pageRequestCapture.getValue().getPageNumber());
+        assertEquals(2, result.getContentItems().size());
+        assertEquals(Long.valueOf(10), result.getTotalCount());
+        String nextToken = (String) response.getMetadata().getFirst(SnapshotResource.CONTINUATION_TOKEN_HEADER);
+        assertEquals(45L, SnapshotResource.decodeContinuationToken(nextToken));
+    }
+
+    @Test
+    public void testGetSnapshotContentWithEmptyToken() {
+        String snapshotId = "snapshot-id";
+        String prefix = "dir/";
+
+        SnapshotContentItem item = new SnapshotContentItem();
+        item.setId(3L);
+        item.setContentId("dir/item");
+        expect(snapshotContentItemRepo
+                   .findBySnapshotNameAndContentIdStartingWithAndIdGreaterThanOrderByIdAsc(eq(snapshotId),
+                                                                                           eq(prefix),
+                                                                                           eq(0L),
+                                                                                           isA(PageRequest.class)))
+            .andReturn(Arrays.asList(item));
+        expect(snapshotRepo.findByName(snapshotId)).andReturn(null);
+        expect(snapshotContentItemRepo.countBySnapshotName(snapshotId)).andReturn(1L);
+        replayAll();
+
+        // an empty token starts from the first item; a partial page has no next token
+        Response response = resource.getContent(snapshotId, null, 2, prefix, "");
+        GetSnapshotContentBridgeResult result =
+            (GetSnapshotContentBridgeResult) response.getEntity();
+        assertEquals(1, result.getContentItems().size());
+        assertNull(response.getMetadata().getFirst(SnapshotResource.CONTINUATION_TOKEN_HEADER));
+    }
+
+    @Test
+    public void testGetSnapshotContentInvalidToken() {
+        replayAll();
+        Response response = resource.getContent("snapshot-id", null, null, null, "not*a*token");
+        assertEquals(HttpStatus.SC_BAD_REQUEST, response.getStatus());
+    }
+
     @Test
     public void testGetSnapshotContentNoPrefix() {
         String snapshotId = "snapshot-id";
@@ -730,6 +829,7 @@ public class SnapshotResourceTest extends SnapshotTestBase {
                                                           capture(pageRequestCapture)))
             .andReturn(contentIds);
 
+        expect(snapshotRepo.findByName(snapshotId)).andReturn(null);
         expect(snapshotContentItemRepo
                    .countBySnapshotName(eq(snapshotId)))
             .andReturn(count);
@@ -737,7 +837,7 @@ public class SnapshotResourceTest extends SnapshotTestBase {
         replayAll();
 
         Response response =
-            resource.getContent(snapshotId, page, pageSize, null);
+            resource.getContent(snapshotId, page, pageSize, null, null);
         GetSnapshotContentBridgeResult result =
             (GetSnapshotContentBridgeResult) response.getEntity();
 
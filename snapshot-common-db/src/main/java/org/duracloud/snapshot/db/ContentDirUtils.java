@@ -30,4 +30,14 @@ public class ContentDirUtils {
                + File.separator + "restorations" + File.separator
                + restorationId;
     }
+
+    /**
+     * @return the directory into which an earlier snapshot holding content
+     * referenced by the restored snapshot is restored
+     */
+    public static String getReferencedSourcePath(String restorationId, String snapshotId, File rootDir) {
+        return getSourcePath(restorationId, rootDir)
+               + File.separator + "referenced" + File.separator
+               + snapshotId;
+    }
 }
@@ -0,0 +1,157 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.db.model;
+
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * A snapshot or restore job waiting for, or holding, one of the job slots of
+ * the bridge. Entries are removed once their job ends.
+ *
+ * @author Daniel Bernstein
+ */
+@Entity
+@Table(name = "job_queue_entry",
+       uniqueConstraints = @UniqueConstraint(columnNames = {"job_type", "job_key"}))
+public class JobQueueEntry extends BaseEntity {
+
+    public enum JobType {
+        SNAPSHOT,
+        RESTORE
+    }
+
+    public enum State {
+        QUEUED,
+        DISPATCHED
+    }
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "job_type", nullable = false, length = 32)
+    private JobType jobType;
+
+    @Column(name = "job_key", nullable = false)
+    private String jobKey;
+
+    @Column(nullable = false)
+    private String owner;
+
+    private int priority;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 32)
+    private State state = State.QUEUED;
+
+    @Column(nullable = false)
+    private Date enqueuedDate = new Date();
+
+    private Date dispatchedDate;
+
+    /**
+     * @return the type of the job
+     */
+    public JobType getJobType() {
+        return jobType;
+    }
+
+    /**
+     * @param jobType the type of the job
+     */
+    public void setJobType(JobType jobType) {
+        this.jobType = jobType;
+    }
+
+    /**
+     * @return the snapshot name or restoration id of the job
+     */
+    public String getJobKey() {
+        return jobKey;
+    }
+
+    /**
+     * @param jobKey the snapshot name or restoration id of the job
+     */
+    public void setJobKey(String jobKey) {
+        this.jobKey = jobKey;
+    }
+
+    /**
+     * @return the member, or failing that the DuraCloud host, the job runs for
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * @param owner the member, or failing that the DuraCloud host, the job runs for
+     */
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * @return the priority of the job; higher priorities are dispatched first
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @param priority the priority of the job
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return the state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @param state the state to set
+     */
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * @return the enqueuedDate
+     */
+    public Date getEnqueuedDate() {
+        return enqueuedDate;
+    }
+
+    /**
+     * @param enqueuedDate the enqueuedDate to set
+     */
+    public void setEnqueuedDate(Date enqueuedDate) {
+        this.enqueuedDate = enqueuedDate;
+    }
+
+    /**
+     * @return the dispatchedDate
+     */
+    public Date getDispatchedDate() {
+        return dispatchedDate;
+    }
+
+    /**
+     * @param dispatchedDate the dispatchedDate to set
+     */
+    public void setDispatchedDate(Date dispatchedDate) {
+        this.dispatchedDate = dispatchedDate;
+    }
+}
@@ -52,8 +52,12 @@ public class Snapshot extends BaseEntity implements Comparator<Snapshot> {
     private String statusText;
     private String userEmail;
     private Long totalSizeInBytes = 0l;
+    @Column(name = "content_item_count", nullable = true)
+    private Long contentItemCount = null;
     @Column(name = "member_id", nullable = true, length = 128)
     private String memberId = null;
+    @Column(name = "parent_snapshot_id", nullable = true)
+    private Long parentSnapshotId = null;
     @ElementCollection(fetch = FetchType.EAGER)
     @CollectionTable(
         name = "snapshot_alternate_ids",
@@ -242,7 +246,9 @@ public class Snapshot extends BaseEntity implements Comparator<Snapshot> {
     }
 
     /**
-     * @return the totalSizeInBytes
+     * @return the size of the content held by the snapshot; for an incremental
+     * snapshot this leaves out the content it references from earlier
+     * snapshots, which the content item count does include
      */
     public Long getTotalSizeInBytes() {
         return totalSizeInBytes;
@@ -255,6 +261,21 @@ public class Snapshot extends BaseEntity implements Comparator<Snapshot> {
         this.totalSizeInBytes = totalSizeInBytes;
     }
 
+    /**
+     * @return the number of content items in the snapshot, or null if the
+     * snapshot has not yet finished transferring from DuraCloud
+     */
+    public Long getContentItemCount() {
+        return contentItemCount;
+    }
+
+    /**
+     * @param contentItemCount the contentItemCount to set
+     */
+    public void setContentItemCount(Long contentItemCount) {
+        this.contentItemCount = contentItemCount;
+    }
+
     /**
      * @return the preservation network member id
      */
@@ -269,6 +290,22 @@ public class Snapshot extends BaseEntity implements Comparator<Snapshot> {
         this.memberId = memberId;
     }
 
+    /**
+     * @return the id of the earlier snapshot of the same space which this
+     * snapshot is incremental to, or null if this snapshot holds all of its
+     * content
+     */
+    public Long getParentSnapshotId() {
+        return parentSnapshotId;
+    }
+
+    /**
+     * @param parentSnapshotId the parentSnapshotId to set
+     */
+    public void setParentSnapshotId(Long parentSnapshotId) {
+        this.parentSnapshotId = parentSnapshotId;
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
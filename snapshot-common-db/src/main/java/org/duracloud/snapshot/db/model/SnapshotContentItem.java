@@ -39,6 +39,9 @@ public class SnapshotContentItem extends BaseEntity implements Comparator<Snapsh
     @Column(length = 1024)
     private String metadata;
 
+    @Column(name = "referenced_snapshot_id", nullable = true)
+    private Long referencedSnapshotId;
+
     /**
      * @return the contentId
      */
@@ -81,6 +84,22 @@ public class SnapshotContentItem extends BaseEntity implements Comparator<Snapsh
         this.metadata = metadata;
     }
 
+    /**
+     * @return the id of the earlier snapshot holding the content of this
+     * item, for items an incremental snapshot found unchanged, or null if
+     * the content is held by this item's snapshot
+     */
+    public Long getReferencedSnapshotId() {
+        return referencedSnapshotId;
+    }
+
+    /**
+     * @param referencedSnapshotId the referencedSnapshotId to set
+     */
+    public void setReferencedSnapshotId(Long referencedSnapshotId) {
+        this.referencedSnapshotId = referencedSnapshotId;
+    }
+
     /* (non-Javadoc)
      * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
      */
@@ -0,0 +1,41 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.db.repo;
+
+import java.util.List;
+
+import org.duracloud.snapshot.db.model.JobQueueEntry;
+import org.duracloud.snapshot.db.model.JobQueueEntry.JobType;
+import org.duracloud.snapshot.db.model.JobQueueEntry.State;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * @author Daniel Bernstein
+ */
+@Repository(value = "jobQueueRepo")
+public interface JobQueueRepo extends JpaRepository<JobQueueEntry, Long> {
+
+    /**
+     * @param jobType
+     * @param jobKey  the snapshot name or restoration id
+     * @return the entry of the job, or null if the job is not queued
+     */
+    public JobQueueEntry findByJobTypeAndJobKey(JobType jobType, String jobKey);
+
+    /**
+     * @param state
+     * @return the entries in the given state, oldest first
+     */
+    public List<JobQueueEntry> findByStateOrderByEnqueuedDateAsc(State state);
+
+    /**
+     * @return all entries, oldest first
+     */
+    public List<JobQueueEntry> findAllByOrderByEnqueuedDateAsc();
+}
@@ -11,9 +11,11 @@ import java.util.List;
 
 import org.duracloud.snapshot.db.model.Snapshot;
 import org.duracloud.snapshot.db.model.SnapshotContentItem;
+import org.duracloud.snapshot.dto.SnapshotStatus;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
@@ -22,7 +24,8 @@ import org.springframework.stereotype.Repository;
  * Date: Jul 31, 2014
  */
 @Repository(value = "snapshotContentItemRepo")
-public interface SnapshotContentItemRepo extends JpaRepository<SnapshotContentItem, Long> {
+public interface SnapshotContentItemRepo extends JpaRepository<SnapshotContentItem, Long>,
+                                                 SnapshotContentItemRepoCustom {
 
     public List<SnapshotContentItem> findBySnapshotNameOrderByContentIdAsc(
         @Param("snapshotName") String snapshotName,
@@ -33,10 +36,83 @@ public interface SnapshotContentItemRepo extends JpaRepository<SnapshotContentIt
         @Param("contentId") String contentId,
         Pageable pageable);
 
+    /**
+     * Returns the content items added after the item with the given id, in
+     * the order they were added, allowing a snapshot to be paged through by
+     * seeking on the primary key rather than skipping over preceding items.
+     *
+     * @param snapshotName
+     * @param id       the id of the last content item of the previous page
+     * @param pageable only the page size is used; the page number should be 0
+     * @return
+     */
+    public List<SnapshotContentItem> findBySnapshotNameAndIdGreaterThanOrderByIdAsc(
+        @Param("snapshotName") String snapshotName,
+        @Param("id") Long id,
+        Pageable pageable);
+
+    /**
+     * As findBySnapshotNameAndIdGreaterThanOrderByIdAsc, limited to content
+     * ids starting with the prefix.
+     *
+     * @param snapshotName
+     * @param prefix
+     * @param id       the id of the last content item of the previous page
+     * @param pageable only the page size is used; the page number should be 0
+     * @return
+     */
+    public List<SnapshotContentItem> findBySnapshotNameAndContentIdStartingWithAndIdGreaterThanOrderByIdAsc(
+        @Param("snapshotName") String snapshotName,
+        @Param("prefix") String prefix,
+        @Param("id") Long id,
+        Pageable pageable);
+
+    /**
+     * Returns the content items of an incremental snapshot which reference
+     * content held by an earlier snapshot, added after the item with the
+     * given id, in the order they were added.
+     *
+     * @param snapshotName
+     * @param id       the id of the last content item of the previous page
+     * @param pageable only the page size is used; the page number should be 0
+     * @return
+     */
+    public List<SnapshotContentItem> findBySnapshotNameAndReferencedSnapshotIdIsNotNullAndIdGreaterThanOrderByIdAsc(
+        @Param("snapshotName") String snapshotName,
+        @Param("id") Long id,
+        Pageable pageable);
+
+    /**
+     * @param snapshotName
+     * @return the ids of the earlier snapshots holding content referenced by
+     * the snapshot, empty unless the snapshot is incremental
+     */
+    @Query("select distinct i.referencedSnapshotId from SnapshotContentItem i " +
+           "where i.snapshot.name = :snapshotName and i.referencedSnapshotId is not null")
+    public List<Long> findReferencedSnapshotIds(@Param("snapshotName") String snapshotName);
+
     public long countBySnapshotName(@Param("snapshotName") String snapshotName);
 
     public long countBySnapshotId(@Param("snapshotId") Long snapshotId);
 
+    /**
+     * Counts, in a single query, the content items of the matching snapshots
+     * which do not have a recorded content item count.
+     *
+     * @param host    where snapshot originated, or null for any host
+     * @param storeId storage provider ID, or null for any store
+     * @param status  current snapshot status, or null for any status
+     * @return the number of content items
+     */
+    @Query("select count(i) from SnapshotContentItem i join i.snapshot s where " +
+           "s.contentItemCount is null and " +
+           "(:host is null or s.source.host = :host) and " +
+           "(:storeId is null or s.source.storeId = :storeId) and " +
+           "(:status is null or s.status = :status)")
+    public long countBySnapshotsWithoutContentItemCount(@Param("host") String host,
+                                                        @Param("storeId") String storeId,
+                                                        @Param("status") SnapshotStatus status);
+
     /**
      * @param snapshotName
      * @param pageable
@@ -0,0 +1,32 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.db.repo;
+
+import java.util.Collection;
+
+import org.duracloud.snapshot.db.model.SnapshotContentItem;
+
+/**
+ * Repository operations on snapshot content items which cannot be expressed
+ * as Spring Data derived queries.
+ *
+ * @author Daniel Bernstein
+ */
+public interface SnapshotContentItemRepoCustom {
+
+    /**
+     * Inserts the items using multi-row insert statements. Items which collide
+     * with an existing row on the (snapshot_id, content_id_hash) unique key are
+     * silently skipped by the database, so no lookup is needed before calling
+     * this method.
+     *
+     * @param items fully populated (snapshot, content id, content id hash and
+     *              metadata) items to insert
+     */
+    public void insertIgnoreDuplicates(Collection<SnapshotContentItem> items);
+}
@@ -0,0 +1,116 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.db.repo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+
+import org.duracloud.snapshot.db.model.SnapshotContentItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Native SQL implementation of the {@link SnapshotContentItemRepoCustom}
+ * operations. Spring Data picks this class up by naming convention and mixes
+ * it into the {@link SnapshotContentItemRepo} proxy.
+ *
+ * @author Daniel Bernstein
+ */
+public class SnapshotContentItemRepoCustomImpl implements SnapshotContentItemRepoCustom {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotContentItemRepoCustomImpl.class);
+
+    /**
+     * Upper bound on the number of rows sent in a single insert statement. Keeps
+     * statements well below the server's max_allowed_packet even when every
+     * row carries a large metadata value.
+     */
+    protected static final int MAX_ROWS_PER_STATEMENT = 500;
+
+    private static final String INSERT_PREFIX =
+        "insert into snapshot_content_item " +
+        "(content_id, content_id_hash, metadata, snapshot_id, referenced_snapshot_id, modified) values ";
+
+    // "update id = id" is a no-op which, unlike "insert ignore", only
+    // suppresses unique key collisions and still reports all other errors.
+    private static final String INSERT_SUFFIX = " on duplicate key update id = id";
+
+    private static final int COLUMNS = 6;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * For testing purposes only
+     * @param entityManager the entityManager to set
+     */
+    protected void setEntityManager(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    @Transactional
+    public void insertIgnoreDuplicates(Collection<SnapshotContentItem> items) {
+        List<SnapshotContentItem> batch = new ArrayList<>(Math.min(items.size(), MAX_ROWS_PER_STATEMENT));
+        for (SnapshotContentItem item : items) {
+            batch.add(item);
+            if (batch.size() == MAX_ROWS_PER_STATEMENT) {
+                insert(batch);
+                batch.clear();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            insert(batch);
+        }
+    }
+
+    private void insert(List<SnapshotContentItem> batch) {
+        Query query = entityManager.createNativeQuery(buildInsertStatement(batch.size()));
+        Date now = new Date();
+        int position = 1;
+        for (SnapshotContentItem item : batch) {
+            query.setParameter(position++, item.getContentId());
+            query.setParameter(position++, item.getContentIdHash());
+            query.setParameter(position++, item.getMetadata());
+            query.setParameter(position++, item.getSnapshot().getId());
+            query.setParameter(position++, item.getReferencedSnapshotId());
+            query.setParameter(position++, now);
+        }
+
+        int rows = query.executeUpdate();
+        log.debug("inserted batch of {} snapshot content items: rows affected = {}", batch.size(), rows);
+    }
+
+    protected static String buildInsertStatement(int rows) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rows * 30 + INSERT_SUFFIX.length());
+        sql.append(INSERT_PREFIX);
+        int position = 1;
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) {
+                sql.append(", ");
+            }
+            sql.append("(");
+            for (int column = 0; column < COLUMNS; column++) {
+                if (column > 0) {
+                    sql.append(", ");
+                }
+                sql.append("?").append(position++);
+            }
+            sql.append(")");
+        }
+        sql.append(INSERT_SUFFIX);
+        return sql.toString();
+    }
+}
@@ -12,6 +12,8 @@ import java.util.List;
 import org.duracloud.snapshot.db.model.Snapshot;
 import org.duracloud.snapshot.dto.SnapshotStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -82,6 +84,20 @@ public interface SnapshotRepo extends JpaRepository<Snapshot, Long> {
      */
     public Snapshot findByName(String snapshotId);
 
+    /**
+     * @param host    where snapshot originated
+     * @param storeId storage provider ID
+     * @param spaceId space from which the snapshot was taken
+     * @param status  current snapshot status
+     * @return the most recent snapshot of the space with the given status, or
+     * null if there is none
+     */
+    public Snapshot findFirstBySourceHostAndSourceStoreIdAndSourceSpaceIdAndStatusOrderBySnapshotDateDesc(
+        String host,
+        String storeId,
+        String spaceId,
+        SnapshotStatus status);
+
     /**
      * @param alternateId alternate snapshot ID (i.e. bag ID)
      * @return snapshot with the given alternate ID
@@ -143,6 +159,38 @@ public interface SnapshotRepo extends JpaRepository<Snapshot, Long> {
                                                                     String storeId,
                                                                     SnapshotStatus status);
 
+    /**
+     * @param host    where snapshot originated, or null for any host
+     * @param storeId storage provider ID, or null for any store
+     * @param status  current snapshot status, or null for any status
+     * @return total size in bytes of the matching snapshots
+     */
+    @Query("select coalesce(sum(s.totalSizeInBytes), 0) from Snapshot s where " +
+           "(:host is null or s.source.host = :host) and " +
+           "(:storeId is null or s.source.storeId = :storeId) and " +
+           "(:status is null or s.status = :status)")
+    public long sumTotalSizeInBytes(@Param("host") String host,
+                                    @Param("storeId") String storeId,
+                                    @Param("status") SnapshotStatus status);
+
+    /**
+     * Content items of snapshots which have no recorded item count are not
+     * included; see SnapshotContentItemRepo.countBySnapshotsWithoutContentItemCount
+     *
+     * @param host    where snapshot originated, or null for any host
+     * @param storeId storage provider ID, or null for any store
+     * @param status  current snapshot status, or null for any status
+     * @return sum of the recorded content item counts of the matching snapshots
+     */
+    @Query("select coalesce(sum(s.contentItemCount), 0) from Snapshot s where " +
+           "s.contentItemCount is not null and " +
+           "(:host is null or s.source.host = :host) and " +
+           "(:storeId is null or s.source.storeId = :storeId) and " +
+           "(:status is null or s.status = :status)")
+    public long sumContentItemCount(@Param("host") String host,
+                                    @Param("storeId") String storeId,
+                                    @Param("status") SnapshotStatus status);
+
     /**
      * @param snapshotId ID of snapshot
      */
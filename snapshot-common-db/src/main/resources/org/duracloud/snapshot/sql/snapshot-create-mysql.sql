@@ -32,6 +32,8 @@ CREATE TABLE IF NOT EXISTS `snapshot` (
   `user_email` varchar(255) NOT NULL,
   `member_id` varchar(128) DEFAULT NULL,
   `total_size_in_bytes` bigint(20) DEFAULT '0',
+  `content_item_count` bigint(20) DEFAULT NULL,
+  `parent_snapshot_id` bigint(20) DEFAULT NULL,
   PRIMARY KEY (`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_bin;
 /*!40101 SET character_set_client = @saved_cs_client */;
@@ -71,8 +73,10 @@ CREATE TABLE IF NOT EXISTS `snapshot_content_item` (
   `content_id_hash` varchar(50) COLLATE utf8_bin NOT NULL,
   `metadata` longtext COLLATE utf8_bin,
   `snapshot_id` bigint(20) NOT NULL,
+  `referenced_snapshot_id` bigint(20) DEFAULT NULL,
   PRIMARY KEY (`id`),
   UNIQUE KEY `UK_30tots9ry24rjg42xn08egdrl` (`snapshot_id`,`content_id_hash`),
+  KEY `sci_snapshot_id_id` (`snapshot_id`,`id`),
   CONSTRAINT `FK_bif6fhum5u975ks9uo9xufbjh` FOREIGN KEY (`snapshot_id`) REFERENCES `snapshot` (`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_bin;
 /*!40101 SET character_set_client = @saved_cs_client */;
@@ -101,6 +105,23 @@ CREATE TABLE IF NOT EXISTS `snapshot_history` (
   CONSTRAINT `FK_ff91lsj23rrrs3nuovf3hofwl` FOREIGN KEY (`snapshot_id`) REFERENCES `snapshot` (`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_bin;
 
+--
+-- Table structure for table `job_queue_entry`
+--
+CREATE TABLE IF NOT EXISTS `job_queue_entry` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `modified` datetime NOT NULL,
+  `job_type` varchar(32) NOT NULL,
+  `job_key` varchar(255) NOT NULL,
+  `owner` varchar(255) NOT NULL,
+  `priority` int(11) NOT NULL DEFAULT '0',
+  `state` varchar(32) NOT NULL,
+  `enqueued_date` datetime NOT NULL,
+  `dispatched_date` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `UK_JOB_QUEUE_JOB` (`job_type`,`job_key`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_bin;
+
 SET FOREIGN_KEY_CHECKS=1;
 /*!40101 SET character_set_client = @saved_cs_client */;
 /*!40103 SET TIME_ZONE=@OLD_TIME_ZONE */;
@@ -5,5 +5,6 @@ DROP TABLE IF EXISTS `restoration`;
 DROP TABLE IF EXISTS `snapshot_content_item`;
 DROP TABLE IF EXISTS `snapshot_alternate_ids`;
 DROP TABLE IF EXISTS `snapshot_history`;
+DROP TABLE IF EXISTS `job_queue_entry`;
 
 SET FOREIGN_KEY_CHECKS=1;
@@ -0,0 +1,20 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot;
+
+/**
+ * Indicates that a snapshot or restore needs more disk space than the bridge
+ * could ever make available to it.
+ *
+ * @author Daniel Bernstein
+ */
+public class InsufficientDiskCapacityException extends SnapshotException {
+    public InsufficientDiskCapacityException(final String message) {
+        super(message, null);
+    }
+}
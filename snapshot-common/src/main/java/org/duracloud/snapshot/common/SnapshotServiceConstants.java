@@ -22,6 +22,8 @@ public class SnapshotServiceConstants {
         "manifest-sha256.txt";
     public static final String MANIFEST_MD5_TXT_FILE_NAME =
         "manifest-md5.txt";
+    public static final String REFERENCED_MANIFEST_MD5_TXT_FILE_NAME =
+        "referenced-manifest-md5.txt";
 
     // Snapshot history values
     public static final String SNAPSHOT_ACTION_TITLE = "snapshot-action";
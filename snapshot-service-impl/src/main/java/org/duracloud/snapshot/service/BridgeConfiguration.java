@@ -9,6 +9,15 @@ package org.duracloud.snapshot.service;
 
 import java.io.File;
 
+import org.duracloud.snapshot.service.impl.AbstractJobBuilder;
+import org.duracloud.snapshot.service.impl.DiskCapacityManager;
+import org.duracloud.snapshot.service.impl.FileChecksumScheduler;
+import org.duracloud.snapshot.service.impl.JobDispatcher;
+import org.duracloud.snapshot.service.impl.ParallelChunkUploader;
+import org.duracloud.snapshot.service.impl.ParallelContentRetriever;
+import org.duracloud.snapshot.service.impl.SpaceItemReader;
+import org.duracloud.snapshot.service.impl.StoreClientHelper;
+import org.duracloud.snapshot.service.impl.VirtualThreadTaskExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -22,6 +31,50 @@ public class BridgeConfiguration {
 
     public static final String DURACLOUD_BRIDGE_ROOT_SYSTEM_PROPERTY = "duracloud.bridge.root.dir";
     public static final String DURACLOUD_BRIDGE_THREADS_PER_JOB = "duracloud.bridge.threads-per-job";
+    public static final String DURACLOUD_BRIDGE_MAX_THREADS_PER_JOB = "duracloud.bridge.max-threads-per-job";
+    public static final String DURACLOUD_BRIDGE_ADAPTIVE_CONCURRENCY = "duracloud.bridge.adaptive-concurrency";
+    public static final String DURACLOUD_BRIDGE_SORTED_MERGE_VERIFICATION =
+        "duracloud.bridge.sorted-merge-verification";
+    public static final String DURACLOUD_BRIDGE_INCREMENTAL_SNAPSHOTS =
+        "duracloud.bridge.incremental-snapshots";
+    public static final String DURACLOUD_BRIDGE_CONTENT_DEDUPLICATION =
+        "duracloud.bridge.content-deduplication";
+    public static final String DURACLOUD_BRIDGE_BLOB_STORE_MAX_BYTES =
+        "duracloud.bridge.blob-store.max-bytes";
+    public static final String DURACLOUD_BRIDGE_PARALLEL_RETRIEVAL_THREADS =
+        "duracloud.bridge.parallel-retrieval.threads";
+    public static final String DURACLOUD_BRIDGE_RESTORE_CHUNK_UPLOAD_THREADS =
+        "duracloud.bridge.restore.chunk-upload-threads";
+    public static final String DURACLOUD_BRIDGE_RESTORE_FUSED_PROPERTIES =
+        "duracloud.bridge.restore.fused-properties";
+    public static final String DURACLOUD_BRIDGE_RESTORE_VERIFIED_UPLOAD =
+        "duracloud.bridge.restore.verified-upload";
+    public static final String DURACLOUD_BRIDGE_VERIFICATION_CONCURRENT_READS =
+        "duracloud.bridge.verification.concurrent-reads";
+    public static final String DURACLOUD_BRIDGE_SPACE_LISTING_HIGH_WATERMARK =
+        "duracloud.bridge.space-listing.high-watermark";
+    public static final String DURACLOUD_BRIDGE_SPACE_LISTING_LOW_WATERMARK =
+        "duracloud.bridge.space-listing.low-watermark";
+    public static final String DURACLOUD_BRIDGE_ITEM_EXECUTOR_VIRTUAL_THREADS =
+        "duracloud.bridge.item-executor.virtual-threads";
+    public static final String DURACLOUD_BRIDGE_ITEM_EXECUTOR_MAX_CONCURRENT_TASKS =
+        "duracloud.bridge.item-executor.max-concurrent-tasks";
+    public static final String DURACLOUD_BRIDGE_BANDWIDTH_GLOBAL_BYTES_PER_SECOND =
+        "duracloud.bridge.bandwidth.global-bytes-per-second";
+    public static final String DURACLOUD_BRIDGE_BANDWIDTH_JOB_BYTES_PER_SECOND =
+        "duracloud.bridge.bandwidth.job-bytes-per-second";
+    public static final String DURACLOUD_BRIDGE_BANDWIDTH_HOST_BYTES_PER_SECOND =
+        "duracloud.bridge.bandwidth.host-bytes-per-second";
+    public static final String DURACLOUD_BRIDGE_STORE_CLIENT_CACHE_SIZE =
+        "duracloud.bridge.store-client.cache-size";
+    public static final String DURACLOUD_BRIDGE_DISK_HEADROOM_BYTES =
+        "duracloud.bridge.disk.headroom-bytes";
+    public static final String DURACLOUD_BRIDGE_JOB_QUEUE_SLOTS =
+        "duracloud.bridge.job-queue.slots";
+    public static final String DURACLOUD_BRIDGE_JOB_QUEUE_SNAPSHOT_PRIORITY =
+        "duracloud.bridge.job-queue.snapshot-priority";
+    public static final String DURACLOUD_BRIDGE_JOB_QUEUE_RESTORE_PRIORITY =
+        "duracloud.bridge.job-queue.restore-priority";
 
     private String[] duracloudEmailAddresses;
     private String duracloudUsername;
@@ -141,4 +194,251 @@ public class BridgeConfiguration {
         }
     }
 
+    /**
+     * @return the highest number of content transfers a job may have in
+     * flight once adaptive concurrency has raised it from the threads per job
+     * setting. Defaults to AbstractJobBuilder.DEFAULT_MAX_THREADS_PER_JOB.
+     */
+    public static int getBridgeMaxThreadsPerJob() {
+        return getIntProperty(DURACLOUD_BRIDGE_MAX_THREADS_PER_JOB,
+                              AbstractJobBuilder.DEFAULT_MAX_THREADS_PER_JOB);
+    }
+
+    /**
+     * @return true (the default) if the number of content transfers a job
+     * has in flight should be adjusted at runtime, starting from the threads
+     * per job setting; false if it should stay at the threads per job setting.
+     */
+    public static boolean isAdaptiveConcurrency() {
+        return Boolean.parseBoolean(System.getProperty(DURACLOUD_BRIDGE_ADAPTIVE_CONCURRENCY, "true"));
+    }
+
+    /**
+     * @return true if space manifests should be verified against snapshot
+     * manifests by sorting both on disk and merging them, rather than by
+     * looking up each space manifest entry in an index of the snapshot
+     * manifest.
+     */
+    public static boolean isSortedMergeVerification() {
+        return Boolean.getBoolean(DURACLOUD_BRIDGE_SORTED_MERGE_VERIFICATION);
+    }
+
+    /**
+     * @return true if a new snapshot of a space should transfer only the
+     * content which is new or changed since the last completed snapshot of
+     * that space, recording unchanged content as references to the snapshot
+     * holding it.
+     */
+    public static boolean isIncrementalSnapshots() {
+        return Boolean.getBoolean(DURACLOUD_BRIDGE_INCREMENTAL_SNAPSHOTS);
+    }
+
+    /**
+     * @return true if content of a space which has the same checksum as other
+     * content of the space should be retrieved once per snapshot, the other
+     * copies being hard linked to (or, failing that, copied from) the
+     * retrieved file.
+     */
+    public static boolean isContentDeduplication() {
+        return Boolean.getBoolean(DURACLOUD_BRIDGE_CONTENT_DEDUPLICATION);
+    }
+
+    /**
+     * @return the size in bytes above which the content blob store evicts
+     * content no longer staged by any snapshot, or 0 (the default) if
+     * snapshots should not share retrieved content through the store.
+     */
+    public static long getBlobStoreMaxBytes() {
+        Long maxBytes = getLongProperty(DURACLOUD_BRIDGE_BLOB_STORE_MAX_BYTES);
+        return maxBytes != null ? maxBytes : 0;
+    }
+
+    /**
+     * @return the number of chunks or byte ranges of chunked and large
+     * content retrieved at once by a snapshot, or 1 or less to retrieve each
+     * content item in a single stream. Defaults to
+     * ParallelContentRetriever.DEFAULT_THREADS.
+     */
+    public static int getParallelRetrievalThreads() {
+        return getIntProperty(DURACLOUD_BRIDGE_PARALLEL_RETRIEVAL_THREADS,
+                              ParallelContentRetriever.DEFAULT_THREADS);
+    }
+
+    /**
+     * @return the number of chunks of large files uploaded at once by a
+     * restore, or 1 or less to upload chunks one after another through the
+     * sync endpoint. Defaults to ParallelChunkUploader.DEFAULT_THREADS.
+     */
+    public static int getRestoreChunkUploadThreads() {
+        return getIntProperty(DURACLOUD_BRIDGE_RESTORE_CHUNK_UPLOAD_THREADS,
+                              ParallelChunkUploader.DEFAULT_THREADS);
+    }
+
+    /**
+     * @return true if a restore should attach the properties of each content
+     * item as the item is uploaded, rather than setting the properties of all
+     * items in a separate step once all items are uploaded.
+     */
+    public static boolean isRestoreFusedProperties() {
+        return Boolean.getBoolean(DURACLOUD_BRIDGE_RESTORE_FUSED_PROPERTIES);
+    }
+
+    /**
+     * @return true if a restore should verify the checksum of each restored
+     * file against the snapshot manifest as the file is uploaded, rather than
+     * reading every file to verify it before any is uploaded.
+     */
+    public static boolean isRestoreVerifiedUpload() {
+        return Boolean.getBoolean(DURACLOUD_BRIDGE_RESTORE_VERIFIED_UPLOAD);
+    }
+
+    /**
+     * @return the maximum number of local files read at the same time when
+     * verifying checksums of retrieved content. Defaults to
+     * FileChecksumScheduler.DEFAULT_MAX_CONCURRENT_READS.
+     */
+    public static int getVerificationConcurrentReads() {
+        return getIntProperty(DURACLOUD_BRIDGE_VERIFICATION_CONCURRENT_READS,
+                              FileChecksumScheduler.DEFAULT_MAX_CONCURRENT_READS);
+    }
+
+    /**
+     * @return the number of space content items listed ahead of the snapshot
+     * transfer at which listing pauses. Defaults to
+     * SpaceItemReader.DEFAULT_HIGH_WATERMARK.
+     */
+    public static int getSpaceListingHighWatermark() {
+        return getIntProperty(DURACLOUD_BRIDGE_SPACE_LISTING_HIGH_WATERMARK,
+                              SpaceItemReader.DEFAULT_HIGH_WATERMARK);
+    }
+
+    /**
+     * @return the number of space content items listed ahead of the snapshot
+     * transfer at which paused listing resumes. Defaults to
+     * SpaceItemReader.DEFAULT_LOW_WATERMARK.
+     */
+    public static int getSpaceListingLowWatermark() {
+        return getIntProperty(DURACLOUD_BRIDGE_SPACE_LISTING_LOW_WATERMARK,
+                              SpaceItemReader.DEFAULT_LOW_WATERMARK);
+    }
+
+    /**
+     * @return true if the content transfer and verification steps of snapshot
+     * and restore jobs should run their items on virtual threads, bounded by
+     * the max concurrent tasks setting, rather than on the pooled item task
+     * executor.
+     */
+    public static boolean isVirtualThreadItemExecution() {
+        return Boolean.getBoolean(DURACLOUD_BRIDGE_ITEM_EXECUTOR_VIRTUAL_THREADS);
+    }
+
+    /**
+     * @return the maximum number of step items running at once across all
+     * jobs when virtual thread item execution is enabled. Defaults to
+     * VirtualThreadTaskExecutor.DEFAULT_MAX_CONCURRENT_TASKS.
+     */
+    public static int getItemExecutorMaxConcurrentTasks() {
+        return getIntProperty(DURACLOUD_BRIDGE_ITEM_EXECUTOR_MAX_CONCURRENT_TASKS,
+                              VirtualThreadTaskExecutor.DEFAULT_MAX_CONCURRENT_TASKS);
+    }
+
+    /**
+     * @return the default bandwidth budget, in bytes per second, shared by
+     * the content transfers of all jobs, or null if unlimited.
+     */
+    public static Long getBandwidthGlobalBytesPerSecond() {
+        return getLongProperty(DURACLOUD_BRIDGE_BANDWIDTH_GLOBAL_BYTES_PER_SECOND);
+    }
+
+    /**
+     * @return the default bandwidth budget, in bytes per second, of the
+     * content transfers of each job, or null if unlimited.
+     */
+    public static Long getBandwidthJobBytesPerSecond() {
+        return getLongProperty(DURACLOUD_BRIDGE_BANDWIDTH_JOB_BYTES_PER_SECOND);
+    }
+
+    /**
+     * @return the default bandwidth budget, in bytes per second, shared by
+     * the content transfers of all jobs using the same DuraCloud host, or null
+     * if unlimited.
+     */
+    public static Long getBandwidthHostBytesPerSecond() {
+        return getLongProperty(DURACLOUD_BRIDGE_BANDWIDTH_HOST_BYTES_PER_SECOND);
+    }
+
+    /**
+     * @return the maximum number of DuraCloud store clients kept for reuse
+     * across jobs and requests. Defaults to
+     * StoreClientHelper.DEFAULT_CACHE_SIZE.
+     */
+    public static int getStoreClientCacheSize() {
+        return getIntProperty(DURACLOUD_BRIDGE_STORE_CLIENT_CACHE_SIZE,
+                              StoreClientHelper.DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @return the bytes of the content root volume which snapshots and
+     * restores may never reserve. Defaults to
+     * DiskCapacityManager.DEFAULT_HEADROOM_BYTES.
+     */
+    public static long getDiskHeadroomBytes() {
+        Long headroom = getLongProperty(DURACLOUD_BRIDGE_DISK_HEADROOM_BYTES);
+        return headroom != null ? headroom : DiskCapacityManager.DEFAULT_HEADROOM_BYTES;
+    }
+
+    /**
+     * @return the number of snapshot and restore jobs run at once. Defaults
+     * to JobDispatcher.DEFAULT_SLOTS.
+     */
+    public static int getJobSlots() {
+        return getIntProperty(DURACLOUD_BRIDGE_JOB_QUEUE_SLOTS, JobDispatcher.DEFAULT_SLOTS);
+    }
+
+    /**
+     * @return the priority at which snapshot jobs are queued. Defaults to
+     * JobDispatcher.DEFAULT_SNAPSHOT_PRIORITY.
+     */
+    public static int getSnapshotJobPriority() {
+        return getIntProperty(DURACLOUD_BRIDGE_JOB_QUEUE_SNAPSHOT_PRIORITY,
+                              JobDispatcher.DEFAULT_SNAPSHOT_PRIORITY);
+    }
+
+    /**
+     * @return the priority at which restore jobs are queued. Defaults to
+     * JobDispatcher.DEFAULT_RESTORE_PRIORITY.
+     */
+    public static int getRestoreJobPriority() {
+        return getIntProperty(DURACLOUD_BRIDGE_JOB_QUEUE_RESTORE_PRIORITY,
+                              JobDispatcher.DEFAULT_RESTORE_PRIORITY);
+    }
+
+    private static Long getLongProperty(String name) {
+        String value = System.getProperty(name);
+        if (null != value) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                log.warn("Could not parse system property " + name +
+                         " with value " + value +
+                         " into a long. Proceeding with default setting.");
+            }
+        }
+        return null;
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (null != value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                log.warn("Could not parse system property " + name +
+                         " with value " + value +
+                         " into an int. Proceeding with default setting.");
+            }
+        }
+        return defaultValue;
+    }
+
 }
@@ -11,6 +11,7 @@ import org.duracloud.snapshot.service.BridgeConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.step.factory.SimpleStepFactoryBean;
+import org.springframework.core.task.TaskExecutor;
 
 /**
  * @author Daniel Bernstein
@@ -21,12 +22,57 @@ public class AbstractJobBuilder {
     private static Logger log = LoggerFactory.getLogger(AbstractJobBuilder.class);
 
     /**
-     * @param stepFactory
+     * The default ceiling for adaptive concurrency. Four jobs at this limit
+     * stay within the maximum pool size of the item task executor.
+     */
+    public static final int DEFAULT_MAX_THREADS_PER_JOB = 48;
+
+    /**
+     * @param name identifies the job in log messages
+     * @return a limiter for the content transfers of a job, which starts at
+     * the configured threads per job and, if adaptive concurrency is enabled,
+     * adjusts between one and the configured maximum threads per job.
      */
-    protected void setThrottleLimitForContentTransfers(SimpleStepFactoryBean<?, ?> stepFactory) {
+    protected AdaptiveConcurrencyLimiter createContentTransferLimiter(String name) {
         int threadsPerJob = BridgeConfiguration.getBridgeThreadsPerJob();
-        log.info("Setting threadsPerJob = {}", threadsPerJob);
-        stepFactory.setThrottleLimit(threadsPerJob);
+        if (!BridgeConfiguration.isAdaptiveConcurrency()) {
+            log.info("Setting threadsPerJob = {}", threadsPerJob);
+            return new AdaptiveConcurrencyLimiter(name, threadsPerJob, threadsPerJob, threadsPerJob);
+        }
+
+        int maxThreadsPerJob = Math.max(threadsPerJob, BridgeConfiguration.getBridgeMaxThreadsPerJob());
+        log.info("Adapting threadsPerJob between 1 and {}, starting at {}", maxThreadsPerJob, threadsPerJob);
+        return new AdaptiveConcurrencyLimiter(name, threadsPerJob, 1, maxThreadsPerJob);
+    }
+
+    /**
+     * Lets the step run as many items at once as the limiter may ever allow,
+     * and has the limiter decide how many actually run.
+     *
+     * @param stepFactory
+     * @param taskExecutor the executor on which step items run
+     * @param limiter      the limiter of the job's content transfers
+     */
+    protected void setConcurrencyForContentTransfers(SimpleStepFactoryBean<?, ?> stepFactory,
+                                                     TaskExecutor taskExecutor,
+                                                     AdaptiveConcurrencyLimiter limiter) {
+        stepFactory.setThrottleLimit(limiter.getMaxLimit());
+        stepFactory.setTaskExecutor(new ConcurrencyLimitingTaskExecutor(taskExecutor, limiter));
+    }
+
+    /**
+     * Chooses the executor on which step items run.
+     *
+     * @param pooledTaskExecutor  the shared thread pool executor
+     * @param virtualTaskExecutor the shared virtual thread executor
+     * @return the virtual thread executor if virtual thread item execution is
+     * enabled, otherwise the pooled executor
+     */
+    protected TaskExecutor selectItemTaskExecutor(TaskExecutor pooledTaskExecutor,
+                                                  TaskExecutor virtualTaskExecutor) {
+        boolean virtual = BridgeConfiguration.isVirtualThreadItemExecution();
+        log.info("Running step items on the {} task executor", virtual ? "virtual thread" : "pooled");
+        return virtual ? virtualTaskExecutor : pooledTaskExecutor;
     }
 
 }
@@ -0,0 +1,259 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of content transfers of a job which are in flight at
+ * once, adjusting the limit at runtime in the manner of AIMD congestion
+ * control: the limit is raised by one while doing so pays off and is halved
+ * as soon as transfers fail or have to be retried.
+ *
+ * Permits are taken and returned around each step task by a
+ * ConcurrencyLimitingTaskExecutor, so that no step thread is held while
+ * waiting for a permit; the writers performing the transfers report their
+ * outcomes to the limiter.
+ *
+ * Outcomes are evaluated in windows of as many completed transfers as the
+ * current limit. At the end of each window the limit is
+ * <ul>
+ * <li>halved if any transfer in the window failed or was retried,</li>
+ * <li>lowered by one if throughput fell after the last increase, or if it
+ * did not improve while latency rose well above its baseline,</li>
+ * <li>held if throughput fell for other reasons, and</li>
+ * <li>raised by one otherwise.</li>
+ * </ul>
+ * Throughput is measured in both bytes and items per second, so that
+ * spaces of small files and spaces of large files are both judged fairly.
+ *
+ * @author Daniel Bernstein
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double THROUGHPUT_GAIN = 1.05;
+    private static final double THROUGHPUT_LOSS = 0.9;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BASELINE_DRIFT = 0.1;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final LongSupplier clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+    private int limit;
+    private int inFlight = 0;
+
+    private long windowStart;
+    private int windowCompletions = 0;
+    private int windowErrors = 0;
+    private long windowBytes = 0;
+    private long windowLatencyMs = 0;
+
+    private double lastByteRate = -1;
+    private double lastItemRate = -1;
+    private double baselineLatencyMs = -1;
+    private int lastChange = 0;
+
+    /**
+     * @param name         identifies the limiter in log messages
+     * @param initialLimit the number of transfers initially allowed in flight
+     * @param minLimit     the lowest the limit may be lowered to
+     * @param maxLimit     the highest the limit may be raised to
+     */
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        this(name, initialLimit, minLimit, maxLimit, System::currentTimeMillis);
+    }
+
+    protected AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+                                         LongSupplier clock) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("limits must satisfy 1 <= min (" + minLimit +
+                                               ") <= max (" + maxLimit + ")");
+        }
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.clock = clock;
+        this.windowStart = clock.getAsLong();
+    }
+
+    /**
+     * @return a limiter which never limits, for writers used outside of
+     * content transfer steps
+     */
+    public static AdaptiveConcurrencyLimiter unlimited() {
+        return new AdaptiveConcurrencyLimiter("unlimited", Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Waits until another transfer may be put in flight.
+     *
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= limit) {
+                permitAvailable.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a permit taken by acquire().
+     */
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a transfer was retried.
+     */
+    public void retried() {
+        lock.lock();
+        try {
+            windowErrors++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a transfer which succeeded.
+     *
+     * @param bytes     the number of bytes transferred
+     * @param latencyMs the time the transfer took
+     */
+    public void succeeded(long bytes, long latencyMs) {
+        complete(bytes, latencyMs, false);
+    }
+
+    /**
+     * Records a transfer which failed.
+     *
+     * @param latencyMs the time spent on the transfer
+     */
+    public void failed(long latencyMs) {
+        complete(0, latencyMs, true);
+    }
+
+    private void complete(long bytes, long latencyMs, boolean failed) {
+        lock.lock();
+        try {
+            windowCompletions++;
+            windowBytes += bytes;
+            windowLatencyMs += latencyMs;
+            if (failed) {
+                windowErrors++;
+            }
+            if (windowCompletions >= limit) {
+                adjust();
+                permitAvailable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Must be called while holding the lock.
+     */
+    private void adjust() {
+        long now = clock.getAsLong();
+        double elapsedSeconds = Math.max(1, now - windowStart) / 1000d;
+        double byteRate = windowBytes / elapsedSeconds;
+        double itemRate = windowCompletions / elapsedSeconds;
+        double latencyMs = (double) windowLatencyMs / windowCompletions;
+
+        boolean first = lastItemRate < 0;
+        boolean improved = first ||
+                           (lastByteRate > 0 && byteRate >= lastByteRate * THROUGHPUT_GAIN) ||
+                           itemRate >= lastItemRate * THROUGHPUT_GAIN;
+        boolean dropped = !first &&
+                          (lastByteRate == 0 || byteRate < lastByteRate * THROUGHPUT_LOSS) &&
+                          itemRate < lastItemRate * THROUGHPUT_LOSS;
+
+        if (baselineLatencyMs < 0 || latencyMs < baselineLatencyMs) {
+            baselineLatencyMs = latencyMs;
+        } else {
+            // let the baseline follow lasting changes such as larger files
+            baselineLatencyMs += (latencyMs - baselineLatencyMs) * BASELINE_DRIFT;
+        }
+        boolean latencyInflated = latencyMs > baselineLatencyMs * LATENCY_TOLERANCE;
+
+        int newLimit;
+        if (windowErrors > 0) {
+            newLimit = (int) (limit * DECREASE_FACTOR);
+        } else if (dropped && lastChange > 0) {
+            newLimit = limit - 1;
+        } else if (!improved && latencyInflated) {
+            newLimit = limit - 1;
+        } else if (dropped) {
+            newLimit = limit;
+        } else {
+            newLimit = limit + 1;
+        }
+        newLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+
+        if (newLimit != limit) {
+            log.info("{}: concurrency limit {} -> {} (errors={}, bytes/s={}, items/s={}, latencyMs={})",
+                     name, limit, newLimit, windowErrors, (long) byteRate,
+                     String.format("%.2f", itemRate), (long) latencyMs);
+        }
+        lastChange = newLimit - limit;
+        limit = newLimit;
+        lastByteRate = byteRate;
+        lastItemRate = itemRate;
+
+        windowStart = now;
+        windowCompletions = 0;
+        windowErrors = 0;
+        windowBytes = 0;
+        windowLatencyMs = 0;
+    }
+
+    /**
+     * @return the number of transfers currently allowed in flight
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the highest the limit may be raised to
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+}
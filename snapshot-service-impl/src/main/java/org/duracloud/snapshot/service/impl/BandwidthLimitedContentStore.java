@@ -0,0 +1,65 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+import org.duracloud.client.ContentStore;
+import org.duracloud.domain.Content;
+
+/**
+ * Wraps a content store so that the content streams uploaded through it
+ * and downloaded from it are throttled by a bandwidth limiter. All other
+ * calls, including listings and manifests, pass through untouched.
+ *
+ * @author Daniel Bernstein
+ */
+public class BandwidthLimitedContentStore {
+
+    private BandwidthLimitedContentStore() {
+        // Ensures no instances are made of this class, as there are only static members.
+    }
+
+    /**
+     * @param contentStore
+     * @param limiter
+     * @return a content store whose content streams are throttled by the
+     * limiter
+     */
+    public static ContentStore wrap(ContentStore contentStore, BandwidthLimiter limiter) {
+        return (ContentStore) Proxy.newProxyInstance(
+            ContentStore.class.getClassLoader(),
+            new Class<?>[] {ContentStore.class},
+            (proxy, method, args) -> {
+                if (args != null && method.getName().equals("addContent")) {
+                    for (int i = 0; i < args.length; i++) {
+                        if (args[i] instanceof InputStream) {
+                            args[i] = new ThrottledInputStream((InputStream) args[i], limiter);
+                        }
+                    }
+                }
+
+                Object result;
+                try {
+                    result = method.invoke(contentStore, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+
+                if (result instanceof Content) {
+                    Content content = (Content) result;
+                    if (content.getStream() != null) {
+                        content.setStream(new ThrottledInputStream(content.getStream(), limiter));
+                    }
+                }
+                return result;
+            });
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Limits the bandwidth of the content transfers of one job by the budgets
+ * of the job, of the DuraCloud host it transfers to or from, and of the
+ * bridge as a whole.
+ *
+ * @author Daniel Bernstein
+ */
+public class BandwidthLimiter {
+
+    private List<TokenBucket> buckets;
+
+    /**
+     * @param buckets the buckets from which every transferred byte is taken
+     */
+    public BandwidthLimiter(TokenBucket... buckets) {
+        this.buckets = Arrays.asList(buckets);
+    }
+
+    /**
+     * Waits until the bytes may be transferred within every budget.
+     *
+     * @param bytes
+     * @throws InterruptedException
+     */
+    public void transfer(long bytes) throws InterruptedException {
+        for (TokenBucket bucket : buckets) {
+            bucket.take(bytes);
+        }
+    }
+}
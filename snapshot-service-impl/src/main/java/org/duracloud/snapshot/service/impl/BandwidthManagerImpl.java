@@ -0,0 +1,171 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.time.Clock;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.duracloud.client.ContentStore;
+import org.duracloud.snapshot.service.BandwidthLimits;
+import org.duracloud.snapshot.service.BandwidthManager;
+import org.duracloud.snapshot.service.BandwidthProfile;
+import org.duracloud.snapshot.service.BandwidthSchedule;
+import org.duracloud.snapshot.service.BridgeConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the bandwidth schedule of the bridge and the token buckets of the
+ * global and per-host budgets. The default budgets of the schedule are
+ * initialized from BridgeConfiguration; profiles are added over the REST api.
+ *
+ * The budgets in effect are re-evaluated at most once a minute, or as soon
+ * as the schedule is replaced.
+ *
+ * @author Daniel Bernstein
+ */
+@Component
+public class BandwidthManagerImpl implements BandwidthManager {
+
+    private static final Logger log = LoggerFactory.getLogger(BandwidthManagerImpl.class);
+
+    private static final long REFRESH_INTERVAL_MS = 60 * 1000;
+
+    private volatile BandwidthSchedule schedule;
+    private volatile BandwidthLimits currentLimits;
+    private volatile long nextRefresh = 0;
+    private Clock clock = Clock.systemDefaultZone();
+
+    private final TokenBucket globalBucket;
+    private final Map<String, TokenBucket> hostBuckets = new ConcurrentHashMap<>();
+
+    public BandwidthManagerImpl() {
+        this(new BandwidthSchedule(BridgeConfiguration.getBandwidthGlobalBytesPerSecond(),
+                                   BridgeConfiguration.getBandwidthJobBytesPerSecond(),
+                                   BridgeConfiguration.getBandwidthHostBytesPerSecond()));
+    }
+
+    public BandwidthManagerImpl(BandwidthSchedule schedule) {
+        setSchedule(schedule);
+        this.globalBucket = new TokenBucket(() -> rate(BandwidthLimits::getGlobalBytesPerSecond));
+    }
+
+    @Override
+    public BandwidthSchedule getSchedule() {
+        return schedule;
+    }
+
+    @Override
+    public void setSchedule(BandwidthSchedule schedule) {
+        validate(schedule);
+        BandwidthSchedule copy = new BandwidthSchedule(schedule.getGlobalBytesPerSecond(),
+                                                       schedule.getJobBytesPerSecond(),
+                                                       schedule.getHostBytesPerSecond());
+        copy.setProfiles(new ArrayList<>(schedule.getProfiles()));
+        this.schedule = copy;
+        this.nextRefresh = 0;
+        log.info("bandwidth schedule set: defaults global={}, job={}, host={} bytes/s; {} profile(s)",
+                 copy.getGlobalBytesPerSecond(), copy.getJobBytesPerSecond(), copy.getHostBytesPerSecond(),
+                 copy.getProfiles().size());
+    }
+
+    private void validate(BandwidthSchedule schedule) {
+        if (schedule == null) {
+            throw new IllegalArgumentException("a bandwidth schedule is required");
+        }
+        validate("default", schedule);
+        for (BandwidthProfile profile : schedule.getProfiles()) {
+            String name = "profile " + profile.getName();
+            if (profile.getStartHour() < 0 || profile.getStartHour() > 23 ||
+                profile.getEndHour() < 0 || profile.getEndHour() > 24) {
+                throw new IllegalArgumentException(name + ": start hour must be within 0-23 and end hour " +
+                                                   "within 0-24");
+            }
+            validate(name, profile);
+        }
+    }
+
+    private void validate(String name, BandwidthLimits limits) {
+        for (Long value : new Long[] {limits.getGlobalBytesPerSecond(),
+                                      limits.getJobBytesPerSecond(),
+                                      limits.getHostBytesPerSecond()}) {
+            if (value != null && value < 0) {
+                throw new IllegalArgumentException(name + ": bandwidth budgets may not be negative");
+            }
+        }
+    }
+
+    @Override
+    public BandwidthLimits getCurrentLimits() {
+        long now = clock.millis();
+        if (now >= nextRefresh) {
+            int hour = LocalTime.now(clock).getHour();
+            BandwidthLimits limits = schedule.getLimitsAt(hour);
+            BandwidthLimits previous = currentLimits;
+            currentLimits = limits;
+            nextRefresh = now + REFRESH_INTERVAL_MS;
+            if (previous == null || changed(previous, limits)) {
+                log.info("bandwidth budgets now global={}, job={}, host={} bytes/s",
+                         limits.getGlobalBytesPerSecond(), limits.getJobBytesPerSecond(),
+                         limits.getHostBytesPerSecond());
+            }
+        }
+        return currentLimits;
+    }
+
+    private boolean changed(BandwidthLimits a, BandwidthLimits b) {
+        return rate(a.getGlobalBytesPerSecond()) != rate(b.getGlobalBytesPerSecond()) ||
+               rate(a.getJobBytesPerSecond()) != rate(b.getJobBytesPerSecond()) ||
+               rate(a.getHostBytesPerSecond()) != rate(b.getHostBytesPerSecond());
+    }
+
+    private long rate(Function<BandwidthLimits, Long> budget) {
+        return rate(budget.apply(getCurrentLimits()));
+    }
+
+    private long rate(Long value) {
+        return value != null ? value : 0;
+    }
+
+    /**
+     * @param host the DuraCloud host the job transfers content to or from
+     * @return a limiter for the content transfers of a new job
+     */
+    public BandwidthLimiter createLimiter(String host) {
+        TokenBucket jobBucket = new TokenBucket(() -> rate(BandwidthLimits::getJobBytesPerSecond));
+        TokenBucket hostBucket =
+            hostBuckets.computeIfAbsent(host, h -> new TokenBucket(
+                () -> rate(BandwidthLimits::getHostBytesPerSecond)));
+        return new BandwidthLimiter(jobBucket, hostBucket, globalBucket);
+    }
+
+    /**
+     * @param contentStore
+     * @param host         the DuraCloud host of the content store
+     * @return a content store whose content transfers are shaped by the
+     * budgets of a new job
+     */
+    public ContentStore limit(ContentStore contentStore, String host) {
+        return BandwidthLimitedContentStore.wrap(contentStore, createLimiter(host));
+    }
+
+    /**
+     * For testing purposes only
+     *
+     * @param clock
+     */
+    protected void setClock(Clock clock) {
+        this.clock = clock;
+        this.nextRefresh = 0;
+    }
+}
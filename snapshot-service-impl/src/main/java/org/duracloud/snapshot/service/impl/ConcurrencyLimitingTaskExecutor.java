@@ -0,0 +1,52 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+/**
+ * Hands tasks to a delegate executor only while the limiter allows another
+ * task in flight. The step submitting tasks waits in execute() rather than
+ * having its tasks wait on executor threads.
+ *
+ * @author Daniel Bernstein
+ */
+public class ConcurrencyLimitingTaskExecutor implements TaskExecutor {
+
+    private TaskExecutor delegate;
+    private AdaptiveConcurrencyLimiter limiter;
+
+    public ConcurrencyLimitingTaskExecutor(TaskExecutor delegate, AdaptiveConcurrencyLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TaskRejectedException("interrupted waiting to execute task " + task, e);
+        }
+
+        try {
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    limiter.release();
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            limiter.release();
+            throw e;
+        }
+    }
+}
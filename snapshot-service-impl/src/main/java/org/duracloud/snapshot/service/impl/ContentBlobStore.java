@@ -0,0 +1,279 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.duracloud.snapshot.service.BridgeConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * A store of retrieved content on the bridge, keyed by MD5 checksum, which
+ * lets a snapshot populate its data directory by hard linking to content an
+ * earlier snapshot already retrieved rather than retrieving it again.
+ *
+ * Each blob is a hard link to a file retrieved into a snapshot's data
+ * directory, so the store takes no extra space while the blob is in use. The
+ * file system's link count of a blob serves as its reference count: a blob
+ * with a single link is no longer part of any staged snapshot. When the blobs
+ * take up more than the configured maximum, unreferenced blobs are evicted,
+ * least recently used first. A blob's status change time, which the file
+ * system updates whenever a link to it is added or removed, marks when it was
+ * last used. Unreferenced blobs are also evicted on demand when the
+ * DiskCapacityManager is short of capacity for a job, so that blobs no snapshot
+ * needs never keep a job waiting.
+ *
+ * The store is disabled unless a maximum size is configured and the file
+ * system reports link counts.
+ *
+ * @author Daniel Bernstein
+ */
+@Component
+public class ContentBlobStore implements DiskCapacityManager.Reclaimer {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentBlobStore.class);
+
+    private static final String NLINK_ATTRIBUTE = "unix:nlink";
+    private static final String CTIME_ATTRIBUTE = "unix:ctime";
+
+    private File storeDir;
+    private long maxBytes;
+    private volatile AtomicLong totalBytes;
+    private final Object evictionLock = new Object();
+
+    public ContentBlobStore() {
+        this(null, BridgeConfiguration.getBlobStoreMaxBytes());
+    }
+
+    /**
+     * @param storeDir the directory holding the blobs, or null for the
+     *                 blobs directory under the content root,
+     *                 which must be on the same volume as the snapshots
+     * @param maxBytes the size above which unreferenced blobs are evicted, or
+     *                 0 to disable the store
+     */
+    public ContentBlobStore(File storeDir, long maxBytes) {
+        this.storeDir = storeDir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return true if content may be added to and linked from the store
+     */
+    public boolean isEnabled() {
+        if (maxBytes <= 0) {
+            return false;
+        }
+        return getTotalBytes() >= 0;
+    }
+
+    private synchronized File getStoreDir() {
+        if (storeDir == null) {
+            storeDir = new File(BridgeConfiguration.getContentRootDir(), "blobs");
+        }
+        if (!storeDir.exists()) {
+            storeDir.mkdirs();
+        }
+        return storeDir;
+    }
+
+    /**
+     * @return the bytes held by the blobs of the store, or -1 if the file
+     * system of the store does not report link counts
+     */
+    private long getTotalBytes() {
+        AtomicLong total = totalBytes;
+        if (total != null) {
+            return total.get();
+        }
+        synchronized (evictionLock) {
+            if (totalBytes == null) {
+                try {
+                    Path dir = getStoreDir().toPath();
+                    Files.getAttribute(dir, NLINK_ATTRIBUTE);
+                    long bytes = 0;
+                    for (Path blob : listBlobs()) {
+                        bytes += Files.size(blob);
+                    }
+                    totalBytes = new AtomicLong(bytes);
+                    log.info("content blob store {} holds {} bytes", dir, bytes);
+                } catch (UnsupportedOperationException | IOException | IllegalArgumentException ex) {
+                    log.warn("content blob store disabled: link counts are unavailable in {}: {}",
+                             getStoreDir().getAbsolutePath(), ex.getMessage());
+                    totalBytes = new AtomicLong(-1);
+                }
+            }
+            return totalBytes.get();
+        }
+    }
+
+    private File getBlobFile(String checksum) {
+        String key = checksum.toLowerCase();
+        File dir = new File(getStoreDir(), key.substring(0, Math.min(2, key.length())));
+        return new File(dir, key);
+    }
+
+    /**
+     * @param checksum the MD5 checksum of the content
+     * @return true if the store holds content with the checksum
+     */
+    public boolean contains(String checksum) {
+        return isEnabled() && getBlobFile(checksum).exists();
+    }
+
+    /**
+     * Makes the target file a hard link to the blob with the checksum, if the
+     * store holds one.
+     *
+     * @param checksum the MD5 checksum of the content
+     * @param target
+     * @return true if the target was linked; false if the store does not hold
+     * the content
+     * @throws IOException
+     */
+    public boolean link(String checksum, File target) throws IOException {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        File blob = getBlobFile(checksum);
+        File parent = target.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        Files.deleteIfExists(target.toPath());
+        try {
+            Files.createLink(target.toPath(), blob.toPath());
+            return true;
+        } catch (NoSuchFileException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Adds a retrieved file to the store, unless content with the checksum is
+     * held already, and then evicts blobs if the store has grown too large.
+     *
+     * @param checksum the verified MD5 checksum of the file
+     * @param file
+     */
+    public void add(String checksum, File file) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        File blob = getBlobFile(checksum);
+        try {
+            blob.getParentFile().mkdirs();
+            Files.createLink(blob.toPath(), file.toPath());
+            long total = totalBytes.addAndGet(file.length());
+            log.debug("added {} to content blob store as {}", file.getAbsolutePath(), checksum);
+            if (total > maxBytes) {
+                evict();
+            }
+        } catch (FileAlreadyExistsException ex) {
+            // another snapshot added the same content
+        } catch (IOException | UnsupportedOperationException ex) {
+            log.warn("unable to add {} to content blob store: {}", file.getAbsolutePath(), ex.getMessage());
+        }
+    }
+
+    /**
+     * Removes unreferenced blobs, least recently used first, until the store
+     * holds no more than the maximum size.
+     */
+    protected void evict() {
+        evictDownTo(maxBytes);
+    }
+
+    /**
+     * Removes unreferenced blobs, least recently used first, until at least
+     * the given number of bytes have been freed or none remain.
+     *
+     * @param bytes
+     * @return the bytes freed
+     */
+    @Override
+    public long reclaim(long bytes) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        synchronized (evictionLock) {
+            long before = totalBytes.get();
+            evictDownTo(Math.max(0, before - bytes));
+            return before - totalBytes.get();
+        }
+    }
+
+    private void evictDownTo(long targetBytes) {
+        synchronized (evictionLock) {
+            if (totalBytes.get() <= targetBytes) {
+                return;
+            }
+
+            List<Path> unreferenced = new ArrayList<>();
+            try {
+                for (Path blob : listBlobs()) {
+                    if (((Number) Files.getAttribute(blob, NLINK_ATTRIBUTE)).intValue() <= 1) {
+                        unreferenced.add(blob);
+                    }
+                }
+            } catch (IOException ex) {
+                log.warn("unable to list content blob store for eviction: {}", ex.getMessage());
+                return;
+            }
+
+            unreferenced.sort(Comparator.comparing(ContentBlobStore::getLastUsed));
+            long evicted = 0;
+            for (Path blob : unreferenced) {
+                if (totalBytes.get() <= targetBytes) {
+                    break;
+                }
+                try {
+                    long size = Files.size(blob);
+                    Files.delete(blob);
+                    totalBytes.addAndGet(-size);
+                    evicted++;
+                } catch (IOException ex) {
+                    log.warn("unable to evict {} from content blob store: {}", blob, ex.getMessage());
+                }
+            }
+            log.info("evicted {} unreferenced blobs from content blob store; {} bytes remain",
+                     evicted, totalBytes.get());
+        }
+    }
+
+    private List<Path> listBlobs() throws IOException {
+        try (Stream<Path> paths = Files.walk(getStoreDir().toPath(), 2)) {
+            List<Path> blobs = new ArrayList<>();
+            paths.filter(Files::isRegularFile).forEach(blobs::add);
+            return blobs;
+        }
+    }
+
+    private static FileTime getLastUsed(Path blob) {
+        try {
+            return (FileTime) Files.getAttribute(blob, CTIME_ATTRIBUTE);
+        } catch (IOException | UnsupportedOperationException ex) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
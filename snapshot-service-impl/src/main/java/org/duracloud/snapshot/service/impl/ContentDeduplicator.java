@@ -0,0 +1,172 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lets the content of a space which shares its MD5 with other content of the
+ * space be retrieved once per snapshot. Which content ids share a checksum is
+ * taken from the (stitched) space manifest. The first content id of a shared
+ * checksum to be claimed is retrieved as usual; every other content id with
+ * that checksum waits for that retrieval and is then materialized by hard
+ * linking to the retrieved file, or by copying it where hard links are not
+ * supported.
+ *
+ * Retrievals in progress are only tracked in memory; once a restarted step
+ * finds a file already retrieved it is offered for linking again.
+ *
+ * @author Daniel Bernstein
+ */
+public class ContentDeduplicator {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentDeduplicator.class);
+
+    /**
+     * A retrieved file and, if it was computed, its SHA-256 checksum.
+     */
+    public static class Retrieval {
+        private File file;
+        private String sha256;
+
+        public Retrieval(File file, String sha256) {
+            this.file = file;
+            this.sha256 = sha256;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+    }
+
+    private SpaceManifestChecksums checksums;
+    private Map<String, CompletableFuture<Retrieval>> retrievals = new ConcurrentHashMap<>();
+
+    /**
+     * @param checksums the checksums of the space manifest, opened by the caller
+     */
+    public ContentDeduplicator(SpaceManifestChecksums checksums) {
+        this.checksums = checksums;
+    }
+
+    /**
+     * @param contentId
+     * @return the space manifest checksum of the content if other content of
+     * the space has the same checksum, otherwise null
+     */
+    public String getSharedChecksum(String contentId) {
+        String checksum = checksums.getChecksum(contentId);
+        return checksum != null && checksums.isShared(checksum) ? checksum : null;
+    }
+
+    /**
+     * Claims the retrieval of the content with the checksum. A caller which
+     * obtains the claim must report the outcome through retrieved().
+     *
+     * @param checksum
+     * @return true if the caller is to retrieve the content; false if it has
+     * been claimed already, in which case the caller should await() it
+     */
+    public boolean claim(String checksum) {
+        return retrievals.putIfAbsent(checksum, new CompletableFuture<>()) == null;
+    }
+
+    /**
+     * Reports the outcome of a claimed retrieval to the callers awaiting it.
+     *
+     * @param checksum
+     * @param retrieval the retrieved file, or null if the content could not be
+     *                  retrieved with the expected checksum, in which case a
+     *                  later caller may claim it again
+     */
+    public void retrieved(String checksum, Retrieval retrieval) {
+        CompletableFuture<Retrieval> future = retrievals.get(checksum);
+        if (retrieval == null) {
+            retrievals.remove(checksum);
+        }
+        if (future != null) {
+            future.complete(retrieval);
+        }
+    }
+
+    /**
+     * Offers a file which was retrieved before the step was (re)started, so
+     * that other content with the same checksum can be linked to it.
+     *
+     * @param checksum
+     * @param retrieval
+     */
+    public void offer(String checksum, Retrieval retrieval) {
+        retrievals.putIfAbsent(checksum, CompletableFuture.completedFuture(retrieval));
+    }
+
+    /**
+     * Waits for the claimed retrieval of the content with the checksum.
+     *
+     * @param checksum
+     * @return the retrieved file, or null if the retrieval failed and the
+     * caller should retrieve the content itself
+     * @throws IOException if interrupted while waiting
+     */
+    public Retrieval await(String checksum) throws IOException {
+        CompletableFuture<Retrieval> future = retrievals.get(checksum);
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for retrieval of content with checksum " +
+                                             checksum);
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Makes the target file a hard link to the source file, or a copy of it
+     * if the file system does not support hard links.
+     *
+     * @param source
+     * @param target
+     * @return true if the target is a hard link
+     * @throws IOException
+     */
+    public static boolean link(File source, File target) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        Files.deleteIfExists(target.toPath());
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+            return true;
+        } catch (UnsupportedOperationException | IOException ex) {
+            log.debug("unable to link {} to {}, copying instead: {}",
+                      target.getAbsolutePath(), source.getAbsolutePath(), ex.getMessage());
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return false;
+        }
+    }
+}
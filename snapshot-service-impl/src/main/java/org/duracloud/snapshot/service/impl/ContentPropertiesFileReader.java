@@ -7,8 +7,13 @@
  */
 package org.duracloud.snapshot.service.impl;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -23,6 +28,11 @@ import org.springframework.batch.item.ParseException;
 import org.springframework.batch.item.UnexpectedInputException;
 
 /**
+ * Reads the content properties json file. The byte offset of each item is
+ * checkpointed in the step execution context so that a restarted step can
+ * resume parsing at the first unprocessed item rather than re-parsing every
+ * item before it.
+ *
  * @author Daniel Bernstein
  * Date: Jul 16, 2014
  */
@@ -34,6 +44,10 @@ public class ContentPropertiesFileReader extends StepExecutionSupport implements
 
     private JsonParser jParser;
 
+    // file offset corresponding to the parser's byte offset 0
+    private long parserBaseOffset = 0;
+    private long itemNumber = 0;
+
     public ContentPropertiesFileReader(File propertiesFile) {
         this.propertiesFile = propertiesFile;
     }
@@ -48,14 +62,29 @@ public class ContentPropertiesFileReader extends StepExecutionSupport implements
         throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
 
         if (jParser == null) {
+            long itemsRead = getItemsRead();
+            ReadCheckpoint checkpoint = getResumeCheckpoint();
             JsonFactory jfactory = new JsonFactory();
-            jParser = jfactory.createJsonParser(this.propertiesFile);
+            if (checkpoint == null) {
+                jParser = jfactory.createParser(this.propertiesFile);
+            } else {
+                // resume at the item's opening brace, restoring the array's
+                // opening bracket so that the remainder is still valid json.
+                long offset = Long.parseLong(checkpoint.getPosition());
+                FileInputStream fileStream = new FileInputStream(this.propertiesFile);
+                fileStream.getChannel().position(offset);
+                InputStream stream = new SequenceInputStream(
+                    new ByteArrayInputStream("[".getBytes(StandardCharsets.UTF_8)), fileStream);
+                jParser = jfactory.createParser(stream);
+                parserBaseOffset = offset - 1;
+                itemNumber = checkpoint.getItemNumber();
+                log.info("resuming content properties at item {} (byte offset {})", itemNumber, offset);
+            }
             jParser.nextToken(); //skips the first [
 
             //skip properties already read.
-            int itemsRead = (int) getItemsRead();
-            for (int i = 0; i < itemsRead; i++) {
-                doRead();
+            while (itemNumber < itemsRead && doRead() != null) {
+                // item was already processed
             }
         }
 
@@ -75,7 +104,10 @@ public class ContentPropertiesFileReader extends StepExecutionSupport implements
         try {
             while (jParser.nextToken() != JsonToken.END_ARRAY &&
                    jParser.getText() != null) {
-                return parseNext(jParser);
+                long offset = parserBaseOffset + jParser.getTokenLocation().getByteOffset();
+                addReadCheckpoint(itemNumber, String.valueOf(offset));
+                itemNumber++;
+                return parseProperties(jParser);
             }
         } catch (Exception e) {
             String message = "Error parsing content properties file: " + e.getMessage();
@@ -88,11 +120,14 @@ public class ContentPropertiesFileReader extends StepExecutionSupport implements
     }
 
     /**
+     * Parses the properties of one item, the parser being positioned at the
+     * opening brace of the item.
+     *
      * @param jParser
      * @return
      */
-    private synchronized ContentProperties parseNext(JsonParser jParser)
-        throws Exception {
+    static ContentProperties parseProperties(JsonParser jParser)
+        throws IOException {
         String contentId = null;
         Map<String, String> properties = new HashMap<>();
         while (jParser.nextToken() != JsonToken.END_OBJECT &&
@@ -0,0 +1,129 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.commons.lang3.time.StopWatch;
+import org.mapdb.Atomic;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The properties of each content item of a restored snapshot, read from its
+ * content properties json file and keyed by content id, so that a restore can
+ * attach the properties of each item as it is uploaded.
+ *
+ * The properties are kept in a file database which is built by the first
+ * open() and reused by any later open(), so that a restarted restore step
+ * does not parse the json file again.
+ *
+ * @author Daniel Bernstein
+ */
+public class ContentPropertiesIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentPropertiesIndex.class);
+
+    private static final int COMMIT_INTERVAL = 10000;
+
+    private File dbFile;
+    private File propertiesFile;
+    private DB db;
+    private Map<String, String> properties;
+
+    /**
+     * @param dbFile         the file in which the index is kept
+     * @param propertiesFile the content properties json file
+     */
+    public ContentPropertiesIndex(File dbFile, File propertiesFile) {
+        this.dbFile = dbFile;
+        this.propertiesFile = propertiesFile;
+    }
+
+    /**
+     * Opens the index, building it first unless a complete one was left by
+     * an earlier open().
+     *
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        this.db = DBMaker.fileDB(dbFile).transactionEnable().closeOnJvmShutdown().make();
+        this.properties = db.treeMap("properties", Serializer.STRING, Serializer.STRING)
+                            .createOrOpen();
+        Atomic.Boolean complete = db.atomicBoolean("complete").createOrOpen();
+        if (complete.get()) {
+            log.info("reusing index of the properties of {} content items", properties.size());
+            return;
+        }
+
+        StopWatch sw = new StopWatch();
+        sw.start();
+        try {
+            build();
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+        complete.set(true);
+        db.commit();
+        sw.stop();
+        log.info("indexed the properties of {} content items from {} in {} ms",
+                 properties.size(), propertiesFile.getAbsolutePath(), sw.getTime());
+    }
+
+    private void build() throws IOException {
+        properties.clear();
+
+        try (JsonParser jParser = new JsonFactory().createParser(propertiesFile)) {
+            jParser.nextToken(); //skips the first [
+            int uncommitted = 0;
+            while (jParser.nextToken() != JsonToken.END_ARRAY && jParser.getText() != null) {
+                ContentProperties item = ContentPropertiesFileReader.parseProperties(jParser);
+                if (item.getContentId() != null) {
+                    properties.put(item.getContentId(), PropertiesSerializer.serialize(item.getProperties()));
+                }
+                if (++uncommitted >= COMMIT_INTERVAL) {
+                    db.commit();
+                    uncommitted = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param contentId
+     * @return the properties of the content, or null if the content
+     * properties file does not list the content
+     */
+    public Map<String, String> getProperties(String contentId) {
+        String serialized = properties.get(contentId);
+        return serialized != null ? PropertiesSerializer.deserialize(serialized) : null;
+    }
+
+    public void close() {
+        if (this.db != null && !this.db.isClosed()) {
+            this.db.close();
+        }
+    }
+
+    /**
+     * Closes the index and removes its file.
+     */
+    public void delete() {
+        close();
+        this.dbFile.delete();
+    }
+}
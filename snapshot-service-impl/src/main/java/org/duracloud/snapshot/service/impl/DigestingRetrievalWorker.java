@@ -0,0 +1,223 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.duracloud.common.model.ContentItem;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
+import org.duracloud.retrieval.mgmt.OutputWriter;
+import org.duracloud.retrieval.mgmt.RetrievalListener;
+import org.duracloud.retrieval.mgmt.RetrievalWorker;
+import org.duracloud.retrieval.source.ContentStream;
+import org.duracloud.retrieval.source.RetrievalSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A RetrievalWorker which computes the MD5 and SHA-256 digests of the content
+ * while it is being copied to the local file, rather than by reading the local
+ * file back once the copy completes.
+ *
+ * The streamed MD5 is used for the worker's own check against the
+ * content-checksum property. The streamed SHA-256 is made available through
+ * getSha256Checksum(). Both are only reported when the content stream was
+ * read through to the end; otherwise callers fall back to reading the file.
+ *
+ * @author Daniel Bernstein
+ */
+public class DigestingRetrievalWorker extends RetrievalWorker {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(DigestingRetrievalWorker.class);
+
+    private final DigestingRetrievalSource digestingSource;
+
+    public DigestingRetrievalWorker(ContentItem contentItem,
+                                    RetrievalSource source,
+                                    File contentDir,
+                                    boolean overwrite,
+                                    OutputWriter outWriter,
+                                    boolean createSpaceDir,
+                                    boolean applyTimestamps) {
+        this(contentItem, new DigestingRetrievalSource(source), contentDir,
+             overwrite, outWriter, createSpaceDir, applyTimestamps);
+    }
+
+    private DigestingRetrievalWorker(ContentItem contentItem,
+                                     DigestingRetrievalSource source,
+                                     File contentDir,
+                                     boolean overwrite,
+                                     OutputWriter outWriter,
+                                     boolean createSpaceDir,
+                                     boolean applyTimestamps) {
+        super(contentItem, source, contentDir, overwrite, outWriter,
+              createSpaceDir, applyTimestamps);
+        this.digestingSource = source;
+    }
+
+    /**
+     * @return the SHA-256 checksum of the most recently retrieved content, or
+     * null if no content stream has been read to completion.
+     */
+    public String getSha256Checksum() {
+        DigestingStream stream = digestingSource.getLastStream();
+        return stream != null ? stream.getSha256() : null;
+    }
+
+    /**
+     * @return the number of times the content stream has been requested from
+     * the source; more than one means that the retrieval was retried.
+     */
+    public int getAttempts() {
+        return digestingSource.getAttempts();
+    }
+
+    @Override
+    protected String getChecksum(File localFile) throws IOException {
+        DigestingStream stream = digestingSource.getLastStream();
+        if (stream != null && stream.getMd5() != null && localFile.equals(getLocalFile())) {
+            return stream.getMd5();
+        }
+
+        log.debug("no streamed md5 available for {}: reading file", localFile.getAbsolutePath());
+        return super.getChecksum(localFile);
+    }
+
+    /**
+     * Wraps the content stream of every retrieval in a DigestingStream,
+     * remembering the most recent one. A new stream is opened for each
+     * retrieval attempt, so a partially read stream from a failed attempt is
+     * never mistaken for the final content.
+     */
+    private static class DigestingRetrievalSource implements RetrievalSource {
+
+        private final RetrievalSource source;
+        private volatile DigestingStream lastStream;
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        public DigestingRetrievalSource(RetrievalSource source) {
+            this.source = source;
+        }
+
+        public DigestingStream getLastStream() {
+            return lastStream;
+        }
+
+        public int getAttempts() {
+            return attempts.get();
+        }
+
+        @Override
+        public ContentItem getNextContentItem() {
+            return source.getNextContentItem();
+        }
+
+        @Override
+        public Map<String, String> getSourceProperties(ContentItem contentItem) {
+            return source.getSourceProperties(contentItem);
+        }
+
+        @Override
+        public String getSourceChecksum(ContentItem contentItem) {
+            return source.getSourceChecksum(contentItem);
+        }
+
+        @Override
+        public ContentStream getSourceContent(ContentItem contentItem,
+                                              RetrievalListener listener) {
+            attempts.incrementAndGet();
+            ContentStream content = source.getSourceContent(contentItem, listener);
+            if (content == null || content.getStream() == null) {
+                lastStream = null;
+                return content;
+            }
+
+            DigestingStream stream = new DigestingStream(content.getStream());
+            lastStream = stream;
+            return new ContentStream(stream, content.getProperties());
+        }
+    }
+
+    /**
+     * Passes bytes through both an MD5 and a SHA-256 digest, and captures the
+     * resulting checksums once end of stream is reached.
+     */
+    private static class DigestingStream extends FilterInputStream {
+
+        private final DigestInputStream md5Stream;
+        private final DigestInputStream sha256Stream;
+        private volatile String md5;
+        private volatile String sha256;
+
+        public DigestingStream(InputStream stream) {
+            this(ChecksumUtil.wrapStream(stream, Algorithm.MD5));
+        }
+
+        private DigestingStream(DigestInputStream md5Stream) {
+            this(md5Stream, ChecksumUtil.wrapStream(md5Stream, Algorithm.SHA_256));
+        }
+
+        private DigestingStream(DigestInputStream md5Stream, DigestInputStream sha256Stream) {
+            super(sha256Stream);
+            this.md5Stream = md5Stream;
+            this.sha256Stream = sha256Stream;
+        }
+
+        public String getMd5() {
+            return md5;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value == -1) {
+                complete();
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count == -1) {
+                complete();
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes would not be digested
+            throw new IOException("skip is not supported on a digesting stream");
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void complete() {
+            if (sha256 == null) {
+                md5 = ChecksumUtil.getChecksum(md5Stream);
+                sha256 = ChecksumUtil.getChecksum(sha256Stream);
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import org.duracloud.snapshot.InsufficientDiskCapacityException;
+import org.duracloud.snapshot.service.BridgeConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Admits snapshots and restores only when the content root of the bridge has
+ * room for them. Each job reserves its estimated footprint on admission; jobs
+ * which do not fit wait, first come first served, until enough capacity has
+ * been released.
+ *
+ * Capacity is the usable space of the volume less the part of each
+ * reservation which has not yet landed on disk and a fixed headroom. As a
+ * job's files land their size is deducted from its reservation, since the
+ * volume's usable space now accounts for them. Whatever is left of a
+ * snapshot's reservation is cleared when its transfer job completes, since
+ * not every file it keeps is reported as it lands, and the reservation is
+ * released outright when the job fails. When a job's directory is cleaned up
+ * its reservation is released and waiting jobs are admitted.
+ *
+ * Space held by data which may be discarded, such as unreferenced blobs of the
+ * ContentBlobStore, is reclaimed whenever a job would otherwise not fit.
+ *
+ * Reservations are held in memory only. Jobs already under way when the
+ * bridge restarts are not admitted again, as their content occupies the disk
+ * already; jobs which were still waiting are queued again.
+ *
+ * @author Daniel Bernstein
+ */
+@Component
+public class DiskCapacityManager {
+
+    public static final long DEFAULT_HEADROOM_BYTES = 1024L * 1024 * 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(DiskCapacityManager.class);
+
+    /**
+     * Frees disk space held by data which may be discarded.
+     */
+    public interface Reclaimer {
+        /**
+         * Frees at least the given number of bytes, if it can.
+         *
+         * @param bytes
+         * @return the bytes freed
+         */
+        long reclaim(long bytes);
+    }
+
+    private final LongSupplier usableSpace;
+    private final LongSupplier totalSpace;
+    private final long headroomBytes;
+
+    private final Map<String, Long> reservations = new HashMap<>();
+    private final Deque<Admission> waiting = new ArrayDeque<>();
+    private Reclaimer reclaimer;
+
+    public DiskCapacityManager() {
+        this(DiskCapacityManager::getContentRootUsableSpace,
+             DiskCapacityManager::getContentRootTotalSpace,
+             BridgeConfiguration.getDiskHeadroomBytes());
+    }
+
+    /**
+     * @param usableSpace   supplies the bytes currently usable on the volume
+     * @param totalSpace    supplies the size of the volume in bytes
+     * @param headroomBytes the bytes to always leave free
+     */
+    public DiskCapacityManager(LongSupplier usableSpace, LongSupplier totalSpace, long headroomBytes) {
+        this.usableSpace = usableSpace;
+        this.totalSpace = totalSpace;
+        this.headroomBytes = headroomBytes;
+    }
+
+    private static long getContentRootUsableSpace() {
+        return BridgeConfiguration.getContentRootDir().getUsableSpace();
+    }
+
+    private static long getContentRootTotalSpace() {
+        return BridgeConfiguration.getContentRootDir().getTotalSpace();
+    }
+
+    /**
+     * @param reclaimer frees space when a job does not fit
+     */
+    @Autowired(required = false)
+    public synchronized void setReclaimer(Reclaimer reclaimer) {
+        this.reclaimer = reclaimer;
+    }
+
+    /**
+     * @return a manager which admits every job at once, for writers used
+     * outside of admitted jobs
+     */
+    public static DiskCapacityManager unbounded() {
+        return new DiskCapacityManager(() -> Long.MAX_VALUE, () -> Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * Reserves capacity for a job if it fits now and no other job is waiting.
+     * Otherwise the job is queued, and onAdmission is run on a new thread once
+     * the capacity has been reserved for it.
+     *
+     * @param jobId       the snapshot or restoration id
+     * @param bytes       the estimated footprint of the job
+     * @param onAdmission starts a queued job
+     * @return true if the job was admitted right away, false if it was queued
+     * @throws InsufficientDiskCapacityException if the job could not fit even
+     *                                           on an otherwise empty volume
+     */
+    public boolean admit(String jobId, long bytes, Runnable onAdmission)
+        throws InsufficientDiskCapacityException {
+        long footprint = Math.max(0, bytes);
+        Reclaimer reclaimer;
+        long shortfall;
+        synchronized (this) {
+            if (reservations.containsKey(jobId)) {
+                return true;
+            }
+            if (isWaiting(jobId)) {
+                return false;
+            }
+
+            long capacity = totalSpace.getAsLong() - headroomBytes;
+            if (footprint > capacity) {
+                throw new InsufficientDiskCapacityException(
+                    jobId + " needs an estimated " + footprint + " bytes, but the bridge can make at most " +
+                    capacity + " bytes available.");
+            }
+
+            if (waiting.isEmpty() && fits(footprint)) {
+                reserve(jobId, footprint);
+                return true;
+            }
+            reclaimer = waiting.isEmpty() ? this.reclaimer : null;
+            shortfall = footprint - getAvailableBytes();
+        }
+
+        reclaim(reclaimer, shortfall);
+
+        synchronized (this) {
+            // another caller may have admitted or queued the job meanwhile
+            if (reservations.containsKey(jobId)) {
+                return true;
+            }
+            if (isWaiting(jobId)) {
+                return false;
+            }
+            if (waiting.isEmpty() && fits(footprint)) {
+                reserve(jobId, footprint);
+                return true;
+            }
+
+            waiting.add(new Admission(jobId, footprint, onAdmission));
+            log.info("{} needs {} bytes with {} bytes available: queued behind {} other job(s)",
+                     jobId, footprint, getAvailableBytes(), waiting.size() - 1);
+            return false;
+        }
+    }
+
+    private void reserve(String jobId, long footprint) {
+        reservations.put(jobId, footprint);
+        log.info("admitted {}: reserved {} bytes", jobId, footprint);
+    }
+
+    /**
+     * Records that files of a job have landed on disk.
+     *
+     * @param jobId
+     * @param bytes the size of the files
+     */
+    public synchronized void landed(String jobId, long bytes) {
+        Long outstanding = reservations.get(jobId);
+        if (outstanding != null) {
+            reservations.put(jobId, Math.max(0, outstanding - bytes));
+        }
+    }
+
+    /**
+     * Records that all files of a job have landed on disk.
+     *
+     * @param jobId
+     */
+    public synchronized void allLanded(String jobId) {
+        if (reservations.containsKey(jobId)) {
+            reservations.put(jobId, 0L);
+        }
+    }
+
+    /**
+     * Releases the reservation of a job whose files have been removed, or
+     * withdraws it from the queue, and admits waiting jobs which now fit.
+     *
+     * @param jobId
+     */
+    public void release(String jobId) {
+        synchronized (this) {
+            if (reservations.remove(jobId) != null) {
+                log.info("released the disk reservation of {}", jobId);
+            }
+            waiting.removeIf(admission -> admission.jobId.equals(jobId));
+        }
+        admitWaiting();
+    }
+
+    /**
+     * Admits waiting jobs, in order, for as long as the next one fits. Called
+     * whenever capacity is released, and periodically to notice space freed
+     * by other means.
+     */
+    public void admitWaiting() {
+        List<Admission> admitted = new ArrayList<>();
+        while (true) {
+            Reclaimer reclaimer;
+            long shortfall;
+            synchronized (this) {
+                while (!waiting.isEmpty() && fits(waiting.peek().bytes)) {
+                    Admission admission = waiting.poll();
+                    reservations.put(admission.jobId, admission.bytes);
+                    admitted.add(admission);
+                }
+                if (waiting.isEmpty() || this.reclaimer == null) {
+                    break;
+                }
+                reclaimer = this.reclaimer;
+                shortfall = waiting.peek().bytes - getAvailableBytes();
+            }
+
+            // try again only while the reclaimer still frees space
+            if (reclaim(reclaimer, shortfall) <= 0) {
+                break;
+            }
+        }
+
+        for (Admission admission : admitted) {
+            log.info("admitted queued job {}: reserved {} bytes", admission.jobId, admission.bytes);
+            new Thread(admission.onAdmission, "disk-admission-" + admission.jobId).start();
+        }
+    }
+
+    /**
+     * @param jobId
+     * @return true if capacity is reserved for the job
+     */
+    public synchronized boolean isReserved(String jobId) {
+        return reservations.containsKey(jobId);
+    }
+
+    /**
+     * @param jobId
+     * @return true if the job is queued waiting for capacity
+     */
+    public synchronized boolean isWaiting(String jobId) {
+        return waiting.stream().anyMatch(admission -> admission.jobId.equals(jobId));
+    }
+
+    private synchronized boolean fits(long bytes) {
+        return bytes <= getAvailableBytes();
+    }
+
+    /*
+     * Reclaims the space a job is short of, if there is a reclaimer. Called
+     * without holding the manager's monitor, since reclaiming may take a while
+     * and writers report landed files meanwhile; callers check again whether
+     * the job fits afterwards.
+     */
+    private long reclaim(Reclaimer reclaimer, long shortfall) {
+        if (reclaimer == null || shortfall <= 0) {
+            return 0;
+        }
+        long reclaimed = reclaimer.reclaim(shortfall);
+        if (reclaimed > 0) {
+            log.info("reclaimed {} bytes of the {} bytes needed", reclaimed, shortfall);
+        }
+        return reclaimed;
+    }
+
+    /**
+     * @return the bytes which may still be reserved
+     */
+    public synchronized long getAvailableBytes() {
+        long outstanding = 0;
+        for (long bytes : reservations.values()) {
+            outstanding += bytes;
+        }
+        return usableSpace.getAsLong() - outstanding - headroomBytes;
+    }
+
+    private static class Admission {
+        private final String jobId;
+        private final long bytes;
+        private final Runnable onAdmission;
+
+        Admission(String jobId, long bytes, Runnable onAdmission) {
+            this.jobId = jobId;
+            this.bytes = bytes;
+            this.onAdmission = onAdmission;
+        }
+    }
+}
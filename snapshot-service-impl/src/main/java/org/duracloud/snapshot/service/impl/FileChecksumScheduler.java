@@ -0,0 +1,149 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.duracloud.common.util.ChecksumUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes MD5 checksums of local files while limiting the number of files
+ * being read at the same time, independent of the number of threads asking
+ * for checksums. The limit should reflect the number of devices backing the
+ * content directory, since beyond that concurrent reads only add seeking.
+ *
+ * Small files are read back to back under a single read permit using a
+ * modest buffer; each large file is read under its own permit with a large
+ * buffer so that the device sees long sequential reads.
+ *
+ * A single instance is meant to be shared by all verification steps.
+ *
+ * @author Daniel Bernstein
+ */
+public class FileChecksumScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(FileChecksumScheduler.class);
+
+    public static final int DEFAULT_MAX_CONCURRENT_READS = 4;
+    public static final long DEFAULT_LARGE_FILE_THRESHOLD = 64 * 1024 * 1024;
+
+    private static final int SMALL_FILE_BUFFER_SIZE = 64 * 1024;
+    private static final int LARGE_FILE_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private final Semaphore reads;
+    private final long largeFileThreshold;
+
+    public FileChecksumScheduler() {
+        this(DEFAULT_MAX_CONCURRENT_READS, DEFAULT_LARGE_FILE_THRESHOLD);
+    }
+
+    /**
+     * @param maxConcurrentReads the maximum number of files read at once
+     * @param largeFileThreshold files of at least this many bytes are read
+     *                           individually with a large buffer
+     */
+    public FileChecksumScheduler(int maxConcurrentReads, long largeFileThreshold) {
+        this.reads = new Semaphore(Math.max(1, maxConcurrentReads), true);
+        this.largeFileThreshold = largeFileThreshold;
+    }
+
+    /**
+     * Receives the outcome of each checksum computation.
+     */
+    public interface ChecksumListener {
+        void checksumComputed(File file, String checksum);
+
+        void checksumFailed(File file, Exception ex);
+    }
+
+    /**
+     * Computes the MD5 checksum of each of the files, reporting the outcome
+     * of each file to the listener from the calling thread.
+     *
+     * @param files    the files to checksum
+     * @param listener receives the checksum or failure of each file
+     * @throws InterruptedException if interrupted while waiting to read
+     */
+    public void checksum(List<File> files, ChecksumListener listener) throws InterruptedException {
+        List<File> smallFiles = new ArrayList<>(files.size());
+        List<File> largeFiles = new ArrayList<>();
+        for (File file : files) {
+            if (file.length() >= largeFileThreshold) {
+                largeFiles.add(file);
+            } else {
+                smallFiles.add(file);
+            }
+        }
+
+        MessageDigest digest = newDigest();
+        if (!smallFiles.isEmpty()) {
+            ByteBuffer buffer = ByteBuffer.allocate(SMALL_FILE_BUFFER_SIZE);
+            reads.acquire();
+            try {
+                for (File file : smallFiles) {
+                    checksum(file, digest, buffer, listener);
+                }
+            } finally {
+                reads.release();
+            }
+        }
+
+        if (!largeFiles.isEmpty()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(LARGE_FILE_BUFFER_SIZE);
+            for (File file : largeFiles) {
+                reads.acquire();
+                try {
+                    checksum(file, digest, buffer, listener);
+                } finally {
+                    reads.release();
+                }
+            }
+        }
+    }
+
+    private void checksum(File file, MessageDigest digest, ByteBuffer buffer, ChecksumListener listener) {
+        String checksum;
+        try {
+            digest.reset();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                buffer.clear();
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+            checksum = ChecksumUtil.checksumBytesToString(digest.digest());
+        } catch (IOException ex) {
+            log.debug("failed to checksum {}: {}", file.getAbsolutePath(), ex.getMessage());
+            listener.checksumFailed(file, ex);
+            return;
+        }
+
+        listener.checksumComputed(file, checksum);
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -9,7 +9,10 @@ package org.duracloud.snapshot.service.impl;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -20,6 +23,11 @@ import org.springframework.batch.item.ParseException;
 import org.springframework.batch.item.UnexpectedInputException;
 
 /**
+ * Reads the files beneath a root directory in name order. The path of the
+ * next file is checkpointed in the step execution context, so that a
+ * restarted step skips the directories and files before it without visiting
+ * them.
+ *
  * @author Daniel Bernstein
  * Date: Jul 16, 2014
  */
@@ -27,6 +35,7 @@ public class FileSystemReader extends StepExecutionSupport implements ItemReader
 
     private SimpleDirectoryWalker walker;
     private File rootDirectory = null;
+    private long fileNumber = 0;
 
     public FileSystemReader(File rootDirectory) {
         this.rootDirectory = rootDirectory;
@@ -40,27 +49,59 @@ public class FileSystemReader extends StepExecutionSupport implements ItemReader
         throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
 
         if (walker == null) {
-            this.walker = new SimpleDirectoryWalker(rootDirectory);
+            long itemsRead = getItemsRead();
+            ReadCheckpoint checkpoint = getResumeCheckpoint();
+            Path cursor = null;
+            if (checkpoint != null) {
+                cursor = rootDirectory.toPath().resolve(checkpoint.getPosition());
+                this.fileNumber = checkpoint.getItemNumber();
+            }
+
+            this.walker = new SimpleDirectoryWalker(rootDirectory, cursor);
             this.walker.start();
             //skip ahead if items have already been processed.
-            long itemsRead = getItemsRead();
-            if (itemsRead > 0) {
-                for (int i = 0; i < itemsRead; i++) {
-                    this.walker.next();
-                }
+            for (; this.fileNumber < itemsRead; this.fileNumber++) {
+                this.walker.next();
             }
         }
 
-        return this.walker.next();
+        File file = this.walker.next();
+        if (file != null) {
+            addReadCheckpoint(this.fileNumber, rootDirectory.toPath().relativize(file.toPath()).toString());
+            this.fileNumber++;
+        }
+        return file;
+    }
+
+    /**
+     * Orders paths beneath the root directory in the order in which the
+     * walker visits them: name by name, from the root down.
+     */
+    private static int compare(Path path1, Path path2) {
+        int count = Math.min(path1.getNameCount(), path2.getNameCount());
+        for (int i = 0; i < count; i++) {
+            int cmp = path1.getName(i).toString().compareTo(path2.getName(i).toString());
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(path1.getNameCount(), path2.getNameCount());
     }
 
     private class SimpleDirectoryWalker extends DirectoryWalker<File> {
         private SynchronousQueue<File> queue = new SynchronousQueue<>();
         private File root;
+        private Path cursor;
 
-        public SimpleDirectoryWalker(final File root) {
+        /**
+         * @param root   the directory to walk
+         * @param cursor if not null, the file at which to start; files and
+         *               directories ordered before it are skipped
+         */
+        public SimpleDirectoryWalker(final File root, final Path cursor) {
 
             this.root = root;
+            this.cursor = cursor != null ? root.toPath().relativize(cursor) : null;
         }
 
         /**
@@ -82,11 +123,34 @@ public class FileSystemReader extends StepExecutionSupport implements ItemReader
             t.start();
         }
 
+        @Override
+        protected File[] filterDirectoryContents(File directory, int depth, File[] files) {
+            if (files != null) {
+                Arrays.sort(files, Comparator.comparing(File::getName));
+            }
+            return files;
+        }
+
+        @Override
+        protected boolean handleDirectory(File directory, int depth, Collection<File> results) {
+            if (cursor == null || depth == 0) {
+                return true;
+            }
+
+            // skip directories which lie entirely before the cursor
+            Path path = root.toPath().relativize(directory.toPath());
+            return cursor.startsWith(path) || compare(path, cursor) > 0;
+        }
+
         /* (non-Javadoc)
          * @see org.apache.commons.io.DirectoryWalker#handleFile(java.io.File, int, java.util.Collection)
          */
         @Override
         protected void handleFile(File file, int depth, Collection<File> results) throws IOException {
+            if (cursor != null && compare(root.toPath().relativize(file.toPath()), cursor) < 0) {
+                return;
+            }
+
             try {
                 if (file.isFile()) {
                     queue.put(file);
@@ -36,6 +36,9 @@ public class FinalizerImpl implements Finalizer {
     @Autowired
     private RestoreManager restoreManager;
 
+    @Autowired
+    private DiskCapacityManager diskCapacityManager;
+
     /**
      * @param snapshotManager the snapshotManager to set
      */
@@ -50,6 +53,13 @@ public class FinalizerImpl implements Finalizer {
         this.restoreManager = restoreManager;
     }
 
+    /**
+     * @param diskCapacityManager the diskCapacityManager to set
+     */
+    public void setDiskCapacityManager(DiskCapacityManager diskCapacityManager) {
+        this.diskCapacityManager = diskCapacityManager;
+    }
+
     /* (non-Javadoc)
      * @see org.duracloud.snapshot.service.Finalizer#initialize(java.lang.Integer)
      */
@@ -67,6 +77,7 @@ public class FinalizerImpl implements Finalizer {
                         log.info("Launching periodic finalization...");
                         snapshotManager.finalizeSnapshots();
                         restoreManager.finalizeRestores();
+                        diskCapacityManager.admitWaiting();
                     } catch (Exception ex) {
                         ex.printStackTrace();
                     }
@@ -0,0 +1,273 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+
+import org.duracloud.snapshot.db.model.JobQueueEntry;
+import org.duracloud.snapshot.db.model.JobQueueEntry.JobType;
+import org.duracloud.snapshot.db.model.JobQueueEntry.State;
+import org.duracloud.snapshot.db.repo.JobQueueRepo;
+import org.duracloud.snapshot.service.BridgeConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Queues snapshot and restore jobs in the database and runs them as job
+ * slots become free. The next job is the queued job of highest priority;
+ * among jobs of equal priority the job whose owner (the member, or failing
+ * that the DuraCloud host) has the fewest jobs running goes first, and after
+ * that the job queued longest. A member with many snapshots queued thus gets
+ * no more than its share of the slots, and restores, which are queued at a
+ * higher priority by default, do not wait behind snapshots.
+ *
+ * Each job runs to completion on a slot thread of its own, and its entry is
+ * removed once it ends. Entries survive a restart of the bridge: those which
+ * were running are queued again on recovery.
+ *
+ * The slot accounting is only ever touched by the single dispatch thread,
+ * which also sweeps the queue periodically so that entries committed by
+ * other transactions are not overlooked.
+ *
+ * @author Daniel Bernstein
+ */
+@Component
+public class JobDispatcher {
+
+    public static final int DEFAULT_SLOTS = 4;
+    public static final int DEFAULT_SNAPSHOT_PRIORITY = 0;
+    public static final int DEFAULT_RESTORE_PRIORITY = 10;
+
+    private static final Logger log = LoggerFactory.getLogger(JobDispatcher.class);
+
+    private static final long SWEEP_INTERVAL_MS = 30 * 1000;
+
+    /**
+     * Runs a dispatched job.
+     */
+    public interface Launcher {
+        /**
+         * Runs the job of the entry, returning once the job has ended.
+         *
+         * @param entry
+         * @throws Exception
+         */
+        void launch(JobQueueEntry entry) throws Exception;
+    }
+
+    private final JobQueueRepo jobQueueRepo;
+    private final int slots;
+    private final ScheduledExecutorService dispatchExecutor;
+    private final ExecutorService slotExecutor;
+
+    private final Map<String, Integer> runningByOwner = new HashMap<>();
+    private int running = 0;
+    private volatile Launcher launcher;
+
+    @Autowired
+    public JobDispatcher(JobQueueRepo jobQueueRepo) {
+        this(jobQueueRepo, BridgeConfiguration.getJobSlots());
+    }
+
+    public JobDispatcher(JobQueueRepo jobQueueRepo, int slots) {
+        this.jobQueueRepo = jobQueueRepo;
+        this.slots = Math.max(1, slots);
+        CustomizableThreadFactory dispatchThreads = new CustomizableThreadFactory("job-dispatcher-");
+        dispatchThreads.setDaemon(true);
+        this.dispatchExecutor = Executors.newSingleThreadScheduledExecutor(dispatchThreads);
+        CustomizableThreadFactory slotThreads = new CustomizableThreadFactory("job-slot-");
+        slotThreads.setDaemon(true);
+        this.slotExecutor = Executors.newCachedThreadPool(slotThreads);
+    }
+
+    /**
+     * Queues again the jobs which were running when the bridge stopped.
+     * Called on start up before any job is submitted.
+     */
+    public void recover() {
+        for (JobQueueEntry entry : jobQueueRepo.findByStateOrderByEnqueuedDateAsc(State.DISPATCHED)) {
+            entry.setState(State.QUEUED);
+            entry.setDispatchedDate(null);
+            jobQueueRepo.save(entry);
+            log.info("re-queued {} job {} interrupted by a restart", entry.getJobType(), entry.getJobKey());
+        }
+    }
+
+    /**
+     * Starts dispatching queued jobs to the launcher.
+     *
+     * @param launcher
+     */
+    public void start(Launcher launcher) {
+        this.launcher = launcher;
+        dispatchExecutor.scheduleWithFixedDelay(this::dispatch,
+                                                0,
+                                                SWEEP_INTERVAL_MS,
+                                                TimeUnit.MILLISECONDS);
+        log.info("dispatching jobs to {} slot(s)", slots);
+    }
+
+    /**
+     * Queues a job, unless it is queued or running already.
+     *
+     * @param jobType
+     * @param jobKey   the snapshot name or restoration id
+     * @param owner    the member, or failing that the DuraCloud host
+     * @param priority higher priorities are dispatched first
+     */
+    public void submit(JobType jobType, String jobKey, String owner, int priority) {
+        if (jobQueueRepo.findByJobTypeAndJobKey(jobType, jobKey) != null) {
+            log.info("{} job {} is already queued", jobType, jobKey);
+            return;
+        }
+
+        JobQueueEntry entry = new JobQueueEntry();
+        entry.setJobType(jobType);
+        entry.setJobKey(jobKey);
+        entry.setOwner(owner);
+        entry.setPriority(priority);
+        try {
+            jobQueueRepo.save(entry);
+        } catch (DataIntegrityViolationException ex) {
+            log.info("{} job {} was queued concurrently", jobType, jobKey);
+            return;
+        }
+        log.info("queued {} job {} for {} with priority {}", jobType, jobKey, owner, priority);
+        requestDispatch();
+    }
+
+    /**
+     * Removes a job from the queue if it has not been dispatched yet. Running
+     * jobs leave the queue when they end.
+     *
+     * @param jobType
+     * @param jobKey
+     */
+    public void withdraw(JobType jobType, String jobKey) {
+        JobQueueEntry entry = jobQueueRepo.findByJobTypeAndJobKey(jobType, jobKey);
+        if (entry != null && entry.getState() == State.QUEUED) {
+            jobQueueRepo.delete(entry);
+            log.info("withdrew {} job {} from the queue", jobType, jobKey);
+        }
+    }
+
+    /**
+     * @return the queued and running jobs, oldest first
+     */
+    public List<JobQueueEntry> getEntries() {
+        return jobQueueRepo.findAllByOrderByEnqueuedDateAsc();
+    }
+
+    private void requestDispatch() {
+        if (launcher == null) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // the new entry is only visible to the dispatch thread once
+            // committed
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    dispatchExecutor.execute(JobDispatcher.this::dispatch);
+                }
+            });
+        } else {
+            dispatchExecutor.execute(this::dispatch);
+        }
+    }
+
+    /*
+     * Runs on the dispatch thread only.
+     */
+    private void dispatch() {
+        try {
+            while (running < slots) {
+                List<JobQueueEntry> queued = jobQueueRepo.findByStateOrderByEnqueuedDateAsc(State.QUEUED);
+                JobQueueEntry next = selectNext(queued, runningByOwner);
+                if (next == null) {
+                    return;
+                }
+
+                next.setState(State.DISPATCHED);
+                next.setDispatchedDate(new Date());
+                final JobQueueEntry entry = jobQueueRepo.save(next);
+                runningByOwner.merge(entry.getOwner(), 1, Integer::sum);
+                running++;
+                log.info("dispatching {} job {} for {} ({} of {} slots in use)",
+                         entry.getJobType(), entry.getJobKey(), entry.getOwner(), running, slots);
+                slotExecutor.execute(() -> run(entry));
+            }
+        } catch (Exception ex) {
+            log.error("failed to dispatch queued jobs: " + ex.getMessage(), ex);
+        }
+    }
+
+    private void run(JobQueueEntry entry) {
+        try {
+            launcher.launch(entry);
+        } catch (Exception ex) {
+            log.error("failed to run " + entry.getJobType() + " job " + entry.getJobKey() + ": " +
+                      ex.getMessage(), ex);
+        } finally {
+            dispatchExecutor.execute(() -> finished(entry));
+        }
+    }
+
+    /*
+     * Runs on the dispatch thread only.
+     */
+    private void finished(JobQueueEntry entry) {
+        running--;
+        runningByOwner.computeIfPresent(entry.getOwner(), (owner, count) -> count > 1 ? count - 1 : null);
+        try {
+            jobQueueRepo.findById(entry.getId()).ifPresent(jobQueueRepo::delete);
+        } catch (Exception ex) {
+            log.error("failed to remove " + entry.getJobType() + " job " + entry.getJobKey() +
+                      " from the queue: " + ex.getMessage(), ex);
+        }
+        log.info("{} job {} ended ({} of {} slots in use)", entry.getJobType(), entry.getJobKey(), running, slots);
+        dispatch();
+    }
+
+    /**
+     * Selects the queued job to run next.
+     *
+     * @param queued         the queued entries, oldest first
+     * @param runningByOwner the number of running jobs of each owner
+     * @return the entry to dispatch, or null if none are queued
+     */
+    static JobQueueEntry selectNext(List<JobQueueEntry> queued, Map<String, Integer> runningByOwner) {
+        Comparator<JobQueueEntry> order =
+            Comparator.comparingInt((JobQueueEntry entry) -> -entry.getPriority())
+                      .thenComparingInt(entry -> runningByOwner.getOrDefault(entry.getOwner(), 0))
+                      .thenComparing(JobQueueEntry::getEnqueuedDate);
+        return queued.stream().min(order).orElse(null);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        dispatchExecutor.shutdownNow();
+        slotExecutor.shutdownNow();
+    }
+}
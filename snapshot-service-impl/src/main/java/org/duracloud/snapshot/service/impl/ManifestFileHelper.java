@@ -7,9 +7,6 @@
  */
 package org.duracloud.snapshot.service.impl;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Writer;
 import java.text.MessageFormat;
@@ -17,7 +14,6 @@ import java.text.ParseException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.duracloud.common.collection.WriteOnlyStringSet;
 import org.duracloud.snapshot.common.SnapshotServiceConstants;
 
 /**
@@ -44,10 +40,24 @@ public class ManifestFileHelper {
     public static void writeManifestEntry(Writer writer,
                                           String contentId,
                                           String checksum) throws IOException {
-        writer.write(checksum + "  data/" + contentId + "\n");
+        appendManifestEntry(writer, contentId, checksum);
         writer.flush();
     }
 
+    /**
+     * Writes the entry without flushing the writer.
+     *
+     * @param writer
+     * @param contentId
+     * @param checksum
+     * @throws IOException
+     */
+    public static void appendManifestEntry(Writer writer,
+                                           String contentId,
+                                           String checksum) throws IOException {
+        writer.write(checksum + "  data/" + contentId + "\n");
+    }
+
     public static ManifestEntry parseManifestEntry(String line) throws ParseException {
         try {
             Matcher matcher = MANIFEST_LINE_PATTERN.matcher(line);
@@ -66,42 +76,6 @@ public class ManifestFileHelper {
         }
     }
 
-    /**
-     * @param manifestFile a manifest file
-     * @return a set based on the combined content id and checksum.
-     */
-    public static WriteOnlyStringSet loadManifestSetFromFile(File manifestFile) throws Exception {
-        int count = 0;
-        WriteOnlyStringSet manifestSet;
-        try (
-            BufferedReader breader = new BufferedReader(new FileReader(manifestFile))) {
-            while (breader.readLine() != null) {
-                count++;
-            }
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
-        }
-
-        manifestSet = new WriteOnlyStringSet(count);
-
-        try (
-            BufferedReader breader = new BufferedReader(new FileReader(manifestFile))) {
-
-            String line = null;
-            while ((line = breader.readLine()) != null) {
-                ManifestEntry entry = ManifestFileHelper.parseManifestEntry(line);
-                manifestSet.add(formatManifestSetString(entry.getContentId(),
-                                                        entry.getChecksum()));
-            }
-
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
-        }
-
-        return manifestSet;
-
-    }
-
     public static String formatManifestSetString(String contentId, String checksum) {
         return new StringBuilder().append(contentId).append(":").append(checksum).toString();
     }
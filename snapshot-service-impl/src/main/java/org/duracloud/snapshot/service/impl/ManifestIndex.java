@@ -0,0 +1,285 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read-only set of the (content id, checksum) pairs in a manifest file,
+ * stored off-heap as a sorted array of 128-bit MD5 digests of each pair in a
+ * memory-mapped file alongside the manifest.
+ *
+ * The index is built in a single pass over the manifest. Once built it is
+ * reused by every subsequent open() of the same, unmodified manifest, so the
+ * verification steps of a job share one index.
+ *
+ * @author Daniel Bernstein
+ */
+public class ManifestIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ManifestIndex.class);
+
+    private static final long MAGIC = 0x4d414e4946494458L; // "MANIFIDX"
+    private static final int HEADER_BYTES = 32;
+    private static final int ENTRY_BYTES = 16;
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final LongBuffer entries;
+    private final int size;
+
+    private ManifestIndex(LongBuffer entries, int size) {
+        this.entries = entries;
+        this.size = size;
+    }
+
+    /**
+     * Opens the index of the manifest file, building it first if it does not
+     * exist or is out of date with respect to the manifest.
+     *
+     * @param manifestFile a manifest file
+     * @return the index
+     * @throws IOException
+     */
+    public static ManifestIndex open(File manifestFile) throws IOException {
+        File indexFile = getIndexFile(manifestFile);
+        if (!isCurrent(indexFile, manifestFile)) {
+            build(manifestFile, indexFile);
+        } else {
+            log.info("reusing manifest index {}", indexFile.getAbsolutePath());
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int size = (int) buffer.getLong(24);
+            buffer.position(HEADER_BYTES);
+            return new ManifestIndex(buffer.slice().asLongBuffer(), size);
+        }
+    }
+
+    /**
+     * Removes the index of the manifest file, if there is one.
+     *
+     * @param manifestFile a manifest file
+     */
+    public static void delete(File manifestFile) {
+        File indexFile = getIndexFile(manifestFile);
+        if (indexFile.exists() && !indexFile.delete()) {
+            log.warn("unable to delete manifest index {}", indexFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * @return the number of distinct (content id, checksum) pairs in the manifest
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(String contentId, String checksum) {
+        long[] key = digest(newDigest(), contentId, checksum);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(entries.get(2 * mid), entries.get(2 * mid + 1), key[0], key[1]);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static File getIndexFile(File manifestFile) {
+        return new File(manifestFile.getParentFile(), manifestFile.getName() + INDEX_SUFFIX);
+    }
+
+    private static boolean isCurrent(File indexFile, File manifestFile) throws IOException {
+        if (!indexFile.exists() || indexFile.length() < HEADER_BYTES) {
+            return false;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+            return raf.readLong() == MAGIC &&
+                   raf.readLong() == manifestFile.length() &&
+                   raf.readLong() == manifestFile.lastModified();
+        }
+    }
+
+    private static void build(File manifestFile, File indexFile) throws IOException {
+        StopWatch sw = StopWatch.createStarted();
+        File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        long manifestLength = manifestFile.length();
+        long manifestLastModified = manifestFile.lastModified();
+
+        // single pass over the manifest: append the digest of each line
+        long count = 0;
+        MessageDigest md = newDigest();
+        try (BufferedReader reader = new BufferedReader(
+                 new InputStreamReader(Files.newInputStream(manifestFile.toPath()), StandardCharsets.UTF_8));
+             DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+            out.write(new byte[HEADER_BYTES]);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ManifestEntry entry = ManifestFileHelper.parseManifestEntry(line);
+                long[] key = digest(md, entry.getContentId(), entry.getChecksum());
+                out.writeLong(key[0]);
+                out.writeLong(key[1]);
+                count++;
+            }
+        } catch (ParseException ex) {
+            tmpFile.delete();
+            throw new IOException("failed to index manifest " + manifestFile.getAbsolutePath() +
+                                  ": " + ex.getMessage(), ex);
+        }
+
+        if (count * ENTRY_BYTES > Integer.MAX_VALUE) {
+            tmpFile.delete();
+            throw new IOException("manifest " + manifestFile.getAbsolutePath() + " has too many entries (" +
+                                  count + ") to index");
+        }
+
+        // sort and de-duplicate the digests in place
+        int size;
+        try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, count * ENTRY_BYTES);
+            LongBuffer entries = buffer.asLongBuffer();
+            sort(entries, (int) count);
+            size = distinct(entries, (int) count);
+            buffer.force();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putLong(MAGIC).putLong(manifestLength).putLong(manifestLastModified).putLong(size);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+
+        Files.move(tmpFile.toPath(), indexFile.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        sw.stop();
+        log.info("built manifest index {}: lines={}, distinct entries={}, elapsedTimeMs={}",
+                 indexFile.getAbsolutePath(), count, size, sw.getTime());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long[] digest(MessageDigest md, String contentId, String checksum) {
+        byte[] bytes = md.digest(ManifestFileHelper.formatManifestSetString(contentId, checksum)
+                                                  .getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new long[] {buffer.getLong(), buffer.getLong()};
+    }
+
+    private static int compare(long high1, long low1, long high2, long low2) {
+        int cmp = Long.compareUnsigned(high1, high2);
+        return cmp != 0 ? cmp : Long.compareUnsigned(low1, low2);
+    }
+
+    private static int compare(LongBuffer entries, int i, int j) {
+        return compare(entries.get(2 * i), entries.get(2 * i + 1), entries.get(2 * j), entries.get(2 * j + 1));
+    }
+
+    private static void swap(LongBuffer entries, int i, int j) {
+        long high = entries.get(2 * i);
+        long low = entries.get(2 * i + 1);
+        entries.put(2 * i, entries.get(2 * j));
+        entries.put(2 * i + 1, entries.get(2 * j + 1));
+        entries.put(2 * j, high);
+        entries.put(2 * j + 1, low);
+    }
+
+    /**
+     * Heap sort: in place and without recursion, so it needs no memory beyond
+     * the mapped entries regardless of their number.
+     */
+    private static void sort(LongBuffer entries, int count) {
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(entries, i, count);
+        }
+        for (int end = count - 1; end > 0; end--) {
+            swap(entries, 0, end);
+            siftDown(entries, 0, end);
+        }
+    }
+
+    private static void siftDown(LongBuffer entries, int root, int count) {
+        while (true) {
+            int child = 2 * root + 1;
+            if (child >= count) {
+                return;
+            }
+            if (child + 1 < count && compare(entries, child, child + 1) < 0) {
+                child++;
+            }
+            if (compare(entries, root, child) >= 0) {
+                return;
+            }
+            swap(entries, root, child);
+            root = child;
+        }
+    }
+
+    /**
+     * Moves the distinct entries of the sorted array to its front.
+     *
+     * @return the number of distinct entries
+     */
+    private static int distinct(LongBuffer entries, int count) {
+        if (count == 0) {
+            return 0;
+        }
+
+        int last = 0;
+        for (int i = 1; i < count; i++) {
+            if (compare(entries, last, i) != 0) {
+                last++;
+                if (last != i) {
+                    entries.put(2 * last, entries.get(2 * i));
+                    entries.put(2 * last + 1, entries.get(2 * i + 1));
+                }
+            }
+        }
+        return last + 1;
+    }
+}
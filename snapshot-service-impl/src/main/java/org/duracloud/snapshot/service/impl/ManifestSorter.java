@@ -0,0 +1,204 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorts manifest entries by content id (then checksum) using a bounded
+ * amount of memory: entries are sorted in fixed size runs which are written
+ * to disk and then merged into a single file in the md5 manifest format.
+ *
+ * @author Daniel Bernstein
+ */
+public class ManifestSorter {
+
+    private static final Logger log = LoggerFactory.getLogger(ManifestSorter.class);
+
+    public static final int DEFAULT_RUN_SIZE = 100000;
+
+    public static final Comparator<ManifestEntry> ENTRY_ORDER =
+        Comparator.comparing(ManifestEntry::getContentId).thenComparing(ManifestEntry::getChecksum);
+
+    private File workDir;
+    private int runSize;
+
+    /**
+     * @param workDir directory in which run files and the sorted file are written
+     * @param runSize the maximum number of entries held in memory at once
+     */
+    public ManifestSorter(File workDir, int runSize) {
+        this.workDir = workDir;
+        this.runSize = runSize;
+    }
+
+    public ManifestSorter(File workDir) {
+        this(workDir, DEFAULT_RUN_SIZE);
+    }
+
+    /**
+     * @param entries the entries to sort
+     * @return a temporary file, in md5 manifest format, containing the sorted
+     * entries. It is the caller's responsibility to delete it.
+     * @throws IOException
+     */
+    public File sort(Iterator<ManifestEntry> entries) throws IOException {
+        List<File> runs = new ArrayList<>();
+        try {
+            List<ManifestEntry> run = new ArrayList<>(runSize);
+            while (entries.hasNext()) {
+                run.add(entries.next());
+                if (run.size() == runSize) {
+                    runs.add(writeRun(run));
+                    run.clear();
+                }
+            }
+
+            if (!run.isEmpty() || runs.isEmpty()) {
+                runs.add(writeRun(run));
+            }
+
+            if (runs.size() == 1) {
+                File sorted = runs.get(0);
+                runs.clear();
+                return sorted;
+            }
+
+            log.info("merging {} sorted runs of up to {} manifest entries", runs.size(), runSize);
+            return merge(runs);
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    private File writeRun(List<ManifestEntry> run) throws IOException {
+        run.sort(ENTRY_ORDER);
+        File file = File.createTempFile("manifest-run-", ".txt", workDir);
+        try (Writer writer = newWriter(file)) {
+            for (ManifestEntry entry : run) {
+                writeEntry(writer, entry);
+            }
+        }
+        return file;
+    }
+
+    private File merge(List<File> runs) throws IOException {
+        File file = File.createTempFile("manifest-sorted-", ".txt", workDir);
+        List<ManifestFileReader> readers = new ArrayList<>(runs.size());
+        PriorityQueue<ManifestFileReader> queue =
+            new PriorityQueue<>(runs.size(), Comparator.comparing(ManifestFileReader::peek, ENTRY_ORDER));
+        try (Writer writer = newWriter(file)) {
+            for (File run : runs) {
+                ManifestFileReader reader = new ManifestFileReader(run);
+                readers.add(reader);
+                if (reader.peek() != null) {
+                    queue.add(reader);
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                ManifestFileReader reader = queue.poll();
+                writeEntry(writer, reader.next());
+                if (reader.peek() != null) {
+                    queue.add(reader);
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            file.delete();
+            throw ex;
+        } finally {
+            for (ManifestFileReader reader : readers) {
+                IOUtils.closeQuietly(reader);
+            }
+        }
+        return file;
+    }
+
+    private Writer newWriter(File file) throws IOException {
+        return Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    private void writeEntry(Writer writer, ManifestEntry entry) throws IOException {
+        ManifestFileHelper.appendManifestEntry(writer, entry.getContentId(), entry.getChecksum());
+    }
+
+    /**
+     * Reads entries from a file in md5 manifest format, with one entry of
+     * look-ahead.
+     */
+    public static class ManifestFileReader implements Iterator<ManifestEntry>, Closeable {
+
+        private BufferedReader reader;
+        private ManifestEntry next;
+
+        public ManifestFileReader(File file) throws IOException {
+            this.reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+            advance();
+        }
+
+        /**
+         * @return the next entry without consuming it, or null if there are no more
+         */
+        public ManifestEntry peek() {
+            return next;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public ManifestEntry next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            ManifestEntry current = next;
+            try {
+                advance();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return current;
+        }
+
+        private void advance() throws IOException {
+            String line = reader.readLine();
+            try {
+                next = line != null ? ManifestFileHelper.parseManifestEntry(line) : null;
+            } catch (ParseException ex) {
+                throw new IOException(ex.getMessage(), ex);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -9,14 +9,16 @@ package org.duracloud.snapshot.service.impl;
 
 import java.io.File;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.duracloud.common.retry.Retriable;
 import org.duracloud.common.retry.Retrier;
-import org.duracloud.common.util.ChecksumUtil;
-import org.duracloud.common.util.ChecksumUtil.Algorithm;
 import org.duracloud.snapshot.dto.RestoreStatus;
 import org.duracloud.snapshot.service.RestoreManager;
+import org.duracloud.snapshot.service.impl.FileChecksumScheduler.ChecksumListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.BatchStatus;
@@ -38,6 +40,8 @@ public class ManifestVerifier extends StepExecutionSupport implements ItemWriter
     private String restorationId;
     private File contentDir;
     private RestoreManager restoreManager;
+    private FileChecksumScheduler checksumScheduler;
+    private boolean verifyChecksums = true;
 
     /**
      * @param restorationId
@@ -47,10 +51,36 @@ public class ManifestVerifier extends StepExecutionSupport implements ItemWriter
     public ManifestVerifier(String restorationId,
                             File contentDir,
                             RestoreManager restorationManager) {
+        this(restorationId, contentDir, restorationManager, new FileChecksumScheduler());
+    }
+
+    /**
+     * @param restorationId
+     * @param contentDir
+     * @param restorationManager
+     * @param checksumScheduler  computes the checksums of local files; may be
+     *                           shared with other verifiers to bound the total
+     *                           number of concurrent reads
+     */
+    public ManifestVerifier(String restorationId,
+                            File contentDir,
+                            RestoreManager restorationManager,
+                            FileChecksumScheduler checksumScheduler) {
         super();
         this.restorationId = restorationId;
         this.contentDir = contentDir;
         this.restoreManager = restorationManager;
+        this.checksumScheduler = checksumScheduler;
+    }
+
+    /**
+     * @param verifyChecksums true (the default) to compare the checksum of
+     *                        each file with the manifest; false to only check
+     *                        that each file exists, when the checksums are
+     *                        verified as the files are uploaded
+     */
+    public void setVerifyChecksums(boolean verifyChecksums) {
+        this.verifyChecksums = verifyChecksums;
     }
 
     /*
@@ -166,47 +196,59 @@ public class ManifestVerifier extends StepExecutionSupport implements ItemWriter
      */
     @Override
     public void write(List<? extends ManifestEntry> items) throws Exception {
+        // files are checksummed as a batch so that the scheduler can read
+        // small files back to back and bound concurrent reads across threads.
+        Map<File, ManifestEntry> entries = new LinkedHashMap<>();
         for (ManifestEntry entry : items) {
-            try {
-                String contentId = entry.getContentId();
-                String checksum = entry.getChecksum();
+            String contentId = entry.getContentId();
+            File file = new File(this.contentDir, contentId);
+            if (!file.exists()) {
+                String message =
+                    MessageFormat.format("content ({0}) not found in " +
+                                         "path ({1}) for restore ({2})",
+                                         contentId,
+                                         file.getAbsolutePath(),
+                                         restorationId);
+                log.error(message);
+                addError(message);
+            } else {
+                entries.put(file, entry);
+            }
+        }
 
-                File file = new File(this.contentDir, contentId);
-                if (!file.exists()) {
+        if (entries.isEmpty() || !verifyChecksums) {
+            return;
+        }
+
+        checksumScheduler.checksum(new ArrayList<>(entries.keySet()), new ChecksumListener() {
+            @Override
+            public void checksumComputed(File file, String fileChecksum) {
+                ManifestEntry entry = entries.get(file);
+                String checksum = entry.getChecksum();
+                if (!checksum.equals(fileChecksum)) {
                     String message =
-                        MessageFormat.format("content ({0}) not found in " +
-                                             "path ({1}) for restore ({2})",
-                                             contentId,
+                        MessageFormat.format("content id ({0}) manifest " +
+                                             "checksum ({1})  does not match " +
+                                             "file ({2}) checksum ({3})",
+                                             entry.getContentId(),
+                                             checksum,
                                              file.getAbsolutePath(),
-                                             restorationId);
+                                             fileChecksum);
                     log.error(message);
                     addError(message);
                 } else {
-                    ChecksumUtil checksumUtil = new ChecksumUtil(Algorithm.MD5);
-
-                    String fileChecksum = checksumUtil.generateChecksum(file);
-                    if (!checksum.equals(fileChecksum)) {
-                        String message =
-                            MessageFormat.format("content id ({0}) manifest " +
-                                                 "checksum ({1})  does not match " +
-                                                 "file ({2}) checksum ({3})",
-                                                 contentId,
-                                                 checksum,
-                                                 file.getAbsolutePath(),
-                                                 fileChecksum);
-                        log.error(message);
-                        addError(message);
-                    } else {
-                        log.debug("successfully verified entry {}", entry);
-                    }
+                    log.debug("successfully verified entry {}", entry);
                 }
+            }
 
-            } catch (Exception ex) {
+            @Override
+            public void checksumFailed(File file, Exception ex) {
+                ManifestEntry entry = entries.get(file);
                 String message = "failed to verify " + entry + ": " + ex.getMessage();
                 log.error(message, ex);
                 addError(message);
             }
-        }
+        });
     }
 
 }
@@ -0,0 +1,85 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads UTF-8 lines from a file while keeping track of the byte offset of
+ * the next line, so that reading can later be resumed at that offset without
+ * re-reading the lines before it.
+ *
+ * @author Daniel Bernstein
+ */
+public class OffsetLineReader implements Closeable {
+
+    private InputStream in;
+    private long offset;
+    private ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+    /**
+     * @param file   the file to read
+     * @param offset the byte offset of the first line to read
+     * @throws IOException
+     */
+    public OffsetLineReader(File file, long offset) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            fis.getChannel().position(offset);
+        } catch (IOException ex) {
+            fis.close();
+            throw ex;
+        }
+        this.in = new BufferedInputStream(fis, 1 << 16);
+        this.offset = offset;
+    }
+
+    /**
+     * @return the next line without its line terminator, or null at end of file
+     * @throws IOException
+     */
+    public String readLine() throws IOException {
+        line.reset();
+        int b;
+        boolean eof = true;
+        while ((b = in.read()) != -1) {
+            eof = false;
+            offset++;
+            if (b == '\n') {
+                break;
+            }
+            line.write(b);
+        }
+
+        if (eof) {
+            return null;
+        }
+
+        String value = line.toString(StandardCharsets.UTF_8.name());
+        return value.endsWith("\r") ? value.substring(0, value.length() - 1) : value;
+    }
+
+    /**
+     * @return the byte offset of the next line
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.duracloud.chunk.manifest.ChunksManifest;
+import org.duracloud.client.ContentStore;
+import org.duracloud.common.retry.ExceptionHandler;
+import org.duracloud.common.retry.Retriable;
+import org.duracloud.common.retry.Retrier;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
+import org.duracloud.common.util.MimetypeUtil;
+import org.duracloud.error.ContentStoreException;
+import org.duracloud.error.NotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Uploads a large restored file to DuraCloud as chunks plus a chunks
+ * manifest, the same layout the DuraStoreChunkSyncEndpoint produces, but
+ * uploading the chunks of the file in parallel and retrying each chunk on its
+ * own rather than the whole file.
+ *
+ * The chunk size is chosen per file: large enough to keep the number of
+ * chunks manageable, small enough to spread the file over all upload
+ * threads, and no larger than can be uploaded in about a minute at the
+ * throughput measured for earlier chunks, which bounds the cost of a retry.
+ *
+ * The uploader is shared by the writer threads of a restore step, so that its
+ * threads bound the chunk uploads of the step in flight at once. Threads are
+ * only kept while chunks are being uploaded.
+ *
+ * The file is read twice: once by the chunk uploads and once, sequentially,
+ * for the checksum of the whole file. The checksum is computed while the
+ * chunks upload rather than before, since a digest must see the bytes in
+ * order and the chunks are read out of order; holding chunks in memory until
+ * they can be digested in order would take up to a chunk per upload thread.
+ *
+ * @author Daniel Bernstein
+ */
+public class ParallelChunkUploader {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelChunkUploader.class);
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final long DEFAULT_MIN_CHUNK_SIZE = 100L * 1000 * 1000;
+    // the chunk size of the sync endpoint
+    public static final long DEFAULT_MAX_CHUNK_SIZE = 1000L * 1000 * 1000;
+    protected static final long TARGET_CHUNK_MILLIS = 60 * 1000;
+    // chunk ids are numbered with four digits
+    protected static final int MAX_CHUNKS = 9999;
+
+    private static final double THROUGHPUT_DRIFT = 0.2;
+    private static final String CHUNK_MIMETYPE = "application/octet-stream";
+    private static final String MANIFEST_MIMETYPE = "application/xml";
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private ContentStore contentStore;
+    private String spaceId;
+    private int threads;
+    private long minChunkSize;
+    private long maxChunkSize;
+    private ThreadPoolExecutor executor;
+    private MimetypeUtil mimetypeUtil = new MimetypeUtil();
+    private double chunkBytesPerMs = -1;
+
+    /**
+     * @param contentStore the destination store
+     * @param spaceId      the destination space
+     * @param threads      the number of chunks uploaded at once
+     */
+    public ParallelChunkUploader(ContentStore contentStore, String spaceId, int threads) {
+        this(contentStore, spaceId, threads, DEFAULT_MIN_CHUNK_SIZE, DEFAULT_MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * @param contentStore the destination store
+     * @param spaceId      the destination space
+     * @param threads      the number of chunks uploaded at once
+     * @param minChunkSize the smallest chunk size chosen for a file
+     * @param maxChunkSize the largest chunk size chosen for a file; files no
+     *                     larger are not chunked
+     */
+    public ParallelChunkUploader(ContentStore contentStore,
+                                 String spaceId,
+                                 int threads,
+                                 long minChunkSize,
+                                 long maxChunkSize) {
+        this.contentStore = contentStore;
+        this.spaceId = spaceId;
+        this.threads = threads;
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                                               ParallelChunkUploader::newUploadThread);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static Thread newUploadThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "chunk-upload-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * @param file
+     * @return true if the file is to be uploaded in chunks by this uploader
+     */
+    public boolean isChunked(File file) {
+        return file.length() > maxChunkSize;
+    }
+
+    /**
+     * @param fileSize
+     * @return the size of the chunks the file is to be uploaded in
+     */
+    protected synchronized long getChunkSize(long fileSize) {
+        long size = Math.min(maxChunkSize, Math.max(minChunkSize, divideRoundingUp(fileSize, threads)));
+        if (chunkBytesPerMs > 0) {
+            size = Math.min(size, Math.max(minChunkSize, (long) (chunkBytesPerMs * TARGET_CHUNK_MILLIS)));
+        }
+        return Math.max(size, divideRoundingUp(fileSize, MAX_CHUNKS));
+    }
+
+    private static long divideRoundingUp(long dividend, long divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    private synchronized void recordThroughput(long bytes, long elapsedMs) {
+        double bytesPerMs = (double) bytes / Math.max(1, elapsedMs);
+        if (chunkBytesPerMs < 0) {
+            chunkBytesPerMs = bytesPerMs;
+        } else {
+            chunkBytesPerMs += THROUGHPUT_DRIFT * (bytesPerMs - chunkBytesPerMs);
+        }
+    }
+
+    /**
+     * Uploads the chunks of the file in parallel and then its chunks
+     * manifest. While the chunks upload, the calling thread computes the
+     * checksum of the whole file for the manifest.
+     *
+     * @param file
+     * @param contentId
+     * @param properties    the properties of the content, which are given to
+     *                      the chunks manifest, or null
+     * @param retryListener notified whenever an upload is retried
+     * @throws IOException if a chunk or the manifest fails to upload
+     */
+    public void upload(File file,
+                       String contentId,
+                       Map<String, String> properties,
+                       Runnable retryListener) throws IOException {
+        upload(file, contentId, properties, null, retryListener);
+    }
+
+    /**
+     * Uploads the chunks of the file in parallel and then, if the checksum of
+     * the whole file passes the given check, its chunks manifest. Should the
+     * check, a chunk or the manifest fail, the chunks not yet started are
+     * skipped and those already uploaded are deleted once their uploads have
+     * ended, so that no stray chunks are left in the space.
+     *
+     * @param file
+     * @param contentId
+     * @param properties    the properties of the content, which are given to
+     *                      the chunks manifest, or null
+     * @param sourceCheck   accepts the MD5 checksum of the file if it may be
+     *                      uploaded, or null to upload the file regardless
+     * @param retryListener notified whenever an upload is retried
+     * @throws IOException if a chunk or the manifest fails to upload, or the
+     *                     checksum of the file fails the check
+     */
+    public void upload(File file,
+                       String contentId,
+                       Map<String, String> properties,
+                       Predicate<String> sourceCheck,
+                       Runnable retryListener) throws IOException {
+        long fileSize = file.length();
+        long chunkSize = getChunkSize(fileSize);
+        String mimetype = properties != null && properties.get(ContentStore.CONTENT_MIMETYPE) != null ?
+                          properties.get(ContentStore.CONTENT_MIMETYPE) : mimetypeUtil.getMimeType(file);
+        ChunksManifest manifest = new ChunksManifest(contentId, mimetype, fileSize);
+
+        List<String> chunkIds = new ArrayList<>();
+        List<Long> chunkSizes = new ArrayList<>();
+        List<Future<String>> chunkChecksums = new ArrayList<>();
+        AtomicBoolean abandoned = new AtomicBoolean(false);
+        Set<String> started = ConcurrentHashMap.newKeySet();
+        for (long offset = 0; offset < fileSize; offset += chunkSize) {
+            final String chunkId = manifest.nextChunkId();
+            final long chunkOffset = offset;
+            final long length = Math.min(chunkSize, fileSize - offset);
+            chunkIds.add(chunkId);
+            chunkSizes.add(length);
+            chunkChecksums.add(executor.submit(() -> {
+                // once a chunk or the check has failed, the others are of no use
+                if (abandoned.get()) {
+                    return null;
+                }
+                started.add(chunkId);
+                return uploadChunk(file, chunkId, chunkOffset, length, retryListener);
+            }));
+        }
+        log.info("uploading {} in {} chunks of {} bytes", contentId, chunkIds.size(), chunkSize);
+
+        boolean uploaded = false;
+        try {
+            String md5 = new ChecksumUtil(Algorithm.MD5).generateChecksum(file);
+            if (sourceCheck != null && !sourceCheck.test(md5)) {
+                throw new IOException("content id (" + contentId + ") checksum (" + md5 +
+                                      ") does not match the snapshot manifest");
+            }
+            for (int i = 0; i < chunkIds.size(); i++) {
+                manifest.addEntry(chunkIds.get(i), getChunkChecksum(chunkChecksums.get(i)), chunkSizes.get(i));
+            }
+            manifest.setMD5OfSourceContent(md5);
+            uploadManifest(manifest, properties != null ? properties : new HashMap<>(), retryListener);
+            uploaded = true;
+        } finally {
+            if (!uploaded) {
+                abandoned.set(true);
+                deleteChunks(contentId, chunkChecksums, started);
+            }
+        }
+    }
+
+    /**
+     * Waits for the chunk uploads under way to end and deletes the chunks
+     * which were uploaded, or may have been.
+     */
+    private void deleteChunks(String contentId, List<Future<String>> chunkChecksums, Set<String> started) {
+        for (Future<String> chunkChecksum : chunkChecksums) {
+            try {
+                chunkChecksum.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("interrupted waiting for the chunk uploads of {} to end; deleting its chunks regardless",
+                         contentId);
+                break;
+            } catch (ExecutionException e) {
+                // the chunk may still have been stored before the failure
+            }
+        }
+
+        for (String chunkId : started) {
+            try {
+                contentStore.deleteContent(spaceId, chunkId);
+                log.debug("deleted chunk {} of abandoned upload", chunkId);
+            } catch (NotFoundException ex) {
+                // never stored
+            } catch (ContentStoreException ex) {
+                log.warn("unable to delete chunk {} of abandoned upload of {}: {}",
+                         chunkId, contentId, ex.getMessage());
+            }
+        }
+    }
+
+    private String getChunkChecksum(Future<String> chunkChecksum) throws IOException {
+        try {
+            return chunkChecksum.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for chunk upload");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Uploads a chunk read from the file, comparing the checksum reported by
+     * the store with the checksum of the bytes read.
+     *
+     * @return the MD5 checksum of the chunk
+     */
+    private String uploadChunk(final File file,
+                               final String chunkId,
+                               final long offset,
+                               final long length,
+                               final Runnable retryListener) throws Exception {
+        return (String) new Retrier().execute(new Retriable() {
+            @Override
+            public Object retry() throws Exception {
+                long start = System.currentTimeMillis();
+                MessageDigest md5 = MessageDigest.getInstance(Algorithm.MD5.toString());
+                String checksum;
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                     DigestInputStream chunk =
+                         new DigestInputStream(new BoundedInputStream(Channels.newInputStream(channel.position(offset)),
+                                                                      length), md5)) {
+                    checksum = contentStore.addContent(spaceId, chunkId, chunk, length, CHUNK_MIMETYPE, null,
+                                                       new HashMap<>());
+                }
+
+                String read = ChecksumUtil.checksumBytesToString(md5.digest());
+                if (!read.equals(checksum)) {
+                    throw new IOException("Checksum of uploaded chunk " + chunkId + " (" + checksum +
+                                          ") does not match the checksum of the bytes read (" + read + ")");
+                }
+                recordThroughput(length, System.currentTimeMillis() - start);
+                log.debug("uploaded chunk {} ({} bytes)", chunkId, length);
+                return checksum;
+            }
+        }, new ExceptionHandler() {
+            @Override
+            public void handle(Exception ex) {
+                log.warn("retrying upload of chunk {}: {}", chunkId, ex.getMessage());
+                retryListener.run();
+            }
+        });
+    }
+
+    private void uploadManifest(final ChunksManifest manifest,
+                                final Map<String, String> properties,
+                                final Runnable retryListener) throws IOException {
+        final byte[] body = IOUtils.toByteArray(manifest.getBody());
+        final String checksum = new ChecksumUtil(Algorithm.MD5).generateChecksum(new ByteArrayInputStream(body));
+        try {
+            new Retrier().execute(new Retriable() {
+                @Override
+                public Object retry() throws Exception {
+                    return contentStore.addContent(spaceId, manifest.getManifestId(), new ByteArrayInputStream(body),
+                                                   body.length, MANIFEST_MIMETYPE, checksum, properties);
+                }
+            }, new ExceptionHandler() {
+                @Override
+                public void handle(Exception ex) {
+                    log.warn("retrying upload of chunks manifest {}: {}", manifest.getManifestId(), ex.getMessage());
+                    retryListener.run();
+                }
+            });
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException("Failed to upload chunks manifest " + manifest.getManifestId() + ": " +
+                                  ex.getMessage(), ex);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.duracloud.chunk.manifest.ChunksManifest;
+import org.duracloud.chunk.manifest.ChunksManifestBean.ManifestEntry;
+import org.duracloud.chunk.manifest.xml.ManifestDocumentBinding;
+import org.duracloud.client.ContentStore;
+import org.duracloud.common.model.ContentItem;
+import org.duracloud.common.retry.ExceptionHandler;
+import org.duracloud.common.retry.Retriable;
+import org.duracloud.common.retry.Retrier;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
+import org.duracloud.domain.Content;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retrieves large content items into their local file in parallel parts:
+ * the chunks of chunked content, or byte ranges of large unchunked content.
+ * The local file is allocated at its full size up front and each part is
+ * written at its offset, so chunked content is stitched in place rather than
+ * by copying.
+ *
+ * The MD5 of each chunk is verified against the chunks manifest as the chunk
+ * is written, and each part is retried on its own. Once all parts are
+ * written, the file is read back once to verify its MD5 against the
+ * content-checksum property and to compute its SHA-256.
+ *
+ * The retriever is shared by the writer threads of a snapshot step, so that
+ * its threads bound the part retrievals of the step in flight at once.
+ * Threads are only kept while parts are being retrieved.
+ *
+ * @author Daniel Bernstein
+ */
+public class ParallelContentRetriever {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelContentRetriever.class);
+
+    public static final int DEFAULT_THREADS = 1;
+    public static final long DEFAULT_RANGE_SIZE = 100L * 1000 * 1000;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /**
+     * The outcome of a parallel retrieval.
+     */
+    public static class Retrieval {
+        private Map<String, String> properties;
+        private String md5;
+        private String sha256;
+
+        public Retrieval(Map<String, String> properties, String md5, String sha256) {
+            this.properties = properties;
+            this.md5 = md5;
+            this.sha256 = sha256;
+        }
+
+        public Map<String, String> getProperties() {
+            return properties;
+        }
+
+        public String getMd5() {
+            return md5;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+    }
+
+    /**
+     * A part of the content: a chunk, which has an MD5 of its own, or a byte
+     * range of an unchunked content item.
+     */
+    private static class Part {
+        private String contentId;
+        private long offset;
+        private long length;
+        private String md5;
+        private boolean range;
+
+        Part(String contentId, long offset, long length, String md5, boolean range) {
+            this.contentId = contentId;
+            this.offset = offset;
+            this.length = length;
+            this.md5 = md5;
+            this.range = range;
+        }
+    }
+
+    private ContentStore contentStore;
+    private long rangeSize;
+    private ThreadPoolExecutor executor;
+
+    /**
+     * @param contentStore the source store
+     * @param threads      the number of parts retrieved at once
+     */
+    public ParallelContentRetriever(ContentStore contentStore, int threads) {
+        this(contentStore, threads, DEFAULT_RANGE_SIZE);
+    }
+
+    /**
+     * @param contentStore the source store
+     * @param threads      the number of parts retrieved at once
+     * @param rangeSize    the size of the byte ranges unchunked content is
+     *                     retrieved in; content smaller than two ranges is
+     *                     not retrieved in parallel
+     */
+    public ParallelContentRetriever(ContentStore contentStore, int threads, long rangeSize) {
+        this.contentStore = contentStore;
+        this.rangeSize = rangeSize;
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                                               ParallelContentRetriever::newRetrievalThread);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static Thread newRetrievalThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "part-retrieval-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * @param contentItem
+     * @param properties  the source properties of the item
+     * @return true if the item is to be retrieved in parallel parts
+     */
+    public boolean isParallel(ContentItem contentItem, Map<String, String> properties) {
+        if (isChunked(contentItem)) {
+            return true;
+        }
+        long size = getSize(properties);
+        return size >= 2 * rangeSize;
+    }
+
+    private static boolean isChunked(ContentItem contentItem) {
+        return contentItem.getContentId().endsWith(ChunksManifest.manifestSuffix);
+    }
+
+    private static long getSize(Map<String, String> properties) {
+        try {
+            return Long.parseLong(properties.get(ContentStore.CONTENT_SIZE));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Retrieves the item into the local file, replacing any file there.
+     *
+     * @param contentItem
+     * @param properties    the source properties of the item
+     * @param localFile
+     * @param retryListener notified whenever the retrieval of a part is
+     *                      retried
+     * @return the properties and checksums of the retrieved content
+     * @throws IOException if a part cannot be retrieved or the content does
+     *                     not match its checksum, in which case the local
+     *                     file is removed
+     */
+    public Retrieval retrieve(ContentItem contentItem,
+                              Map<String, String> properties,
+                              File localFile,
+                              Runnable retryListener) throws IOException {
+        String spaceId = contentItem.getSpaceId();
+        List<Part> parts;
+        String expectedMd5;
+        if (isChunked(contentItem)) {
+            ChunksManifest manifest = getChunksManifest(spaceId, contentItem.getContentId());
+            parts = getChunks(manifest);
+            expectedMd5 = manifest.getHeader().getSourceMD5();
+        } else {
+            parts = getRanges(contentItem.getContentId(), getSize(properties));
+            expectedMd5 = properties.get(ContentStore.CONTENT_CHECKSUM);
+        }
+
+        long size = 0;
+        for (Part part : parts) {
+            size = Math.max(size, part.offset + part.length);
+        }
+
+        File parent = localFile.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        // never write through an existing file, which may be a hard link
+        Files.deleteIfExists(localFile.toPath());
+
+        boolean retrieved = false;
+        try {
+            try (RandomAccessFile file = new RandomAccessFile(localFile, "rw")) {
+                file.setLength(size);
+                FileChannel channel = file.getChannel();
+                List<Future<?>> retrievals = new ArrayList<>();
+                for (Part part : parts) {
+                    retrievals.add(executor.submit(() -> retrievePart(spaceId, part, channel, retryListener)));
+                }
+                log.info("retrieving {} in {} parts", contentItem.getContentId(), parts.size());
+                await(retrievals);
+            }
+
+            Retrieval retrieval = verify(localFile, properties, expectedMd5);
+            retrieved = true;
+            return retrieval;
+        } finally {
+            if (!retrieved) {
+                localFile.delete();
+            }
+        }
+    }
+
+    private ChunksManifest getChunksManifest(String spaceId, String manifestId) throws IOException {
+        try {
+            Content content = contentStore.getContent(spaceId, manifestId);
+            try (InputStream stream = content.getStream()) {
+                return ManifestDocumentBinding.createManifestFrom(stream);
+            }
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException("Unable to read chunks manifest " + manifestId + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    private List<Part> getChunks(ChunksManifest manifest) {
+        List<ManifestEntry> entries = new ArrayList<>(manifest.getEntries());
+        entries.sort(Comparator.comparingInt(ManifestEntry::getIndex));
+        List<Part> chunks = new ArrayList<>();
+        long offset = 0;
+        for (ManifestEntry entry : entries) {
+            chunks.add(new Part(entry.getChunkId(), offset, entry.getByteSize(), entry.getChunkMD5(), false));
+            offset += entry.getByteSize();
+        }
+        return chunks;
+    }
+
+    private List<Part> getRanges(String contentId, long size) {
+        List<Part> ranges = new ArrayList<>();
+        for (long offset = 0; offset < size; offset += rangeSize) {
+            ranges.add(new Part(contentId, offset, Math.min(rangeSize, size - offset), null, true));
+        }
+        return ranges;
+    }
+
+    private void await(List<Future<?>> retrievals) throws IOException {
+        try {
+            for (Future<?> retrieval : retrievals) {
+                retrieval.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for part retrieval");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        } finally {
+            // once a part has failed, the others are of no use
+            for (Future<?> retrieval : retrievals) {
+                retrieval.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Writes a part at its offset in the local file, verifying its length
+     * and, for a chunk, its MD5.
+     */
+    private Object retrievePart(final String spaceId,
+                                final Part part,
+                                final FileChannel channel,
+                                final Runnable retryListener) throws Exception {
+        return new Retrier().execute(new Retriable() {
+            @Override
+            public Object retry() throws Exception {
+                Content content = part.range ?
+                                  contentStore.getContent(spaceId, part.contentId, part.offset,
+                                                          part.offset + part.length - 1) :
+                                  contentStore.getContent(spaceId, part.contentId);
+                try (DigestInputStream stream = ChecksumUtil.wrapStream(content.getStream(), Algorithm.MD5)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    long position = part.offset;
+                    long end = part.offset + part.length;
+                    int count;
+                    while ((count = stream.read(buffer)) != -1) {
+                        if (position + count > end) {
+                            throw new IOException("More than the expected " + part.length + " bytes of " +
+                                                  part.contentId + " were received");
+                        }
+                        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, count);
+                        while (bytes.hasRemaining()) {
+                            position += channel.write(bytes, position);
+                        }
+                    }
+                    if (position != end) {
+                        throw new IOException("Only " + (position - part.offset) + " of the expected " +
+                                              part.length + " bytes of " + part.contentId + " were received");
+                    }
+
+                    if (part.md5 != null) {
+                        String md5 = ChecksumUtil.getChecksum(stream);
+                        if (!part.md5.equals(md5)) {
+                            throw new IOException("Checksum of chunk " + part.contentId + " (" + md5 +
+                                                  ") does not match its chunks manifest (" + part.md5 + ")");
+                        }
+                    }
+                }
+                log.debug("retrieved {} bytes of {} at offset {}", part.length, part.contentId, part.offset);
+                return null;
+            }
+        }, new ExceptionHandler() {
+            @Override
+            public void handle(Exception ex) {
+                log.warn("retrying retrieval of {} at offset {}: {}", part.contentId, part.offset, ex.getMessage());
+                retryListener.run();
+            }
+        });
+    }
+
+    /**
+     * Reads the assembled file back once, computing both its MD5, which must
+     * match the expected checksum, and its SHA-256.
+     *
+     * @return the retrieval, whose properties carry the verified MD5 as the
+     * content checksum
+     */
+    private Retrieval verify(File localFile,
+                             Map<String, String> properties,
+                             String expectedMd5) throws IOException {
+        DigestInputStream md5Stream =
+            ChecksumUtil.wrapStream(new BufferedInputStream(new FileInputStream(localFile), BUFFER_SIZE),
+                                    Algorithm.MD5);
+        try (DigestInputStream sha256Stream = ChecksumUtil.wrapStream(md5Stream, Algorithm.SHA_256)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (sha256Stream.read(buffer) != -1) {
+                // digesting
+            }
+            String md5 = ChecksumUtil.getChecksum(md5Stream);
+            if (expectedMd5 == null || !expectedMd5.equals(md5)) {
+                throw new IOException("Checksum of retrieved " + localFile.getAbsolutePath() + " (" + md5 +
+                                      ") does not match the checksum of the content (" + expectedMd5 + ")");
+            }
+
+            Map<String, String> verifiedProperties = new HashMap<>(properties);
+            verifiedProperties.put(ContentStore.CONTENT_CHECKSUM, md5);
+            return new Retrieval(verifiedProperties, md5, ChecksumUtil.getChecksum(sha256Stream));
+        }
+    }
+}
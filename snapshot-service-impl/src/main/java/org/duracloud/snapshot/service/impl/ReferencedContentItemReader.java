@@ -0,0 +1,66 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.duracloud.snapshot.db.model.SnapshotContentItem;
+import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
+import org.springframework.batch.item.ItemReader;
+import org.springframework.batch.item.NonTransientResourceException;
+import org.springframework.batch.item.ParseException;
+import org.springframework.batch.item.UnexpectedInputException;
+import org.springframework.data.domain.PageRequest;
+
+/**
+ * Reads the content items of an incremental snapshot which reference content
+ * held by an earlier snapshot, paging by id. A restarted step reads them all
+ * again, which is harmless since staging an item is idempotent.
+ *
+ * @author Daniel Bernstein
+ */
+public class ReferencedContentItemReader implements ItemReader<SnapshotContentItem> {
+
+    private static final int PAGE_SIZE = 1000;
+
+    private SnapshotContentItemRepo repo;
+    private String snapshotName;
+    private Long lastId = 0L;
+    private Iterator<SnapshotContentItem> page;
+    private boolean lastPage = false;
+
+    public ReferencedContentItemReader(SnapshotContentItemRepo repo, String snapshotName) {
+        this.repo = repo;
+        this.snapshotName = snapshotName;
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.batch.item.ItemReader#read()
+     */
+    @Override
+    public synchronized SnapshotContentItem read()
+        throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
+
+        if ((page == null || !page.hasNext()) && !lastPage) {
+            List<SnapshotContentItem> items =
+                repo.findBySnapshotNameAndReferencedSnapshotIdIsNotNullAndIdGreaterThanOrderByIdAsc(
+                    snapshotName, lastId, PageRequest.of(0, PAGE_SIZE));
+            lastPage = items.size() < PAGE_SIZE;
+            page = items.iterator();
+        }
+
+        if (page.hasNext()) {
+            SnapshotContentItem item = page.next();
+            lastId = item.getId();
+            return item;
+        }
+        return null;
+    }
+
+}
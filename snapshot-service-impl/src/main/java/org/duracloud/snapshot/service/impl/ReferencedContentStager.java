@@ -0,0 +1,236 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.duracloud.client.ContentStore;
+import org.duracloud.snapshot.common.SnapshotServiceConstants;
+import org.duracloud.snapshot.db.model.SnapshotContentItem;
+import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.ItemWriter;
+
+/**
+ * Stages the content which an incremental snapshot references, rather than
+ * holds, so that the rest of the restore job treats it like any other
+ * content of the snapshot. The snapshots holding the content are restored
+ * beside the snapshot (see ContentDirUtils.getReferencedSourcePath); each
+ * referenced item is hard linked (or copied) from there into the snapshot's
+ * data directory. Once all items are staged, their md5 and properties, taken
+ * from the snapshot content repo, are added to the snapshot's md5 manifest and
+ * content properties file.
+ *
+ * The original manifest and properties file are kept beside the rewritten
+ * ones, so that a restarted step rebuilds them from the originals.
+ *
+ * @author Daniel Bernstein
+ */
+public class ReferencedContentStager extends StepExecutionSupport implements ItemWriter<SnapshotContentItem> {
+
+    private static final Logger log = LoggerFactory.getLogger(ReferencedContentStager.class);
+
+    private static final String ORIGINAL_SUFFIX = ".own";
+
+    private String restoreId;
+    private File restoreDir;
+    private Map<Long, File> holdingDirs;
+    private SnapshotContentItemRepo repo;
+    private String snapshotName;
+
+    /**
+     * @param restoreId
+     * @param restoreDir  the directory of the restored snapshot
+     * @param holdingDirs the directories of the restored snapshots holding
+     *                    referenced content, keyed by snapshot id
+     * @param repo
+     * @param snapshotName
+     */
+    public ReferencedContentStager(String restoreId,
+                                   File restoreDir,
+                                   Map<Long, File> holdingDirs,
+                                   SnapshotContentItemRepo repo,
+                                   String snapshotName) {
+        this.restoreId = restoreId;
+        this.restoreDir = restoreDir;
+        this.holdingDirs = holdingDirs;
+        this.repo = repo;
+        this.snapshotName = snapshotName;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.batch.item.ItemWriter#write(java.util.List)
+     */
+    @Override
+    public void write(List<? extends SnapshotContentItem> items) throws Exception {
+        for (SnapshotContentItem item : items) {
+            String contentId = item.getContentId();
+            File holdingDir = holdingDirs.get(item.getReferencedSnapshotId());
+            File source = holdingDir != null ? new File(holdingDir, "data" + File.separator + contentId) : null;
+            if (source == null || !source.exists()) {
+                addError(MessageFormat.format("Content item {0} of snapshot {1} is held by snapshot with id {2}, " +
+                                              "which has not been restored to {3}",
+                                              contentId, snapshotName, item.getReferencedSnapshotId(),
+                                              holdingDir));
+                continue;
+            }
+            ContentDeduplicator.link(source, new File(restoreDir, "data" + File.separator + contentId));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.batch.core.StepExecutionListener#beforeStep(org.
+     * springframework.batch.core.StepExecution)
+     */
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        super.beforeStep(stepExecution);
+        clearErrors();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.batch.core.StepExecutionListener#afterStep(org.
+     * springframework.batch.core.StepExecution)
+     */
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (getErrors().isEmpty()) {
+            try {
+                addReferencedEntries();
+            } catch (Exception ex) {
+                log.error("failed to add referenced content of restoration " + restoreId + ": " +
+                          ex.getMessage(), ex);
+                addError("failed to add referenced content to the manifest and properties of snapshot " +
+                         snapshotName + ": " + ex.getMessage());
+            }
+        }
+
+        ExitStatus status = stepExecution.getExitStatus();
+
+        List<String> errors = getErrors();
+        if (errors.size() > 0) {
+            status = status.and(ExitStatus.FAILED);
+
+            for (String error : errors) {
+                status = status.addExitDescription(error);
+            }
+
+            log.error("referenced content staging finished: step_execution_id={} "
+                      + "job_execution_id={} restore_id={} status=\"{}\"",
+                      stepExecution.getId(),
+                      stepExecution.getJobExecutionId(),
+                      restoreId,
+                      status);
+
+            failExecution();
+
+            resetContextState();
+
+        } else {
+            status = status.and(ExitStatus.COMPLETED);
+        }
+
+        return status;
+    }
+
+    /*
+     * Rewrites the md5 manifest and the content properties file as their
+     * originals followed by an entry for each referenced item.
+     */
+    private void addReferencedEntries() throws IOException {
+        File manifest = new File(restoreDir, ManifestFileHelper.MANIFEST_MD5_TEXT_FILE_NAME);
+        File properties = new File(restoreDir, SnapshotServiceConstants.CONTENT_PROPERTIES_JSON_FILENAME);
+        File ownManifest = keepOriginal(manifest);
+        File ownProperties = keepOriginal(properties);
+
+        File manifestTemp = new File(restoreDir, manifest.getName() + ".tmp");
+        File propertiesTemp = new File(restoreDir, properties.getName() + ".tmp");
+        Files.copy(ownManifest.toPath(), manifestTemp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        JsonFactory jsonFactory = new JsonFactory();
+        try (Writer manifestWriter = Files.newBufferedWriter(manifestTemp.toPath(), StandardCharsets.UTF_8,
+                                                             StandardOpenOption.APPEND);
+             BufferedWriter propertiesWriter = Files.newBufferedWriter(propertiesTemp.toPath(),
+                                                                       StandardCharsets.UTF_8);
+             JsonGenerator generator = jsonFactory.createGenerator(propertiesWriter).useDefaultPrettyPrinter();
+             JsonParser parser = jsonFactory.createParser(ownProperties)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("content properties file does not hold an array: " +
+                                      ownProperties.getAbsolutePath());
+            }
+            generator.writeStartArray();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                generator.copyCurrentStructure(parser);
+            }
+
+            ReferencedContentItemReader reader = new ReferencedContentItemReader(repo, snapshotName);
+            SnapshotContentItem item;
+            long count = 0;
+            while ((item = reader.read()) != null) {
+                Map<String, String> props = PropertiesSerializer.deserialize(item.getMetadata());
+                String contentId = item.getContentId();
+                ManifestFileHelper.appendManifestEntry(manifestWriter, contentId,
+                                                       props.get(ContentStore.CONTENT_CHECKSUM));
+                generator.writeStartObject();
+                generator.writeObjectFieldStart(contentId);
+                for (Map.Entry<String, String> prop : props.entrySet()) {
+                    generator.writeStringField(prop.getKey(), prop.getValue());
+                }
+                generator.writeEndObject();
+                generator.writeEndObject();
+                count++;
+            }
+            generator.writeEndArray();
+            log.info("added {} referenced content items to the manifest and properties of restoration {}",
+                     count, restoreId);
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+
+        Files.move(manifestTemp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(propertiesTemp.toPath(), properties.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /*
+     * Copies the file aside unless that was done by an earlier run, and
+     * returns the copy of the original.
+     */
+    private File keepOriginal(File file) throws IOException {
+        File original = new File(file.getParentFile(), file.getName() + ORIGINAL_SUFFIX);
+        if (!original.exists()) {
+            File temp = new File(file.getParentFile(), original.getName() + ".tmp");
+            Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp.toPath(), original.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return original;
+    }
+}
@@ -8,6 +8,9 @@
 package org.duracloud.snapshot.service.impl;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.duracloud.client.ContentStore;
 import org.duracloud.manifeststitch.StitchedManifestGenerator;
@@ -16,8 +19,11 @@ import org.duracloud.snapshot.common.SnapshotServiceConstants;
 import org.duracloud.snapshot.db.ContentDirUtils;
 import org.duracloud.snapshot.db.model.DuracloudEndPointConfig;
 import org.duracloud.snapshot.db.model.Restoration;
+import org.duracloud.snapshot.db.model.Snapshot;
 import org.duracloud.snapshot.db.model.SnapshotContentItem;
 import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
+import org.duracloud.snapshot.db.repo.SnapshotRepo;
+import org.duracloud.snapshot.service.BridgeConfiguration;
 import org.duracloud.snapshot.service.RestoreManager;
 import org.duracloud.snapshot.service.SnapshotJobManagerConfig;
 import org.duracloud.sync.endpoint.DuraStoreChunkSyncEndpoint;
@@ -54,23 +60,34 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
 
     private RestoreManager restoreManager;
     private SnapshotContentItemRepo snapshotContentItemRepo;
+    private SnapshotRepo snapshotRepo;
     private StoreClientHelper storeClientHelper;
+    private FileChecksumScheduler checksumScheduler;
+    private BandwidthManagerImpl bandwidthManager;
 
     @Autowired
     public RestoreJobBuilder(RestoreJobExecutionListener jobListener,
                              JobRepository jobRepository,
                              PlatformTransactionManager transactionManager,
                              @Qualifier("itemTaskExecutor") TaskExecutor taskExecutor,
+                             @Qualifier("virtualItemTaskExecutor") TaskExecutor virtualTaskExecutor,
                              RestoreManager restoreManager,
                              SnapshotContentItemRepo snapshotContentItemRepo,
-                             StoreClientHelper storeClientHelper) {
+                             SnapshotRepo snapshotRepo,
+                             StoreClientHelper storeClientHelper,
+                             BandwidthManagerImpl bandwidthManager) {
         this.jobListener = jobListener;
         this.jobRepository = jobRepository;
         this.transactionManager = transactionManager;
-        this.taskExecutor = taskExecutor;
+        this.taskExecutor = selectItemTaskExecutor(taskExecutor, virtualTaskExecutor);
         this.restoreManager = restoreManager;
         this.snapshotContentItemRepo = snapshotContentItemRepo;
+        this.snapshotRepo = snapshotRepo;
         this.storeClientHelper = storeClientHelper;
+        this.bandwidthManager = bandwidthManager;
+        this.checksumScheduler =
+            new FileChecksumScheduler(BridgeConfiguration.getVerificationConcurrentReads(),
+                                      FileChecksumScheduler.DEFAULT_LARGE_FILE_THRESHOLD);
     }
 
     /*
@@ -98,18 +115,44 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
 
             JobBuilderFactory jobBuilderFactory = new JobBuilderFactory(jobRepository);
             JobBuilder jobBuilder = jobBuilderFactory.get(getJobName());
-            SimpleJobBuilder simpleJobBuilder =
-                jobBuilder.start(buildVerifyTransferUsingManifestStep(restoreId, jobManagerConfig))
-                          .next(buildVerifyTransferUsingSnapshotRepoStep(restoreId, jobManagerConfig))
-                          .next(buildRestoreContentStep(restoreId, destinationSpaceId, contentStore, jobManagerConfig))
-                          .next(buildRestoreContentPropertiesStep(restoreId,
-                                                                  destinationSpaceId,
-                                                                  contentStore,
-                                                                  jobManagerConfig))
-                          .next(buildVerifyDuraCloudTransferStep(restoreId,
-                                                                 destinationSpaceId,
-                                                                 contentStore,
-                                                                 jobManagerConfig));
+            boolean fusedProperties = BridgeConfiguration.isRestoreFusedProperties();
+            boolean verifiedUpload = BridgeConfiguration.isRestoreVerifiedUpload();
+            Step verifyTransferUsingManifestStep =
+                buildVerifyTransferUsingManifestStep(restoreId, verifiedUpload, jobManagerConfig);
+            String snapshotName = restoration.getSnapshot().getName();
+            List<Long> referencedSnapshotIds = snapshotContentItemRepo.findReferencedSnapshotIds(snapshotName);
+            SimpleJobBuilder simpleJobBuilder;
+            if (referencedSnapshotIds.isEmpty()) {
+                simpleJobBuilder = jobBuilder.start(verifyTransferUsingManifestStep);
+            } else {
+                // the content of an incremental snapshot which is held by
+                // earlier snapshots is staged before anything is verified
+                simpleJobBuilder =
+                    jobBuilder.start(buildStageReferencedContentStep(restoreId,
+                                                                     snapshotName,
+                                                                     referencedSnapshotIds,
+                                                                     jobManagerConfig))
+                              .next(verifyTransferUsingManifestStep);
+            }
+            simpleJobBuilder.next(buildVerifyTransferUsingSnapshotRepoStep(restoreId, jobManagerConfig))
+                          .next(buildRestoreContentStep(restoreId,
+                                                        destinationSpaceId,
+                                                        contentStore,
+                                                        destination.getHost(),
+                                                        fusedProperties,
+                                                        verifiedUpload,
+                                                        jobManagerConfig));
+            if (!fusedProperties) {
+                // otherwise the properties are attached as the content is restored
+                simpleJobBuilder.next(buildRestoreContentPropertiesStep(restoreId,
+                                                                        destinationSpaceId,
+                                                                        contentStore,
+                                                                        jobManagerConfig));
+            }
+            simpleJobBuilder.next(buildVerifyDuraCloudTransferStep(restoreId,
+                                                                   destinationSpaceId,
+                                                                   contentStore,
+                                                                   jobManagerConfig));
             simpleJobBuilder.listener(jobListener);
             job = simpleJobBuilder.build();
             log.debug("build job {}", job);
@@ -120,6 +163,50 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
         return job;
     }
 
+    /**
+     * @param restoreId
+     * @param snapshotName
+     * @param referencedSnapshotIds the ids of the snapshots holding content
+     *                              referenced by the restored snapshot
+     * @param jobManagerConfig
+     * @return
+     */
+    private Step buildStageReferencedContentStep(String restoreId,
+                                                 String snapshotName,
+                                                 List<Long> referencedSnapshotIds,
+                                                 SnapshotJobManagerConfig jobManagerConfig)
+        throws Exception {
+        File restoreDir = getRestoreDir(restoreId, jobManagerConfig);
+
+        Map<Long, File> holdingDirs = new HashMap<>();
+        for (Long snapshotId : referencedSnapshotIds) {
+            Snapshot holding = this.snapshotRepo.findById(snapshotId).orElse(null);
+            if (holding != null) {
+                String holdingDir = ContentDirUtils.getReferencedSourcePath(restoreId,
+                                                                            holding.getName(),
+                                                                            jobManagerConfig.getContentRootDir());
+                holdingDirs.put(snapshotId, new File(holdingDir));
+            }
+        }
+
+        ReferencedContentItemReader reader = new ReferencedContentItemReader(this.snapshotContentItemRepo,
+                                                                             snapshotName);
+        ReferencedContentStager writer =
+            new ReferencedContentStager(restoreId, restoreDir, holdingDirs, this.snapshotContentItemRepo, snapshotName);
+
+        SimpleStepFactoryBean<SnapshotContentItem, SnapshotContentItem> stepFactory = new SimpleStepFactoryBean<>();
+        stepFactory.setJobRepository(jobRepository);
+        stepFactory.setTransactionManager(transactionManager);
+        stepFactory.setBeanName("stageReferencedContent");
+        stepFactory.setItemReader(reader);
+        stepFactory.setItemWriter(writer);
+        stepFactory.setCommitInterval(100);
+        stepFactory.setThrottleLimit(20);
+        stepFactory.setTaskExecutor(taskExecutor);
+        stepFactory.setListeners(new StepListener[] {writer});
+        return stepFactory.getObject();
+    }
+
     /**
      * @param restoreId
      * @param jobManagerConfig
@@ -172,7 +259,8 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
         SpaceManifestSnapshotManifestVerifier spaceManifestVerifier =
             new SpaceManifestSnapshotManifestVerifier(md5Manifest,
                                                       new StitchedManifestGenerator(contentStore),
-                                                      destinationSpaceId);
+                                                      destinationSpaceId,
+                                                      BridgeConfiguration.isSortedMergeVerification());
         SpaceVerifier writer = new SpaceVerifier(restoreId,
                                                  spaceManifestVerifier,
                                                  destinationSpaceId,
@@ -197,7 +285,9 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
      * @param jobManagerConfig
      * @return
      */
-    private Step buildVerifyTransferUsingManifestStep(String restoreId, SnapshotJobManagerConfig jobManagerConfig)
+    private Step buildVerifyTransferUsingManifestStep(String restoreId,
+                                                      boolean verifiedUpload,
+                                                      SnapshotJobManagerConfig jobManagerConfig)
         throws Exception {
 
         File restoreDir = getRestoreDir(restoreId, jobManagerConfig);
@@ -208,7 +298,9 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
 
         File contentDir = getRestoreContentDir(restoreDir);
 
-        ManifestVerifier writer = new ManifestVerifier(restoreId, contentDir, restoreManager);
+        ManifestVerifier writer = new ManifestVerifier(restoreId, contentDir, restoreManager, checksumScheduler);
+        // a verified upload checks the checksums as it reads the files
+        writer.setVerifyChecksums(!verifiedUpload);
 
         SimpleStepFactoryBean<ManifestEntry, ManifestEntry> stepFactory = new SimpleStepFactoryBean<>();
         stepFactory.setJobRepository(jobRepository);
@@ -216,7 +308,7 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
         stepFactory.setBeanName("verifyTransferUsingManifest");
         stepFactory.setItemReader(reader);
         stepFactory.setItemWriter(writer);
-        stepFactory.setCommitInterval(1);
+        stepFactory.setCommitInterval(100);
         stepFactory.setThrottleLimit(20);
         stepFactory.setTaskExecutor(taskExecutor);
         stepFactory.setListeners(new StepListener[] {writer, reader});
@@ -265,11 +357,12 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
         return restoreDir;
     }
 
-    private Step buildRestoreContentPropertiesStep(String restorationId,
-                                                   String destinationSpaceId,
-                                                   ContentStore contentStore,
-                                                   SnapshotJobManagerConfig jobManagerConfig) throws Exception {
-
+    /**
+     * @param restorationId
+     * @param jobManagerConfig
+     * @return the restored content properties file
+     */
+    private File getContentPropertiesJsonFile(String restorationId, SnapshotJobManagerConfig jobManagerConfig) {
         File contentPropertiesJsonFile =
             new File(ContentDirUtils.getSourcePath(restorationId, jobManagerConfig.getContentRootDir()),
                      SnapshotServiceConstants.CONTENT_PROPERTIES_JSON_FILENAME);
@@ -278,7 +371,15 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
             throw new RuntimeException("The restored content properties file is missing : "
                                        + contentPropertiesJsonFile.getAbsolutePath());
         }
+        return contentPropertiesJsonFile;
+    }
 
+    private Step buildRestoreContentPropertiesStep(String restorationId,
+                                                   String destinationSpaceId,
+                                                   ContentStore contentStore,
+                                                   SnapshotJobManagerConfig jobManagerConfig) throws Exception {
+
+        File contentPropertiesJsonFile = getContentPropertiesJsonFile(restorationId, jobManagerConfig);
         ContentPropertiesFileReader reader = new ContentPropertiesFileReader(contentPropertiesJsonFile);
 
         ContentPropertiesWriter writer = new ContentPropertiesWriter(contentStore, destinationSpaceId);
@@ -299,10 +400,14 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
     private Step buildRestoreContentStep(String restorationId,
                                          String destinationSpaceId,
                                          ContentStore contentStore,
+                                         String destinationHost,
+                                         boolean fusedProperties,
+                                         boolean verifiedUpload,
                                          SnapshotJobManagerConfig jobManagerConfig) throws Exception {
 
+        ContentStore limitedContentStore = bandwidthManager.limit(contentStore, destinationHost);
         SyncEndpoint endpoint =
-            new DuraStoreChunkSyncEndpoint(contentStore,
+            new DuraStoreChunkSyncEndpoint(limitedContentStore,
                                            jobManagerConfig.getDuracloudUsername(),
                                            destinationSpaceId,
                                            false,
@@ -322,13 +427,38 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
 
         FileSystemReader reader = new FileSystemReader(watchDir);
 
+        AdaptiveConcurrencyLimiter concurrencyLimiter = createContentTransferLimiter("restore " + restorationId);
+
         SyncWriter writer =
             new SyncWriter(restorationId,
                            watchDir,
                            endpoint,
-                           contentStore,
+                           limitedContentStore,
                            destinationSpaceId,
-                           restoreManager);
+                           restoreManager,
+                           concurrencyLimiter);
+        int chunkUploadThreads = BridgeConfiguration.getRestoreChunkUploadThreads();
+        if (fusedProperties) {
+            // kept beside the data directory, which is restored as is
+            File indexFile = new File(watchDir.getParentFile(), "content-properties-index.db");
+            writer.setContentPropertiesIndex(
+                new ContentPropertiesIndex(indexFile, getContentPropertiesJsonFile(restorationId, jobManagerConfig)));
+        }
+        if (verifiedUpload) {
+            writer.setVerificationManifest(getRestoreMd5Manifest(watchDir.getParentFile()));
+        }
+        if (fusedProperties || verifiedUpload) {
+            // the sync endpoint can neither attach properties nor verify
+            // checksums, so all files too large to upload whole go through
+            // the chunk uploader
+            writer.setChunkUploader(new ParallelChunkUploader(limitedContentStore,
+                                                              destinationSpaceId,
+                                                              Math.max(1, chunkUploadThreads)));
+        } else if (chunkUploadThreads > 1) {
+            writer.setChunkUploader(new ParallelChunkUploader(limitedContentStore,
+                                                              destinationSpaceId,
+                                                              chunkUploadThreads));
+        }
 
         SimpleStepFactoryBean<File, File> stepFactory = new SimpleStepFactoryBean<>();
         stepFactory.setJobRepository(jobRepository);
@@ -337,8 +467,7 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
         stepFactory.setItemReader(reader);
         stepFactory.setItemWriter(writer);
         stepFactory.setCommitInterval(1);
-        setThrottleLimitForContentTransfers(stepFactory);
-        stepFactory.setTaskExecutor(taskExecutor);
+        setConcurrencyForContentTransfers(stepFactory, taskExecutor, concurrencyLimiter);
         stepFactory.setListeners(new StepListener[] {writer});
         return stepFactory.getObject();
     }
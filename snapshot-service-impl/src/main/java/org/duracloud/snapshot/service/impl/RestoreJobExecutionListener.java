@@ -73,6 +73,9 @@ public class RestoreJobExecutionListener implements JobExecutionListener {
     @Autowired
     private EventLog eventLog;
 
+    @Autowired
+    private DiskCapacityManager diskCapacityManager;
+
     private ExecutionListenerConfig config;
 
     private Integer daysToExpire;
@@ -182,6 +185,7 @@ public class RestoreJobExecutionListener implements JobExecutionListener {
                     log.error("failed to delete restoration path = "
                               + restorationPath + ": " + e.getMessage(), e);
                 }
+                diskCapacityManager.release(restoreId);
 
                 List<String> emailAddresses =
                     new ArrayList<>(Arrays.asList(config.getDuracloudEmailAddresses()));
@@ -23,6 +23,7 @@ import org.duracloud.client.ContentStore;
 import org.duracloud.common.notification.NotificationManager;
 import org.duracloud.common.notification.NotificationType;
 import org.duracloud.common.util.DateUtil;
+import org.duracloud.snapshot.InsufficientDiskCapacityException;
 import org.duracloud.snapshot.SnapshotException;
 import org.duracloud.snapshot.SnapshotInProcessException;
 import org.duracloud.snapshot.SnapshotNotFoundException;
@@ -31,6 +32,7 @@ import org.duracloud.snapshot.db.model.DuracloudEndPointConfig;
 import org.duracloud.snapshot.db.model.Restoration;
 import org.duracloud.snapshot.db.model.Snapshot;
 import org.duracloud.snapshot.db.repo.RestoreRepo;
+import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
 import org.duracloud.snapshot.db.repo.SnapshotRepo;
 import org.duracloud.snapshot.dto.RestoreStatus;
 import org.duracloud.snapshot.dto.SnapshotStatus;
@@ -59,6 +61,10 @@ import org.springframework.util.CollectionUtils;
 public class RestoreManagerImpl implements RestoreManager {
     private static Logger log =
         LoggerFactory.getLogger(RestoreManagerImpl.class);
+
+    private static final String REQUEST_ISSUED = "Restoration request issued";
+    private static final String WAITING_FOR_DISK_CAPACITY =
+        "Restoration request waiting for disk capacity on the bridge";
     private RestoreManagerConfig config;
     private SnapshotJobManager jobManager;
 
@@ -71,6 +77,9 @@ public class RestoreManagerImpl implements RestoreManager {
     @Autowired
     private SnapshotRepo snapshotRepo;
 
+    @Autowired
+    private SnapshotContentItemRepo snapshotContentItemRepo;
+
     @Autowired
     private StoreClientHelper storeClientHelper;
 
@@ -83,6 +92,9 @@ public class RestoreManagerImpl implements RestoreManager {
     @Autowired
     private EventLog eventLog;
 
+    @Autowired
+    private DiskCapacityManager diskCapacityManager;
+
     public RestoreManagerImpl() {
     }
 
@@ -94,6 +106,14 @@ public class RestoreManagerImpl implements RestoreManager {
         this.snapshotRepo = snapshotRepo;
     }
 
+    /**
+     * For testing purposes only
+     * @param snapshotContentItemRepo the snapshotContentItemRepo to set
+     */
+    protected void setSnapshotContentItemRepo(SnapshotContentItemRepo snapshotContentItemRepo) {
+        this.snapshotContentItemRepo = snapshotContentItemRepo;
+    }
+
     /**
      * For testing purposes only
      * @param notificationManager the notificationManager to set
@@ -142,6 +162,14 @@ public class RestoreManagerImpl implements RestoreManager {
         this.snapshotManager = snapshotManager;
     }
 
+    /**
+     * For testing purposes only
+     * @param diskCapacityManager the disk capacity manager
+     */
+    protected void setDiskCapacityManager(DiskCapacityManager diskCapacityManager) {
+        this.diskCapacityManager = diskCapacityManager;
+    }
+
     /* (non-Javadoc)
      * @see org.duracloud.snapshot.service.RestorationManager#restoreSnapshot(java.lang.String,
      * org.duracloud.snapshot.db.model.DuracloudEndPointConfig)
@@ -165,11 +193,117 @@ public class RestoreManagerImpl implements RestoreManager {
         Restoration restoration =
             createRestoration(snapshot, destination, userEmail);
 
-        validateAndSet(restoration, RestoreStatus.RETRIEVING_FROM_STORAGE, "Restoration request issued");
+        validateAndSet(restoration, RestoreStatus.RETRIEVING_FROM_STORAGE, REQUEST_ISSUED);
 
         restoration = save(restoration);
 
-        String restorationId = restoration.getRestorationId();
+        // the restored content lands on the bridge as soon as the storage
+        // owner acts on the request, so the request waits for disk capacity
+        final String restorationId = restoration.getRestorationId();
+        boolean admitted;
+        try {
+            admitted = diskCapacityManager.admit(restorationId, getFootprint(snapshot),
+                                                 waitingRequestIssuer(restorationId));
+        } catch (InsufficientDiskCapacityException ex) {
+            restoreRepo.delete(restoration);
+            throw ex;
+        }
+
+        if (admitted) {
+            requestRetrieval(snapshotId, restorationId);
+        } else {
+            log.info("restoration {} is waiting for disk capacity on the bridge", restorationId);
+            restoration.setStatusText(WAITING_FOR_DISK_CAPACITY);
+            restoration = save(restoration);
+        }
+        return restoration;
+    }
+
+    private long getFootprint(Snapshot snapshot) {
+        // the snapshots holding content referenced by an incremental
+        // snapshot are restored in full beside it
+        long footprint = getTotalSize(snapshot);
+        for (Snapshot referenced : getReferencedSnapshots(snapshot.getName())) {
+            footprint += getTotalSize(referenced);
+        }
+        return footprint;
+    }
+
+    private long getTotalSize(Snapshot snapshot) {
+        Long totalSize = snapshot.getTotalSizeInBytes();
+        return totalSize != null ? totalSize : 0;
+    }
+
+    /*
+     * Returns the earlier snapshots holding content which is referenced by,
+     * rather than stored in, the given (incremental) snapshot.
+     */
+    private List<Snapshot> getReferencedSnapshots(String snapshotId) {
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (Long id : snapshotContentItemRepo.findReferencedSnapshotIds(snapshotId)) {
+            Snapshot referenced = snapshotRepo.findById(id).orElse(null);
+            if (referenced != null) {
+                snapshots.add(referenced);
+            } else {
+                log.warn("snapshot {} references content of snapshot with id {}, which does not exist",
+                         snapshotId, id);
+            }
+        }
+        return snapshots;
+    }
+
+    private Runnable waitingRequestIssuer(final String restorationId) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                issueWaitingRequest(restorationId);
+            }
+        };
+    }
+
+    /*
+     * Issues the request of a restoration which was waiting for disk capacity
+     * and has now been admitted.
+     */
+    private void issueWaitingRequest(String restorationId) {
+        try {
+            Restoration restoration = getRestoration(restorationId);
+            restoration.setStatusText(REQUEST_ISSUED);
+            restoration = save(restoration);
+            requestRetrieval(restoration.getSnapshot().getName(), restorationId);
+        } catch (Exception ex) {
+            log.error("failed to issue the request of restoration " + restorationId + ": " +
+                      ex.getMessage(), ex);
+        }
+    }
+
+    /*
+     * Queues restorations which were waiting for disk capacity when the bridge
+     * was last stopped.
+     */
+    private void requeueWaitingRestores() {
+        for (Restoration restoration : restoreRepo.findByStatus(RestoreStatus.RETRIEVING_FROM_STORAGE)) {
+            String restorationId = restoration.getRestorationId();
+            if (!WAITING_FOR_DISK_CAPACITY.equals(restoration.getStatusText()) ||
+                diskCapacityManager.isReserved(restorationId) ||
+                diskCapacityManager.isWaiting(restorationId)) {
+                continue;
+            }
+
+            try {
+                boolean admitted =
+                    diskCapacityManager.admit(restorationId, getFootprint(restoration.getSnapshot()),
+                                              waitingRequestIssuer(restorationId));
+                if (admitted) {
+                    issueWaitingRequest(restorationId);
+                }
+            } catch (InsufficientDiskCapacityException ex) {
+                log.error("restoration {} can not be admitted: {}", restorationId, ex.getMessage());
+            }
+        }
+    }
+
+    private void requestRetrieval(String snapshotId, String restorationId) {
         File restoreDir = getRestoreDir(restorationId);
         restoreDir.mkdirs();
 
@@ -180,11 +314,26 @@ public class RestoreManagerImpl implements RestoreManager {
                       "\nSnapshot ID: " + snapshotId +
                       "\nRestore ID: " + restorationId +
                       "\nRestore Location: " + restoreDir.getAbsolutePath();
+
+        List<Snapshot> referencedSnapshots = getReferencedSnapshots(snapshotId);
+        if (!referencedSnapshots.isEmpty()) {
+            body += "\n\nThis snapshot is incremental: part of its content is held by " +
+                    "earlier snapshots. Please also restore each of the following " +
+                    "snapshots to its restore location, and report the restore as " +
+                    "complete only once all of them have been restored.\n";
+            for (Snapshot referenced : referencedSnapshots) {
+                File referencedDir =
+                    new File(ContentDirUtils.getReferencedSourcePath(restorationId,
+                                                                     referenced.getName(),
+                                                                     new File(this.config.getRestorationRootDir())));
+                body += "\nSnapshot ID: " + referenced.getName() +
+                        "\nRestore Location: " + referencedDir.getAbsolutePath() + "\n";
+            }
+        }
         notificationManager.sendNotification(NotificationType.EMAIL,
                                              subject,
                                              body,
                                              getAllEMailAddresses(this.config));
-        return restoration;
     }
 
     /* (non-Javadoc)
@@ -331,6 +480,7 @@ public class RestoreManagerImpl implements RestoreManager {
         } else if (status.equals(RestoreStatus.RETRIEVING_FROM_STORAGE)) {
             log.info("caller has indicated that restoration request {} is complete.",
                      restoration);
+            diskCapacityManager.allLanded(restoreId);
             Restoration updatedRestoration =
                 _transitionRestoreStatus(RestoreStatus.STORAGE_RETRIEVAL_COMPLETE,
                                          "Completed restore to bridge storage",
@@ -475,6 +625,8 @@ public class RestoreManagerImpl implements RestoreManager {
     @Transactional
     public void finalizeRestores() {
         log.debug("Running finalize restores...");
+        requeueWaitingRestores();
+
         List<Restoration> completedRestores =
             restoreRepo.findByStatus(RestoreStatus.RESTORATION_COMPLETE);
 
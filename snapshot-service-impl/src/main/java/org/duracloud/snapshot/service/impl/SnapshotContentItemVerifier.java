@@ -13,7 +13,6 @@ import java.util.List;
 import java.util.Map;
 
 import org.duracloud.client.ContentStore;
-import org.duracloud.common.collection.WriteOnlyStringSet;
 import org.duracloud.common.constant.Constants;
 import org.duracloud.common.retry.Retriable;
 import org.duracloud.common.retry.Retrier;
@@ -41,7 +40,7 @@ public class SnapshotContentItemVerifier extends StepExecutionSupport
     private String restoreId;
     private String snapshotName;
     private RestoreManager restoreManager;
-    private WriteOnlyStringSet manifestSet;
+    private ManifestIndex manifestSet;
 
     /**
      * @param restoreId
@@ -112,7 +111,7 @@ public class SnapshotContentItemVerifier extends StepExecutionSupport
         resetContextState();
         try {
 
-            this.manifestSet = ManifestFileHelper.loadManifestSetFromFile(this.manifestFile);
+            this.manifestSet = ManifestIndex.open(this.manifestFile);
 
             new Retrier().execute(new Retriable() {
                 /*
@@ -202,7 +201,7 @@ public class SnapshotContentItemVerifier extends StepExecutionSupport
             // verify that manifest contains every item from the database except
             // SNAPSHOT_PROPS_FILENAME
             if (!contentId.equals(Constants.SNAPSHOT_PROPS_FILENAME)) {
-                if (!this.manifestSet.contains(ManifestFileHelper.formatManifestSetString(contentId, checksum))) {
+                if (!this.manifestSet.contains(contentId, checksum)) {
                     addError(MessageFormat.format("Content item {0} with checksum {1} not found in manifest "
                                                   + "for snapshot {2}", contentId, checksum, this.snapshotName));
                 }
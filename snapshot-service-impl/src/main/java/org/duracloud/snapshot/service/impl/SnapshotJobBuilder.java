@@ -23,6 +23,9 @@ import org.duracloud.snapshot.common.SnapshotServiceConstants;
 import org.duracloud.snapshot.db.ContentDirUtils;
 import org.duracloud.snapshot.db.model.DuracloudEndPointConfig;
 import org.duracloud.snapshot.db.model.Snapshot;
+import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
+import org.duracloud.snapshot.db.repo.SnapshotRepo;
+import org.duracloud.snapshot.service.BridgeConfiguration;
 import org.duracloud.snapshot.service.SnapshotJobManagerConfig;
 import org.duracloud.snapshot.service.SnapshotManager;
 import org.slf4j.Logger;
@@ -55,27 +58,45 @@ public class SnapshotJobBuilder extends AbstractJobBuilder implements BatchJobBu
         SnapshotServiceConstants.MANIFEST_SHA256_TXT_FILE_NAME;
     private static final String MANIFEST_MD5_TXT_FILE_NAME =
         SnapshotServiceConstants.MANIFEST_MD5_TXT_FILE_NAME;
+    private static final String REFERENCED_MANIFEST_MD5_TXT_FILE_NAME =
+        SnapshotServiceConstants.REFERENCED_MANIFEST_MD5_TXT_FILE_NAME;
     private SnapshotJobExecutionListener jobListener;
     private JobRepository jobRepository;
     private PlatformTransactionManager transactionManager;
     private TaskExecutor taskExecutor;
     private SnapshotManager snapshotManager;
     private StoreClientHelper storeClientHelper;
+    private BandwidthManagerImpl bandwidthManager;
+    private DiskCapacityManager diskCapacityManager;
+    private SnapshotRepo snapshotRepo;
+    private SnapshotContentItemRepo snapshotContentItemRepo;
+    private ContentBlobStore contentBlobStore;
 
     @Autowired
     public SnapshotJobBuilder(SnapshotJobExecutionListener jobListener,
                               JobRepository jobRepository,
                               PlatformTransactionManager transactionManager,
                               @Qualifier("itemTaskExecutor") TaskExecutor taskExecutor,
+                              @Qualifier("virtualItemTaskExecutor") TaskExecutor virtualTaskExecutor,
                               SnapshotManager snapshotManager,
-                              StoreClientHelper storeClientHelper) {
+                              StoreClientHelper storeClientHelper,
+                              BandwidthManagerImpl bandwidthManager,
+                              DiskCapacityManager diskCapacityManager,
+                              SnapshotRepo snapshotRepo,
+                              SnapshotContentItemRepo snapshotContentItemRepo,
+                              ContentBlobStore contentBlobStore) {
 
         this.jobListener = jobListener;
         this.jobRepository = jobRepository;
         this.transactionManager = transactionManager;
-        this.taskExecutor = taskExecutor;
+        this.taskExecutor = selectItemTaskExecutor(taskExecutor, virtualTaskExecutor);
         this.snapshotManager = snapshotManager;
         this.storeClientHelper = storeClientHelper;
+        this.bandwidthManager = bandwidthManager;
+        this.diskCapacityManager = diskCapacityManager;
+        this.snapshotRepo = snapshotRepo;
+        this.snapshotContentItemRepo = snapshotContentItemRepo;
+        this.contentBlobStore = contentBlobStore;
     }
 
     /* (non-Javadoc)
@@ -98,13 +119,16 @@ public class SnapshotJobBuilder extends AbstractJobBuilder implements BatchJobBu
             List<String> spaces = new ArrayList<>();
             spaces.add(source.getSpaceId());
 
+            ContentStore limitedContentStore = bandwidthManager.limit(contentStore, source.getHost());
             RetrievalSource retrievalSource =
-                new DuraStoreStitchingRetrievalSource(contentStore,
+                new DuraStoreStitchingRetrievalSource(limitedContentStore,
                                                       spaces,
                                                       false);
 
             ItemReader<ContentItem> itemReader =
-                new SpaceItemReader(retrievalSource);
+                new SpaceItemReader(retrievalSource,
+                                    BridgeConfiguration.getSpaceListingHighWatermark(),
+                                    BridgeConfiguration.getSpaceListingLowWatermark());
 
             File contentDir =
                 new File(ContentDirUtils.getDestinationPath(snapshot.getName(),
@@ -117,11 +141,33 @@ public class SnapshotJobBuilder extends AbstractJobBuilder implements BatchJobBu
             File md5File = new File(contentDir, MANIFEST_MD5_TXT_FILE_NAME);
             File sha256File = new File(contentDir, MANIFEST_SHA256_TXT_FILE_NAME);
 
+            UnchangedContentIndex unchangedContentIndex = null;
+            File referencedMd5File = null;
+            if (snapshot.getParentSnapshotId() != null) {
+                Snapshot parent = snapshotRepo.findById(snapshot.getParentSnapshotId()).orElse(null);
+                if (parent != null) {
+                    unchangedContentIndex =
+                        new UnchangedContentIndex(new File(contentDir, snapshot.getName() + "-unchanged.db"),
+                                                  parent,
+                                                  snapshotContentItemRepo,
+                                                  new StitchedManifestGenerator(contentStore),
+                                                  source.getSpaceId());
+                    referencedMd5File = new File(contentDir, REFERENCED_MANIFEST_MD5_TXT_FILE_NAME);
+                } else {
+                    log.warn("parent snapshot (id={}) of {} no longer exists: retrieving all content",
+                             snapshot.getParentSnapshotId(), snapshot.getName());
+                }
+            }
+
             SpaceManifestSnapshotManifestVerifier verifier =
                 new SpaceManifestSnapshotManifestVerifier(md5File,
+                                                          referencedMd5File,
                                                           new StitchedManifestGenerator(contentStore),
-                                                          source.getSpaceId());
-            ItemWriter itemWriter =
+                                                          source.getSpaceId(),
+                                                          BridgeConfiguration.isSortedMergeVerification());
+            AdaptiveConcurrencyLimiter concurrencyLimiter =
+                createContentTransferLimiter("snapshot " + snapshot.getName());
+            SpaceItemWriter spaceItemWriter =
                 new SpaceItemWriter(snapshot,
                                     retrievalSource,
                                     contentDir,
@@ -130,7 +176,32 @@ public class SnapshotJobBuilder extends AbstractJobBuilder implements BatchJobBu
                                     md5File,
                                     sha256File,
                                     snapshotManager,
-                                    verifier);
+                                    verifier,
+                                    concurrencyLimiter,
+                                    diskCapacityManager,
+                                    unchangedContentIndex,
+                                    referencedMd5File);
+            boolean deduplicate = BridgeConfiguration.isContentDeduplication();
+            boolean linkStoredContent = contentBlobStore.isEnabled();
+            if (deduplicate || linkStoredContent) {
+                SpaceManifestChecksums checksums =
+                    new SpaceManifestChecksums(new File(contentDir, snapshot.getName() + "-checksums.db"),
+                                               new StitchedManifestGenerator(contentStore),
+                                               source.getSpaceId());
+                spaceItemWriter.setSpaceManifestChecksums(checksums);
+                if (deduplicate) {
+                    spaceItemWriter.setContentDeduplicator(new ContentDeduplicator(checksums));
+                }
+                if (linkStoredContent) {
+                    spaceItemWriter.setContentBlobStore(contentBlobStore);
+                }
+            }
+            int parallelRetrievalThreads = BridgeConfiguration.getParallelRetrievalThreads();
+            if (parallelRetrievalThreads > 1) {
+                spaceItemWriter.setParallelContentRetriever(
+                    new ParallelContentRetriever(limitedContentStore, parallelRetrievalThreads));
+            }
+            ItemWriter itemWriter = spaceItemWriter;
 
             SimpleStepFactoryBean<ContentItem, File> stepFactory =
                 new SimpleStepFactoryBean<>();
@@ -140,8 +211,7 @@ public class SnapshotJobBuilder extends AbstractJobBuilder implements BatchJobBu
             stepFactory.setItemReader(itemReader);
             stepFactory.setItemWriter(itemWriter);
             stepFactory.setCommitInterval(1);
-            setThrottleLimitForContentTransfers(stepFactory);
-            stepFactory.setTaskExecutor(taskExecutor);
+            setConcurrencyForContentTransfers(stepFactory, taskExecutor, concurrencyLimiter);
             Step step = (Step) stepFactory.getObject();
 
             JobBuilderFactory jobBuilderFactory =
@@ -20,6 +20,7 @@ import org.duracloud.common.notification.NotificationType;
 import org.duracloud.snapshot.common.SnapshotServiceConstants;
 import org.duracloud.snapshot.db.ContentDirUtils;
 import org.duracloud.snapshot.db.model.Snapshot;
+import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
 import org.duracloud.snapshot.db.repo.SnapshotRepo;
 import org.duracloud.snapshot.dto.SnapshotStatus;
 import org.duracloud.snapshot.service.EventLog;
@@ -50,12 +51,18 @@ public class SnapshotJobExecutionListener implements JobExecutionListener {
     @Autowired
     private SnapshotRepo snapshotRepo;
 
+    @Autowired
+    private SnapshotContentItemRepo snapshotContentItemRepo;
+
     @Autowired
     private SnapshotManager snapshotManager;
 
     @Autowired
     private EventLog eventLog;
 
+    @Autowired
+    private DiskCapacityManager diskCapacityManager;
+
     private ExecutionListenerConfig config;
 
     /**
@@ -72,6 +79,13 @@ public class SnapshotJobExecutionListener implements JobExecutionListener {
         this.snapshotRepo = snapshotRepo;
     }
 
+    /**
+     * @param snapshotContentItemRepo the snapshotContentItemRepo to set
+     */
+    public void setSnapshotContentItemRepo(SnapshotContentItemRepo snapshotContentItemRepo) {
+        this.snapshotContentItemRepo = snapshotContentItemRepo;
+    }
+
     public void init(ExecutionListenerConfig config) {
         this.config = config;
     }
@@ -110,7 +124,17 @@ public class SnapshotJobExecutionListener implements JobExecutionListener {
 
         if (BatchStatus.COMPLETED.equals(status)) {
             File snapshotDir = new File(snapshotPath);
+            // covers only the content held by this snapshot; referenced content
+            // is counted in the size of the snapshot holding it, which is what
+            // the restore footprint relies on
             snapshot.setTotalSizeInBytes(FileUtils.sizeOfDirectory(snapshotDir));
+            // recorded so that item totals need not count content item rows;
+            // this includes items referenced from earlier snapshots
+            snapshot.setContentItemCount(snapshotContentItemRepo.countBySnapshotId(snapshot.getId()));
+            // the snapshot directory is complete, so the volume's usable space
+            // accounts for it; this includes whatever the writers did not
+            // report as landed, such as content linked from the blob store
+            diskCapacityManager.allLanded(snapshotId);
             // Job success. Email everyone that a snapshot is ready for
             // transfer into preservation storage.
             String subject =
@@ -150,6 +174,9 @@ public class SnapshotJobExecutionListener implements JobExecutionListener {
                                  "batch job did not complete: batch status = "
                                  + status);
             log.error("transfer from duracloud failed: " + errorDescription);
+            // what the failed job wrote is already on disk, and it will not
+            // write any more
+            diskCapacityManager.release(snapshotId);
         }
     }
 
@@ -8,13 +8,16 @@
 package org.duracloud.snapshot.service.impl;
 
 import java.io.File;
-import java.text.MessageFormat;
 import java.util.Date;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
 import org.duracloud.client.ContentStore;
 import org.duracloud.common.retry.Retriable;
 import org.duracloud.common.retry.Retrier;
+import org.duracloud.error.ContentStoreException;
 import org.duracloud.snapshot.SnapshotConstants;
 import org.duracloud.snapshot.SnapshotException;
 import org.duracloud.snapshot.SnapshotNotFoundException;
@@ -22,6 +25,8 @@ import org.duracloud.snapshot.common.SnapshotServiceConstants;
 import org.duracloud.snapshot.db.ContentDirUtils;
 import org.duracloud.snapshot.db.model.BaseEntity;
 import org.duracloud.snapshot.db.model.DuracloudEndPointConfig;
+import org.duracloud.snapshot.db.model.JobQueueEntry;
+import org.duracloud.snapshot.db.model.JobQueueEntry.JobType;
 import org.duracloud.snapshot.db.model.Restoration;
 import org.duracloud.snapshot.db.model.Snapshot;
 import org.duracloud.snapshot.db.repo.RestoreRepo;
@@ -30,10 +35,12 @@ import org.duracloud.snapshot.dto.RestoreStatus;
 import org.duracloud.snapshot.dto.SnapshotStatus;
 import org.duracloud.snapshot.dto.task.CompleteCancelSnapshotTaskParameters;
 import org.duracloud.snapshot.service.AlreadyInitializedException;
+import org.duracloud.snapshot.service.BridgeConfiguration;
 import org.duracloud.snapshot.service.EventLog;
 import org.duracloud.snapshot.service.RestorationNotFoundException;
 import org.duracloud.snapshot.service.SnapshotJobManager;
 import org.duracloud.snapshot.service.SnapshotJobManagerConfig;
+import org.duracloud.storage.provider.StorageProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.BatchStatus;
@@ -41,16 +48,12 @@ import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobParameters;
-import org.springframework.batch.core.JobParametersInvalidException;
 import org.springframework.batch.core.Step;
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.launch.JobExecutionNotRunningException;
 import org.springframework.batch.core.launch.JobLauncher;
 import org.springframework.batch.core.launch.NoSuchJobExecutionException;
-import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
-import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
 import org.springframework.batch.core.repository.JobRepository;
-import org.springframework.batch.core.repository.JobRestartException;
 import org.springframework.batch.core.scope.context.StepSynchronizationManager;
 import org.springframework.batch.core.step.NoSuchStepException;
 import org.springframework.batch.core.step.StepLocator;
@@ -63,7 +66,8 @@ import org.springframework.transaction.annotation.Transactional;
 
 /**
  * The default implementation of the <code>SnapshotJobManager</code> interface.
- * Uses spring-batch componentry.
+ * Uses spring-batch componentry. Jobs are not launched directly but queued
+ * with the JobDispatcher, which runs them as job slots become free.
  *
  * @author Daniel Bernstein Date: Feb 11, 2014
  */
@@ -71,6 +75,8 @@ import org.springframework.transaction.annotation.Transactional;
 public class SnapshotJobManagerImpl implements SnapshotJobManager {
 
     private static final Logger log = LoggerFactory.getLogger(SnapshotJobManagerImpl.class);
+    private static final Pattern SIZE_PATTERN =
+        Pattern.compile("([0-9]+(?:\\.[0-9]+)?)\\s*((?:[KMGTP]i?)?B|bytes?)?", Pattern.CASE_INSENSITIVE);
     private JobLauncher jobLauncher;
     private JobRepository jobRepository;
     private SnapshotRepo snapshotRepo;
@@ -79,6 +85,8 @@ public class SnapshotJobManagerImpl implements SnapshotJobManager {
     private BatchJobBuilderManager builderManager;
     private StoreClientHelper storeClientHelper;
     private EventLog eventLog;
+    private DiskCapacityManager diskCapacityManager;
+    private JobDispatcher jobDispatcher;
 
     @Autowired
     public SnapshotJobManagerImpl(SnapshotRepo snapshotRepo,
@@ -87,7 +95,9 @@ public class SnapshotJobManagerImpl implements SnapshotJobManager {
                                   JobRepository jobRepository,
                                   BatchJobBuilderManager manager,
                                   StoreClientHelper storeClientHelper,
-                                  EventLog eventLog) {
+                                  EventLog eventLog,
+                                  DiskCapacityManager diskCapacityManager,
+                                  JobDispatcher jobDispatcher) {
         super();
         this.restoreRepo = restoreRepo;
         this.snapshotRepo = snapshotRepo;
@@ -96,6 +106,8 @@ public class SnapshotJobManagerImpl implements SnapshotJobManager {
         this.jobRepository = jobRepository;
         this.storeClientHelper = storeClientHelper;
         this.eventLog = eventLog;
+        this.diskCapacityManager = diskCapacityManager;
+        this.jobDispatcher = jobDispatcher;
     }
 
     /*
@@ -125,10 +137,16 @@ public class SnapshotJobManagerImpl implements SnapshotJobManager {
                 @Override
                 public void run() {
                     try {
+                        jobDispatcher.recover();
                         restartIncompleteJobs();
                     } catch (Exception e) {
                         log.error(
                             "failed to restart all incomplete jobs:" + e.getMessage(), e);
+                    } finally {
+                        // dispatching only once incomplete jobs are queued,
+                        // so that a resumed job is never mistaken for a stale
+                        // execution
+                        jobDispatcher.start(SnapshotJobManagerImpl.this::launch);
                     }
                 }
             }).start();
@@ -167,40 +185,94 @@ public class SnapshotJobManagerImpl implements SnapshotJobManager {
     private void resumeJob(String jobName, Object entity) throws SnapshotException {
 
         BatchJobBuilder builder = this.builderManager.getBuilder(entity);
-        Job job = builder.buildJob(entity, config);
         JobParameters params = builder.buildIdentifyingJobParameters(entity);
         JobExecution jobExecution = this.jobRepository.getLastJobExecution(jobName, params);
 
-        if (jobExecution != null) {
-            if (!jobExecution.getStatus().isRunning()) {
-                return;
-            } else {
-                log.debug("found job execution in running state for {} (job execution = {})", entity, jobExecution);
-                jobExecution.setStatus(BatchStatus.STOPPED);
-                jobExecution.setExitStatus(ExitStatus.STOPPED);
-                jobExecution.setEndTime(new Date());
-                jobRepository.update(jobExecution);
-                log.info("updated job execution in running state to stopped: {} (job execution = {})",
-                         entity,
-                         jobExecution);
-            }
+        if (jobExecution == null && entity instanceof Snapshot) {
+            // never started, so it has yet to be admitted
+            executeSnapshot(((Snapshot) entity).getName());
+            return;
         }
 
+        if (jobExecution != null && !jobExecution.getStatus().isRunning()) {
+            return;
+        }
+
+        // the stale execution is stopped when the job is launched again
+        executeJob(entity);
+        log.info("queued {} to be resumed (last job execution = {})", entity, jobExecution);
+    }
+
+    /**
+     * Runs the job of a dispatched queue entry. Called by the JobDispatcher
+     * on a job slot thread; returns once the job has ended. Should the job
+     * fail to be built or launched, the snapshot or restoration is moved to
+     * the error state, as its entry leaves the queue regardless.
+     *
+     * @param entry
+     * @throws Exception
+     */
+    protected void launch(JobQueueEntry entry) throws Exception {
+        BaseEntity entity = entry.getJobType() == JobType.SNAPSHOT
+                            ? getSnapshot(entry.getJobKey())
+                            : getRestoration(entry.getJobKey());
         try {
-            JobExecution execution = jobLauncher.run(job, params);
-            log.info("restarted job execution = {} for {}:  newly executed job execution id = {}",
-                     execution,
+            launch(entity);
+        } catch (Exception ex) {
+            launchFailed(entry, entity, ex);
+            throw ex;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void launch(BaseEntity entity) throws Exception {
+        @SuppressWarnings("rawtypes")
+        BatchJobBuilder builder = this.builderManager.getBuilder(entity);
+        Job job = builder.buildJob(entity, config);
+        JobParameters params = builder.buildJobParameters(entity);
+
+        // only one job per entity is dispatched at a time, so an execution
+        // still marked as running was cut off by a restart of the bridge
+        JobExecution lastExecution = this.jobRepository.getLastJobExecution(builder.getJobName(), params);
+        if (lastExecution != null && lastExecution.getStatus().isRunning()) {
+            log.debug("found job execution in running state for {} (job execution = {})", entity, lastExecution);
+            lastExecution.setStatus(BatchStatus.STOPPED);
+            lastExecution.setExitStatus(ExitStatus.STOPPED);
+            lastExecution.setEndTime(new Date());
+            jobRepository.update(lastExecution);
+            log.info("updated job execution in running state to stopped: {} (job execution = {})",
                      entity,
-                     execution.getId());
-        } catch (JobExecutionAlreadyRunningException | JobInstanceAlreadyCompleteException | JobRestartException
-            | JobParametersInvalidException e) {
-            log.error(MessageFormat.format("failed to resume stopped job: jobExecution={0}, entity={1}: {2}",
-                                           jobExecution,
-                                           entity,
-                                           e.getMessage()),
-                      e);
+                     lastExecution);
         }
 
+        JobExecution execution = jobLauncher.run(job, params);
+        log.info("executed {} using parameters {}: jobexecution={}, execution status={}",
+                 job,
+                 params,
+                 execution,
+                 execution.getStatus());
+    }
+
+    private void launchFailed(JobQueueEntry entry, BaseEntity entity, Exception ex) {
+        String message = "Failed to launch " + entry.getJobType() + " job: " + ex.getMessage();
+        try {
+            if (entity instanceof Snapshot) {
+                Snapshot snapshot = (Snapshot) entity;
+                snapshot.setStatus(SnapshotStatus.ERROR);
+                snapshot.setStatusText(message);
+                eventLog.logSnapshotUpdate(this.snapshotRepo.saveAndFlush(snapshot));
+            } else {
+                Restoration restoration = (Restoration) entity;
+                restoration.setStatus(RestoreStatus.ERROR);
+                restoration.setStatusText(message);
+                restoration.setEndDate(new Date());
+                eventLog.logRestoreUpdate(this.restoreRepo.saveAndFlush(restoration));
+            }
+            log.info("set {} into error state: {}", entity, message);
+        } catch (Exception e) {
+            log.error("failed to set " + entity + " into error state: " + e.getMessage(), e);
+        }
+        diskCapacityManager.release(entry.getJobKey());
     }
 
     /* (non-Javadoc)
@@ -220,30 +292,43 @@ public class SnapshotJobManagerImpl implements SnapshotJobManager {
         return snapshot;
     }
 
-    @SuppressWarnings("unchecked")
     private BatchStatus executeJob(Object entity) throws SnapshotException {
 
-        log.debug("executing job for {}", entity);
+        log.debug("queueing job for {}", entity);
         try {
-            @SuppressWarnings("rawtypes")
-            BatchJobBuilder builder = this.builderManager.getBuilder(entity);
-            Job job = builder.buildJob(entity, config);
-            JobParameters params = builder.buildJobParameters(entity);
-            JobExecution execution = jobLauncher.run(job, params);
-            BatchStatus status = execution.getStatus();
-            log.info("executed  {} using parameters {}: jobexecution={}, execution status={}",
-                     job,
-                     params,
-                     execution,
-                     status);
-            return status;
+            if (entity instanceof Snapshot) {
+                Snapshot snapshot = (Snapshot) entity;
+                jobDispatcher.submit(JobType.SNAPSHOT,
+                                     snapshot.getName(),
+                                     getOwner(snapshot, snapshot.getSource()),
+                                     BridgeConfiguration.getSnapshotJobPriority());
+            } else {
+                Restoration restoration = (Restoration) entity;
+                jobDispatcher.submit(JobType.RESTORE,
+                                     restoration.getRestorationId(),
+                                     getOwner(restoration.getSnapshot(), restoration.getDestination()),
+                                     BridgeConfiguration.getRestoreJobPriority());
+            }
+            return BatchStatus.STARTING;
         } catch (Exception e) {
-            String message = "Error running job based on " + entity + ": " + e.getMessage();
+            String message = "Error queueing job based on " + entity + ": " + e.getMessage();
             log.error(message, e);
             throw new SnapshotException(e.getMessage(), e);
         }
     }
 
+    /*
+     * Jobs share the job slots fairly between members; jobs of snapshots
+     * without a member are grouped by DuraCloud host.
+     */
+    private String getOwner(Snapshot snapshot, DuracloudEndPointConfig endpoint) {
+        String memberId = snapshot != null ? snapshot.getMemberId() : null;
+        if (memberId != null) {
+            return memberId;
+        }
+        return endpoint != null ? endpoint.getHost() : "unknown";
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -276,9 +361,82 @@ public class SnapshotJobManagerImpl implements SnapshotJobManager {
      * lang.String)
      */
     @Override
-    public BatchStatus executeSnapshot(String snapshotId) throws SnapshotException {
+    public BatchStatus executeSnapshot(final String snapshotId) throws SnapshotException {
         checkInitialized();
-        return executeJob(getSnapshot(snapshotId));
+        Snapshot snapshot = getSnapshot(snapshotId);
+        boolean admitted =
+            diskCapacityManager.admit(snapshotId, estimateFootprint(snapshot), new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        executeAdmitted(getSnapshot(snapshotId));
+                    } catch (Exception ex) {
+                        log.error("failed to execute snapshot " + snapshotId + " after admission: " +
+                                  ex.getMessage(), ex);
+                    }
+                }
+            });
+
+        if (!admitted) {
+            log.info("snapshot {} is waiting for disk capacity on the bridge", snapshotId);
+            return BatchStatus.STARTING;
+        }
+        return executeAdmitted(snapshot);
+    }
+
+    private BatchStatus executeAdmitted(Snapshot snapshot) throws SnapshotException {
+        try {
+            return executeJob(snapshot);
+        } catch (SnapshotException ex) {
+            diskCapacityManager.release(snapshot.getName());
+            throw ex;
+        }
+    }
+
+    /**
+     * Estimates the bytes a snapshot will occupy on the bridge from the total
+     * size DuraCloud reports for the source space.
+     *
+     * @param snapshot
+     * @return the estimate, or 0 if the size of the space is not known
+     */
+    protected long estimateFootprint(Snapshot snapshot) {
+        DuracloudEndPointConfig source = snapshot.getSource();
+        String spaceId = source.getSpaceId();
+        try {
+            ContentStore contentStore =
+                storeClientHelper.create(source, config.getDuracloudUsername(), config.getDuracloudPassword());
+            Map<String, String> properties = contentStore.getSpaceProperties(spaceId);
+            String size = properties != null ? properties.get(StorageProvider.PROPERTIES_SPACE_SIZE) : null;
+            Long bytes = parseSize(size);
+            if (bytes == null) {
+                log.warn("size of space {} unknown ({}): admitting snapshot without a reservation", spaceId, size);
+                return 0;
+            }
+            return bytes;
+        } catch (ContentStoreException ex) {
+            log.warn("failed to read the size of space " + spaceId + ": admitting snapshot without a reservation",
+                     ex);
+            return 0;
+        }
+    }
+
+    /*
+     * Space sizes are reported as a plain number of bytes or with a unit, such
+     * as "1.5 GB".
+     */
+    static Long parseSize(String size) {
+        if (size == null) {
+            return null;
+        }
+        Matcher matcher = SIZE_PATTERN.matcher(size.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        double value = Double.parseDouble(matcher.group(1));
+        String unit = matcher.group(2) == null ? "" : matcher.group(2).toUpperCase();
+        int exponent = unit.isEmpty() || unit.startsWith("BYTE") ? 0 : "BKMGTP".indexOf(unit.charAt(0));
+        return (long) (value * Math.pow(1024, exponent));
     }
 
     private boolean stop(JobExecution jobExecution, Job job)
@@ -328,6 +486,8 @@ public class SnapshotJobManagerImpl implements SnapshotJobManager {
         stop(snapshot);
         String snapshotDir = ContentDirUtils.getDestinationPath(snapshotId, this.config.getContentRootDir());
         deleteDirectory(snapshotDir);
+        jobDispatcher.withdraw(JobType.SNAPSHOT, snapshotId);
+        diskCapacityManager.release(snapshotId);
 
         new Thread(new Runnable() {
             @Override
@@ -381,6 +541,8 @@ public class SnapshotJobManagerImpl implements SnapshotJobManager {
         final Restoration restore = stopRestoreInternal(restoreId);
         String restoreDir = ContentDirUtils.getSourcePath(restoreId, this.config.getContentRootDir());
         deleteDirectory(restoreDir);
+        jobDispatcher.withdraw(JobType.RESTORE, restoreId);
+        diskCapacityManager.release(restoreId);
         final DuracloudEndPointConfig destination = restore.getDestination();
 
         new Thread(new Runnable() {
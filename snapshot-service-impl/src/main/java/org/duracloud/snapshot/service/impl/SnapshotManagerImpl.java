@@ -7,20 +7,26 @@
  */
 package org.duracloud.snapshot.service.impl;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
@@ -56,8 +62,12 @@ import org.duracloud.snapshot.service.SnapshotManagerException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * @author Daniel Bernstein Date: Jul 31, 2014
@@ -101,6 +111,16 @@ public class SnapshotManagerImpl implements SnapshotManager {
     @Autowired
     private EventLog eventLog;
 
+    @Autowired
+    private DiskCapacityManager diskCapacityManager;
+
+    @Autowired
+    @Qualifier("metadataUploadTaskExecutor")
+    private TaskExecutor metadataUploadExecutor;
+
+    // the snapshots whose metadata upload is queued or running in this bridge
+    private Set<String> metadataUploads = ConcurrentHashMap.newKeySet();
+
     public SnapshotManagerImpl() {
     }
 
@@ -143,6 +163,14 @@ public class SnapshotManagerImpl implements SnapshotManager {
         this.bridgeConfig = bridgeConfig;
     }
 
+    /**
+     * For testing purposes only
+     * @param metadataUploadExecutor runs the metadata upload and snapshot clean up
+     */
+    protected void setMetadataUploadExecutor(TaskExecutor metadataUploadExecutor) {
+        this.metadataUploadExecutor = metadataUploadExecutor;
+    }
+
     /**
      * For testing purposes only
      * @param eventLog the event log
@@ -151,6 +179,14 @@ public class SnapshotManagerImpl implements SnapshotManager {
         this.eventLog = eventLog;
     }
 
+    /**
+     * For testing purposes only
+     * @param diskCapacityManager the disk capacity manager
+     */
+    protected void setDiskCapacityManager(DiskCapacityManager diskCapacityManager) {
+        this.diskCapacityManager = diskCapacityManager;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -182,6 +218,35 @@ public class SnapshotManagerImpl implements SnapshotManager {
         }
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.duracloud.snapshot.service.SnapshotManager#addContentItems(
+     *  org.duracloud.snapshot.db.model.Snapshot, java.util.Collection)
+     */
+    @Override
+    @Transactional
+    public void addContentItems(Snapshot snapshot,
+                                Collection<SnapshotContentItem> items)
+        throws SnapshotException {
+        if (items.isEmpty()) {
+            return;
+        }
+
+        ChecksumUtil checksumUtil = createChecksumGenerator();
+        try {
+            for (SnapshotContentItem item : items) {
+                item.setSnapshot(snapshot);
+                item.setContentIdHash(checksumUtil.generateChecksum(item.getContentId()));
+            }
+
+            this.snapshotContentItemRepo.insertIgnoreDuplicates(items);
+        } catch (Exception ex) {
+            throw new SnapshotException("failed to add " + items.size() +
+                                        " content items: " + ex.getMessage(), ex);
+        }
+    }
+
     @Override
     @Transactional
     public Snapshot addAlternateSnapshotIds(Snapshot snapshot, List<String> alternateIds)
@@ -217,46 +282,24 @@ public class SnapshotManagerImpl implements SnapshotManager {
                 ContentDirUtils.getDestinationPath(snapshot.getName(),
                                                    BridgeConfiguration.getContentRootDir()));
 
-            File zipFile = zipMetadata(snapshotId, snapshotDir);
-
             DuracloudEndPointConfig source = snapshot.getSource();
 
-            ContentStore store = getContentStore(source);
-
-            ensureMetadataSpaceExists(store);
-
-            String zipChecksum = createChecksumGenerator().generateChecksum(zipFile);
-
-            try {
-                new Retrier(4, 1000, 2).execute(new Retriable() {
-                    public Object retry() throws Exception {
-                        try (FileInputStream zipStream = new FileInputStream(zipFile)) {
-                            return store.addContent(Constants.SNAPSHOT_METADATA_SPACE,
-                                                    zipFile.getName(),
-                                                    zipStream,
-                                                    zipFile.length(),
-                                                    "application/zip",
-                                                    zipChecksum,
-                                                    null);
-                        }
+            // Zipping and uploading the metadata can take a long time for
+            // large snapshots, so it is done in the background once the
+            // status change has been committed. Should the bridge stop
+            // before the upload completes, finalizeSnapshots() starts it
+            // again.
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        submitMetadataUpload(snapshotId, snapshotDir, source);
                     }
                 });
-            } catch (Exception ex) {
-                log.error("failed to upload snapshot zip ("
-                          + zipFile.getAbsolutePath() + ") to duracloud: " + ex.getMessage(), ex);
-                throw new Exception(ex);
-            } finally {
-                zipFile.delete();
+            } else {
+                submitMetadataUpload(snapshotId, snapshotDir, source);
             }
 
-            FileUtils.deleteDirectory(snapshotDir);
-
-            String spaceId = source.getSpaceId();
-            // Call DuraCloud to clean up snapshot
-            getSnapshotTaskClient(source).cleanupSnapshot(spaceId);
-            log.info("successfully initiated snapshot cleanup on DuraCloud for snapshotId = "
-                     + snapshotId + "; spaceId = " + spaceId);
-
             return snapshot;
         } catch (Exception e) {
             String message = "failed to initiate snapshot clean up: " + e.getMessage();
@@ -265,6 +308,98 @@ public class SnapshotManagerImpl implements SnapshotManager {
         }
     }
 
+    /**
+     * Runs the metadata upload and clean up of the snapshot in the
+     * background, unless it is already queued or running.
+     *
+     * @param snapshotId
+     * @param snapshotDir
+     * @param source
+     */
+    private void submitMetadataUpload(String snapshotId, File snapshotDir, DuracloudEndPointConfig source) {
+        if (!metadataUploads.add(snapshotId)) {
+            return;
+        }
+
+        Runnable upload = () -> {
+            try {
+                uploadMetadataAndCleanup(snapshotId, snapshotDir, source);
+            } catch (Exception e) {
+                String message = "failed to initiate snapshot clean up: " + e.getMessage();
+                log.error(message, e);
+                try {
+                    transferError(snapshotId, message);
+                } catch (SnapshotException ex) {
+                    log.error("failed to record clean up failure for snapshot "
+                              + snapshotId + ": " + ex.getMessage(), ex);
+                }
+            } finally {
+                metadataUploads.remove(snapshotId);
+            }
+        };
+
+        try {
+            metadataUploadExecutor.execute(upload);
+        } catch (RuntimeException e) {
+            metadataUploads.remove(snapshotId);
+            throw e;
+        }
+    }
+
+    /**
+     * Zips the snapshot metadata files, uploads the zip to the snapshot
+     * metadata space, asks DuraCloud to clean up the snapshot and removes the
+     * snapshot directory.
+     *
+     * The snapshot directory is removed last, as its presence marks the
+     * upload as still to be done should the bridge stop part way through.
+     *
+     * @param snapshotId
+     * @param snapshotDir
+     * @param source
+     * @throws Exception
+     */
+    private void uploadMetadataAndCleanup(String snapshotId, File snapshotDir, DuracloudEndPointConfig source)
+        throws Exception {
+        File zipFile = new File(snapshotDir, snapshotId + ".zip");
+        String zipChecksum = zipMetadata(snapshotDir, zipFile);
+
+        ContentStore store = getContentStore(source);
+
+        ensureMetadataSpaceExists(store);
+
+        try {
+            new Retrier(4, 1000, 2).execute(new Retriable() {
+                public Object retry() throws Exception {
+                    try (FileInputStream zipStream = new FileInputStream(zipFile)) {
+                        return store.addContent(Constants.SNAPSHOT_METADATA_SPACE,
+                                                zipFile.getName(),
+                                                zipStream,
+                                                zipFile.length(),
+                                                "application/zip",
+                                                zipChecksum,
+                                                null);
+                    }
+                }
+            });
+        } catch (Exception ex) {
+            log.error("failed to upload snapshot zip ("
+                      + zipFile.getAbsolutePath() + ") to duracloud: " + ex.getMessage(), ex);
+            throw new Exception(ex);
+        } finally {
+            zipFile.delete();
+        }
+
+        String spaceId = source.getSpaceId();
+        // Call DuraCloud to clean up snapshot
+        getSnapshotTaskClient(source).cleanupSnapshot(spaceId);
+        log.info("successfully initiated snapshot cleanup on DuraCloud for snapshotId = "
+                 + snapshotId + "; spaceId = " + spaceId);
+
+        FileUtils.deleteDirectory(snapshotDir);
+        diskCapacityManager.release(snapshotId);
+    }
+
     /**
      * @return
      */
@@ -322,26 +457,30 @@ public class SnapshotManagerImpl implements SnapshotManager {
     }
 
     /**
-     * @param snapshotId
+     * Writes the metadata files into the zip file, computing the MD5 checksum
+     * of the zip as it is written.
+     *
      * @param snapshotDir
-     * @return
-     * @throws FileNotFoundException
+     * @param zipFile
+     * @return the MD5 checksum of the zip file
      * @throws IOException
      */
-    private File zipMetadata(String snapshotId, File snapshotDir)
-        throws FileNotFoundException, IOException {
-
-        File zipFile = new File(snapshotDir, snapshotId + ".zip");
-
-        FileOutputStream fileOutputStream = new FileOutputStream(zipFile);
-        ZipOutputStream zipOs = new ZipOutputStream(fileOutputStream);
-
-        for (String file : METADATA_FILENAMES) {
-            IOUtil.addFileToZipOutputStream(new File(snapshotDir, file), zipOs);
+    private String zipMetadata(File snapshotDir, File zipFile) throws IOException {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance(Algorithm.MD5.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
         }
 
-        zipOs.close();
-        return zipFile;
+        DigestOutputStream digestOs =
+            new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile), 1 << 16), md5);
+        try (ZipOutputStream zipOs = new ZipOutputStream(digestOs)) {
+            for (String file : METADATA_FILENAMES) {
+                IOUtil.addFileToZipOutputStream(new File(snapshotDir, file), zipOs);
+            }
+        }
+        return ChecksumUtil.checksumBytesToString(md5.digest());
     }
 
     /**
@@ -419,6 +558,15 @@ public class SnapshotManagerImpl implements SnapshotManager {
             ContentStore store = getContentStore(source);
             String snapshotId = snapshot.getName();
             try {
+                File snapshotDir = new File(
+                    ContentDirUtils.getDestinationPath(snapshotId, BridgeConfiguration.getContentRootDir()));
+                if (snapshotDir.exists()) {
+                    // the metadata upload has yet to complete, and is started
+                    // again if the bridge stopped while it was running
+                    submitMetadataUpload(snapshotId, snapshotDir, source);
+                    continue;
+                }
+
                 String spaceId = source.getSpaceId();
                 Iterator<String> it = store.getSpaceContents(spaceId);
                 if (!it.hasNext()) {
@@ -471,7 +619,7 @@ public class SnapshotManagerImpl implements SnapshotManager {
                     }
                 }
             } catch (Exception e) {
-                log.error("failed to cleanup " + source);
+                log.error("failed to cleanup " + source + ": " + e.getMessage(), e);
             }
         }
     }
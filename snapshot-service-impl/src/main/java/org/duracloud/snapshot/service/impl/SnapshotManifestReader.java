@@ -7,9 +7,7 @@
  */
 package org.duracloud.snapshot.service.impl;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.item.ItemReader;
@@ -18,7 +16,9 @@ import org.springframework.batch.item.ParseException;
 import org.springframework.batch.item.UnexpectedInputException;
 
 /**
- * This class reads a snapshot manifest
+ * This class reads a snapshot manifest. The byte offset of the manifest lines
+ * is checkpointed in the step execution context so that a restarted step
+ * seeks straight to where it left off.
  *
  * @author Daniel Bernstein
  * Date: Jul 28, 2015
@@ -26,7 +26,8 @@ import org.springframework.batch.item.UnexpectedInputException;
 public class SnapshotManifestReader extends StepExecutionSupport implements ItemReader<ManifestEntry> {
 
     private File manifestFile;
-    private BufferedReader reader;
+    private OffsetLineReader reader;
+    private long lineNumber = 0;
 
     /**
      * @param manifestFile an md5 manifest file.
@@ -43,18 +44,25 @@ public class SnapshotManifestReader extends StepExecutionSupport implements Item
         throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
 
         if (this.reader == null) {
-            this.reader = new BufferedReader(new FileReader(manifestFile));
             long linesRead = getItemsRead();
+            ReadCheckpoint checkpoint = getResumeCheckpoint();
+            long offset = 0;
+            if (checkpoint != null) {
+                offset = Long.parseLong(checkpoint.getPosition());
+                this.lineNumber = checkpoint.getItemNumber();
+            }
 
-            if (linesRead > 0) {
-                for (long i = 0; i < linesRead; i++) {
-                    this.reader.readLine();
-                }
+            this.reader = new OffsetLineReader(manifestFile, offset);
+            for (; this.lineNumber < linesRead; this.lineNumber++) {
+                this.reader.readLine();
             }
         }
 
+        long offset = this.reader.getOffset();
         String line = this.reader.readLine();
         if (line != null) {
+            addReadCheckpoint(this.lineNumber, String.valueOf(offset));
+            this.lineNumber++;
             return ManifestFileHelper.parseManifestEntry(line);
         } else {
             return null;
@@ -0,0 +1,394 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the md5 and sha256 manifests and the content properties json file
+ * of a snapshot, along with the referenced md5 manifest of an incremental
+ * snapshot. Any number of threads may append records; the records are
+ * queued and written by a single appender thread through large buffers, so
+ * that appending threads neither contend on the files nor wait on small
+ * writes. Buffers are flushed when the appender is idle, at least once per
+ * flush interval, and whenever a checkpoint is requested. Should the
+ * appender fail or stop, appending threads and checkpoints fail rather than
+ * wait on it.
+ *
+ * @author Daniel Bernstein
+ */
+public class SnapshotMetadataJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotMetadataJournal.class);
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int DRAIN_BATCH_SIZE = 1024;
+
+    private enum RecordType {
+        MD5, SHA256, REFERENCED_MD5, PROPERTIES
+    }
+
+    private static class Record {
+        private RecordType type;
+        private String contentId;
+        private String checksum;
+        private Map<String, String> props;
+    }
+
+    private static class Checkpoint {
+        private CountDownLatch written = new CountDownLatch(1);
+    }
+
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue;
+    private final Writer md5Writer;
+    private final Writer sha256Writer;
+    private final Writer referencedMd5Writer;
+    private final Writer propsWriter;
+    private final JsonGenerator propsGenerator;
+    private final Thread appender;
+    private volatile IOException error;
+    private volatile boolean stopped = false;
+    private boolean closed = false;
+
+    public SnapshotMetadataJournal(File propsFile, File md5File, File sha256File) throws IOException {
+        this(propsFile, md5File, sha256File, null, DEFAULT_CAPACITY);
+    }
+
+    public SnapshotMetadataJournal(File propsFile, File md5File, File sha256File, File referencedMd5File)
+        throws IOException {
+        this(propsFile, md5File, sha256File, referencedMd5File, DEFAULT_CAPACITY);
+    }
+
+    public SnapshotMetadataJournal(File propsFile, File md5File, File sha256File, int capacity)
+        throws IOException {
+        this(propsFile, md5File, sha256File, null, capacity);
+    }
+
+    /**
+     * Creates (or truncates) the files and starts the appender.
+     *
+     * @param propsFile  the content properties json file
+     * @param md5File    the md5 manifest file
+     * @param sha256File the sha256 manifest file
+     * @param referencedMd5File the md5 manifest file of content held by
+     *                   earlier snapshots, or null if there is none
+     * @param capacity   the number of records which may be queued before
+     *                   appending threads block
+     * @throws IOException
+     */
+    public SnapshotMetadataJournal(File propsFile, File md5File, File sha256File, File referencedMd5File,
+                                   int capacity) throws IOException {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        List<Closeable> opened = new ArrayList<>();
+        try {
+            this.md5Writer = open(md5File, opened);
+            this.sha256Writer = open(sha256File, opened);
+            this.referencedMd5Writer = referencedMd5File != null ? open(referencedMd5File, opened) : null;
+            this.propsWriter = open(propsFile, opened);
+            this.propsGenerator = new JsonFactory().createGenerator(propsWriter)
+                                                   .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                                                   .useDefaultPrettyPrinter();
+            this.propsGenerator.writeStartArray();
+        } catch (IOException ex) {
+            for (Closeable closeable : opened) {
+                IOUtils.closeQuietly(closeable);
+            }
+            throw ex;
+        }
+
+        this.appender = new Thread(this::append, "snapshot-metadata-journal-" + propsFile.getParentFile().getName());
+        this.appender.setDaemon(true);
+        this.appender.start();
+    }
+
+    private Writer open(File file, List<Closeable> opened) throws IOException {
+        Writer writer = new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8),
+                                           BUFFER_SIZE);
+        opened.add(writer);
+        return writer;
+    }
+
+    public void appendMd5Checksum(String contentId, String checksum) throws IOException {
+        appendChecksum(RecordType.MD5, contentId, checksum);
+    }
+
+    public void appendSha256Checksum(String contentId, String checksum) throws IOException {
+        appendChecksum(RecordType.SHA256, contentId, checksum);
+    }
+
+    /**
+     * Appends an entry for content held by an earlier snapshot.
+     *
+     * @throws IOException if the journal has no referenced md5 manifest
+     */
+    public void appendReferencedMd5Checksum(String contentId, String checksum) throws IOException {
+        if (referencedMd5Writer == null) {
+            throw new IOException("journal has no referenced md5 manifest");
+        }
+        appendChecksum(RecordType.REFERENCED_MD5, contentId, checksum);
+    }
+
+    private void appendChecksum(RecordType type, String contentId, String checksum) throws IOException {
+        Record record = new Record();
+        record.type = type;
+        record.contentId = contentId;
+        record.checksum = checksum;
+        publish(record);
+    }
+
+    public void appendContentProperties(String contentId, Map<String, String> props) throws IOException {
+        Record record = new Record();
+        record.type = RecordType.PROPERTIES;
+        record.contentId = contentId;
+        record.props = props;
+        publish(record);
+    }
+
+    /**
+     * Waits until every record appended before this call has been written
+     * and flushed to the files.
+     *
+     * @throws IOException if the appender has failed
+     */
+    public void checkpoint() throws IOException {
+        Checkpoint checkpoint = new Checkpoint();
+        publish(checkpoint);
+        try {
+            while (!checkpoint.written.await(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                throwIfStopped();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for journal checkpoint");
+        }
+        throwIfFailed();
+    }
+
+    private void publish(Object record) throws IOException {
+        throwIfFailed();
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("journal is closed");
+            }
+        }
+        try {
+            while (!queue.offer(record, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                throwIfStopped();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted appending to journal");
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        IOException ex = error;
+        if (ex != null) {
+            throw new IOException("journal failed: " + ex.getMessage(), ex);
+        }
+    }
+
+    private void throwIfStopped() throws IOException {
+        if (stopped) {
+            throwIfFailed();
+            throw new IOException("journal appender has stopped");
+        }
+    }
+
+    /**
+     * Writes all appended records, completes the content properties json
+     * array and closes the files.
+     *
+     * @throws IOException if any record could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            // wait for room in the queue unless the appender has already stopped
+            boolean queued = false;
+            while (!queued && !stopped) {
+                queued = queue.offer(END, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+            appender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted closing journal");
+        }
+        throwIfFailed();
+    }
+
+    private void append() {
+        List<Object> batch = new ArrayList<>(DRAIN_BATCH_SIZE);
+        long lastFlush = System.currentTimeMillis();
+        boolean dirty = false;
+        try {
+            while (true) {
+                Object first = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (dirty) {
+                        flush();
+                        dirty = false;
+                    }
+                    lastFlush = System.currentTimeMillis();
+                    continue;
+                }
+
+                batch.add(first);
+                queue.drainTo(batch, DRAIN_BATCH_SIZE - 1);
+                for (Object item : batch) {
+                    if (item == END) {
+                        finish();
+                        return;
+                    } else if (item instanceof Checkpoint) {
+                        if (dirty) {
+                            flush();
+                            dirty = false;
+                            lastFlush = System.currentTimeMillis();
+                        }
+                        ((Checkpoint) item).written.countDown();
+                    } else {
+                        write((Record) item);
+                        dirty = true;
+                    }
+                }
+                batch.clear();
+
+                if (dirty && System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL_MS) {
+                    flush();
+                    dirty = false;
+                    lastFlush = System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail("journal appender interrupted", new InterruptedIOException(e.getMessage()));
+        } catch (Throwable t) {
+            fail("journal appender failed", new IOException(t.toString(), t));
+        } finally {
+            stopped = true;
+            IOUtils.closeQuietly(propsWriter);
+            IOUtils.closeQuietly(md5Writer);
+            IOUtils.closeQuietly(sha256Writer);
+            IOUtils.closeQuietly(referencedMd5Writer);
+            // release any checkpoints which will no longer be reached
+            releaseCheckpoints(batch);
+            releaseCheckpoints(queue);
+        }
+    }
+
+    private void releaseCheckpoints(Iterable<Object> items) {
+        for (Object item : items) {
+            if (item instanceof Checkpoint) {
+                ((Checkpoint) item).written.countDown();
+            }
+        }
+    }
+
+    private void write(Record record) {
+        if (error != null) {
+            return;
+        }
+        try {
+            switch (record.type) {
+                case MD5:
+                    ManifestFileHelper.appendManifestEntry(md5Writer, record.contentId, record.checksum);
+                    break;
+                case SHA256:
+                    ManifestFileHelper.appendManifestEntry(sha256Writer, record.contentId, record.checksum);
+                    break;
+                case REFERENCED_MD5:
+                    ManifestFileHelper.appendManifestEntry(referencedMd5Writer, record.contentId, record.checksum);
+                    break;
+                default:
+                    propsGenerator.writeStartObject();
+                    propsGenerator.writeObjectFieldStart(record.contentId);
+                    for (Map.Entry<String, String> prop : record.props.entrySet()) {
+                        propsGenerator.writeStringField(prop.getKey(), prop.getValue());
+                    }
+                    propsGenerator.writeEndObject();
+                    propsGenerator.writeEndObject();
+                    break;
+            }
+        } catch (IOException ex) {
+            fail("failed to write " + record.type + " record for " + record.contentId, ex);
+        }
+    }
+
+    private void flush() {
+        if (error != null) {
+            return;
+        }
+        try {
+            propsGenerator.flush();
+            propsWriter.flush();
+            md5Writer.flush();
+            sha256Writer.flush();
+            if (referencedMd5Writer != null) {
+                referencedMd5Writer.flush();
+            }
+        } catch (IOException ex) {
+            fail("failed to flush journal", ex);
+        }
+    }
+
+    private void finish() {
+        try {
+            if (error == null) {
+                propsGenerator.writeEndArray();
+                propsGenerator.writeRaw('\n');
+                propsGenerator.close();
+            }
+            propsWriter.close();
+            md5Writer.close();
+            sha256Writer.close();
+            if (referencedMd5Writer != null) {
+                referencedMd5Writer.close();
+            }
+        } catch (IOException ex) {
+            fail("failed to close journal", ex);
+        }
+    }
+
+    private void fail(String message, IOException ex) {
+        log.error(message + ": " + ex.getMessage(), ex);
+        if (error == null) {
+            error = ex;
+        }
+    }
+}
@@ -7,46 +7,190 @@
  */
 package org.duracloud.snapshot.service.impl;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.duracloud.common.model.ContentItem;
 import org.duracloud.retrieval.source.RetrievalSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.batch.item.ExecutionContext;
 import org.springframework.batch.item.ItemReader;
+import org.springframework.batch.item.ItemStream;
+import org.springframework.batch.item.ItemStreamException;
 import org.springframework.batch.item.NonTransientResourceException;
 import org.springframework.batch.item.ParseException;
 import org.springframework.batch.item.UnexpectedInputException;
 
 /**
+ * Reads the content items of a space. Items are listed ahead of consumption
+ * by a background thread so that the threads reading items do not wait on
+ * the retrieval source when it has to fetch the next page of the space
+ * listing.
+ *
+ * The lister fills a queue until it holds highWatermark items and then
+ * pauses until the queue has been drained down to lowWatermark items.
+ *
  * @author Erik Paulsson
  * Date: 1/31/14
  */
-public class SpaceItemReader implements ItemReader<ContentItem> {
+public class SpaceItemReader implements ItemReader<ContentItem>, ItemStream {
 
     private static final Logger LOGGER =
         LoggerFactory.getLogger(SpaceItemReader.class);
 
+    public static final int DEFAULT_HIGH_WATERMARK = 5000;
+    public static final int DEFAULT_LOW_WATERMARK = 2000;
+
     private RetrievalSource retrievalSource;
+    private int highWatermark;
+    private int lowWatermark;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition itemsAvailable = lock.newCondition();
+    private final Condition belowLowWatermark = lock.newCondition();
+    private final Deque<ContentItem> queue = new ArrayDeque<>();
+    private Thread lister;
+    private boolean listingComplete = false;
+    private boolean closed = false;
+    private Exception listingError;
 
     public SpaceItemReader(RetrievalSource retrievalSource) {
+        this(retrievalSource, DEFAULT_HIGH_WATERMARK, DEFAULT_LOW_WATERMARK);
+    }
+
+    /**
+     * @param retrievalSource the source of the content items
+     * @param highWatermark   the number of queued items at which listing pauses
+     * @param lowWatermark    the number of queued items at which listing resumes
+     */
+    public SpaceItemReader(RetrievalSource retrievalSource, int highWatermark, int lowWatermark) {
+        if (highWatermark < 1 || lowWatermark < 0 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("watermarks must satisfy 0 <= low (" + lowWatermark +
+                                               ") < high (" + highWatermark + ")");
+        }
         this.retrievalSource = retrievalSource;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
     }
 
     @Override
-    public synchronized ContentItem read()
+    public ContentItem read()
         throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
 
+        lock.lock();
         try {
-            ContentItem contentItem = retrievalSource.getNextContentItem();
+            startListing();
+            while (queue.isEmpty() && !listingComplete && lister != null) {
+                itemsAvailable.await();
+            }
+
+            ContentItem contentItem = queue.poll();
+            if (queue.size() <= lowWatermark) {
+                belowLowWatermark.signal();
+            }
+
             if (contentItem != null) {
                 LOGGER.debug("contentItem: {}", contentItem.getContentId());
+            } else if (listingError != null) {
+                LOGGER.error("item read failed:  " + listingError.getMessage(), listingError);
+                throw listingError;
             } else {
                 LOGGER.debug("contentItem is null");
             }
             return contentItem;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Must be called while holding the lock.
+     */
+    private void startListing() {
+        if (lister == null && !closed) {
+            lister = new Thread(this::list, "space-item-lister");
+            lister.setDaemon(true);
+            lister.start();
+        }
+    }
 
+    private void list() {
+        try {
+            while (true) {
+                lock.lock();
+                try {
+                    if (queue.size() >= highWatermark) {
+                        // wait for the queue to drain so that listing
+                        // proceeds in runs rather than item by item.
+                        while (queue.size() > lowWatermark && !closed) {
+                            belowLowWatermark.await();
+                        }
+                    }
+                    if (closed) {
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                // the listing call is made without holding the lock so that
+                // queued items can be read in the meantime.
+                ContentItem contentItem = retrievalSource.getNextContentItem();
+
+                lock.lock();
+                try {
+                    if (contentItem == null) {
+                        return;
+                    }
+                    queue.add(contentItem);
+                    itemsAvailable.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         } catch (Exception ex) {
-            LOGGER.error("item read failed:  " + ex.getMessage(), ex);
-            throw ex;
+            lock.lock();
+            try {
+                listingError = ex;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            lock.lock();
+            try {
+                listingComplete = true;
+                itemsAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+    }
+
+    /**
+     * Stops the background lister, which otherwise may be left waiting for
+     * the queue to drain if the step ends before all items are read.
+     */
+    @Override
+    public void close() throws ItemStreamException {
+        lock.lock();
+        try {
+            closed = true;
+            belowLowWatermark.signalAll();
+        } finally {
+            lock.unlock();
         }
     }
 }
@@ -8,23 +8,20 @@
 package org.duracloud.snapshot.service.impl;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.function.Function;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.duracloud.chunk.util.ChunkUtil;
 import org.duracloud.client.ContentStore;
@@ -36,9 +33,9 @@ import org.duracloud.common.retry.Retrier;
 import org.duracloud.common.util.ChecksumUtil;
 import org.duracloud.retrieval.mgmt.OutputWriter;
 import org.duracloud.retrieval.mgmt.RetrievalListener;
-import org.duracloud.retrieval.mgmt.RetrievalWorker;
 import org.duracloud.retrieval.source.RetrievalSource;
 import org.duracloud.snapshot.db.model.Snapshot;
+import org.duracloud.snapshot.db.model.SnapshotContentItem;
 import org.duracloud.snapshot.service.SnapshotManager;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
@@ -56,6 +53,18 @@ import org.springframework.batch.item.ItemWriter;
  * writing it to disk,  appending its md5 and sha256 to separate text files, appending
  * the item properties to a json file, and writing the item to the snapshot content repo.
  *
+ * When given an UnchangedContentIndex, items which are unchanged since the
+ * parent snapshot are not retrieved. Their md5 is appended to the referenced
+ * manifest instead and they are written to the snapshot content repo, with
+ * their current properties, as references to the snapshot which holds their
+ * content.
+ *
+ * Given the checksums of the space manifest, an item whose content is held by
+ * the ContentBlobStore, or was retrieved for another item of the snapshot by
+ * the ContentDeduplicator, is hard linked rather than retrieved. Given a
+ * ParallelContentRetriever, chunked and large items are retrieved in parallel
+ * parts.
+ *
  * @author Erik Paulsson
  * Date: 2/7/14
  */
@@ -65,12 +74,28 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
     private static final Logger log =
         LoggerFactory.getLogger(SpaceItemWriter.class);
 
+    /**
+     * The number of content items which are collected before they are
+     * written to the snapshot manager in a single batch.
+     */
+    protected static final int CONTENT_ITEM_BATCH_SIZE = 100;
+
+    /**
+     * The cache database is committed once this many values have been
+     * cached since the last commit ...
+     */
+    protected static final int CACHE_COMMIT_INTERVAL_PUTS = 1000;
+
+    /**
+     * ... or once this much time has passed since the last commit, whichever
+     * comes first.
+     */
+    protected static final long CACHE_COMMIT_INTERVAL_MS = 5000;
+
     private RetrievalSource retrievalSource;
     private File contentDir;
     private OutputWriter outputWriter;
-    private BufferedWriter propsWriter;
-    private BufferedWriter md5Writer;
-    private BufferedWriter sha256Writer;
+    private SnapshotMetadataJournal journal;
     private ContentItem snapshotPropsContentItem;
     private SnapshotManager snapshotManager;
     private Snapshot snapshot;
@@ -85,7 +110,23 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
     private File propsFile;
     private DB db;
     private File dbFile;
+    private final Object commitLock = new Object();
+    private int uncommittedPuts = 0;
+    private long lastCommitTime = System.currentTimeMillis();
     private int totalChecksumsPerformed = 0;
+    private int totalChecksumFileReads = 0;
+    private List<SnapshotContentItem> contentItemBatch = new ArrayList<>(CONTENT_ITEM_BATCH_SIZE);
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private DiskCapacityManager diskCapacityManager;
+    private String snapshotName;
+    private UnchangedContentIndex unchangedContentIndex;
+    private File referencedManifestFile;
+    private int totalItemsReferenced = 0;
+    private SpaceManifestChecksums spaceManifestChecksums;
+    private ContentDeduplicator contentDeduplicator;
+    private ContentBlobStore contentBlobStore;
+    private ParallelContentRetriever parallelContentRetriever;
+    private int totalItemsLinked = 0;
 
     /**
      * @param snapshot
@@ -107,6 +148,69 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
                            File sha256ManifestFile,
                            SnapshotManager snapshotManager,
                            SpaceManifestSnapshotManifestVerifier spaceManifestSnapshotManifestVerifier) {
+        this(snapshot, retrievalSource, contentDir, outputWriter, propsFile, md5ManifestFile, sha256ManifestFile,
+             snapshotManager, spaceManifestSnapshotManifestVerifier, AdaptiveConcurrencyLimiter.unlimited(),
+             DiskCapacityManager.unbounded());
+    }
+
+    /**
+     * @param snapshot
+     * @param retrievalSource
+     * @param contentDir
+     * @param outputWriter
+     * @param propsFile
+     * @param md5ManifestFile
+     * @param sha256ManifestFile
+     * @param snapshotManager
+     * @param spaceManifestSnapshotManifestVerifier
+     * @param concurrencyLimiter                    receives the outcome of each retrieval
+     * @param diskCapacityManager                   is told of each file landing in the content dir
+     */
+    public SpaceItemWriter(Snapshot snapshot,
+                           RetrievalSource retrievalSource,
+                           File contentDir,
+                           OutputWriter outputWriter,
+                           File propsFile,
+                           File md5ManifestFile,
+                           File sha256ManifestFile,
+                           SnapshotManager snapshotManager,
+                           SpaceManifestSnapshotManifestVerifier spaceManifestSnapshotManifestVerifier,
+                           AdaptiveConcurrencyLimiter concurrencyLimiter,
+                           DiskCapacityManager diskCapacityManager) {
+        this(snapshot, retrievalSource, contentDir, outputWriter, propsFile, md5ManifestFile, sha256ManifestFile,
+             snapshotManager, spaceManifestSnapshotManifestVerifier, concurrencyLimiter, diskCapacityManager,
+             null, null);
+    }
+
+    /**
+     * @param snapshot
+     * @param retrievalSource
+     * @param contentDir
+     * @param outputWriter
+     * @param propsFile
+     * @param md5ManifestFile
+     * @param sha256ManifestFile
+     * @param snapshotManager
+     * @param spaceManifestSnapshotManifestVerifier
+     * @param concurrencyLimiter                    receives the outcome of each retrieval
+     * @param diskCapacityManager                   is told of each file landing in the content dir
+     * @param unchangedContentIndex                 the content unchanged since the parent snapshot,
+     *                                              or null to retrieve all content
+     * @param referencedManifestFile                receives the md5 of each unchanged item
+     */
+    public SpaceItemWriter(Snapshot snapshot,
+                           RetrievalSource retrievalSource,
+                           File contentDir,
+                           OutputWriter outputWriter,
+                           File propsFile,
+                           File md5ManifestFile,
+                           File sha256ManifestFile,
+                           SnapshotManager snapshotManager,
+                           SpaceManifestSnapshotManifestVerifier spaceManifestSnapshotManifestVerifier,
+                           AdaptiveConcurrencyLimiter concurrencyLimiter,
+                           DiskCapacityManager diskCapacityManager,
+                           UnchangedContentIndex unchangedContentIndex,
+                           File referencedManifestFile) {
         super();
         this.snapshot = snapshot;
         this.retrievalSource = retrievalSource;
@@ -116,8 +220,49 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
         this.sha256ManifestFile = sha256ManifestFile;
         this.snapshotManager = snapshotManager;
         this.spaceManifestSnapshotManifestVerifier = spaceManifestSnapshotManifestVerifier;
-        this.dbFile = new File(contentDir, snapshot.getName() + ".db");
+        this.snapshotName = snapshot.getName();
+        this.dbFile = new File(contentDir, snapshotName + ".db");
         this.propsFile = propsFile;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.diskCapacityManager = diskCapacityManager;
+        this.unchangedContentIndex = unchangedContentIndex;
+        this.referencedManifestFile = referencedManifestFile;
+    }
+
+    /**
+     * @param spaceManifestChecksums the checksums of the space content, which
+     *                               are opened and removed by this writer;
+     *                               needed by the deduplicator and blob store
+     */
+    public void setSpaceManifestChecksums(SpaceManifestChecksums spaceManifestChecksums) {
+        this.spaceManifestChecksums = spaceManifestChecksums;
+    }
+
+    /**
+     * @param contentDeduplicator links content sharing a checksum with other
+     *                            content of the space rather than retrieving
+     *                            it again, or null to retrieve all content
+     */
+    public void setContentDeduplicator(ContentDeduplicator contentDeduplicator) {
+        this.contentDeduplicator = contentDeduplicator;
+    }
+
+    /**
+     * @param contentBlobStore links content already retrieved by earlier
+     *                         snapshots rather than retrieving it again, and
+     *                         receives the content this snapshot retrieves
+     */
+    public void setContentBlobStore(ContentBlobStore contentBlobStore) {
+        this.contentBlobStore = contentBlobStore;
+    }
+
+    /**
+     * @param parallelContentRetriever retrieves chunked and large content in
+     *                                 parallel parts, or null to retrieve all
+     *                                 content in a single stream
+     */
+    public void setParallelContentRetriever(ParallelContentRetriever parallelContentRetriever) {
+        this.parallelContentRetriever = parallelContentRetriever;
     }
 
     private DB makeDatabase() {
@@ -125,22 +270,20 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
     }
 
     protected void closeDatabase() {
-        if (this.db != null) {
+        if (this.db != null && !this.db.isClosed()) {
+            commitCache();
             this.db.close();
         }
     }
 
     protected void deleteDatabase() {
-        closeDatabase();
+        // nothing in the database is needed any longer, so skip the commit
+        if (this.db != null && !this.db.isClosed()) {
+            this.db.close();
+        }
         this.dbFile.delete();
     }
 
-    private BufferedWriter createWriter(File file) throws IOException {
-        BufferedWriter writer =
-            Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
-        return writer;
-    }
-
     @Override
     public void write(List<? extends ContentItem> items) throws IOException {
         for (ContentItem contentItem : items) {
@@ -164,71 +307,199 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
 
     protected void retrieveFile(ContentItem contentItem, File directory)
         throws IOException {
-        retrieveFile(contentItem, directory, true, false);
+        retrieveFile(contentItem, directory, true);
     }
 
+    /**
+     * Caches the value, committing the cache database when the commit window
+     * has been exceeded. Values cached since the last commit are lost if the
+     * process dies; the affected items are simply retrieved again on restart,
+     * and any checksums already written to the manifest files are replayed
+     * into the cache by loadCacheFromFile().
+     */
     private void cacheValue(Map<String, String> cache, String key, String value) {
         cache.put(key, value);
-        db.commit();
+        synchronized (commitLock) {
+            uncommittedPuts++;
+            if (uncommittedPuts >= CACHE_COMMIT_INTERVAL_PUTS ||
+                System.currentTimeMillis() - lastCommitTime >= CACHE_COMMIT_INTERVAL_MS) {
+                commitCache();
+            }
+        }
+    }
+
+    protected void commitCache() {
+        synchronized (commitLock) {
+            if (uncommittedPuts > 0) {
+                db.commit();
+                log.debug("committed {} cached values", uncommittedPuts);
+                uncommittedPuts = 0;
+            }
+            lastCommitTime = System.currentTimeMillis();
+            checkpointJournal();
+        }
+    }
+
+    /**
+     * Makes sure that everything written to the manifests so far is on disk,
+     * so that it can be replayed into the cache by a restarted step.
+     */
+    private void checkpointJournal() {
+        if (journal != null) {
+            try {
+                journal.checkpoint();
+            } catch (IOException ex) {
+                // the failure is reported again by the next append or by close
+                log.error("failed to checkpoint snapshot metadata journal: " + ex.getMessage(), ex);
+            }
+        }
     }
 
     protected void retrieveFile(ContentItem contentItem, File directory,
-                                boolean writeChecksums, boolean lastItem)
+                                boolean writeChecksums)
         throws IOException {
 
         String contentId = chunkUtil.preChunkedContentId(contentItem.getContentId());
 
+        if (writeChecksums && unchangedContentIndex != null) {
+            Map<String, String> unchangedProps = unchangedContentIndex.getProperties(contentId);
+            if (unchangedProps != null) {
+                // properties may have changed without the content changing,
+                // so the current ones are recorded rather than the parent's
+                Map<String, String> currentProps =
+                    getCurrentProperties(contentItem, unchangedProps.get(ContentStore.CONTENT_CHECKSUM));
+                if (currentProps != null) {
+                    referenceFile(contentId, currentProps, unchangedContentIndex.getHoldingSnapshotId(contentId));
+                    return;
+                }
+            }
+        }
+
         //retrieve cached data
         String md5Checksum = md5Cache.get(contentId);
         String sha256 = sha256Cache.get(contentId);
 
         Map<String, String> props = null;
 
-        RetrievalWorker retrievalWorker =
-            new RetrievalWorker(contentItem, retrievalSource, directory,
-                                true, outputWriter, false, true);
+        DigestingRetrievalWorker retrievalWorker =
+            new DigestingRetrievalWorker(contentItem, retrievalSource, directory,
+                                         true, outputWriter, false, true);
 
         File localFile = retrievalWorker.getLocalFile();
 
         if (md5Checksum == null) { // File is not in MD5 cache
-            StopWatch sw = new StopWatch();
-            sw.start();
+            String manifestChecksum = writeChecksums && spaceManifestChecksums != null ?
+                                      spaceManifestChecksums.getChecksum(contentId) : null;
+            if (manifestChecksum != null && contentBlobStore != null) {
+                props = linkStoredFile(contentItem, localFile, manifestChecksum);
+            }
 
-            props = retrievalWorker.retrieveFile(new RetrievalListener() {
-                @Override
-                public void chunkRetrieved(String chunk) {
-                    getStepExecution().getExecutionContext().put("last-chunk-retrieved-" +
-                                                                 Thread.currentThread().getName(),
-                                                                 chunk);
+            String sharedChecksum = props == null && manifestChecksum != null && contentDeduplicator != null ?
+                                    contentDeduplicator.getSharedChecksum(contentId) : null;
+            ContentDeduplicator.Retrieval shared = null;
+            boolean claimed = false;
+            if (sharedChecksum != null) {
+                claimed = contentDeduplicator.claim(sharedChecksum);
+                if (!claimed) {
+                    shared = contentDeduplicator.await(sharedChecksum);
                 }
-            });
-
-            sw.stop();
+            }
 
-            if (null == props) { // Transfer failed
-                throw new IOException("Failed to retrieve " + contentId + " after " +
-                                      sw.getTime() / 1000 + " seconds");
+            if (shared != null) {
+                props = linkFile(contentItem, shared, localFile, sharedChecksum);
             }
 
-            log.info("Finished retrieving content: contentId={}, " +
-                     " fileSize={}, file path={}, elapsedTimeMs={}, transferRateMbps={}",
-                     contentId,
-                     localFile.length(),
-                     localFile.getAbsolutePath(),
-                     sw.getTime(),
-                     (localFile.length() * 0.008) / sw.getTime());
-
-            // cache props
-            cacheValue(propsCache, contentId, PropertiesSerializer.serialize(props));
-
-            // cache md5
-            md5Checksum = props.get(ContentStore.CONTENT_CHECKSUM);
-            cacheValue(md5Cache, contentId, md5Checksum);
-
-            log.info("Retrieved item {} from space {} with MD5 checksum {}",
-                     contentItem.getContentId(),
-                     contentItem.getSpaceId(),
-                     md5Checksum);
+            if (props != null) {
+                md5Checksum = manifestChecksum;
+                if (shared != null) {
+                    sha256 = shared.getSha256();
+                }
+            } else {
+                try {
+                    // never write through an existing file: a run of the step
+                    // with deduplication or the blob store enabled may have
+                    // left it as a hard link to other content
+                    Files.deleteIfExists(localFile.toPath());
+
+                    StopWatch sw = new StopWatch();
+                    sw.start();
+
+                    ParallelContentRetriever.Retrieval parallelRetrieval = null;
+                    Map<String, String> sourceProps = parallelContentRetriever != null ?
+                                                      retrievalSource.getSourceProperties(contentItem) : null;
+                    if (sourceProps != null && parallelContentRetriever.isParallel(contentItem, sourceProps)) {
+                        parallelRetrieval = retrieveInParallel(contentItem, sourceProps, localFile);
+                        props = parallelRetrieval != null ? parallelRetrieval.getProperties() : null;
+                    } else {
+                        props = retrievalWorker.retrieveFile(new RetrievalListener() {
+                            @Override
+                            public void chunkRetrieved(String chunk) {
+                                getStepExecution().getExecutionContext().put("last-chunk-retrieved-" +
+                                                                             Thread.currentThread().getName(),
+                                                                             chunk);
+                            }
+                        });
+                    }
+
+                    sw.stop();
+
+                    for (int retry = 1; retry < retrievalWorker.getAttempts(); retry++) {
+                        concurrencyLimiter.retried();
+                    }
+                    if (null == props) {
+                        concurrencyLimiter.failed(sw.getTime());
+                    } else {
+                        concurrencyLimiter.succeeded(localFile.length(), sw.getTime());
+                        diskCapacityManager.landed(snapshotName, localFile.length());
+                    }
+
+                    if (null == props) { // Transfer failed
+                        throw new IOException("Failed to retrieve " + contentId + " after " +
+                                              sw.getTime() / 1000 + " seconds");
+                    }
+
+                    log.info("Finished retrieving content: contentId={}, " +
+                             " fileSize={}, file path={}, elapsedTimeMs={}, transferRateMbps={}",
+                             contentId,
+                             localFile.length(),
+                             localFile.getAbsolutePath(),
+                             sw.getTime(),
+                             (localFile.length() * 0.008) / sw.getTime());
+
+                    // cache props
+                    cacheValue(propsCache, contentId, PropertiesSerializer.serialize(props));
+
+                    // cache md5
+                    md5Checksum = props.get(ContentStore.CONTENT_CHECKSUM);
+                    cacheValue(md5Cache, contentId, md5Checksum);
+
+                    // use the sha256 computed while the content was written to disk
+                    if (sha256 == null && writeChecksums) {
+                        sha256 = parallelRetrieval != null ?
+                                 parallelRetrieval.getSha256() : retrievalWorker.getSha256Checksum();
+                        if (sha256 != null) {
+                            totalChecksumsPerformed++;
+                            cacheValue(sha256Cache, contentId, sha256);
+                        }
+                    }
+
+                    log.info("Retrieved item {} from space {} with MD5 checksum {}",
+                             contentItem.getContentId(),
+                             contentItem.getSpaceId(),
+                             md5Checksum);
+
+                    if (writeChecksums && contentBlobStore != null && md5Checksum != null) {
+                        contentBlobStore.add(md5Checksum, localFile);
+                    }
+                } finally {
+                    if (claimed) {
+                        contentDeduplicator.retrieved(sharedChecksum,
+                                                      sharedChecksum.equals(md5Checksum) ?
+                                                      new ContentDeduplicator.Retrieval(localFile, sha256) :
+                                                      null);
+                    }
+                }
+            }
         } else {
             log.info("MD5 for contentId {} is already cached." +
                      " No need to download and reverify.",
@@ -245,6 +516,12 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
                 cacheValue(propsCache, contentId, PropertiesSerializer.serialize(props));
                 log.info("Retrieved and cached props for {}.", contentId);
             }
+
+            // let other content with the same checksum link to this file
+            if (contentDeduplicator != null && localFile.exists() &&
+                md5Checksum.equals(contentDeduplicator.getSharedChecksum(contentId))) {
+                contentDeduplicator.offer(md5Checksum, new ContentDeduplicator.Retrieval(localFile, sha256));
+            }
         }
 
         if (localFile.exists() && md5Checksum != null) {
@@ -263,6 +540,7 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
                         sw.start();
                         sha256 = sha256ChecksumUtil.generateChecksum(localFile);
                         totalChecksumsPerformed++;
+                        totalChecksumFileReads++;
                         sw.stop();
 
                         log.info("Finished sha256 checksum generation for contentId={};" +
@@ -283,7 +561,7 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
                 }
 
                 writeToSnapshotManager(contentId, props);
-                writeContentProperties(contentId, props, lastItem);
+                writeContentProperties(contentId, props);
             } catch (IOException ioe) {
                 log.error("Error writing snapshot details: " + ioe.getMessage());
                 throw ioe;
@@ -306,80 +584,241 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
         }
     }
 
+    /**
+     * @return the retrieval, or null if the item could not be retrieved
+     */
+    private ParallelContentRetriever.Retrieval retrieveInParallel(ContentItem contentItem,
+                                                                  Map<String, String> sourceProps,
+                                                                  File localFile) {
+        try {
+            return parallelContentRetriever.retrieve(contentItem, sourceProps, localFile,
+                                                     concurrencyLimiter::retried);
+        } catch (IOException ex) {
+            log.error("Failed to retrieve {} in parallel parts: {}", contentItem.getContentId(), ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * Materializes an item by linking to the file already retrieved for other
+     * content with the same checksum.
+     *
+     * @return the properties of the item, or null if its checksum no longer
+     * matches the space manifest and it must be retrieved
+     */
+    private Map<String, String> linkFile(ContentItem contentItem,
+                                         ContentDeduplicator.Retrieval shared,
+                                         File localFile,
+                                         String checksum) throws IOException {
+        Map<String, String> props = getCurrentProperties(contentItem, checksum);
+        if (props == null) {
+            return null;
+        }
+
+        if (!ContentDeduplicator.link(shared.getFile(), localFile)) {
+            diskCapacityManager.landed(snapshotName, localFile.length());
+        }
+        log.info("Content {} has the same checksum ({}) as {}; linked rather than retrieved.",
+                 contentItem.getContentId(), checksum, shared.getFile().getAbsolutePath());
+        cacheLinkedFile(contentItem, props, checksum, shared.getSha256());
+        return props;
+    }
+
+    /**
+     * Materializes an item by linking to content with the same checksum
+     * retrieved by an earlier snapshot.
+     *
+     * @return the properties of the item, or null if the blob store does not
+     * hold the content or its checksum no longer matches the space manifest
+     */
+    private Map<String, String> linkStoredFile(ContentItem contentItem,
+                                               File localFile,
+                                               String checksum) throws IOException {
+        if (!contentBlobStore.contains(checksum)) {
+            return null;
+        }
+
+        Map<String, String> props = getCurrentProperties(contentItem, checksum);
+        if (props == null || !contentBlobStore.link(checksum, localFile)) {
+            return null;
+        }
+
+        log.info("Content {} with checksum {} is held by the content blob store; linked rather than retrieved.",
+                 contentItem.getContentId(), checksum);
+        cacheLinkedFile(contentItem, props, checksum, null);
+        return props;
+    }
+
+    /**
+     * @return the properties of the item if its checksum is still the one
+     * listed by the space manifest, otherwise null
+     */
+    private Map<String, String> getCurrentProperties(ContentItem contentItem, String checksum) {
+        Map<String, String> props = retrievalSource.getSourceProperties(contentItem);
+        if (props == null || !checksum.equals(props.get(ContentStore.CONTENT_CHECKSUM))) {
+            log.info("Checksum of content {} no longer matches the space manifest; retrieving it.",
+                     contentItem.getContentId());
+            return null;
+        }
+        return props;
+    }
+
+    private void cacheLinkedFile(ContentItem contentItem,
+                                 Map<String, String> props,
+                                 String checksum,
+                                 String sha256) {
+        String contentId = chunkUtil.preChunkedContentId(contentItem.getContentId());
+        synchronized (this) {
+            totalItemsLinked++;
+        }
+        cacheValue(propsCache, contentId, PropertiesSerializer.serialize(props));
+        cacheValue(md5Cache, contentId, checksum);
+        if (sha256 != null) {
+            cacheValue(sha256Cache, contentId, sha256);
+        }
+    }
+
+    /**
+     * @return the number of items linked to content retrieved for another
+     * item rather than retrieved.
+     */
+    protected synchronized int getTotalItemsLinked() {
+        return totalItemsLinked;
+    }
+
+    /**
+     * Records an item which is unchanged since the parent snapshot as a
+     * reference to the snapshot holding its content, without retrieving it.
+     */
+    private void referenceFile(String contentId,
+                               Map<String, String> props,
+                               Long holdingSnapshotId) throws IOException {
+        log.info("Content {} is unchanged since snapshot {}; referencing snapshot {} rather than retrieving it.",
+                 contentId, unchangedContentIndex.getParent().getName(), holdingSnapshotId);
+        journal.appendReferencedMd5Checksum(contentId, props.get(ContentStore.CONTENT_CHECKSUM));
+        writeToSnapshotManager(contentId, props, holdingSnapshotId);
+        synchronized (this) {
+            totalItemsReferenced++;
+        }
+    }
+
+    /**
+     * @return the number of items recorded as references to an earlier
+     * snapshot rather than retrieved.
+     */
+    protected synchronized int getTotalItemsReferenced() {
+        return totalItemsReferenced;
+    }
+
     protected int getTotalChecksumsPerformed() {
         return totalChecksumsPerformed;
     }
 
     /**
+     * @return the number of sha256 checksums which could not be computed
+     * while downloading and so required reading the local file back.
+     */
+    protected int getTotalChecksumFileReads() {
+        return totalChecksumFileReads;
+    }
+
+    /**
+     * Queues the content item for addition to the snapshot. Items are sent to
+     * the snapshot manager in batches of CONTENT_ITEM_BATCH_SIZE; any remainder
+     * is sent by flushContentItems() at the end of the step. Items which are
+     * queued but not yet sent when the step dies are resubmitted on restart,
+     * since every item passes through this method again (cached or not).
+     *
      * @param contentId
      * @param props
      */
     private void writeToSnapshotManager(final String contentId,
                                         final Map<String, String> props) throws IOException {
+        writeToSnapshotManager(contentId, props, null);
+    }
+
+    /**
+     * @param contentId
+     * @param props
+     * @param referencedSnapshotId the snapshot holding the content, or null
+     *                             if the content is retrieved by this snapshot
+     */
+    private void writeToSnapshotManager(final String contentId,
+                                        final Map<String, String> props,
+                                        final Long referencedSnapshotId) throws IOException {
+        SnapshotContentItem item = new SnapshotContentItem();
+        item.setContentId(contentId);
+        item.setMetadata(PropertiesSerializer.serialize(props));
+        item.setReferencedSnapshotId(referencedSnapshotId);
+
+        List<SnapshotContentItem> fullBatch = null;
+        synchronized (this) {
+            contentItemBatch.add(item);
+            if (contentItemBatch.size() >= CONTENT_ITEM_BATCH_SIZE) {
+                fullBatch = contentItemBatch;
+                contentItemBatch = new ArrayList<>(CONTENT_ITEM_BATCH_SIZE);
+            }
+        }
+
+        if (fullBatch != null) {
+            writeToSnapshotManager(fullBatch);
+        }
+    }
+
+    /**
+     * Sends any queued content items to the snapshot manager.
+     *
+     * @throws IOException
+     */
+    protected void flushContentItems() throws IOException {
+        List<SnapshotContentItem> batch;
+        synchronized (this) {
+            batch = contentItemBatch;
+            contentItemBatch = new ArrayList<>(CONTENT_ITEM_BATCH_SIZE);
+        }
+
+        if (!batch.isEmpty()) {
+            writeToSnapshotManager(batch);
+        }
+    }
+
+    private void writeToSnapshotManager(final List<SnapshotContentItem> batch) throws IOException {
         try {
             new Retrier().execute(new Retriable() {
                 @Override
                 public Object retry() throws Exception {
-                    snapshotManager.addContentItem(snapshot, contentId, props);
+                    snapshotManager.addContentItems(snapshot, batch);
                     return null;
                 }
 
             });
         } catch (Exception e) {
-            log.error("Failed to add snapshot content item: " + contentId +
-                      " to snapshot " + snapshot + ": " + e.getMessage(), e);
+            log.error("Failed to add batch of " + batch.size() + " snapshot content items (first: " +
+                      batch.get(0).getContentId() + ") to snapshot " + snapshot + ": " + e.getMessage(), e);
             throw new IOException(e);
         }
     }
 
     protected void writeMD5Checksum(String contentId,
                                     String md5Checksum) throws IOException {
-        synchronized (md5Writer) {
-            ManifestFileHelper.writeManifestEntry(md5Writer, contentId, md5Checksum);
-        }
+        journal.appendMd5Checksum(contentId, md5Checksum);
     }
 
     protected void writeSHA256Checksum(String contentId,
                                        String sha256Checksum) throws IOException {
-
-        synchronized (sha256Writer) {
-            ManifestFileHelper.writeManifestEntry(sha256Writer, contentId, sha256Checksum);
-        }
+        journal.appendSha256Checksum(contentId, sha256Checksum);
     }
 
     protected void writeContentProperties(String contentId,
-                                          Map<String, String> props,
-                                          boolean lastItem)
+                                          Map<String, String> props)
         throws IOException {
-        Set<String> propKeys = props.keySet();
-        StringBuffer sb = new StringBuffer(100);
-        sb.append("{\n  \"" + contentId + "\": {\n");
-        for (String propKey : propKeys) {
-            String propValue = props.get(propKey);
-            // Escape special characters
-            propValue = propValue.replace("\\", "\\\\");
-            propValue = propValue.replace("\"", "\\\"");
-
-            sb.append("    \"" + propKey + "\": \"" + propValue + "\",\n");
-        }
-        sb.deleteCharAt(sb.length() - 2); // delete comma after last key/value pair
-
-        sb.append("  }\n}");
-        if (!lastItem) {
-            sb.append(",");
-        }
-        sb.append("\n");
-
-        synchronized (propsWriter) {
-            propsWriter.write(sb.toString());
-            propsWriter.flush();
-        }
+        journal.appendContentProperties(contentId, props);
     }
 
     protected void retrieveSnapshotProperties() {
         if (snapshotPropsContentItem != null) {
             try {
-                retrieveFile(snapshotPropsContentItem, contentDir, false, true);
+                retrieveFile(snapshotPropsContentItem, contentDir, false);
                 log.info("Snapshot properties retrieved");
             } catch (IOException ioe) {
                 log.error("Error retrieving the snapshot properties file: " +
@@ -397,12 +836,18 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
     public ExitStatus afterStep(StepExecution stepExecution) {
         ExitStatus status = super.afterStep(stepExecution);
         log.info("Step complete with status: {}", stepExecution.getExitStatus());
-        close("md5 writer", md5Writer);
-        close("sh256 writer", sha256Writer);
         close("output writer", outputWriter);
 
         retrieveSnapshotProperties();
-        closePropsWriter();
+        close("snapshot metadata journal", journal);
+
+        try {
+            flushContentItems();
+        } catch (IOException ioe) {
+            String message = "Error writing content items to snapshot: " + ioe.getMessage();
+            errors.add(message);
+            log.error(message, ioe);
+        }
 
         if (errors.size() == 0) {
             log.info("No errors in retrieval of snapshot {}; " +
@@ -422,24 +867,22 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
         }
 
         deleteDatabase();
-        return status;
-    }
-
-    private void closePropsWriter() {
-        try {
-            synchronized (propsWriter) {
-                propsWriter.write("]\n");
-                propsWriter.flush();
-            }
-
-            log.debug("Closed props writer");
-        } catch (IOException ioe) {
-            String message = "Error writing end of content property manifest: " + ioe.getMessage();
-            errors.add(message);
-            log.error(message, ioe);
-        } finally {
-            IOUtils.closeQuietly(propsWriter);
+        // the indexes built for verification are not part of the snapshot
+        ManifestIndex.delete(md5ManifestFile);
+        if (referencedManifestFile != null) {
+            ManifestIndex.delete(referencedManifestFile);
         }
+        if (unchangedContentIndex != null) {
+            log.info("{} items of snapshot {} reference content held by earlier snapshots",
+                     getTotalItemsReferenced(), snapshotName);
+            unchangedContentIndex.delete();
+        }
+        if (spaceManifestChecksums != null) {
+            log.info("{} items of snapshot {} were linked to identical content rather than retrieved",
+                     getTotalItemsLinked(), snapshotName);
+            spaceManifestChecksums.delete();
+        }
+        return status;
     }
 
     private void close(String writerName, Object writer) {
@@ -464,9 +907,10 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
     private void loadCacheFromFile(Map<String, String> cache,
                                    File file,
                                    Function<String, Boolean> isValidChecksum) throws IOException {
-        //if the cache is empty check if there is are md5 and sha256 manifests
-        //that can be used to prepopulate the cache.
-        if (cache.isEmpty() && file.exists()) {
+        //check if there are md5 and sha256 manifests that can be used to
+        //populate the cache. Values cached after the last commit of a
+        //previous run are only recoverable from these files.
+        if (file.exists()) {
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)))) {
                 String line = null;
                 while ((line = reader.readLine()) != null) {
@@ -474,7 +918,9 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
                         ManifestEntry entry = ManifestFileHelper.parseManifestEntry(line);
                         String contentId = entry.getContentId();
                         String checksum = entry.getChecksum();
-                        if (isValidChecksum.apply(checksum)) {
+                        if (checksum != null && checksum.equals(cache.get(contentId))) {
+                            continue;
+                        } else if (isValidChecksum.apply(checksum)) {
                             cacheValue(cache, contentId, checksum);
                         } else {
                             log.info("Checksum {} in manifest file {} was not a valid checksum: skipping.",
@@ -512,24 +958,50 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
                 this.sha256Cache,
                 this.sha256ManifestFile,
                 x -> x != null && x.matches("[a-fA-F0-9]{64}"));
+            commitCache();
+
+            if (unchangedContentIndex != null) {
+                try {
+                    unchangedContentIndex.open();
+                } catch (Exception ex) {
+                    // all content is simply retrieved
+                    log.error("Unable to compare space with snapshot " +
+                              unchangedContentIndex.getParent().getName() +
+                              "; retrieving all content: " + ex.getMessage(), ex);
+                    unchangedContentIndex.delete();
+                    unchangedContentIndex = null;
+                    // nor may a previous run's references be verified
+                    referencedManifestFile.delete();
+                }
+            }
+
+            if (spaceManifestChecksums != null) {
+                try {
+                    spaceManifestChecksums.open();
+                } catch (Exception ex) {
+                    // all content is simply retrieved
+                    log.error("Unable to read the checksums of the space manifest; retrieving all content: " +
+                              ex.getMessage(), ex);
+                    spaceManifestChecksums.delete();
+                    spaceManifestChecksums = null;
+                    contentDeduplicator = null;
+                }
+            }
 
             //initialize writers after loading cache from files.
             try {
-                this.propsWriter = createWriter(propsFile);
-                this.md5Writer = createWriter(this.md5ManifestFile);
-                this.sha256Writer = createWriter(this.sha256ManifestFile);
+                this.journal = new SnapshotMetadataJournal(propsFile,
+                                                           this.md5ManifestFile,
+                                                           this.sha256ManifestFile,
+                                                           unchangedContentIndex != null ?
+                                                               this.referencedManifestFile : null);
             } catch (IOException ex) {
                 throw new RuntimeException(ex);
             }
 
             errors.clear();
-            synchronized (propsWriter) {
-                propsWriter.write("[\n");
-                propsWriter.flush();
-            }
         } catch (IOException ioe) {
-            log.error("Error writing start of content property " +
-                      "manifest: ", ioe);
+            log.error("Error loading checksum cache from manifests: ", ioe);
         }
     }
 
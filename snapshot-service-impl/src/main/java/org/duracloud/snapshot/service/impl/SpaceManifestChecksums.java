@@ -0,0 +1,159 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.util.Map;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.duracloud.common.constant.Constants;
+import org.duracloud.common.constant.ManifestFormat;
+import org.duracloud.manifest.ManifestFormatter;
+import org.duracloud.manifest.impl.TsvManifestFormatter;
+import org.duracloud.manifeststitch.StitchedManifestGenerator;
+import org.duracloud.mill.db.model.ManifestItem;
+import org.mapdb.Atomic;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The MD5 checksum of each content item of a space, as listed by the
+ * (stitched) space manifest, which lets a snapshot find content it already
+ * has on disk before retrieving it.
+ *
+ * The checksums are kept in a file database which is built by the first
+ * open() and reused by any later open(), so that a restarted snapshot step
+ * does not generate the space manifest again.
+ *
+ * @author Daniel Bernstein
+ */
+public class SpaceManifestChecksums {
+
+    private static final Logger log = LoggerFactory.getLogger(SpaceManifestChecksums.class);
+
+    private File dbFile;
+    private StitchedManifestGenerator generator;
+    private String spaceId;
+    private DB db;
+    private Map<String, String> checksums;
+    private Map<String, Integer> checksumCounts;
+
+    /**
+     * @param dbFile    the file in which the checksums are kept
+     * @param generator generates the space manifest
+     * @param spaceId
+     */
+    public SpaceManifestChecksums(File dbFile, StitchedManifestGenerator generator, String spaceId) {
+        this.dbFile = dbFile;
+        this.generator = generator;
+        this.spaceId = spaceId;
+    }
+
+    /**
+     * Opens the database of checksums, building it first unless a complete
+     * one was left by an earlier open().
+     *
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        this.db = DBMaker.fileDB(dbFile).transactionEnable().closeOnJvmShutdown().make();
+        this.checksums = db.treeMap("checksums", Serializer.STRING, Serializer.STRING)
+                           .createOrOpen();
+        this.checksumCounts = db.treeMap("checksumCounts", Serializer.STRING, Serializer.INTEGER)
+                                .createOrOpen();
+        Atomic.Boolean complete = db.atomicBoolean("complete").createOrOpen();
+        if (complete.get()) {
+            log.info("reusing checksums of {} content items of space {}", checksums.size(), spaceId);
+            return;
+        }
+
+        StopWatch sw = new StopWatch();
+        sw.start();
+        try {
+            build();
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+        complete.set(true);
+        db.commit();
+        sw.stop();
+        log.info("read checksums of {} content items of space {} in {} ms",
+                 checksums.size(), spaceId, sw.getTime());
+    }
+
+    private void build() throws IOException {
+        checksums.clear();
+        checksumCounts.clear();
+
+        try (BufferedReader reader =
+                 new BufferedReader(new InputStreamReader(generator.generate(spaceId, ManifestFormat.TSV)))) {
+            ManifestFormatter formatter = new TsvManifestFormatter();
+            // skip header
+            if (formatter.getHeader() != null) {
+                reader.readLine();
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ManifestItem item;
+                try {
+                    item = formatter.parseLine(line);
+                } catch (ParseException ex) {
+                    throw new IOException(ex.getMessage(), ex);
+                }
+
+                String contentId = item.getContentId();
+                String checksum = item.getContentChecksum();
+                if (!contentId.equals(Constants.SNAPSHOT_PROPS_FILENAME) && checksum != null) {
+                    checksums.put(contentId, checksum);
+                    checksumCounts.merge(checksum, 1, Integer::sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param contentId
+     * @return the space manifest checksum of the content, or null if the
+     * content is not in the space manifest
+     */
+    public String getChecksum(String contentId) {
+        return checksums.get(contentId);
+    }
+
+    /**
+     * @param checksum
+     * @return true if more than one content item of the space has the checksum
+     */
+    public boolean isShared(String checksum) {
+        Integer count = checksumCounts.get(checksum);
+        return count != null && count > 1;
+    }
+
+    public void close() {
+        if (this.db != null && !this.db.isClosed()) {
+            this.db.close();
+        }
+    }
+
+    /**
+     * Closes the database and removes its file.
+     */
+    public void delete() {
+        close();
+        this.dbFile.delete();
+    }
+}
@@ -9,11 +9,15 @@ package org.duracloud.snapshot.service.impl;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.text.ParseException;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 
-import org.duracloud.common.collection.WriteOnlyStringSet;
 import org.duracloud.common.constant.Constants;
 import org.duracloud.common.constant.ManifestFormat;
 import org.duracloud.manifest.ManifestFormatter;
@@ -30,6 +34,15 @@ import org.slf4j.LoggerFactory;
  * be in the space, the stitched, rather than the unstitched, view of the space
  * is used for comparison.
  *
+ * By default each space manifest entry is looked up in a ManifestIndex of the
+ * snapshot manifest. In sorted merge mode both manifests are instead sorted on
+ * disk and compared in a single pass, which uses a constant amount of memory
+ * and reports entries missing from either side as well as checksum mismatches.
+ *
+ * The space content which an incremental snapshot found unchanged is listed in
+ * a separate referenced manifest rather than the snapshot manifest; when one
+ * is given, its entries count as part of the snapshot.
+ *
  * @author Daniel Bernstien
  */
 public class SpaceManifestSnapshotManifestVerifier {
@@ -37,16 +50,49 @@ public class SpaceManifestSnapshotManifestVerifier {
     private static final Logger log = LoggerFactory.getLogger(SpaceManifestSnapshotManifestVerifier.class);
 
     private File md5Manifest;
+    private File referencedManifest;
     private StitchedManifestGenerator generator;
     private String spaceId;
+    private boolean sortedMerge;
     private List<String> errors;
 
+    /**
+     * The maximum number of individual differences reported as errors by
+     * sorted merge verification; beyond this only the totals are reported.
+     */
+    protected static final int MAX_REPORTED_DIFFERENCES = 1000;
+
     public SpaceManifestSnapshotManifestVerifier(File md5Manifest,
                                                  StitchedManifestGenerator generator,
                                                  String spaceId) {
+        this(md5Manifest, generator, spaceId, false);
+    }
+
+    public SpaceManifestSnapshotManifestVerifier(File md5Manifest,
+                                                 StitchedManifestGenerator generator,
+                                                 String spaceId,
+                                                 boolean sortedMerge) {
+        this(md5Manifest, null, generator, spaceId, sortedMerge);
+    }
+
+    /**
+     * @param md5Manifest        the manifest of the content held by the snapshot
+     * @param referencedManifest the manifest of the content held by earlier
+     *                           snapshots, or null if there is none
+     * @param generator
+     * @param spaceId
+     * @param sortedMerge
+     */
+    public SpaceManifestSnapshotManifestVerifier(File md5Manifest,
+                                                 File referencedManifest,
+                                                 StitchedManifestGenerator generator,
+                                                 String spaceId,
+                                                 boolean sortedMerge) {
         this.md5Manifest = md5Manifest;
+        this.referencedManifest = referencedManifest;
         this.generator = generator;
         this.spaceId = spaceId;
+        this.sortedMerge = sortedMerge;
     }
 
     public String getSpaceId() {
@@ -62,10 +108,18 @@ public class SpaceManifestSnapshotManifestVerifier {
     public boolean verify() {
 
         this.errors = new LinkedList<>();
+        if (sortedMerge) {
+            verifyBySortedMerge();
+            log.info("verification complete. error count = {}", errors.size());
+            return getResult(errors);
+        }
+
         try (BufferedReader reader =
                  new BufferedReader(new InputStreamReader(generator.generate(spaceId, ManifestFormat.TSV)))) {
-            WriteOnlyStringSet snapshotManifest = ManifestFileHelper.loadManifestSetFromFile(this.md5Manifest);
-            log.info("loaded manifest set into memory.");
+            ManifestIndex snapshotManifest = ManifestIndex.open(this.md5Manifest);
+            ManifestIndex referencedSnapshotManifest =
+                hasReferencedManifest() ? ManifestIndex.open(this.referencedManifest) : null;
+            log.info("opened manifest index.");
 
             ManifestFormatter formatter = new TsvManifestFormatter();
             // skip header
@@ -79,8 +133,9 @@ public class SpaceManifestSnapshotManifestVerifier {
                 ManifestItem item = formatter.parseLine(line);
                 String contentId = item.getContentId();
                 if (!contentId.equals(Constants.SNAPSHOT_PROPS_FILENAME)) {
-                    if (!snapshotManifest.contains(
-                        ManifestFileHelper.formatManifestSetString(contentId, item.getContentChecksum()))) {
+                    if (!snapshotManifest.contains(contentId, item.getContentChecksum()) &&
+                        (referencedSnapshotManifest == null ||
+                         !referencedSnapshotManifest.contains(contentId, item.getContentChecksum()))) {
                         String message = "Snapshot manifest does not contain content id/checksum combination ("
                                          + contentId + ", " + item.getContentChecksum();
                         errors.add(message);
@@ -90,6 +145,9 @@ public class SpaceManifestSnapshotManifestVerifier {
             }
 
             int snapshotCount = snapshotManifest.size();
+            if (referencedSnapshotManifest != null) {
+                snapshotCount += referencedSnapshotManifest.size();
+            }
             if (stitchedManifestCount != snapshotCount) {
                 String message = "Snapshot Manifest size (" + snapshotCount +
                                  ") does not equal DuraCloud Manifest (" + stitchedManifestCount + ")";
@@ -107,6 +165,175 @@ public class SpaceManifestSnapshotManifestVerifier {
         return getResult(errors);
     }
 
+    private void verifyBySortedMerge() {
+        File workDir = md5Manifest.getParentFile();
+        ManifestSorter sorter = new ManifestSorter(workDir);
+        File sortedSnapshotManifest = null;
+        File sortedSpaceManifest = null;
+        try {
+            try (ManifestSorter.ManifestFileReader reader = new ManifestSorter.ManifestFileReader(md5Manifest);
+                 ManifestSorter.ManifestFileReader referencedReader = hasReferencedManifest() ?
+                     new ManifestSorter.ManifestFileReader(referencedManifest) : null) {
+                sortedSnapshotManifest =
+                    sorter.sort(referencedReader == null ? reader : concat(reader, referencedReader));
+            }
+
+            try (BufferedReader reader =
+                     new BufferedReader(new InputStreamReader(generator.generate(spaceId, ManifestFormat.TSV)))) {
+                sortedSpaceManifest = sorter.sort(new StitchedManifestIterator(reader));
+            }
+            log.info("sorted snapshot and space manifests.");
+
+            try (ManifestSorter.ManifestFileReader snapshotEntries =
+                     new ManifestSorter.ManifestFileReader(sortedSnapshotManifest);
+                 ManifestSorter.ManifestFileReader spaceEntries =
+                     new ManifestSorter.ManifestFileReader(sortedSpaceManifest)) {
+                merge(snapshotEntries, spaceEntries);
+            }
+        } catch (Exception e) {
+            String message = "Failed to verify space manifest against snapshot manifest:" + e.getMessage();
+            errors.add(message);
+            log.error(message, e);
+        } finally {
+            if (sortedSnapshotManifest != null) {
+                sortedSnapshotManifest.delete();
+            }
+            if (sortedSpaceManifest != null) {
+                sortedSpaceManifest.delete();
+            }
+        }
+    }
+
+    private boolean hasReferencedManifest() {
+        return referencedManifest != null && referencedManifest.exists();
+    }
+
+    private static Iterator<ManifestEntry> concat(Iterator<ManifestEntry> first, Iterator<ManifestEntry> second) {
+        return new Iterator<ManifestEntry>() {
+            @Override
+            public boolean hasNext() {
+                return first.hasNext() || second.hasNext();
+            }
+
+            @Override
+            public ManifestEntry next() {
+                return first.hasNext() ? first.next() : second.next();
+            }
+        };
+    }
+
+    private void merge(ManifestSorter.ManifestFileReader snapshotEntries,
+                       ManifestSorter.ManifestFileReader spaceEntries) {
+        long missing = 0;
+        long extra = 0;
+        long mismatched = 0;
+
+        while (snapshotEntries.hasNext() || spaceEntries.hasNext()) {
+            ManifestEntry snapshotEntry = snapshotEntries.peek();
+            ManifestEntry spaceEntry = spaceEntries.peek();
+            int cmp;
+            if (snapshotEntry == null) {
+                cmp = 1;
+            } else if (spaceEntry == null) {
+                cmp = -1;
+            } else {
+                cmp = snapshotEntry.getContentId().compareTo(spaceEntry.getContentId());
+            }
+
+            if (cmp < 0) {
+                missing++;
+                addDifference(missing + extra + mismatched,
+                              "Space manifest does not contain content id/checksum combination (" +
+                              snapshotEntry.getContentId() + ", " + snapshotEntry.getChecksum() + ")");
+                snapshotEntries.next();
+            } else if (cmp > 0) {
+                extra++;
+                addDifference(missing + extra + mismatched,
+                              "Snapshot manifest does not contain content id/checksum combination (" +
+                              spaceEntry.getContentId() + ", " + spaceEntry.getChecksum() + ")");
+                spaceEntries.next();
+            } else {
+                if (!snapshotEntry.getChecksum().equals(spaceEntry.getChecksum())) {
+                    mismatched++;
+                    addDifference(missing + extra + mismatched,
+                                  "Checksum mismatch for content id (" + snapshotEntry.getContentId() +
+                                  "): snapshot manifest = " + snapshotEntry.getChecksum() +
+                                  ", space manifest = " + spaceEntry.getChecksum());
+                }
+                snapshotEntries.next();
+                spaceEntries.next();
+            }
+        }
+
+        if (missing + extra + mismatched > 0) {
+            String message = "Snapshot manifest does not match DuraCloud manifest: " + missing +
+                             " missing from space, " + extra + " missing from snapshot, " +
+                             mismatched + " checksum mismatches";
+            errors.add(message);
+            log.error(message);
+        }
+    }
+
+    private void addDifference(long differenceCount, String message) {
+        if (differenceCount <= MAX_REPORTED_DIFFERENCES) {
+            errors.add(message);
+        }
+    }
+
+    /**
+     * Presents the lines of a stitched TSV manifest as manifest entries,
+     * skipping the header and the snapshot properties file.
+     */
+    private static class StitchedManifestIterator implements Iterator<ManifestEntry> {
+
+        private BufferedReader reader;
+        private ManifestFormatter formatter = new TsvManifestFormatter();
+        private ManifestEntry next;
+
+        public StitchedManifestIterator(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            if (formatter.getHeader() != null) {
+                reader.readLine();
+            }
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public ManifestEntry next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            ManifestEntry current = next;
+            try {
+                advance();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return current;
+        }
+
+        private void advance() throws IOException {
+            next = null;
+            String line;
+            while (next == null && (line = reader.readLine()) != null) {
+                ManifestItem item;
+                try {
+                    item = formatter.parseLine(line);
+                } catch (ParseException ex) {
+                    throw new IOException(ex.getMessage(), ex);
+                }
+                if (!item.getContentId().equals(Constants.SNAPSHOT_PROPS_FILENAME)) {
+                    next = new ManifestEntry(item.getContentChecksum(), item.getContentId());
+                }
+            }
+        }
+    }
+
     private boolean getResult(List<String> errors) {
         return errors.size() == 0;
     }
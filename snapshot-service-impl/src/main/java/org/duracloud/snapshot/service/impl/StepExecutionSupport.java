@@ -34,6 +34,12 @@ public abstract class StepExecutionSupport implements StepExecutionListener {
     private StepExecution stepExecution;
     public static String ITEMS_READ_KEY = "lines.read";
     public static final String ERRORS_KEY = "errors";
+    public static final String READ_CHECKPOINTS_KEY = "read.checkpoints";
+
+    /**
+     * The number of items between the read checkpoints recorded by readers.
+     */
+    protected static final long READ_CHECKPOINT_INTERVAL = 1000;
     private boolean test = false;
 
     protected ExecutionContext getExecutionContext() {
@@ -59,6 +65,9 @@ public abstract class StepExecutionSupport implements StepExecutionListener {
         //items read state variable must be set back to zero to
         //ensure that the step will be run from top of the list on failure.
         addToItemsRead(getItemsRead() * -1);
+        synchronized (this.stepExecution) {
+            getExecutionContext().remove(READ_CHECKPOINTS_KEY);
+        }
         clearErrors();
     }
 
@@ -97,6 +106,91 @@ public abstract class StepExecutionSupport implements StepExecutionListener {
         }
     }
 
+    /**
+     * Records the position in the source from which the item with the given
+     * number (i.e. the number of items read before it) can be read. Only every
+     * READ_CHECKPOINT_INTERVAL-th item is recorded, and checkpoints which can
+     * no longer be needed on restart are discarded, so the number kept is
+     * bounded by the number of items in flight between reader and writer.
+     *
+     * @param itemNumber the number of items read before this position
+     * @param position   a reader specific position, such as a byte offset
+     */
+    protected void addReadCheckpoint(long itemNumber, String position) {
+        if (itemNumber == 0 || itemNumber % READ_CHECKPOINT_INTERVAL != 0) {
+            return;
+        }
+
+        synchronized (this.stepExecution) {
+            long itemsRead = getItemsRead();
+            List<String> checkpoints = new LinkedList<>();
+            String resumable = null;
+            for (String checkpoint : getReadCheckpointList()) {
+                if (parseCheckpointItemNumber(checkpoint) <= itemsRead) {
+                    resumable = checkpoint;
+                } else {
+                    checkpoints.add(checkpoint);
+                }
+            }
+            if (resumable != null) {
+                checkpoints.add(0, resumable);
+            }
+            checkpoints.add(itemNumber + ":" + position);
+            getExecutionContext().put(READ_CHECKPOINTS_KEY, checkpoints);
+        }
+    }
+
+    /**
+     * @return the recorded checkpoint closest to, but not after, the number
+     * of items already read (as counted by getItemsRead()), or null if there
+     * is none. Readers resume from its position and then skip the remaining
+     * getItemsRead() - getItemNumber() items.
+     */
+    protected ReadCheckpoint getResumeCheckpoint() {
+        long itemsRead = getItemsRead();
+        ReadCheckpoint resume = null;
+        synchronized (this.stepExecution) {
+            for (String checkpoint : getReadCheckpointList()) {
+                long itemNumber = parseCheckpointItemNumber(checkpoint);
+                if (itemNumber <= itemsRead &&
+                    (resume == null || itemNumber > resume.getItemNumber())) {
+                    resume = new ReadCheckpoint(itemNumber, checkpoint.substring(checkpoint.indexOf(':') + 1));
+                }
+            }
+        }
+        return resume;
+    }
+
+    private List<String> getReadCheckpointList() {
+        List<String> checkpoints = (List<String>) getExecutionContext().get(READ_CHECKPOINTS_KEY);
+        return checkpoints != null ? checkpoints : new LinkedList<>();
+    }
+
+    private long parseCheckpointItemNumber(String checkpoint) {
+        return Long.parseLong(checkpoint.substring(0, checkpoint.indexOf(':')));
+    }
+
+    /**
+     * A position in a reader's source and the number of items read before it.
+     */
+    protected static class ReadCheckpoint {
+        private long itemNumber;
+        private String position;
+
+        public ReadCheckpoint(long itemNumber, String position) {
+            this.itemNumber = itemNumber;
+            this.position = position;
+        }
+
+        public long getItemNumber() {
+            return itemNumber;
+        }
+
+        public String getPosition() {
+            return position;
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -7,35 +7,138 @@
  */
 package org.duracloud.snapshot.service.impl;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
 import org.duracloud.client.ContentStore;
 import org.duracloud.client.util.StoreClientUtil;
 import org.duracloud.snapshot.common.SnapshotServiceConstants;
 import org.duracloud.snapshot.db.model.DuracloudEndPointConfig;
+import org.duracloud.snapshot.service.BridgeConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
+ * Creates the content stores used to reach DuraCloud. Content stores are
+ * stateless between calls, so each one created is kept, keyed by host, port,
+ * store id and credentials, and handed out again to later jobs and requests
+ * against the same endpoint. This saves rebuilding the client (and the retry
+ * proxy wrapped around it by the StoreClientUtil) on every job build, every
+ * finalization pass and every space check.
+ *
+ * The number of clients kept is bounded; the least recently used client is
+ * dropped first, so stale credentials age out.
+ *
  * @author Daniel Bernstein Date: Aug 18, 2014
  */
 @Component
 public class StoreClientHelper {
+
+    public static final int DEFAULT_CACHE_SIZE = 64;
+
+    private static final Logger log = LoggerFactory.getLogger(StoreClientHelper.class);
+
     private StoreClientUtil storeClientUtil;
+    private final Map<ClientKey, ContentStore> contentStores;
 
     @Autowired
     public StoreClientHelper(StoreClientUtil storeClientUtil) {
+        this(storeClientUtil, BridgeConfiguration.getStoreClientCacheSize());
+    }
+
+    public StoreClientHelper(StoreClientUtil storeClientUtil, final int cacheSize) {
         this.storeClientUtil = storeClientUtil;
+        this.contentStores = new LinkedHashMap<ClientKey, ContentStore>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ClientKey, ContentStore> eldest) {
+                return size() > cacheSize;
+            }
+        };
     }
 
     public ContentStore create(DuracloudEndPointConfig config,
                                String username,
                                String password) {
-        ContentStore contentStore =
-            storeClientUtil.createContentStore(config.getHost(),
-                                               config.getPort(),
-                                               SnapshotServiceConstants.DURASTORE_CONTEXT,
-                                               username,
-                                               password,
-                                               config.getStoreId());
-        return contentStore;
+        ClientKey key = new ClientKey(config.getHost(),
+                                      config.getPort(),
+                                      config.getStoreId(),
+                                      username,
+                                      password);
+        synchronized (contentStores) {
+            ContentStore contentStore = contentStores.get(key);
+            if (contentStore == null) {
+                contentStore =
+                    storeClientUtil.createContentStore(config.getHost(),
+                                                       config.getPort(),
+                                                       SnapshotServiceConstants.DURASTORE_CONTEXT,
+                                                       username,
+                                                       password,
+                                                       config.getStoreId());
+                contentStores.put(key, contentStore);
+                log.debug("created content store client for {}:{} (store {}, user {})",
+                          config.getHost(), config.getPort(), config.getStoreId(), username);
+            }
+            return contentStore;
+        }
+    }
+
+    /*
+     * Identifies the endpoint and credentials of a content store. The password
+     * is only kept as a digest.
+     */
+    private static class ClientKey {
+        private final String host;
+        private final int port;
+        private final String storeId;
+        private final String username;
+        private final byte[] passwordDigest;
+
+        ClientKey(String host, int port, String storeId, String username, String password) {
+            this.host = host;
+            this.port = port;
+            this.storeId = storeId;
+            this.username = username;
+            this.passwordDigest = digest(password);
+        }
+
+        private static byte[] digest(String password) {
+            if (password == null) {
+                return null;
+            }
+            try {
+                return MessageDigest.getInstance("SHA-256")
+                                    .digest(password.getBytes(StandardCharsets.UTF_8));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ClientKey)) {
+                return false;
+            }
+            ClientKey other = (ClientKey) o;
+            return Objects.equals(host, other.host) &&
+                   port == other.port &&
+                   Objects.equals(storeId, other.storeId) &&
+                   Objects.equals(username, other.username) &&
+                   Arrays.equals(passwordDigest, other.passwordDigest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, storeId, username) * 31 + Arrays.hashCode(passwordDigest);
+        }
     }
 }
@@ -8,12 +8,24 @@
 package org.duracloud.snapshot.service.impl;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.duracloud.client.ContentStore;
 import org.duracloud.common.constant.Constants;
+import org.duracloud.common.retry.ExceptionHandler;
 import org.duracloud.common.retry.Retriable;
 import org.duracloud.common.retry.Retrier;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
+import org.duracloud.common.util.MimetypeUtil;
 import org.duracloud.domain.Space;
 import org.duracloud.error.ContentStoreException;
 import org.duracloud.error.NotFoundException;
@@ -44,6 +56,12 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
     private String destinationSpaceId;
     private RestoreManager restoreManager;
     private String restorationId;
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private ParallelChunkUploader chunkUploader;
+    private ContentPropertiesIndex contentPropertiesIndex;
+    private File verificationManifest;
+    private ManifestIndex manifestIndex;
+    private MimetypeUtil mimetypeUtil = new MimetypeUtil();
 
     /**
      * @param restorationId
@@ -59,6 +77,26 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
                       ContentStore contentStore,
                       String destinationSpaceId,
                       RestoreManager restoreManager) {
+        this(restorationId, watchDir, endpoint, contentStore, destinationSpaceId, restoreManager,
+             AdaptiveConcurrencyLimiter.unlimited());
+    }
+
+    /**
+     * @param restorationId
+     * @param watchDir
+     * @param endpoint
+     * @param contentStore
+     * @param destinationSpaceId
+     * @param restoreManager
+     * @param concurrencyLimiter receives the outcome of each upload
+     */
+    public SyncWriter(String restorationId,
+                      File watchDir,
+                      SyncEndpoint endpoint,
+                      ContentStore contentStore,
+                      String destinationSpaceId,
+                      RestoreManager restoreManager,
+                      AdaptiveConcurrencyLimiter concurrencyLimiter) {
         super();
         this.endpoint = endpoint;
         this.watchDir = watchDir;
@@ -66,6 +104,36 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
         this.destinationSpaceId = destinationSpaceId;
         this.restoreManager = restoreManager;
         this.restorationId = restorationId;
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * @param chunkUploader uploads the files it chunks in parallel chunks
+     *                      rather than through the sync endpoint, or null to
+     *                      upload all files through the endpoint
+     */
+    public void setChunkUploader(ParallelChunkUploader chunkUploader) {
+        this.chunkUploader = chunkUploader;
+    }
+
+    /**
+     * @param contentPropertiesIndex the properties of the restored content,
+     *                               which are attached to each file as it is
+     *                               uploaded, or null to upload the files
+     *                               without their properties
+     */
+    public void setContentPropertiesIndex(ContentPropertiesIndex contentPropertiesIndex) {
+        this.contentPropertiesIndex = contentPropertiesIndex;
+    }
+
+    /**
+     * @param verificationManifest the md5 manifest of the restored snapshot,
+     *                             against which the checksum of each file is
+     *                             verified as the file is uploaded, or null
+     *                             if the files are verified beforehand
+     */
+    public void setVerificationManifest(File verificationManifest) {
+        this.verificationManifest = verificationManifest;
     }
 
     // StepExecution Interface
@@ -87,12 +155,18 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
 
                 // restore the snapshot props file to the data directory.
                 restoreFile(new File(this.watchDir.getParentFile(), Constants.SNAPSHOT_PROPS_FILENAME),
-                            watchDir.getParentFile());
+                            watchDir.getParentFile(), false);
+                if (contentPropertiesIndex != null) {
+                    contentPropertiesIndex.delete();
+                }
                 return status.and(ExitStatus.COMPLETED);
 
             } catch (Exception e) {
                 String message = "failed to transition restore status: " + e.getMessage();
                 log.error(message, e);
+                if (contentPropertiesIndex != null) {
+                    contentPropertiesIndex.close();
+                }
                 return status.and(ExitStatus.FAILED).addExitDescription(message);
             }
 
@@ -107,6 +181,10 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
 
             resetContextState();
 
+            // the index is kept for a restart of the step
+            if (contentPropertiesIndex != null) {
+                contentPropertiesIndex.close();
+            }
             return status;
         }
     }
@@ -129,9 +207,11 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
                                                                        + destinationSpaceId +
                                                                        " must be empty to receive restored content"));
             }
+            openIndexes(stepExecution);
         } catch (NotFoundException ex) {
             try {
                 this.contentStore.createSpace(destinationSpaceId);
+                openIndexes(stepExecution);
             } catch (ContentStoreException e) {
                 addError(ex.getMessage());
                 stepExecution.addFailureException(e);
@@ -141,6 +221,23 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
             stepExecution.addFailureException(ex);
         }
     }
+
+    private void openIndexes(StepExecution stepExecution) {
+        try {
+            if (verificationManifest != null) {
+                manifestIndex = ManifestIndex.open(verificationManifest);
+            }
+            if (contentPropertiesIndex != null) {
+                contentPropertiesIndex.open();
+            }
+        } catch (Exception ex) {
+            String message = "failed to index restored snapshot: " + ex.getMessage();
+            log.error(message, ex);
+            addError(message);
+            stepExecution.addFailureException(ex);
+        }
+    }
+
     // ItemWriteListener interface
 
     /*
@@ -163,15 +260,48 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
     public void write(List<? extends File> items) throws Exception {
         log.info("starting to write {} file(s) to duracloud", items.size());
         for (final File file : items) {
-            restoreFile(file, watchDir);
+            restoreFile(file, watchDir, manifestIndex != null);
         }
     }
 
     /**
      * @param file
+     * @param watchDir
+     * @param verify   true if the checksum of the file is to be verified
+     *                 against the manifest as the file is uploaded
      * @throws Exception
      */
-    private void restoreFile(final File file, final File watchDir) throws Exception {
+    private void restoreFile(final File file, final File watchDir, final boolean verify) throws Exception {
+        String contentId = getContentId(file, watchDir);
+        Map<String, String> properties =
+            contentPropertiesIndex != null ? contentPropertiesIndex.getProperties(contentId) : null;
+
+        if (chunkUploader != null && chunkUploader.isChunked(file)) {
+            restoreChunkedFile(file, contentId, properties, verify);
+        } else if (verify || properties != null) {
+            uploadFile(file, contentId, properties != null ? properties : new HashMap<>(), verify);
+        } else {
+            syncFile(file, watchDir);
+        }
+    }
+
+    /**
+     * @return the id of the content restored from the file, as the sync
+     * endpoint derives it from the path of the file below the watch directory
+     */
+    private String getContentId(File file, File watchDir) {
+        String path = watchDir.getAbsoluteFile().toPath().relativize(file.getAbsoluteFile().toPath()).toString();
+        return path.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Uploads the file through the sync endpoint.
+     *
+     * @param file
+     * @param watchDir
+     */
+    private void syncFile(final File file, final File watchDir) {
+        long start = System.currentTimeMillis();
         try {
             new Retrier().execute(new Retriable() {
 
@@ -193,12 +323,143 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
 
                     return result;
                 }
+            }, new ExceptionHandler() {
+                @Override
+                public void handle(Exception ex) {
+                    log.warn("retrying upload of {}: {}", file.getAbsolutePath(), ex.getMessage());
+                    concurrencyLimiter.retried();
+                }
             });
+            concurrencyLimiter.succeeded(file.length(), System.currentTimeMillis() - start);
         } catch (Exception ex) {
+            concurrencyLimiter.failed(System.currentTimeMillis() - start);
             addError(ex.getMessage());
         }
     }
 
+    /**
+     * Uploads the file directly rather than through the sync endpoint, along
+     * with its properties, so that they need not be set once the file is in
+     * place.
+     *
+     * @param file
+     * @param contentId
+     * @param properties
+     * @param verify     true if the checksum of the file is to be verified
+     *                   against the manifest as the file is uploaded
+     */
+    private void uploadFile(final File file,
+                            final String contentId,
+                            final Map<String, String> properties,
+                            final boolean verify) {
+        long start = System.currentTimeMillis();
+        try {
+            // a verified upload checksums the bytes it sends rather than
+            // reading the file beforehand
+            final String checksum = verify ? null : new ChecksumUtil(Algorithm.MD5).generateChecksum(file);
+            final String mimetype = properties.get(ContentStore.CONTENT_MIMETYPE) != null ?
+                                    properties.get(ContentStore.CONTENT_MIMETYPE) : mimetypeUtil.getMimeType(file);
+            String mismatch = (String) new Retrier().execute(new Retriable() {
+                @Override
+                public Object retry() throws Exception {
+                    if (verify) {
+                        String result = uploadVerifiedFile(file, contentId, mimetype, properties);
+                        if (result != null) {
+                            // not retried, as the same bytes would be read
+                            return result;
+                        }
+                    } else {
+                        try (InputStream content = new FileInputStream(file)) {
+                            contentStore.addContent(destinationSpaceId, contentId, content, file.length(), mimetype,
+                                                    checksum, properties);
+                        }
+                    }
+                    log.info("successfully uploaded {}", file.getAbsolutePath());
+                    return null;
+                }
+            }, new ExceptionHandler() {
+                @Override
+                public void handle(Exception ex) {
+                    log.warn("retrying upload of {}: {}", file.getAbsolutePath(), ex.getMessage());
+                    concurrencyLimiter.retried();
+                }
+            });
+            if (mismatch != null) {
+                throw new IOException(mismatch);
+            }
+            concurrencyLimiter.succeeded(file.length(), System.currentTimeMillis() - start);
+        } catch (Exception ex) {
+            concurrencyLimiter.failed(System.currentTimeMillis() - start);
+            addError("Failed to upload " + file.getAbsolutePath() + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Uploads the file while verifying the checksum of the bytes read
+     * against the manifest, failing the upload before its last bytes are
+     * sent if the checksum is not listed for the content.
+     *
+     * @return a description of the mismatch if the checksum of the file is
+     * not listed in the manifest, or null once the file is uploaded
+     */
+    private String uploadVerifiedFile(File file,
+                                      String contentId,
+                                      String mimetype,
+                                      Map<String, String> properties) throws Exception {
+        try (ManifestVerifyingInputStream content = new ManifestVerifyingInputStream(file, contentId)) {
+            String stored;
+            try {
+                stored = contentStore.addContent(destinationSpaceId, contentId, content, file.length(), mimetype,
+                                                 null, properties);
+            } catch (Exception ex) {
+                if (content.getMismatch() != null) {
+                    return content.getMismatch();
+                }
+                throw ex;
+            }
+
+            // nothing is read of an empty file
+            String mismatch = content.verify();
+            if (mismatch != null) {
+                return mismatch;
+            }
+            if (!content.getChecksum().equals(stored)) {
+                throw new IOException("Checksum of uploaded content (" + stored +
+                                      ") does not match the checksum of the bytes read (" +
+                                      content.getChecksum() + ")");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Uploads the file in parallel chunks, each of which is retried on its
+     * own, so the file as a whole is not retried.
+     *
+     * @param file
+     * @param contentId
+     * @param properties the properties of the content, or null
+     * @param verify     true if the checksum of the file is to be verified
+     *                   against the manifest before the chunks manifest is
+     *                   uploaded
+     */
+    private void restoreChunkedFile(final File file,
+                                    final String contentId,
+                                    final Map<String, String> properties,
+                                    final boolean verify) {
+        long start = System.currentTimeMillis();
+        try {
+            chunkUploader.upload(file, contentId, properties,
+                                 verify ? md5 -> manifestIndex.contains(contentId, md5) : null,
+                                 concurrencyLimiter::retried);
+            log.info("successfully uploaded {} in parallel chunks", file.getAbsolutePath());
+            concurrencyLimiter.succeeded(file.length(), System.currentTimeMillis() - start);
+        } catch (Exception ex) {
+            concurrencyLimiter.failed(System.currentTimeMillis() - start);
+            addError("Failed to upload " + file.getAbsolutePath() + ": " + ex.getMessage());
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -224,4 +485,70 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
         log.error("Error writing item(s): " + items.toString(), ex);
     }
 
+    /**
+     * Computes the MD5 checksum of a restored file as it is read for upload.
+     * The read of the last bytes of the file fails if the checksum is not
+     * listed in the manifest for the content.
+     */
+    private class ManifestVerifyingInputStream extends DigestInputStream {
+        private String contentId;
+        private long remaining;
+        private String checksum;
+        private String mismatch;
+
+        ManifestVerifyingInputStream(File file, String contentId) throws IOException, NoSuchAlgorithmException {
+            super(new FileInputStream(file), MessageDigest.getInstance(Algorithm.MD5.toString()));
+            this.contentId = contentId;
+            this.remaining = file.length();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                countRead(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+            if (read > 0) {
+                countRead(read);
+            }
+            return read;
+        }
+
+        private void countRead(long bytes) throws IOException {
+            remaining -= bytes;
+            if (remaining == 0 && verify() != null) {
+                throw new IOException(mismatch);
+            }
+        }
+
+        /**
+         * @return a description of the mismatch if the checksum of the bytes
+         * read is not listed in the manifest, otherwise null
+         */
+        String verify() {
+            if (checksum == null) {
+                checksum = ChecksumUtil.checksumBytesToString(getMessageDigest().digest());
+                if (!manifestIndex.contains(contentId, checksum)) {
+                    mismatch = "content id (" + contentId + ") checksum (" + checksum +
+                               ") does not match the snapshot manifest";
+                }
+            }
+            return mismatch;
+        }
+
+        String getChecksum() {
+            return checksum;
+        }
+
+        String getMismatch() {
+            return mismatch;
+        }
+    }
+
 }
@@ -0,0 +1,80 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket holding up to one second's worth of bytes at its current
+ * rate. Callers take the bytes they transfer from the bucket; a caller
+ * taking more than the bucket holds goes into debt and waits until the debt
+ * has been refilled, so that later callers queue up behind it. The rate is
+ * read on every call and so may change at any time; a rate of zero or less
+ * is unlimited.
+ *
+ * @author Daniel Bernstein
+ */
+public class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongSupplier bytesPerSecond;
+    private final LongSupplier nanoClock;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param bytesPerSecond supplies the current rate
+     */
+    public TokenBucket(LongSupplier bytesPerSecond) {
+        this(bytesPerSecond, System::nanoTime);
+    }
+
+    protected TokenBucket(LongSupplier bytesPerSecond, LongSupplier nanoClock) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.nanoClock = nanoClock;
+        this.lastRefill = nanoClock.getAsLong();
+        this.tokens = Math.max(0, bytesPerSecond.getAsLong());
+    }
+
+    /**
+     * Takes the bytes from the bucket, waiting as long as the rate requires.
+     *
+     * @param bytes
+     * @throws InterruptedException
+     */
+    public void take(long bytes) throws InterruptedException {
+        long waitNanos = reserve(bytes);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes the bytes from the bucket without waiting.
+     *
+     * @param bytes
+     * @return the time in nanoseconds the caller must wait before the bytes
+     * may be transferred
+     */
+    protected synchronized long reserve(long bytes) {
+        long rate = bytesPerSecond.getAsLong();
+        long now = nanoClock.getAsLong();
+        if (rate <= 0) {
+            lastRefill = now;
+            tokens = 0;
+            return 0;
+        }
+
+        tokens = Math.min(rate, tokens + (double) (now - lastRefill) * rate / NANOS_PER_SECOND);
+        lastRefill = now;
+        tokens -= bytes;
+        return tokens < 0 ? (long) (-tokens * NANOS_PER_SECOND / rate) : 0;
+    }
+}
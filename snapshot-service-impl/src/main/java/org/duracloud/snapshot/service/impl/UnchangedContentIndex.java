@@ -0,0 +1,238 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.duracloud.client.ContentStore;
+import org.duracloud.common.constant.Constants;
+import org.duracloud.common.constant.ManifestFormat;
+import org.duracloud.manifest.ManifestFormatter;
+import org.duracloud.manifest.impl.TsvManifestFormatter;
+import org.duracloud.manifeststitch.StitchedManifestGenerator;
+import org.duracloud.mill.db.model.ManifestItem;
+import org.duracloud.snapshot.db.model.Snapshot;
+import org.duracloud.snapshot.db.model.SnapshotContentItem;
+import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
+import org.mapdb.Atomic;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+
+/**
+ * The content of a space which is unchanged since the space's parent
+ * snapshot, that is, the content whose checksum in the (stitched) space
+ * manifest matches the checksum recorded for the same content id by the parent
+ * snapshot. For each such content id the index holds the properties recorded
+ * by the parent and the id of the snapshot which holds the content: the parent
+ * itself, or the snapshot the parent in turn referenced. Since properties may
+ * be changed without changing the content, the properties recorded by the
+ * parent serve only to identify the content; those of the new snapshot are to
+ * be read from the space.
+ *
+ * The index is kept in a file database which is built by the first open() and
+ * reused by any later open(), so that a restarted snapshot step does not list
+ * the parent snapshot and the space again.
+ *
+ * @author Daniel Bernstein
+ */
+public class UnchangedContentIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(UnchangedContentIndex.class);
+
+    /**
+     * The number of parent snapshot content items read per query.
+     */
+    protected static final int PAGE_SIZE = 1000;
+
+    private File dbFile;
+    private Snapshot parent;
+    private SnapshotContentItemRepo snapshotContentItemRepo;
+    private StitchedManifestGenerator generator;
+    private String spaceId;
+    private DB db;
+    private Map<String, String> unchangedProps;
+    private Map<String, Long> holdingSnapshotIds;
+
+    /**
+     * @param dbFile                  the file in which the index is kept
+     * @param parent                  the snapshot to compare the space with
+     * @param snapshotContentItemRepo
+     * @param generator               generates the space manifest
+     * @param spaceId
+     */
+    public UnchangedContentIndex(File dbFile,
+                                 Snapshot parent,
+                                 SnapshotContentItemRepo snapshotContentItemRepo,
+                                 StitchedManifestGenerator generator,
+                                 String spaceId) {
+        this.dbFile = dbFile;
+        this.parent = parent;
+        this.snapshotContentItemRepo = snapshotContentItemRepo;
+        this.generator = generator;
+        this.spaceId = spaceId;
+    }
+
+    /**
+     * @return the snapshot the space is compared with
+     */
+    public Snapshot getParent() {
+        return parent;
+    }
+
+    /**
+     * Opens the index, building it first unless a complete index was left by
+     * an earlier open().
+     *
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        this.db = DBMaker.fileDB(dbFile).transactionEnable().closeOnJvmShutdown().make();
+        this.unchangedProps = db.treeMap("unchangedProps", Serializer.STRING, Serializer.STRING)
+                                .createOrOpen();
+        this.holdingSnapshotIds = db.treeMap("holdingSnapshotIds", Serializer.STRING, Serializer.LONG)
+                                    .createOrOpen();
+        Atomic.Boolean complete = db.atomicBoolean("complete").createOrOpen();
+        if (complete.get()) {
+            log.info("reusing index of {} content items unchanged since snapshot {}",
+                     unchangedProps.size(), parent.getName());
+            return;
+        }
+
+        StopWatch sw = new StopWatch();
+        sw.start();
+        try {
+            build();
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+        complete.set(true);
+        db.commit();
+        sw.stop();
+        log.info("indexed {} content items of space {} unchanged since snapshot {} in {} ms",
+                 unchangedProps.size(), spaceId, parent.getName(), sw.getTime());
+    }
+
+    private void build() throws IOException {
+        unchangedProps.clear();
+        holdingSnapshotIds.clear();
+
+        // the parent's items, keyed by content id, until they are matched
+        // against the space manifest
+        Map<String, String> parentProps =
+            db.treeMap("parentProps", Serializer.STRING, Serializer.STRING).createOrOpen();
+        Map<String, Long> parentHolders =
+            db.treeMap("parentHolders", Serializer.STRING, Serializer.LONG).createOrOpen();
+        parentProps.clear();
+        parentHolders.clear();
+
+        Long lastId = 0L;
+        List<SnapshotContentItem> page;
+        do {
+            page = snapshotContentItemRepo.findBySnapshotNameAndIdGreaterThanOrderByIdAsc(
+                parent.getName(), lastId, PageRequest.of(0, PAGE_SIZE));
+            for (SnapshotContentItem item : page) {
+                lastId = item.getId();
+                if (item.getMetadata() != null) {
+                    Long holder = item.getReferencedSnapshotId() != null ?
+                                  item.getReferencedSnapshotId() : parent.getId();
+                    parentProps.put(item.getContentId(), item.getMetadata());
+                    parentHolders.put(item.getContentId(), holder);
+                }
+            }
+            db.commit();
+        } while (page.size() == PAGE_SIZE);
+
+        try (BufferedReader reader =
+                 new BufferedReader(new InputStreamReader(generator.generate(spaceId, ManifestFormat.TSV)))) {
+            ManifestFormatter formatter = new TsvManifestFormatter();
+            // skip header
+            if (formatter.getHeader() != null) {
+                reader.readLine();
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ManifestItem item;
+                try {
+                    item = formatter.parseLine(line);
+                } catch (ParseException ex) {
+                    throw new IOException(ex.getMessage(), ex);
+                }
+
+                String contentId = item.getContentId();
+                if (contentId.equals(Constants.SNAPSHOT_PROPS_FILENAME)) {
+                    continue;
+                }
+
+                String metadata = parentProps.get(contentId);
+                if (metadata != null) {
+                    String checksum = PropertiesSerializer.deserialize(metadata).get(ContentStore.CONTENT_CHECKSUM);
+                    if (checksum != null && checksum.equals(item.getContentChecksum())) {
+                        unchangedProps.put(contentId, metadata);
+                        holdingSnapshotIds.put(contentId, parentHolders.get(contentId));
+                    }
+                }
+            }
+        }
+
+        parentProps.clear();
+        parentHolders.clear();
+    }
+
+    /**
+     * @param contentId
+     * @return the properties recorded for the content by the parent snapshot
+     * if the content is unchanged since then, otherwise null
+     */
+    public Map<String, String> getProperties(String contentId) {
+        String metadata = unchangedProps.get(contentId);
+        return metadata != null ? PropertiesSerializer.deserialize(metadata) : null;
+    }
+
+    /**
+     * @param contentId
+     * @return the id of the snapshot which holds the content if the content is
+     * unchanged since the parent snapshot, otherwise null
+     */
+    public Long getHoldingSnapshotId(String contentId) {
+        return holdingSnapshotIds.get(contentId);
+    }
+
+    /**
+     * @return the number of unchanged content items
+     */
+    public int size() {
+        return unchangedProps.size();
+    }
+
+    public void close() {
+        if (this.db != null && !this.db.isClosed()) {
+            this.db.close();
+        }
+    }
+
+    /**
+     * Closes the index and removes its file.
+     */
+    public void delete() {
+        close();
+        this.dbFile.delete();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.duracloud.snapshot.service.BridgeConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+/**
+ * A task executor which runs each task on a thread of its own and bounds the
+ * number of tasks running at once with a semaphore rather than with the size
+ * of a thread pool. When the runtime supports virtual threads the tasks run
+ * on virtual threads, so that thousands of tasks blocked on network or disk
+ * I/O cost little more than their stacks in use; otherwise the tasks run on
+ * platform threads.
+ *
+ * Callers of execute() block while the maximum number of tasks are running.
+ *
+ * @author Daniel Bernstein
+ */
+public class VirtualThreadTaskExecutor implements TaskExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadTaskExecutor.class);
+
+    public static final int DEFAULT_MAX_CONCURRENT_TASKS = 1000;
+
+    private static final String THREAD_NAME_PREFIX = "item-task-";
+
+    private final Semaphore permits;
+    private final ThreadFactory threadFactory;
+    private final boolean virtual;
+
+    public VirtualThreadTaskExecutor() {
+        this(BridgeConfiguration.getItemExecutorMaxConcurrentTasks());
+    }
+
+    /**
+     * @param maxConcurrentTasks the maximum number of tasks running at once
+     */
+    public VirtualThreadTaskExecutor(int maxConcurrentTasks) {
+        this.permits = new Semaphore(Math.max(1, maxConcurrentTasks), true);
+        ThreadFactory virtualThreadFactory = createVirtualThreadFactory();
+        this.virtual = virtualThreadFactory != null;
+        this.threadFactory = virtual ? virtualThreadFactory : createPlatformThreadFactory();
+        log.info("created item task executor: virtual threads = {}, max concurrent tasks = {}",
+                 virtual, maxConcurrentTasks);
+    }
+
+    /*
+     * Equivalent to Thread.ofVirtual().name(prefix, 0).factory(), which is
+     * looked up reflectively so that the code compiles for runtimes without
+     * virtual threads.
+     */
+    private ThreadFactory createVirtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class)
+                                  .invoke(builder, THREAD_NAME_PREFIX, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            log.warn("virtual threads are not supported by this runtime, item tasks will run on platform threads");
+            return null;
+        }
+    }
+
+    private ThreadFactory createPlatformThreadFactory() {
+        AtomicLong count = new AtomicLong();
+        return runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @return true if tasks run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TaskRejectedException("interrupted waiting to execute task " + task, e);
+        }
+
+        try {
+            threadFactory.newThread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            }).start();
+        } catch (RuntimeException | Error e) {
+            permits.release();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    private AtomicLong now = new AtomicLong(0);
+
+    private AdaptiveConcurrencyLimiter createLimiter(int initial, int min, int max) {
+        return new AdaptiveConcurrencyLimiter("test", initial, min, max, now::get);
+    }
+
+    /*
+     * Completes a window of as many transfers as the current limit, each of
+     * the given size and latency, taking the given time overall.
+     */
+    private void completeWindow(AdaptiveConcurrencyLimiter limiter, long bytes, long latencyMs, long windowMs) {
+        int count = limiter.getLimit();
+        now.addAndGet(windowMs);
+        for (int i = 0; i < count; i++) {
+            limiter.succeeded(bytes, latencyMs);
+        }
+    }
+
+    @Test
+    public void testIncreaseWhileThroughputImproves() {
+        AdaptiveConcurrencyLimiter limiter = createLimiter(2, 1, 10);
+        completeWindow(limiter, 1000, 100, 1000);
+        assertEquals(3, limiter.getLimit());
+        // three transfers in the time two took before
+        completeWindow(limiter, 1000, 100, 1000);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testIncreaseStopsAtMax() {
+        AdaptiveConcurrencyLimiter limiter = createLimiter(9, 1, 10);
+        completeWindow(limiter, 1000, 100, 1000);
+        completeWindow(limiter, 1000, 100, 1000);
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void testHalveOnFailure() {
+        AdaptiveConcurrencyLimiter limiter = createLimiter(8, 1, 10);
+        limiter.failed(100);
+        completeWindow(limiter, 1000, 100, 1000);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testHalveOnRetry() {
+        AdaptiveConcurrencyLimiter limiter = createLimiter(3, 2, 10);
+        limiter.retried();
+        completeWindow(limiter, 1000, 100, 1000);
+        // not below the minimum
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testDecreaseWhenIncreaseHurtThroughput() {
+        AdaptiveConcurrencyLimiter limiter = createLimiter(4, 1, 10);
+        completeWindow(limiter, 1000, 100, 1000);
+        assertEquals(5, limiter.getLimit());
+        // five transfers now take twice as long as four did
+        completeWindow(limiter, 1000, 100, 2500);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testDecreaseWhenLatencyInflates() {
+        AdaptiveConcurrencyLimiter limiter = createLimiter(4, 1, 10);
+        completeWindow(limiter, 1000, 100, 1000);
+        assertEquals(5, limiter.getLimit());
+        // no better throughput, but each transfer takes far longer
+        completeWindow(limiter, 800, 1000, 1250);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testFixedLimit() {
+        AdaptiveConcurrencyLimiter limiter = createLimiter(3, 3, 3);
+        completeWindow(limiter, 1000, 100, 1000);
+        completeWindow(limiter, 1000, 100, 100);
+        limiter.failed(100);
+        completeWindow(limiter, 1000, 100, 100);
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void testAcquireWaitsForRelease() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = createLimiter(1, 1, 1);
+        limiter.acquire();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                limiter.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limiter.release();
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        thread.join();
+    }
+}
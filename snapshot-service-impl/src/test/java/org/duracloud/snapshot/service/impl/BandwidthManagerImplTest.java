@@ -0,0 +1,138 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.commons.io.IOUtils;
+import org.duracloud.client.ContentStore;
+import org.duracloud.domain.Content;
+import org.duracloud.snapshot.service.BandwidthLimits;
+import org.duracloud.snapshot.service.BandwidthProfile;
+import org.duracloud.snapshot.service.BandwidthSchedule;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class BandwidthManagerImplTest {
+
+    private Clock clockAt(int hour) {
+        ZoneId zone = ZoneId.systemDefault();
+        return Clock.fixed(LocalDateTime.of(2024, 1, 1, hour, 30).atZone(zone).toInstant(), zone);
+    }
+
+    private BandwidthSchedule createSchedule() {
+        BandwidthSchedule schedule = new BandwidthSchedule(1000L, 100L, null);
+        schedule.setProfiles(Arrays.asList(
+            new BandwidthProfile("business hours", 9, 17, 500L, null, 200L),
+            new BandwidthProfile("night", 22, 6, 0L, 0L, 0L)));
+        return schedule;
+    }
+
+    @Test
+    public void testProfiles() {
+        BandwidthManagerImpl manager = new BandwidthManagerImpl(createSchedule());
+
+        manager.setClock(clockAt(10));
+        BandwidthLimits limits = manager.getCurrentLimits();
+        assertEquals(Long.valueOf(500), limits.getGlobalBytesPerSecond());
+        // not set by the profile
+        assertEquals(Long.valueOf(100), limits.getJobBytesPerSecond());
+        assertEquals(Long.valueOf(200), limits.getHostBytesPerSecond());
+
+        manager.setClock(clockAt(18));
+        limits = manager.getCurrentLimits();
+        assertEquals(Long.valueOf(1000), limits.getGlobalBytesPerSecond());
+        assertNull(limits.getHostBytesPerSecond());
+
+        // spans midnight
+        manager.setClock(clockAt(2));
+        limits = manager.getCurrentLimits();
+        assertEquals(Long.valueOf(0), limits.getGlobalBytesPerSecond());
+        manager.setClock(clockAt(23));
+        assertEquals(Long.valueOf(0), manager.getCurrentLimits().getJobBytesPerSecond());
+    }
+
+    @Test
+    public void testSetScheduleTakesEffectImmediately() {
+        BandwidthManagerImpl manager = new BandwidthManagerImpl(new BandwidthSchedule());
+        manager.setClock(clockAt(12));
+        assertNull(manager.getCurrentLimits().getGlobalBytesPerSecond());
+
+        manager.setSchedule(createSchedule());
+        assertEquals(Long.valueOf(500), manager.getCurrentLimits().getGlobalBytesPerSecond());
+    }
+
+    @Test
+    public void testInvalidSchedule() {
+        BandwidthManagerImpl manager = new BandwidthManagerImpl(new BandwidthSchedule());
+        BandwidthSchedule schedule = new BandwidthSchedule(-1L, null, null);
+        try {
+            manager.setSchedule(schedule);
+            fail("negative budget should be rejected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        schedule = new BandwidthSchedule();
+        schedule.setProfiles(Arrays.asList(new BandwidthProfile("bad", 25, 3, null, null, null)));
+        try {
+            manager.setSchedule(schedule);
+            fail("hour out of range should be rejected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLimitedContentStore() throws Exception {
+        BandwidthManagerImpl manager = new BandwidthManagerImpl(new BandwidthSchedule());
+        byte[] bytes = "some content".getBytes();
+
+        ContentStore contentStore = EasyMock.createMock(ContentStore.class);
+        Capture<InputStream> uploaded = Capture.newInstance();
+        EasyMock.expect(contentStore.addContent(EasyMock.eq("space"), EasyMock.eq("upload"),
+                                                EasyMock.capture(uploaded), EasyMock.eq((long) bytes.length),
+                                                EasyMock.isNull(), EasyMock.isNull(), EasyMock.isNull()))
+                .andReturn("checksum");
+        Content content = new Content();
+        content.setId("download");
+        content.setProperties(new HashMap<>());
+        content.setStream(new ByteArrayInputStream(bytes));
+        EasyMock.expect(contentStore.getContent("space", "download")).andReturn(content);
+        EasyMock.expect(contentStore.getStoreId()).andReturn("store-id");
+        EasyMock.replay(contentStore);
+
+        ContentStore limited = manager.limit(contentStore, "host");
+        assertEquals("checksum", limited.addContent("space", "upload", new ByteArrayInputStream(bytes),
+                                                    bytes.length, null, null, null));
+        assertEquals(ThrottledInputStream.class, uploaded.getValue().getClass());
+        assertArrayEquals(bytes, IOUtils.toByteArray(uploaded.getValue()));
+
+        Content downloaded = limited.getContent("space", "download");
+        assertEquals(ThrottledInputStream.class, downloaded.getStream().getClass());
+        assertArrayEquals(bytes, IOUtils.toByteArray(downloaded.getStream()));
+
+        assertEquals("store-id", limited.getStoreId());
+        EasyMock.verify(contentStore);
+    }
+}
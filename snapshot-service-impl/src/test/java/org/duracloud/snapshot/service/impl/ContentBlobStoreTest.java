@@ -0,0 +1,123 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.duracloud.snapshot.common.test.SnapshotTestBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ContentBlobStoreTest extends SnapshotTestBase {
+
+    private File workDir;
+    private File storeDir;
+
+    @Before
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        workDir = Files.createTempDirectory("blobs").toFile();
+        storeDir = new File(workDir, "blobs");
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        FileUtils.deleteQuietly(workDir);
+    }
+
+    @Test
+    public void testDisabledWithoutMaximum() throws Exception {
+        replayAll();
+        ContentBlobStore store = new ContentBlobStore(storeDir, 0);
+        assertFalse(store.isEnabled());
+
+        File file = createFile("snapshot-1/a", "content");
+        store.add("md5-a", file);
+        assertFalse(store.contains("md5-a"));
+        assertFalse(store.link("md5-a", new File(workDir, "snapshot-2/a")));
+    }
+
+    @Test
+    public void testLinksStoredContent() throws Exception {
+        replayAll();
+        ContentBlobStore store = new ContentBlobStore(storeDir, 1000);
+        assumeTrue(store.isEnabled());
+
+        store.add("MD5-A", createFile("snapshot-1/a", "content"));
+        assertTrue(store.contains("md5-a"));
+        assertFalse(store.contains("md5-b"));
+
+        File target = new File(workDir, "snapshot-2/a");
+        assertTrue(store.link("md5-a", target));
+        assertEquals("content", FileUtils.readFileToString(target, StandardCharsets.UTF_8));
+        assertFalse(store.link("md5-b", new File(workDir, "snapshot-2/b")));
+    }
+
+    @Test
+    public void testEvictsOnlyUnreferencedContent() throws Exception {
+        replayAll();
+        ContentBlobStore store = new ContentBlobStore(storeDir, 10);
+        assumeTrue(store.isEnabled());
+
+        // the snapshot which retrieved a is cleaned up, leaving its blob unreferenced
+        File a = createFile("snapshot-1/a", "content");
+        store.add("md5-a", a);
+        a.delete();
+
+        File b = createFile("snapshot-2/b", "content");
+        store.add("md5-b", b);
+        File c = createFile("snapshot-2/c", "content");
+        store.add("md5-c", c);
+
+        assertFalse(store.contains("md5-a"));
+        assertTrue(store.contains("md5-b"));
+        assertTrue(store.contains("md5-c"));
+    }
+
+    @Test
+    public void testReclaimsUnreferencedContent() throws Exception {
+        replayAll();
+        ContentBlobStore store = new ContentBlobStore(storeDir, 1000);
+        assumeTrue(store.isEnabled());
+
+        File a = createFile("snapshot-1/a", "content");
+        store.add("md5-a", a);
+        a.delete();
+        File b = createFile("snapshot-2/b", "content");
+        store.add("md5-b", b);
+
+        // well under the maximum, but a job needs the space
+        assertEquals(7, store.reclaim(1));
+        assertFalse(store.contains("md5-a"));
+        assertTrue(store.contains("md5-b"));
+
+        // b is still referenced
+        assertEquals(0, store.reclaim(1));
+    }
+
+    private File createFile(String path, String content) throws Exception {
+        File file = new File(workDir, path);
+        FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.duracloud.snapshot.common.test.SnapshotTestBase;
+import org.easymock.Mock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ContentDeduplicatorTest extends SnapshotTestBase {
+
+    private File workDir;
+
+    @Mock
+    private SpaceManifestChecksums checksums;
+
+    @Before
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        workDir = Files.createTempDirectory("dedupe").toFile();
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        FileUtils.deleteQuietly(workDir);
+    }
+
+    @Test
+    public void testGetSharedChecksum() throws Exception {
+        expect(checksums.getChecksum("a")).andReturn("md5-shared");
+        expect(checksums.isShared("md5-shared")).andReturn(true);
+        expect(checksums.getChecksum("b")).andReturn("md5-unique");
+        expect(checksums.isShared("md5-unique")).andReturn(false);
+        expect(checksums.getChecksum("c")).andReturn(null);
+        replayAll();
+
+        ContentDeduplicator deduplicator = createDeduplicator();
+        assertEquals("md5-shared", deduplicator.getSharedChecksum("a"));
+        assertNull(deduplicator.getSharedChecksum("b"));
+        assertNull(deduplicator.getSharedChecksum("c"));
+    }
+
+    @Test
+    public void testWaitersReceiveClaimedRetrieval() throws Exception {
+        replayAll();
+        ContentDeduplicator deduplicator = createDeduplicator();
+        assertTrue(deduplicator.claim("md5"));
+        assertFalse(deduplicator.claim("md5"));
+
+        CompletableFuture<ContentDeduplicator.Retrieval> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return deduplicator.await("md5");
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+
+        ContentDeduplicator.Retrieval retrieval = new ContentDeduplicator.Retrieval(new File("file"), "sha256");
+        deduplicator.retrieved("md5", retrieval);
+        assertSame(retrieval, waiter.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailedRetrievalMayBeClaimedAgain() throws Exception {
+        replayAll();
+        ContentDeduplicator deduplicator = createDeduplicator();
+        assertTrue(deduplicator.claim("md5"));
+        deduplicator.retrieved("md5", null);
+        assertNull(deduplicator.await("md5"));
+        assertTrue(deduplicator.claim("md5"));
+    }
+
+    @Test
+    public void testLink() throws Exception {
+        replayAll();
+        File source = new File(workDir, "source");
+        FileUtils.writeStringToFile(source, "content", StandardCharsets.UTF_8);
+        File target = new File(workDir, "dir/target");
+
+        ContentDeduplicator.link(source, target);
+        assertEquals("content", FileUtils.readFileToString(target, StandardCharsets.UTF_8));
+
+        // an existing target is replaced
+        FileUtils.writeStringToFile(source, "changed", StandardCharsets.UTF_8);
+        ContentDeduplicator.link(source, target);
+        assertEquals("changed", FileUtils.readFileToString(target, StandardCharsets.UTF_8));
+    }
+
+    private ContentDeduplicator createDeduplicator() {
+        return new ContentDeduplicator(checksums);
+    }
+}
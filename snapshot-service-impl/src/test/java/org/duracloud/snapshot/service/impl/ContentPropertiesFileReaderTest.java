@@ -8,11 +8,15 @@
 package org.duracloud.snapshot.service.impl;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
 
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.item.NonTransientResourceException;
 import org.springframework.batch.item.ParseException;
 import org.springframework.batch.item.UnexpectedInputException;
@@ -51,12 +55,8 @@ public class ContentPropertiesFileReaderTest {
         String testJsonFile =
             getClass().getResource("/content-properties.json").getFile();
         ContentPropertiesFileReader reader =
-            new ContentPropertiesFileReader(new File(testJsonFile)) {
-                @Override
-                protected long getItemsRead() {
-                    return 0;
-                }
-            };
+            new ContentPropertiesFileReader(new File(testJsonFile));
+        reader.beforeStep(new StepExecution("step", new JobExecution(1L)));
 
         ContentProperties props = null;
         int count = 0;
@@ -71,6 +71,43 @@ public class ContentPropertiesFileReaderTest {
         Assert.assertEquals(2, count++);
     }
 
+    @Test
+    public void testRestart() throws Exception {
+        int count = 2500;
+        File jsonFile = File.createTempFile("content-properties", ".json");
+        jsonFile.deleteOnExit();
+        try (Writer writer = new FileWriter(jsonFile)) {
+            writer.write("[\n");
+            for (int i = 0; i < count; i++) {
+                writer.write("{\n  \"file" + i + "\": {\n    \"content-checksum\": \"checksum" + i +
+                             "\",\n    \"content-size\": \"" + i + "\"\n  }\n}" +
+                             (i < count - 1 ? "," : "") + "\n");
+            }
+            writer.write("]\n");
+        }
+
+        StepExecution stepExecution = new StepExecution("step", new JobExecution(1L));
+        ContentPropertiesFileReader reader = new ContentPropertiesFileReader(jsonFile);
+        reader.beforeStep(stepExecution);
+        for (int i = 0; i < 2200; i++) {
+            Assert.assertEquals("file" + i, reader.read().getContentId());
+        }
+
+        stepExecution.getExecutionContext().putLong(StepExecutionSupport.ITEMS_READ_KEY, 2150);
+
+        // restart: resume from the checkpoint at item 2000 and skip to 2150
+        reader = new ContentPropertiesFileReader(jsonFile);
+        reader.beforeStep(stepExecution);
+        int index = 2150;
+        ContentProperties props;
+        while ((props = reader.read()) != null) {
+            Assert.assertEquals("file" + index, props.getContentId());
+            Assert.assertEquals("checksum" + index, props.getProperties().get("content-checksum"));
+            index++;
+        }
+        Assert.assertEquals(count, index);
+    }
+
     /**
      * @param props
      */
@@ -0,0 +1,94 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ContentPropertiesIndexTest {
+
+    private File dir;
+    private File propertiesFile;
+    private File dbFile;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("content-properties-index").toFile();
+        propertiesFile = new File(dir, "content-properties.json");
+        dbFile = new File(dir, "content-properties-index.db");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testGetProperties() throws Exception {
+        writePropertiesFile(2500);
+
+        ContentPropertiesIndex index = new ContentPropertiesIndex(dbFile, propertiesFile);
+        index.open();
+        try {
+            for (int i = 0; i < 2500; i += 100) {
+                Map<String, String> props = index.getProperties("dir/file" + i);
+                assertEquals("checksum" + i, props.get("content-checksum"));
+                assertEquals(String.valueOf(i), props.get("content-size"));
+            }
+            assertNull(index.getProperties("dir/file2500"));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        writePropertiesFile(10);
+        ContentPropertiesIndex index = new ContentPropertiesIndex(dbFile, propertiesFile);
+        index.open();
+        index.close();
+
+        // a complete index is reused rather than rebuilt from the json file
+        propertiesFile.delete();
+        index = new ContentPropertiesIndex(dbFile, propertiesFile);
+        index.open();
+        assertEquals("checksum9", index.getProperties("dir/file9").get("content-checksum"));
+
+        index.delete();
+        assertTrue(propertiesFile.getParentFile().exists());
+        assertFalse(dbFile.exists());
+    }
+
+    private void writePropertiesFile(int count) throws Exception {
+        try (Writer writer = new FileWriter(propertiesFile)) {
+            writer.write("[\n");
+            for (int i = 0; i < count; i++) {
+                writer.write("{\n  \"dir/file" + i + "\": {\n    \"content-checksum\": \"checksum" + i +
+                             "\",\n    \"content-size\": \"" + i + "\"\n  }\n}" +
+                             (i < count - 1 ? "," : "") + "\n");
+            }
+            writer.write("]\n");
+        }
+    }
+}
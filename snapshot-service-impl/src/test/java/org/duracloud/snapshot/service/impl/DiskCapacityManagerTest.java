@@ -0,0 +1,141 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.duracloud.snapshot.InsufficientDiskCapacityException;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class DiskCapacityManagerTest {
+
+    private AtomicLong usableSpace = new AtomicLong(1000);
+
+    private DiskCapacityManager createManager() {
+        return new DiskCapacityManager(usableSpace::get, () -> 2000, 100);
+    }
+
+    @Test
+    public void testAdmitWhileCapacityLasts() throws Exception {
+        DiskCapacityManager manager = createManager();
+        assertTrue(manager.admit("a", 500, null));
+        assertEquals(400, manager.getAvailableBytes());
+        assertTrue(manager.admit("b", 400, null));
+        assertFalse(manager.admit("c", 1, null));
+        assertTrue(manager.isWaiting("c"));
+    }
+
+    @Test
+    public void testLandedFilesReduceReservation() throws Exception {
+        DiskCapacityManager manager = createManager();
+        manager.admit("a", 500, null);
+
+        // the files now occupy the disk rather than the reservation
+        manager.landed("a", 200);
+        usableSpace.set(800);
+        assertEquals(400, manager.getAvailableBytes());
+
+        manager.allLanded("a");
+        usableSpace.set(500);
+        assertEquals(400, manager.getAvailableBytes());
+    }
+
+    @Test
+    public void testQueuedJobsAdmittedInOrderOnRelease() throws Exception {
+        DiskCapacityManager manager = createManager();
+        manager.admit("a", 900, null);
+
+        CountDownLatch admittedB = new CountDownLatch(1);
+        CountDownLatch admittedC = new CountDownLatch(1);
+        assertFalse(manager.admit("b", 800, admittedB::countDown));
+        // fits, but must not overtake the job queued before it
+        assertFalse(manager.admit("c", 0, admittedC::countDown));
+
+        manager.release("a");
+        assertTrue(admittedB.await(10, TimeUnit.SECONDS));
+        assertTrue(admittedC.await(10, TimeUnit.SECONDS));
+        assertTrue(manager.isReserved("b"));
+        assertTrue(manager.isReserved("c"));
+    }
+
+    @Test
+    public void testHeadOfQueueBlocksUntilItFits() throws Exception {
+        DiskCapacityManager manager = createManager();
+        manager.admit("a", 900, null);
+        assertFalse(manager.admit("b", 1500, () -> { }));
+
+        manager.release("a");
+        assertTrue(manager.isWaiting("b"));
+
+        // space freed outside of the bridge's jobs
+        usableSpace.set(1800);
+        manager.admitWaiting();
+        assertTrue(manager.isReserved("b"));
+    }
+
+    @Test
+    public void testReclaimsSpaceWhenShort() throws Exception {
+        DiskCapacityManager manager = createManager();
+        AtomicLong reclaimable = new AtomicLong(300);
+        manager.setReclaimer(bytes -> {
+            long reclaimed = Math.min(bytes, reclaimable.get());
+            reclaimable.addAndGet(-reclaimed);
+            usableSpace.addAndGet(reclaimed);
+            return reclaimed;
+        });
+
+        // fits without reclaiming anything
+        assertTrue(manager.admit("a", 500, null));
+        assertEquals(300, reclaimable.get());
+
+        // short by 200 bytes, which are reclaimed
+        assertTrue(manager.admit("b", 600, null));
+        assertEquals(100, reclaimable.get());
+
+        // more than can be reclaimed
+        assertFalse(manager.admit("c", 200, null));
+        assertEquals(0, reclaimable.get());
+    }
+
+    @Test
+    public void testLandedNotBlockedWhileReclaiming() throws Exception {
+        DiskCapacityManager manager = createManager();
+        manager.admit("a", 500, null);
+        manager.setReclaimer(bytes -> {
+            // a writer of another job reports a landed file meanwhile
+            Thread writer = new Thread(() -> manager.landed("a", 200));
+            writer.start();
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            assertFalse(writer.isAlive());
+            usableSpace.addAndGet(bytes);
+            return bytes;
+        });
+
+        // short by 200 bytes, which are reclaimed
+        assertTrue(manager.admit("b", 600, null));
+        assertTrue(manager.isReserved("b"));
+    }
+
+    @Test(expected = InsufficientDiskCapacityException.class)
+    public void testRejectJobLargerThanVolume() throws Exception {
+        createManager().admit("a", 1901, null);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class FileChecksumSchedulerTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "checksum-scheduler-" + System.currentTimeMillis());
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testSmallAndLargeFiles() throws Exception {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            files.add(createFile("file-" + i, i * 100));
+        }
+        File missing = new File(dir, "missing");
+        files.add(missing);
+
+        Map<File, String> checksums = new HashMap<>();
+        Map<File, Exception> failures = new HashMap<>();
+        // files of 500 bytes or more are read as large files
+        new FileChecksumScheduler(2, 500).checksum(files, new FileChecksumScheduler.ChecksumListener() {
+            @Override
+            public void checksumComputed(File file, String checksum) {
+                checksums.put(file, checksum);
+            }
+
+            @Override
+            public void checksumFailed(File file, Exception ex) {
+                failures.put(file, ex);
+            }
+        });
+
+        ChecksumUtil util = new ChecksumUtil(Algorithm.MD5);
+        assertEquals(10, checksums.size());
+        for (File file : files.subList(0, 10)) {
+            assertEquals(util.generateChecksum(file), checksums.get(file));
+        }
+        assertEquals(1, failures.size());
+        assertTrue(failures.containsKey(missing));
+    }
+
+    @Test
+    public void testConcurrentReadsAreBounded() throws Exception {
+        int maxConcurrentReads = 2;
+        FileChecksumScheduler scheduler = new FileChecksumScheduler(maxConcurrentReads, 1000);
+        List<File> files = Arrays.asList(createFile("small", 10), createFile("large", 2000));
+
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        FileChecksumScheduler.ChecksumListener listener = new FileChecksumScheduler.ChecksumListener() {
+            @Override
+            public void checksumComputed(File file, String checksum) {
+                // the listener is invoked while the read permit is held
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                active.decrementAndGet();
+            }
+
+            @Override
+            public void checksumFailed(File file, Exception ex) {
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    scheduler.checksum(files, listener);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(maxActive.get() <= maxConcurrentReads);
+    }
+
+    private File createFile(String name, int size) throws Exception {
+        File file = new File(dir, name);
+        StringBuilder content = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            content.append((char) ('a' + i % 26));
+        }
+        FileUtils.writeStringToFile(file, content.toString(), StandardCharsets.UTF_8);
+        return file;
+    }
+}
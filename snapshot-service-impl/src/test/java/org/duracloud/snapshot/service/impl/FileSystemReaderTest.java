@@ -7,21 +7,20 @@
  */
 package org.duracloud.snapshot.service.impl;
 
-import static org.easymock.EasyMock.anyLong;
-import static org.easymock.EasyMock.expect;
-import static org.easymock.EasyMock.isA;
-
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
 import org.duracloud.snapshot.common.test.SnapshotTestBase;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.StepExecution;
-import org.springframework.batch.item.ExecutionContext;
 
 /**
  * @author Daniel Bernstein
@@ -44,10 +43,7 @@ public class FileSystemReaderTest extends SnapshotTestBase {
      */
     @Test
     public void testRead() throws Exception {
-        StepExecution stepExecution = createMock(StepExecution.class);
-        ExecutionContext context = createMock(ExecutionContext.class);
-        expect(stepExecution.getExecutionContext()).andReturn(context);
-        expect(context.getLong(isA(String.class), anyLong())).andReturn(0l);
+        StepExecution stepExecution = new StepExecution("step", new JobExecution(1L));
 
         File rootDirectory =
             new File(System.getProperty("java.io.tmpdir")
@@ -82,4 +78,45 @@ public class FileSystemReaderTest extends SnapshotTestBase {
 
     }
 
+    @Test
+    public void testRestart() throws Exception {
+        File rootDirectory =
+            new File(System.getProperty("java.io.tmpdir")
+                     + File.separator + "FileSystemReaderTest" + System.currentTimeMillis());
+        for (int d = 0; d < 25; d++) {
+            File dir = new File(rootDirectory, String.format("dir%02d", d));
+            dir.mkdirs();
+            for (int f = 0; f < 100; f++) {
+                new File(dir, String.format("file%03d", f)).createNewFile();
+            }
+        }
+
+        replayAll();
+
+        try {
+            StepExecution stepExecution = new StepExecution("step", new JobExecution(1L));
+            FileSystemReader reader = new FileSystemReader(rootDirectory);
+            reader.beforeStep(stepExecution);
+            List<File> files = new ArrayList<>();
+            File file;
+            while ((file = reader.read()) != null) {
+                files.add(file);
+            }
+            Assert.assertEquals(2500, files.size());
+
+            stepExecution.getExecutionContext().putLong(StepExecutionSupport.ITEMS_READ_KEY, 2150);
+
+            // restart: resume from the checkpoint at file 2000 and skip to 2150
+            reader = new FileSystemReader(rootDirectory);
+            reader.beforeStep(stepExecution);
+            List<File> remaining = new ArrayList<>();
+            while ((file = reader.read()) != null) {
+                remaining.add(file);
+            }
+            Assert.assertEquals(files.subList(2150, files.size()), remaining);
+        } finally {
+            FileUtils.deleteDirectory(rootDirectory);
+        }
+    }
+
 }
@@ -0,0 +1,129 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.isA;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.duracloud.snapshot.common.test.SnapshotTestBase;
+import org.duracloud.snapshot.db.model.JobQueueEntry;
+import org.duracloud.snapshot.db.model.JobQueueEntry.JobType;
+import org.duracloud.snapshot.db.model.JobQueueEntry.State;
+import org.duracloud.snapshot.db.repo.JobQueueRepo;
+import org.easymock.Mock;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class JobDispatcherTest extends SnapshotTestBase {
+
+    @Mock
+    private JobQueueRepo jobQueueRepo;
+
+    private long time = 0;
+
+    private JobQueueEntry createEntry(String key, String owner, int priority) {
+        JobQueueEntry entry = new JobQueueEntry();
+        entry.setJobType(JobType.SNAPSHOT);
+        entry.setJobKey(key);
+        entry.setOwner(owner);
+        entry.setPriority(priority);
+        entry.setEnqueuedDate(new Date(time++));
+        return entry;
+    }
+
+    @Test
+    public void testHigherPriorityFirst() {
+        replayAll();
+        JobQueueEntry snapshot = createEntry("snapshot", "a", 0);
+        JobQueueEntry restore = createEntry("restore", "a", 10);
+        assertSame(restore, JobDispatcher.selectNext(Arrays.asList(snapshot, restore), new HashMap<>()));
+    }
+
+    @Test
+    public void testFairShareBetweenOwners() {
+        replayAll();
+        JobQueueEntry busy1 = createEntry("busy-1", "busy", 0);
+        JobQueueEntry busy2 = createEntry("busy-2", "busy", 0);
+        JobQueueEntry other = createEntry("other", "other", 0);
+        Map<String, Integer> running = new HashMap<>();
+        running.put("busy", 2);
+
+        // the owner with fewer jobs running overtakes older entries
+        assertSame(other, JobDispatcher.selectNext(Arrays.asList(busy1, busy2, other), running));
+
+        // and otherwise the oldest entry goes first
+        running.put("other", 2);
+        assertSame(busy1, JobDispatcher.selectNext(Arrays.asList(busy1, busy2, other), running));
+    }
+
+    @Test
+    public void testNothingQueued() {
+        replayAll();
+        assertNull(JobDispatcher.selectNext(Collections.emptyList(), new HashMap<>()));
+    }
+
+    @Test
+    public void testRecoverRequeuesDispatchedEntries() {
+        JobQueueEntry entry = createEntry("snapshot", "a", 0);
+        entry.setState(State.DISPATCHED);
+        entry.setDispatchedDate(new Date());
+        expect(jobQueueRepo.findByStateOrderByEnqueuedDateAsc(State.DISPATCHED))
+            .andReturn(Collections.singletonList(entry));
+        expect(jobQueueRepo.save(entry)).andReturn(entry);
+        replayAll();
+
+        JobDispatcher dispatcher = new JobDispatcher(jobQueueRepo, 1);
+        dispatcher.recover();
+        assertEquals(State.QUEUED, entry.getState());
+        assertNull(entry.getDispatchedDate());
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void testSubmitIgnoresQueuedJob() {
+        expect(jobQueueRepo.findByJobTypeAndJobKey(JobType.SNAPSHOT, "queued"))
+            .andReturn(createEntry("queued", "a", 0));
+        expect(jobQueueRepo.findByJobTypeAndJobKey(JobType.SNAPSHOT, "new")).andReturn(null);
+        expect(jobQueueRepo.save(isA(JobQueueEntry.class))).andReturn(null);
+        replayAll();
+
+        JobDispatcher dispatcher = new JobDispatcher(jobQueueRepo, 1);
+        dispatcher.submit(JobType.SNAPSHOT, "queued", "a", 0);
+        dispatcher.submit(JobType.SNAPSHOT, "new", "a", 0);
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void testWithdrawOnlyQueuedJobs() {
+        JobQueueEntry queued = createEntry("queued", "a", 0);
+        JobQueueEntry dispatched = createEntry("dispatched", "a", 0);
+        dispatched.setState(State.DISPATCHED);
+        expect(jobQueueRepo.findByJobTypeAndJobKey(JobType.SNAPSHOT, "queued")).andReturn(queued);
+        expect(jobQueueRepo.findByJobTypeAndJobKey(JobType.SNAPSHOT, "dispatched")).andReturn(dispatched);
+        jobQueueRepo.delete(queued);
+        expectLastCall();
+        replayAll();
+
+        JobDispatcher dispatcher = new JobDispatcher(jobQueueRepo, 1);
+        dispatcher.withdraw(JobType.SNAPSHOT, "queued");
+        dispatcher.withdraw(JobType.SNAPSHOT, "dispatched");
+        dispatcher.destroy();
+    }
+}
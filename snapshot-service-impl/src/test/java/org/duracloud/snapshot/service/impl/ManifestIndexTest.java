@@ -0,0 +1,99 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ManifestIndexTest {
+
+    private File dir;
+    private File manifestFile;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "manifest-index-" + System.currentTimeMillis());
+        dir.mkdirs();
+        manifestFile = new File(dir, ManifestFileHelper.MANIFEST_MD5_TEXT_FILE_NAME);
+        indexFile = new File(dir, manifestFile.getName() + ".idx");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testContains() throws Exception {
+        int count = 1000;
+        ManifestTestHelper.setupManifestFile(manifestFile, count, "checksum", "content-id-");
+
+        ManifestIndex index = ManifestIndex.open(manifestFile);
+        assertEquals(count, index.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue(index.contains("content-id-" + i, "checksum"));
+        }
+        assertFalse(index.contains("content-id-0", "other-checksum"));
+        assertFalse(index.contains("content-id-" + count, "checksum"));
+    }
+
+    @Test
+    public void testDuplicates() throws Exception {
+        try (Writer writer = new FileWriter(manifestFile)) {
+            ManifestFileHelper.writeManifestEntry(writer, "content-id-1", "checksum");
+            ManifestFileHelper.writeManifestEntry(writer, "content-id-2", "checksum");
+            ManifestFileHelper.writeManifestEntry(writer, "content-id-1", "checksum");
+        }
+
+        ManifestIndex index = ManifestIndex.open(manifestFile);
+        assertEquals(2, index.size());
+        assertTrue(index.contains("content-id-1", "checksum"));
+        assertTrue(index.contains("content-id-2", "checksum"));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        manifestFile.createNewFile();
+        ManifestIndex index = ManifestIndex.open(manifestFile);
+        assertEquals(0, index.size());
+        assertFalse(index.contains("content-id", "checksum"));
+    }
+
+    @Test
+    public void testReuseAndRebuild() throws Exception {
+        ManifestTestHelper.setupManifestFile(manifestFile, 10, "checksum", "content-id-");
+        ManifestIndex.open(manifestFile);
+        assertTrue(indexFile.exists());
+
+        // an index which is current is reused rather than rebuilt
+        indexFile.setLastModified(1000);
+        assertEquals(10, ManifestIndex.open(manifestFile).size());
+        assertEquals(1000, indexFile.lastModified());
+
+        // a changed manifest causes the index to be rebuilt
+        ManifestTestHelper.setupManifestFile(manifestFile, 20, "checksum", "content-id-");
+        assertEquals(20, ManifestIndex.open(manifestFile).size());
+
+        ManifestIndex.delete(manifestFile);
+        assertFalse(indexFile.exists());
+    }
+}
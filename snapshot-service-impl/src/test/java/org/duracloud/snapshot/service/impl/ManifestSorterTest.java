@@ -0,0 +1,71 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ManifestSorterTest {
+
+    private File workDir;
+
+    @Before
+    public void setUp() throws Exception {
+        workDir = new File(System.getProperty("java.io.tmpdir"), "manifest-sorter-" + System.currentTimeMillis());
+        workDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(workDir);
+    }
+
+    @Test
+    public void testSortMultipleRuns() throws Exception {
+        List<ManifestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            entries.add(new ManifestEntry("checksum" + i, "content-id-" + i));
+        }
+        Collections.shuffle(entries, new Random(0));
+
+        File sorted = new ManifestSorter(workDir, 64).sort(entries.iterator());
+
+        // only the sorted file remains; the runs are removed
+        assertEquals(1, workDir.listFiles().length);
+
+        entries.sort(ManifestSorter.ENTRY_ORDER);
+        try (ManifestSorter.ManifestFileReader reader = new ManifestSorter.ManifestFileReader(sorted)) {
+            for (ManifestEntry expected : entries) {
+                assertEquals(expected, reader.next());
+            }
+            assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test
+    public void testSortEmpty() throws Exception {
+        File sorted = new ManifestSorter(workDir).sort(Collections.emptyIterator());
+        try (ManifestSorter.ManifestFileReader reader = new ManifestSorter.ManifestFileReader(sorted)) {
+            assertFalse(reader.hasNext());
+        }
+    }
+}
@@ -110,6 +110,18 @@ public class ManifestVerifierTest extends EasyMockSupport {
         simulateStepExecution(ExitStatus.FAILED, list);
     }
 
+    @Test
+    public void testBadChecksumNotVerified() throws Exception {
+        setupStepExecution();
+        List<ManifestEntry> list = setupManifestFileAndContentDir();
+        list.get(list.size() - 1).setChecksum("badChecksum");
+        replayAll();
+        createVerifier();
+        // the checksums are left to be verified as the files are uploaded
+        verifier.setVerifyChecksums(false);
+        simulateStepExecution(ExitStatus.COMPLETED, list);
+    }
+
     @Test
     public void testContentInManifestButNotOnDisk() throws Exception {
         setupStepExecution(1, itemCount);
@@ -172,6 +184,7 @@ public class ManifestVerifierTest extends EasyMockSupport {
 
         ExecutionContext context = createMock(ExecutionContext.class);
         expect(context.getLong(isA(String.class), anyLong())).andReturn((long) itemCount).anyTimes();
+        expect(context.remove(StepExecutionSupport.READ_CHECKPOINTS_KEY)).andReturn(null).anyTimes();
 
         context.putLong(isA(String.class), anyLong());
         expectLastCall().atLeastOnce();
@@ -0,0 +1,226 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.duracloud.chunk.manifest.ChunksManifest;
+import org.duracloud.client.ContentStore;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
+import org.duracloud.error.ContentStoreException;
+import org.duracloud.error.NotFoundException;
+import org.duracloud.snapshot.common.test.SnapshotTestBase;
+import org.easymock.IAnswer;
+import org.easymock.IExpectationSetters;
+import org.easymock.Mock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ParallelChunkUploaderTest extends SnapshotTestBase {
+
+    private String spaceId = "space-id";
+    private File watchDir;
+    private File file;
+    private Map<String, byte[]> uploads = Collections.synchronizedMap(new HashMap<>());
+
+    @Mock
+    private ContentStore contentStore;
+
+    @Before
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        watchDir = Files.createTempDirectory("restore").toFile();
+        file = new File(watchDir, "dir/file.txt");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            content.append("0123456789");
+        }
+        FileUtils.writeStringToFile(file, content.toString(), StandardCharsets.UTF_8);
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        FileUtils.deleteQuietly(watchDir);
+    }
+
+    @Test
+    public void testGetChunkSize() throws Exception {
+        replayAll();
+        ParallelChunkUploader uploader = new ParallelChunkUploader(contentStore, spaceId, 4, 10, 40);
+
+        // spread over the threads
+        assertEquals(25, uploader.getChunkSize(100));
+        // but no smaller than the minimum nor larger than the maximum
+        assertEquals(10, uploader.getChunkSize(20));
+        assertEquals(40, uploader.getChunkSize(1000));
+        // unless there would be too many chunks
+        assertEquals(41, uploader.getChunkSize(40 * ParallelChunkUploader.MAX_CHUNKS + 1));
+
+        assertTrue(uploader.isChunked(file));
+        assertFalse(new ParallelChunkUploader(contentStore, spaceId, 4, 10, 100).isChunked(file));
+    }
+
+    @Test
+    public void testUploadsChunksAndManifest() throws Exception {
+        expectUploads(5, new AtomicInteger(0));
+        replayAll();
+
+        new ParallelChunkUploader(contentStore, spaceId, 4, 10, 40).upload(file, "dir/file.txt", null, () -> { });
+
+        String contentId = "dir/file.txt";
+        String manifestId = contentId + ChunksManifest.manifestSuffix;
+        assertEquals(5, uploads.size());
+        assertTrue(uploads.containsKey(manifestId));
+        StringBuilder stitched = new StringBuilder();
+        for (String chunkId : new String[] {contentId + ".dura-chunk-0000", contentId + ".dura-chunk-0001",
+                                            contentId + ".dura-chunk-0002", contentId + ".dura-chunk-0003"}) {
+            assertEquals(25, uploads.get(chunkId).length);
+            stitched.append(new String(uploads.get(chunkId), StandardCharsets.UTF_8));
+        }
+        assertEquals(FileUtils.readFileToString(file, StandardCharsets.UTF_8), stitched.toString());
+
+        String manifest = new String(uploads.get(manifestId), StandardCharsets.UTF_8);
+        assertTrue(manifest.contains(new ChecksumUtil(Algorithm.MD5).generateChecksum(file)));
+    }
+
+    @Test
+    public void testRetriesChunkWithMismatchedChecksum() throws Exception {
+        AtomicInteger mismatches = new AtomicInteger(1);
+        expectUploads(6, mismatches);
+        replayAll();
+
+        AtomicInteger retries = new AtomicInteger();
+        new ParallelChunkUploader(contentStore, spaceId, 4, 10, 40)
+            .upload(file, "dir/file.txt", null, retries::incrementAndGet);
+
+        assertEquals(0, mismatches.get());
+        assertEquals(1, retries.get());
+        assertEquals(5, uploads.size());
+    }
+
+    @Test
+    public void testDeletesChunksWhenChecksumFailsCheck() throws Exception {
+        // chunks not yet started when the check fails are skipped
+        expectUpload(new AtomicInteger(0)).times(0, 4);
+        expectDeletes();
+        replayAll();
+
+        try {
+            new ParallelChunkUploader(contentStore, spaceId, 4, 10, 40)
+                .upload(file, "dir/file.txt", null, md5 -> false, () -> { });
+            fail("upload should fail the checksum check");
+        } catch (IOException ex) {
+            // expected
+        }
+
+        assertTrue(uploads.isEmpty());
+    }
+
+    @Test
+    public void testDeletesChunksWhenManifestFailsToUpload() throws Exception {
+        String contentId = "dir/file.txt";
+        expect(contentStore.addContent(eq(spaceId),
+                                       eq(contentId + ChunksManifest.manifestSuffix),
+                                       isA(InputStream.class),
+                                       anyLong(),
+                                       isA(String.class),
+                                       anyObject(),
+                                       anyObject()))
+            .andThrow(new ContentStoreException("manifest upload failed")).atLeastOnce();
+        expectUploads(4, new AtomicInteger(0));
+        expectDeletes();
+        replayAll();
+
+        try {
+            new ParallelChunkUploader(contentStore, spaceId, 4, 10, 40).upload(file, contentId, null, () -> { });
+            fail("upload should fail to upload the manifest");
+        } catch (IOException ex) {
+            // expected
+        }
+
+        assertTrue(uploads.isEmpty());
+    }
+
+    /**
+     * Expects deletions which remove the content from the recorded uploads.
+     */
+    private void expectDeletes() throws Exception {
+        contentStore.deleteContent(eq(spaceId), isA(String.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                if (uploads.remove((String) getCurrentArguments()[1]) == null) {
+                    throw new NotFoundException("not found");
+                }
+                return null;
+            }
+        }).anyTimes();
+    }
+
+    /**
+     * Expects uploads which record the content uploaded and report its
+     * checksum, except for the given number of uploads which report a wrong
+     * checksum.
+     */
+    private void expectUploads(int times, final AtomicInteger mismatches) throws Exception {
+        expectUpload(mismatches).times(times);
+    }
+
+    private IExpectationSetters<String> expectUpload(final AtomicInteger mismatches) throws Exception {
+        return expect(contentStore.addContent(eq(spaceId),
+                                       isA(String.class),
+                                       isA(InputStream.class),
+                                       anyLong(),
+                                       isA(String.class),
+                                       anyObject(),
+                                       anyObject()))
+            .andAnswer(new IAnswer<String>() {
+                @Override
+                public String answer() throws Throwable {
+                    Object[] args = getCurrentArguments();
+                    byte[] content = IOUtils.toByteArray((InputStream) args[2]);
+                    uploads.put((String) args[1], content);
+                    if (mismatches.getAndUpdate(m -> Math.max(0, m - 1)) > 0) {
+                        return "mismatch";
+                    }
+                    return new ChecksumUtil(Algorithm.MD5).generateChecksum(new ByteArrayInputStream(content));
+                }
+            });
+    }
+}
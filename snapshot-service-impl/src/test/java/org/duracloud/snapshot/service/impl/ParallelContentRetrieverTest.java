@@ -0,0 +1,186 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.duracloud.chunk.manifest.ChunksManifest;
+import org.duracloud.client.ContentStore;
+import org.duracloud.common.model.ContentItem;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
+import org.duracloud.domain.Content;
+import org.duracloud.snapshot.common.test.SnapshotTestBase;
+import org.easymock.Mock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ParallelContentRetrieverTest extends SnapshotTestBase {
+
+    private String spaceId = "space-id";
+    private String contentId = "dir/file.txt";
+    private String content = "0123456789abcdefghijklmnopqrstuvwxyz";
+    private File workDir;
+    private File localFile;
+
+    @Mock
+    private ContentStore contentStore;
+
+    @Before
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        workDir = Files.createTempDirectory("retrieval").toFile();
+        localFile = new File(workDir, "data/" + contentId);
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        FileUtils.deleteQuietly(workDir);
+    }
+
+    @Test
+    public void testIsParallel() throws Exception {
+        replayAll();
+        ParallelContentRetriever retriever = new ParallelContentRetriever(contentStore, 4, 10);
+
+        assertTrue(retriever.isParallel(new ContentItem(spaceId, contentId + ChunksManifest.manifestSuffix),
+                                        new HashMap<>()));
+        assertTrue(retriever.isParallel(new ContentItem(spaceId, contentId), createProperties(20, null)));
+        assertFalse(retriever.isParallel(new ContentItem(spaceId, contentId), createProperties(19, null)));
+        assertFalse(retriever.isParallel(new ContentItem(spaceId, contentId), new HashMap<>()));
+    }
+
+    @Test
+    public void testRetrievesChunks() throws Exception {
+        expectChunks(false);
+        replayAll();
+
+        ParallelContentRetriever.Retrieval retrieval =
+            new ParallelContentRetriever(contentStore, 4)
+                .retrieve(new ContentItem(spaceId, contentId + ChunksManifest.manifestSuffix),
+                          new HashMap<>(), localFile, () -> { });
+
+        assertRetrieved(retrieval);
+    }
+
+    @Test
+    public void testRetriesChunkWithMismatchedChecksum() throws Exception {
+        expectChunks(true);
+        replayAll();
+
+        int[] retries = new int[1];
+        ParallelContentRetriever.Retrieval retrieval =
+            new ParallelContentRetriever(contentStore, 4)
+                .retrieve(new ContentItem(spaceId, contentId + ChunksManifest.manifestSuffix),
+                          new HashMap<>(), localFile, () -> retries[0]++);
+
+        assertRetrieved(retrieval);
+        assertEquals(1, retries[0]);
+    }
+
+    @Test
+    public void testRetrievesRanges() throws Exception {
+        expect(contentStore.getContent(spaceId, contentId, 0L, 14L))
+            .andReturn(createContent(content.substring(0, 15)));
+        expect(contentStore.getContent(spaceId, contentId, 15L, 29L))
+            .andReturn(createContent(content.substring(15, 30)));
+        expect(contentStore.getContent(spaceId, contentId, 30L, 35L))
+            .andReturn(createContent(content.substring(30)));
+        replayAll();
+
+        ParallelContentRetriever.Retrieval retrieval =
+            new ParallelContentRetriever(contentStore, 4, 15)
+                .retrieve(new ContentItem(spaceId, contentId), createProperties(content.length(), md5(content)),
+                          localFile, () -> { });
+
+        assertRetrieved(retrieval);
+    }
+
+    @Test
+    public void testRemovesFileWithMismatchedChecksum() throws Exception {
+        expect(contentStore.getContent(spaceId, contentId, 0L, 17L))
+            .andReturn(createContent(content.substring(0, 18)));
+        expect(contentStore.getContent(spaceId, contentId, 18L, 35L))
+            .andReturn(createContent(content.substring(18)));
+        replayAll();
+
+        try {
+            new ParallelContentRetriever(contentStore, 4, 18)
+                .retrieve(new ContentItem(spaceId, contentId), createProperties(content.length(), md5("other")),
+                          localFile, () -> { });
+            fail("checksum mismatch should fail the retrieval");
+        } catch (IOException ex) {
+            assertFalse(localFile.exists());
+        }
+    }
+
+    private void expectChunks(boolean corruptFirstChunk) throws Exception {
+        ChunksManifest manifest = new ChunksManifest(contentId, "text/plain", content.length());
+        String[] chunks = {content.substring(0, 12), content.substring(12, 24), content.substring(24)};
+        for (String chunk : chunks) {
+            String chunkId = manifest.nextChunkId();
+            manifest.addEntry(chunkId, md5(chunk), chunk.length());
+            if (corruptFirstChunk && chunk == chunks[0]) {
+                expect(contentStore.getContent(spaceId, chunkId)).andReturn(createContent(chunk.toUpperCase()));
+            }
+            expect(contentStore.getContent(spaceId, chunkId)).andReturn(createContent(chunk));
+        }
+        manifest.setMD5OfSourceContent(md5(content));
+
+        Content manifestContent = new Content();
+        manifestContent.setStream(manifest.getBody());
+        expect(contentStore.getContent(spaceId, manifest.getManifestId())).andReturn(manifestContent);
+    }
+
+    private void assertRetrieved(ParallelContentRetriever.Retrieval retrieval) throws Exception {
+        assertEquals(content, FileUtils.readFileToString(localFile, StandardCharsets.UTF_8));
+        assertEquals(md5(content), retrieval.getMd5());
+        assertEquals(md5(content), retrieval.getProperties().get(ContentStore.CONTENT_CHECKSUM));
+        assertEquals(new ChecksumUtil(Algorithm.SHA_256).generateChecksum(localFile), retrieval.getSha256());
+    }
+
+    private Map<String, String> createProperties(long size, String md5) {
+        Map<String, String> props = new HashMap<>();
+        props.put(ContentStore.CONTENT_SIZE, String.valueOf(size));
+        if (md5 != null) {
+            props.put(ContentStore.CONTENT_CHECKSUM, md5);
+        }
+        return props;
+    }
+
+    private Content createContent(String value) {
+        Content result = new Content();
+        result.setStream(new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)));
+        return result;
+    }
+
+    private String md5(String value) {
+        return new ChecksumUtil(Algorithm.MD5).generateChecksum(
+            new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)));
+    }
+}
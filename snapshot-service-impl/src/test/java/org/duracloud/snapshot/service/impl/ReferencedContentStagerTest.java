@@ -0,0 +1,162 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.duracloud.client.ContentStore;
+import org.duracloud.snapshot.common.SnapshotServiceConstants;
+import org.duracloud.snapshot.common.test.SnapshotTestBase;
+import org.duracloud.snapshot.db.model.SnapshotContentItem;
+import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
+import org.easymock.Mock;
+import org.junit.Test;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ReferencedContentStagerTest extends SnapshotTestBase {
+
+    @Mock
+    private SnapshotContentItemRepo repo;
+
+    private String snapshotName = "snapshot-name";
+
+    private File restoreDir;
+    private File holdingDir;
+
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        restoreDir = Files.createTempDirectory("referenced-content-stager").toFile();
+        holdingDir = new File(restoreDir, "referenced" + File.separator + "earlier-snapshot");
+        new File(restoreDir, "data").mkdirs();
+        new File(holdingDir, "data").mkdirs();
+    }
+
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        FileUtils.deleteQuietly(restoreDir);
+    }
+
+    @Test
+    public void testStageReferencedContent() throws Exception {
+        write(new File(restoreDir, "data/own"), "own content");
+        write(new File(holdingDir, "data/dir/referenced"), "referenced content");
+        write(new File(restoreDir, ManifestFileHelper.MANIFEST_MD5_TEXT_FILE_NAME), "checksum1  data/own\n");
+        write(getPropertiesFile(), "[ {\n  \"own\" : {\n    \"content-checksum\" : \"checksum1\"\n  }\n} ]");
+
+        List<SnapshotContentItem> items = Collections.singletonList(createItem("dir/referenced", "checksum2"));
+        // read after each run to rewrite the manifest and properties
+        expect(repo.findBySnapshotNameAndReferencedSnapshotIdIsNotNullAndIdGreaterThanOrderByIdAsc(
+            eq(snapshotName), eq(0L), isA(Pageable.class))).andReturn(items).times(2);
+        replayAll();
+
+        ReferencedContentStager stager = createStager();
+        StepExecution stepExecution = new StepExecution("step", new JobExecution(1L));
+        stager.beforeStep(stepExecution);
+        stager.write(items);
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), stager.afterStep(stepExecution).getExitCode());
+
+        assertEquals("referenced content",
+                     FileUtils.readFileToString(new File(restoreDir, "data/dir/referenced"), StandardCharsets.UTF_8));
+
+        // a restarted step rebuilds the files from the originals
+        stepExecution = new StepExecution("step", new JobExecution(2L));
+        stager.beforeStep(stepExecution);
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), stager.afterStep(stepExecution).getExitCode());
+
+        List<ManifestEntry> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(new File(restoreDir,
+                                                       ManifestFileHelper.MANIFEST_MD5_TEXT_FILE_NAME).toPath())) {
+            entries.add(ManifestFileHelper.parseManifestEntry(line));
+        }
+        assertEquals(2, entries.size());
+        assertEquals("own", entries.get(0).getContentId());
+        assertEquals("dir/referenced", entries.get(1).getContentId());
+        assertEquals("checksum2", entries.get(1).getChecksum());
+
+        ContentPropertiesFileReader reader = new ContentPropertiesFileReader(getPropertiesFile());
+        reader.beforeStep(new StepExecution("step", new JobExecution(3L)));
+        assertEquals("own", reader.read().getContentId());
+        ContentProperties referenced = reader.read();
+        assertEquals("dir/referenced", referenced.getContentId());
+        assertEquals("checksum2", referenced.getProperties().get(ContentStore.CONTENT_CHECKSUM));
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testMissingHoldingSnapshotContent() throws Exception {
+        write(new File(restoreDir, ManifestFileHelper.MANIFEST_MD5_TEXT_FILE_NAME), "checksum1  data/own\n");
+        List<SnapshotContentItem> items = Collections.singletonList(createItem("dir/referenced", "checksum2"));
+        replayAll();
+
+        ReferencedContentStager stager = createStager();
+        StepExecution stepExecution = new StepExecution("step", new JobExecution(1L));
+        stager.beforeStep(stepExecution);
+        stager.write(items);
+        assertEquals(ExitStatus.FAILED.getExitCode(), stager.afterStep(stepExecution).getExitCode());
+
+        assertFalse(new File(restoreDir, "data/dir/referenced").exists());
+        assertTrue(stepExecution.isTerminateOnly());
+        // the manifest is left as it was
+        assertEquals(1, Files.readAllLines(new File(restoreDir,
+                                                    ManifestFileHelper.MANIFEST_MD5_TEXT_FILE_NAME).toPath()).size());
+    }
+
+    private ReferencedContentStager createStager() {
+        Map<Long, File> holdingDirs = new HashMap<>();
+        holdingDirs.put(7L, holdingDir);
+        return new ReferencedContentStager("restore-id", restoreDir, holdingDirs, repo, snapshotName);
+    }
+
+    private File getPropertiesFile() {
+        return new File(restoreDir, SnapshotServiceConstants.CONTENT_PROPERTIES_JSON_FILENAME);
+    }
+
+    private SnapshotContentItem createItem(String contentId, String checksum) {
+        SnapshotContentItem item = new SnapshotContentItem();
+        item.setId(1L);
+        item.setContentId(contentId);
+        item.setReferencedSnapshotId(7L);
+        Map<String, String> props = new HashMap<>();
+        props.put(ContentStore.CONTENT_CHECKSUM, checksum);
+        item.setMetadata(PropertiesSerializer.serialize(props));
+        return item;
+    }
+
+    private void write(File file, String content) throws Exception {
+        file.getParentFile().mkdirs();
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+    }
+}
@@ -84,6 +84,9 @@ public class RestoreJobExecutionListenerTest extends SnapshotTestBase {
     @Mock
     private EventLog eventLog;
 
+    @Mock
+    private DiskCapacityManager diskCapacityManager;
+
     @TestSubject
     private RestoreJobExecutionListener executionListener = new RestoreJobExecutionListener();
 
@@ -157,6 +160,9 @@ public class RestoreJobExecutionListenerTest extends SnapshotTestBase {
                                                       EasyMock.capture(historyCapture)))
                 .andReturn(snapshot);
 
+        diskCapacityManager.release(restorationId);
+        expectLastCall();
+
         replayAll();
 
         executionListener.afterJob(jobExecution);
@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 
 import org.duracloud.client.ContentStore;
 import org.duracloud.common.notification.NotificationManager;
@@ -29,6 +30,7 @@ import org.duracloud.snapshot.db.model.DuracloudEndPointConfig;
 import org.duracloud.snapshot.db.model.Restoration;
 import org.duracloud.snapshot.db.model.Snapshot;
 import org.duracloud.snapshot.db.repo.RestoreRepo;
+import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
 import org.duracloud.snapshot.db.repo.SnapshotRepo;
 import org.duracloud.snapshot.dto.RestoreStatus;
 import org.duracloud.snapshot.dto.SnapshotStatus;
@@ -64,6 +66,9 @@ public class RestoreManagerImplTest extends SnapshotTestBase {
     @Mock
     private SnapshotRepo snapshotRepo;
 
+    @Mock
+    private SnapshotContentItemRepo snapshotContentItemRepo;
+
     private RestoreManagerImpl manager;
 
     @Mock
@@ -123,6 +128,10 @@ public class RestoreManagerImplTest extends SnapshotTestBase {
         expect(source.getStoreId()).andReturn("store-id");
         expect(source.getSpaceId()).andReturn("space-id");
         expect(snapshot.getSource()).andReturn(source);
+        expect(snapshot.getTotalSizeInBytes()).andReturn(1000L);
+        expect(snapshot.getName()).andReturn(snapshotName).anyTimes();
+        expect(snapshotContentItemRepo.findReferencedSnapshotIds(snapshotName))
+            .andReturn(new ArrayList<Long>()).times(2);
 
         expect(restoreRepo.saveAndFlush(isA(Restoration.class))).andReturn(restoration);
         eventLog.logRestoreUpdate(isA(Restoration.class));
@@ -146,6 +155,52 @@ public class RestoreManagerImplTest extends SnapshotTestBase {
                           emailBody.contains(snapshotName));
         Assert.assertTrue("Expecting restore ID in email body",
                           emailBody.contains(restorationId));
+        Assert.assertFalse("Expecting no referenced snapshots in email body",
+                           emailBody.contains("incremental"));
+    }
+
+    @Test
+    public void testRestoreIncrementalSnapshot() throws SnapshotException {
+        expect(snapshotRepo.findByName(snapshotName)).andReturn(snapshot);
+        expect(snapshot.getStatus()).andReturn(SnapshotStatus.SNAPSHOT_COMPLETE);
+        DuracloudEndPointConfig source = createMock(DuracloudEndPointConfig.class);
+        expect(source.getHost()).andReturn("host.duracloud.org");
+        expect(source.getStoreId()).andReturn("store-id");
+        expect(source.getSpaceId()).andReturn("space-id");
+        expect(snapshot.getSource()).andReturn(source);
+        expect(snapshot.getTotalSizeInBytes()).andReturn(1000L);
+        expect(snapshot.getName()).andReturn(snapshotName).anyTimes();
+
+        // the content referenced by the snapshot is held by an earlier one
+        Snapshot referenced = createMock(Snapshot.class);
+        expect(referenced.getName()).andReturn("earlier-snapshot").anyTimes();
+        expect(referenced.getTotalSizeInBytes()).andReturn(500L);
+        expect(snapshotContentItemRepo.findReferencedSnapshotIds(snapshotName))
+            .andReturn(Collections.singletonList(7L)).times(2);
+        expect(snapshotRepo.findById(7L)).andReturn(Optional.of(referenced)).times(2);
+
+        expect(restoreRepo.saveAndFlush(isA(Restoration.class))).andReturn(restoration);
+        eventLog.logRestoreUpdate(isA(Restoration.class));
+        expectLastCall();
+
+        Capture<String> emailBodyCapture = Capture.newInstance(CaptureType.FIRST);
+        notificationManager.sendNotification(isA(NotificationType.class),
+                                             isA(String.class),
+                                             capture(emailBodyCapture),
+                                             isA(String.class),
+                                             isA(String.class));
+        expectLastCall();
+
+        expect(restoration.getRestorationId()).andReturn(restorationId);
+        replayAll();
+        manager.restoreSnapshot(snapshotName, destination, userEmail);
+
+        String emailBody = emailBodyCapture.getValue();
+        Assert.assertTrue("Expecting referenced snapshot ID in email body",
+                          emailBody.contains("Snapshot ID: earlier-snapshot"));
+        Assert.assertTrue("Expecting referenced restore location in email body",
+                          emailBody.contains(restorationId + File.separator + "referenced" +
+                                             File.separator + "earlier-snapshot"));
     }
 
     @Test
@@ -224,11 +279,13 @@ public class RestoreManagerImplTest extends SnapshotTestBase {
                                      + File.separator + System.currentTimeMillis());
         manager.setStoreClientHelper(storeClientHelper);
         manager.setSnapshotRepo(snapshotRepo);
+        manager.setSnapshotContentItemRepo(snapshotContentItemRepo);
         manager.setRestoreRepo(restoreRepo);
         manager.setNotificationManager(notificationManager);
         manager.setBridgeConfig(bridgeConfig);
         manager.setSnapshotManager(snapshotManager);
         manager.setEventLog(eventLog);
+        manager.setDiskCapacityManager(DiskCapacityManager.unbounded());
         manager.init(config, jobManager);
     }
 
@@ -293,6 +350,8 @@ public class RestoreManagerImplTest extends SnapshotTestBase {
 
         List<Restoration> restorationList = new ArrayList<>();
         restorationList.add(restoration);
+        expect(restoreRepo.findByStatus(RestoreStatus.RETRIEVING_FROM_STORAGE))
+            .andReturn(new ArrayList<>());
         expect(restoreRepo.findByStatus(RestoreStatus.RESTORATION_COMPLETE))
             .andReturn(restorationList);
 
@@ -203,6 +203,7 @@ public class SnapshotContentItemVerifierTest extends EasyMockSupport {
 
         ExecutionContext context = createMock(ExecutionContext.class);
         expect(context.getLong(isA(String.class), anyLong())).andReturn((long) itemCount).anyTimes();
+        expect(context.remove(StepExecutionSupport.READ_CHECKPOINTS_KEY)).andReturn(null).anyTimes();
 
         context.putLong(isA(String.class), anyLong());
         expectLastCall().atLeastOnce();
@@ -25,6 +25,7 @@ import org.duracloud.snapshot.common.SnapshotServiceConstants;
 import org.duracloud.snapshot.common.test.SnapshotTestBase;
 import org.duracloud.snapshot.db.ContentDirUtils;
 import org.duracloud.snapshot.db.model.Snapshot;
+import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
 import org.duracloud.snapshot.db.repo.SnapshotRepo;
 import org.duracloud.snapshot.dto.SnapshotStatus;
 import org.duracloud.snapshot.service.EventLog;
@@ -67,12 +68,18 @@ public class SnapshotJobExecutionListenerTest extends SnapshotTestBase {
     @Mock
     private Snapshot snapshot;
 
+    @Mock
+    private SnapshotContentItemRepo snapshotContentItemRepo;
+
     @Mock
     private SnapshotManager snapshotManager;
 
     @Mock
     private EventLog eventLog;
 
+    @Mock
+    private DiskCapacityManager diskCapacityManager;
+
     @TestSubject
     private SnapshotJobExecutionListener executionListener = new SnapshotJobExecutionListener();
 
@@ -140,6 +147,13 @@ public class SnapshotJobExecutionListenerTest extends SnapshotTestBase {
         snapshot.setStatus(SnapshotStatus.REPLICATING_TO_STORAGE);
         snapshot.setTotalSizeInBytes(0l);
         expectLastCall();
+        expect(snapshot.getId()).andReturn(1L);
+        expect(snapshotContentItemRepo.countBySnapshotId(1L)).andReturn(10L);
+        snapshot.setContentItemCount(10L);
+        expectLastCall();
+        // the remainder of the reservation is cleared once the job completes
+        diskCapacityManager.allLanded(snapshotId);
+        expectLastCall();
 
         Capture<String> historyCapture = Capture.newInstance(CaptureType.FIRST);
         expect(snapshotManager.updateHistory(EasyMock.eq(snapshot),
@@ -218,6 +232,9 @@ public class SnapshotJobExecutionListenerTest extends SnapshotTestBase {
 
         snapshot.setStatus(SnapshotStatus.FAILED_TO_TRANSFER_FROM_DURACLOUD);
         expectLastCall();
+        // a failed job gives up its reservation
+        diskCapacityManager.release(snapshotId);
+        expectLastCall();
 
         replayAll();
 
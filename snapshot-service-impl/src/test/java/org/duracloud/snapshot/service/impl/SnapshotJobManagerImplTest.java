@@ -14,6 +14,12 @@ import static org.easymock.EasyMock.isA;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FileUtils;
 import org.duracloud.client.ContentStore;
@@ -22,6 +28,8 @@ import org.duracloud.snapshot.SnapshotException;
 import org.duracloud.snapshot.common.SnapshotServiceConstants;
 import org.duracloud.snapshot.common.test.SnapshotTestBase;
 import org.duracloud.snapshot.db.model.DuracloudEndPointConfig;
+import org.duracloud.snapshot.db.model.JobQueueEntry;
+import org.duracloud.snapshot.db.model.JobQueueEntry.JobType;
 import org.duracloud.snapshot.db.model.Restoration;
 import org.duracloud.snapshot.db.model.Snapshot;
 import org.duracloud.snapshot.db.repo.RestoreRepo;
@@ -31,6 +39,7 @@ import org.duracloud.snapshot.dto.SnapshotStatus;
 import org.duracloud.snapshot.dto.task.CompleteCancelSnapshotTaskParameters;
 import org.duracloud.snapshot.service.EventLog;
 import org.duracloud.snapshot.service.SnapshotJobManagerConfig;
+import org.duracloud.storage.provider.StorageProvider;
 import org.easymock.EasyMock;
 import org.easymock.Mock;
 import org.junit.After;
@@ -38,6 +47,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobExecutionListener;
@@ -45,6 +55,7 @@ import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.launch.JobLauncher;
 import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.JobRestartException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -112,6 +123,9 @@ public class SnapshotJobManagerImplTest extends SnapshotTestBase {
     @Mock
     private EventLog eventLog;
 
+    @Mock
+    private JobDispatcher jobDispatcher;
+
     @Before
     @Override
     public void setup() throws Exception {
@@ -123,7 +137,9 @@ public class SnapshotJobManagerImplTest extends SnapshotTestBase {
                                        jobRepository,
                                        builderManager,
                                        storeHelper,
-                                       eventLog);
+                                       eventLog,
+                                       DiskCapacityManager.unbounded(),
+                                       jobDispatcher);
         manager.init(config, false);
     }
 
@@ -134,53 +150,165 @@ public class SnapshotJobManagerImplTest extends SnapshotTestBase {
 
     @Test
     public void testExecuteSnapshot() throws Exception {
+        setupSnapshotRepo();
+        setupSpaceSize("1024");
+        setupSubmitSnapshot();
 
-        EasyMock.expect(snapshotJobBuilder.buildJob(snapshot, config))
-                .andReturn(job);
+        replayAll();
 
-        EasyMock.expect(snapshotJobBuilder.buildJobParameters(snapshot))
-                .andReturn(new JobParameters());
+        Assert.assertEquals(BatchStatus.STARTING, manager.executeSnapshot(snapshotName));
+    }
 
-        EasyMock.expect(jobLauncher.run(EasyMock.isA(Job.class),
-                                        EasyMock.isA(JobParameters.class)))
-                .andReturn(jobExecution);
+    private void setupSubmitSnapshot() {
+        expect(snapshot.getName()).andReturn(snapshotName);
+        expect(snapshot.getSource()).andReturn(createMock(DuracloudEndPointConfig.class));
+        expect(snapshot.getMemberId()).andReturn("member-id");
+        jobDispatcher.submit(JobType.SNAPSHOT, snapshotName, "member-id", JobDispatcher.DEFAULT_SNAPSHOT_PRIORITY);
+        expectLastCall();
+    }
 
-        EasyMock.expect(jobExecution.getStatus())
-                .andReturn(BatchStatus.COMPLETED);
+    @Test
+    public void testExecuteRestore() throws Exception {
+        String restorationId = "restoration-id";
+        expect(restoreRepo.findByRestorationId(restorationId)).andReturn(restoration);
+        expect(restoration.getRestorationId()).andReturn(restorationId);
+        expect(restoration.getSnapshot()).andReturn(snapshot);
+        expect(snapshot.getMemberId()).andReturn(null);
+        DuracloudEndPointConfig destination = createMock(DuracloudEndPointConfig.class);
+        expect(restoration.getDestination()).andReturn(destination);
+        expect(destination.getHost()).andReturn("host");
+        jobDispatcher.submit(JobType.RESTORE, restorationId, "host", JobDispatcher.DEFAULT_RESTORE_PRIORITY);
+        expectLastCall();
 
-        setupSnapshotRepo();
+        replayAll();
+
+        Assert.assertEquals(BatchStatus.STARTING, manager.executeRestoration(restorationId));
+    }
 
+    @Test
+    public void testLaunchStopsStaleExecution() throws Exception {
+        setupSnapshotRepo();
         setupBuilderManager();
+        JobParameters params = new JobParameters();
+        expect(snapshotJobBuilder.buildJob(snapshot, config)).andReturn(job);
+        expect(snapshotJobBuilder.buildJobParameters(snapshot)).andReturn(params);
+        expect(snapshotJobBuilder.getJobName()).andReturn(SnapshotServiceConstants.SNAPSHOT_JOB_NAME);
+
+        // left running by a restart
+        JobExecution staleExecution = createMock(JobExecution.class);
+        expect(jobRepository.getLastJobExecution(SnapshotServiceConstants.SNAPSHOT_JOB_NAME, params))
+            .andReturn(staleExecution);
+        expect(staleExecution.getStatus()).andReturn(BatchStatus.STARTED);
+        staleExecution.setStatus(BatchStatus.STOPPED);
+        staleExecution.setExitStatus(ExitStatus.STOPPED);
+        staleExecution.setEndTime(isA(Date.class));
+        jobRepository.update(staleExecution);
+        expectLastCall();
 
-        replayAll();
+        expect(jobLauncher.run(job, params)).andReturn(jobExecution);
+        expect(jobExecution.getStatus()).andReturn(BatchStatus.COMPLETED);
 
-        manager.executeSnapshot(snapshotName);
+        replayAll();
 
+        JobQueueEntry entry = new JobQueueEntry();
+        entry.setJobType(JobType.SNAPSHOT);
+        entry.setJobKey(snapshotName);
+        manager.launch(entry);
     }
 
     @Test
-    public void testExecuteRestore() throws Exception {
-        setupRestoreBuilderManager();
-        EasyMock.expect(restoreJobBuilder.buildJob(restoration, config))
-                .andReturn(job);
+    public void testLaunchFailureSetsErrorStatus() throws Exception {
+        setupSnapshotRepo();
+        setupBuilderManager();
+        JobParameters params = new JobParameters();
+        expect(snapshotJobBuilder.buildJob(snapshot, config)).andReturn(job);
+        expect(snapshotJobBuilder.buildJobParameters(snapshot)).andReturn(params);
+        expect(snapshotJobBuilder.getJobName()).andReturn(SnapshotServiceConstants.SNAPSHOT_JOB_NAME);
+        expect(jobRepository.getLastJobExecution(SnapshotServiceConstants.SNAPSHOT_JOB_NAME, params))
+            .andReturn(null);
+        JobRestartException failure = new JobRestartException("failure");
+        expect(jobLauncher.run(job, params)).andThrow(failure);
+
+        snapshot.setStatus(SnapshotStatus.ERROR);
+        expectLastCall();
+        snapshot.setStatusText(isA(String.class));
+        expectLastCall();
+        expect(snapshotRepo.saveAndFlush(snapshot)).andReturn(snapshot);
+        eventLog.logSnapshotUpdate(snapshot);
+        expectLastCall();
 
-        EasyMock.expect(restoreJobBuilder.buildJobParameters(restoration))
-                .andReturn(new JobParameters());
+        replayAll();
 
-        EasyMock.expect(jobLauncher.run(EasyMock.isA(Job.class),
-                                        EasyMock.isA(JobParameters.class)))
-                .andReturn(jobExecution);
+        JobQueueEntry entry = new JobQueueEntry();
+        entry.setJobType(JobType.SNAPSHOT);
+        entry.setJobKey(snapshotName);
+        try {
+            manager.launch(entry);
+            Assert.fail("launch should rethrow the failure");
+        } catch (JobRestartException ex) {
+            Assert.assertSame(failure, ex);
+        }
+    }
 
-        EasyMock.expect(jobExecution.getStatus())
-                .andReturn(BatchStatus.COMPLETED);
+    private void setupSpaceSize(String size) throws Exception {
+        String spaceId = "space-id";
+        DuracloudEndPointConfig source = createMock(DuracloudEndPointConfig.class);
+        ContentStore contentStore = createMock(ContentStore.class);
+        expect(snapshot.getSource()).andReturn(source);
+        expect(source.getSpaceId()).andReturn(spaceId);
+        expect(config.getDuracloudUsername()).andReturn("username");
+        expect(config.getDuracloudPassword()).andReturn("password");
+        expect(storeHelper.create(source, "username", "password")).andReturn(contentStore);
+        Map<String, String> properties = new HashMap<>();
+        properties.put(StorageProvider.PROPERTIES_SPACE_SIZE, size);
+        expect(contentStore.getSpaceProperties(spaceId)).andReturn(properties);
+    }
 
-        String restorationId = "restoration-id";
-        expect(restoreRepo.findByRestorationId(restorationId)).andReturn(restoration);
+    @Test
+    public void testExecuteSnapshotWaitsForDiskCapacity() throws Exception {
+        AtomicLong usableSpace = new AtomicLong(1000);
+        DiskCapacityManager diskCapacityManager =
+            new DiskCapacityManager(usableSpace::get, () -> 10000, 0);
+        manager = new SnapshotJobManagerImpl(snapshotRepo,
+                                             restoreRepo,
+                                             jobLauncher,
+                                             jobRepository,
+                                             builderManager,
+                                             storeHelper,
+                                             eventLog,
+                                             diskCapacityManager,
+                                             jobDispatcher);
+        manager.init(config, false);
+
+        expect(snapshotRepo.findByName(snapshotName)).andReturn(snapshot).times(2);
+        setupSpaceSize("2 KB");
+        CountDownLatch launched = new CountDownLatch(1);
+        setupSubmitSnapshot();
+        expectLastCall().andAnswer(() -> {
+            launched.countDown();
+            return null;
+        });
 
         replayAll();
 
-        manager.executeRestoration(restorationId);
+        Assert.assertEquals(BatchStatus.STARTING, manager.executeSnapshot(snapshotName));
+        Assert.assertTrue(diskCapacityManager.isWaiting(snapshotName));
 
+        usableSpace.set(4096);
+        diskCapacityManager.admitWaiting();
+        Assert.assertTrue(launched.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(diskCapacityManager.isReserved(snapshotName));
+    }
+
+    @Test
+    public void testParseSize() {
+        replayAll();
+        Assert.assertEquals(Long.valueOf(1234), SnapshotJobManagerImpl.parseSize("1234"));
+        Assert.assertEquals(Long.valueOf(1234), SnapshotJobManagerImpl.parseSize("1234 bytes"));
+        Assert.assertEquals(Long.valueOf(1536), SnapshotJobManagerImpl.parseSize("1.5 KB"));
+        Assert.assertEquals(Long.valueOf(2L * 1024 * 1024 * 1024), SnapshotJobManagerImpl.parseSize("2 GB"));
+        Assert.assertNull(SnapshotJobManagerImpl.parseSize("unknown"));
+        Assert.assertNull(SnapshotJobManagerImpl.parseSize(null));
     }
 
     /**
@@ -258,6 +386,9 @@ public class SnapshotJobManagerImplTest extends SnapshotTestBase {
         eventLog.logSnapshotUpdate(snapshot);
         expectLastCall();
 
+        jobDispatcher.withdraw(JobType.SNAPSHOT, snapshotName);
+        expectLastCall();
+
         replayAll();
 
         this.manager.cancelSnapshot(snapshotName);
@@ -294,6 +425,9 @@ public class SnapshotJobManagerImplTest extends SnapshotTestBase {
         eventLog.logRestoreUpdate(restoration);
         expectLastCall();
 
+        jobDispatcher.withdraw(JobType.RESTORE, "restoration-id");
+        expectLastCall();
+
         replayAll();
 
         this.manager.cancelRestore("restoration-id");
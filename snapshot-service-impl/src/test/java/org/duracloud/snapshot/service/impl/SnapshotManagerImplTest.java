@@ -41,6 +41,8 @@ import org.duracloud.client.task.SnapshotTaskClient;
 import org.duracloud.common.constant.Constants;
 import org.duracloud.common.notification.NotificationManager;
 import org.duracloud.common.notification.NotificationType;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
 import org.duracloud.common.util.WaitUtil;
 import org.duracloud.error.ContentStoreException;
 import org.duracloud.error.NotFoundException;
@@ -109,6 +111,11 @@ public class SnapshotManagerImplTest extends SnapshotTestBase {
     @Override
     public void setup() throws Exception {
         super.setup();
+        // finalizeSnapshots looks for a snapshot directory under the bridge root
+        File root = new File(System.getProperty("java.io.tmpdir") +
+                             File.separator + System.currentTimeMillis());
+        System.setProperty(BridgeConfiguration.DURACLOUD_BRIDGE_ROOT_SYSTEM_PROPERTY,
+                           root.getAbsolutePath());
         manager = new SnapshotManagerImpl();
         manager.setBridgeConfig(bridgeConfig);
         manager.setNotificationManager(notificationManager);
@@ -117,6 +124,8 @@ public class SnapshotManagerImplTest extends SnapshotTestBase {
         manager.setSnapshotTaskClientHelper(snapshotTaskClientHelper);
         manager.setStoreClientHelper(storeClientHelper);
         manager.setEventLog(eventLog);
+        manager.setDiskCapacityManager(DiskCapacityManager.unbounded());
+        manager.setMetadataUploadExecutor(Runnable::run);
     }
 
     /**
@@ -146,6 +155,35 @@ public class SnapshotManagerImplTest extends SnapshotTestBase {
 
     }
 
+    @Test
+    public void testAddContentItems() throws SnapshotException {
+        List<SnapshotContentItem> items = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            SnapshotContentItem item = new SnapshotContentItem();
+            item.setContentId("content-id-" + i);
+            item.setMetadata("{\"key\":\"value\"}");
+            items.add(item);
+        }
+
+        this.snapshotContentItemRepo.insertIgnoreDuplicates(items);
+        expectLastCall();
+        replayAll();
+
+        manager.addContentItems(snapshot, items);
+
+        for (SnapshotContentItem item : items) {
+            assertEquals(snapshot, item.getSnapshot());
+            assertNotNull(item.getContentIdHash());
+        }
+        assertFalse(items.get(0).getContentIdHash().equals(items.get(1).getContentIdHash()));
+    }
+
+    @Test
+    public void testAddContentItemsEmpty() throws SnapshotException {
+        replayAll();
+        manager.addContentItems(snapshot, new ArrayList<>());
+    }
+
     @Test
     public void testTransferToSnapshotStorageComplete() throws SnapshotException, ContentStoreException, IOException {
         String snapshotId = "snapshot-name";
@@ -221,6 +259,79 @@ public class SnapshotManagerImplTest extends SnapshotTestBase {
         }
     }
 
+    @Test
+    public void testTransferToSnapshotStorageCompleteCleanupFails() throws Exception {
+        String snapshotId = "snapshot-name";
+        String spaceId = "space-id";
+        expect(snapshotRepo.findByName(snapshotId)).andReturn(snapshot).times(2);
+        snapshot.setStatus(SnapshotStatus.CLEANING_UP);
+        expectLastCall();
+        snapshot.setStatusText(isA(String.class));
+        expectLastCall().times(2);
+        expect(snapshot.getName()).andReturn(snapshotId);
+
+        File root = new File(System.getProperty("java.io.tmpdir") +
+                             File.separator + System.currentTimeMillis());
+        System.setProperty(BridgeConfiguration.DURACLOUD_BRIDGE_ROOT_SYSTEM_PROPERTY,
+                           root.getAbsolutePath());
+
+        File dir = new File(ContentDirUtils.getDestinationPath(snapshotId, BridgeConfiguration.getContentRootDir()));
+        dir.mkdirs();
+        for (String f : SnapshotManagerImpl.METADATA_FILENAMES) {
+            try (FileOutputStream fos = new FileOutputStream(new File(dir, f))) {
+                IOUtils.write("test", fos);
+            }
+        }
+
+        // the checksum sent with the zip is computed while the zip is written
+        ContentStore contentStore = createMock(ContentStore.class);
+        expect(contentStore.getSpace(eq(Constants.SNAPSHOT_METADATA_SPACE),
+                                     isNull(String.class),
+                                     anyLong(),
+                                     isNull(String.class))).andReturn(null);
+        Capture<InputStream> zipStream = Capture.newInstance();
+        Capture<String> zipChecksum = Capture.newInstance();
+        expect(contentStore.addContent(eq(Constants.SNAPSHOT_METADATA_SPACE),
+                                       eq(snapshotId + ".zip"),
+                                       capture(zipStream),
+                                       anyLong(),
+                                       eq("application/zip"),
+                                       capture(zipChecksum),
+                                       (Map<String, String>) isNull())).andAnswer(() -> {
+                                           String checksum = new ChecksumUtil(Algorithm.MD5)
+                                               .generateChecksum(zipStream.getValue());
+                                           assertEquals(checksum, zipChecksum.getValue());
+                                           return checksum;
+                                       });
+        expect(storeClientHelper.create(isA(DuracloudEndPointConfig.class),
+                                        isA(String.class),
+                                        isA(String.class))).andReturn(contentStore);
+
+        setupEndpoint();
+        setupTaskClientHelper();
+        expect(this.endPointConfig.getSpaceId()).andReturn(spaceId);
+        expect(snapshotTaskClient.cleanupSnapshot(spaceId))
+            .andThrow(new ContentStoreException("failure"));
+
+        // a failure after the response has been sent puts the snapshot in error
+        snapshot.setStatus(SnapshotStatus.ERROR);
+        expectLastCall();
+        expect(snapshotRepo.saveAndFlush(isA(Snapshot.class))).andReturn(snapshot).times(2);
+        eventLog.logSnapshotUpdate(snapshot);
+        expectLastCall().times(2);
+        expect(bridgeConfig.getDuracloudEmailAddresses()).andReturn(new String[] {"add-1"});
+        notificationManager.sendNotification(eq(NotificationType.EMAIL),
+                                             isA(String.class),
+                                             isA(String.class),
+                                             eq("add-1"));
+        expectLastCall();
+        replayAll();
+
+        assertNotNull(this.manager.transferToStorageComplete(snapshotId));
+
+        FileUtils.deleteDirectory(root);
+    }
+
     @Test
     public void testTransferError() throws SnapshotException {
         String snapshotId = "snapshot-name";
@@ -368,6 +479,58 @@ public class SnapshotManagerImplTest extends SnapshotTestBase {
 
     }
 
+    @Test
+    public void testFinalizeSnapshotsResumesMetadataUpload() throws Exception {
+        String snapshotId = "snapshot-name";
+        String spaceId = "space-id";
+        List<Snapshot> snapshots = new ArrayList<>();
+        snapshots.add(snapshot);
+        expect(this.snapshotRepo.findByStatusOrderBySnapshotDateAsc(eq(SnapshotStatus.CLEANING_UP)))
+            .andReturn(snapshots);
+        expect(this.snapshot.getName()).andReturn(snapshotId);
+
+        // the snapshot directory is left by an upload the bridge did not finish
+        File root = new File(System.getProperty("java.io.tmpdir") +
+                             File.separator + System.currentTimeMillis());
+        System.setProperty(BridgeConfiguration.DURACLOUD_BRIDGE_ROOT_SYSTEM_PROPERTY,
+                           root.getAbsolutePath());
+        File dir = new File(ContentDirUtils.getDestinationPath(snapshotId, BridgeConfiguration.getContentRootDir()));
+        dir.mkdirs();
+        for (String f : SnapshotManagerImpl.METADATA_FILENAMES) {
+            try (FileOutputStream fos = new FileOutputStream(new File(dir, f))) {
+                IOUtils.write("test", fos);
+            }
+        }
+
+        ContentStore contentStore = createMock(ContentStore.class);
+        expect(storeClientHelper.create(isA(DuracloudEndPointConfig.class),
+                                        isA(String.class),
+                                        isA(String.class))).andReturn(contentStore).times(2);
+        expect(contentStore.getSpace(eq(Constants.SNAPSHOT_METADATA_SPACE),
+                                     isNull(String.class),
+                                     anyLong(),
+                                     isNull(String.class))).andReturn(null);
+        expect(contentStore.addContent(eq(Constants.SNAPSHOT_METADATA_SPACE),
+                                       eq(snapshotId + ".zip"),
+                                       isA(InputStream.class),
+                                       anyLong(),
+                                       eq("application/zip"),
+                                       isA(String.class),
+                                       (Map<String, String>) isNull())).andReturn("test");
+
+        setupEndpoint();
+        setupTaskClientHelper();
+        expect(this.endPointConfig.getSpaceId()).andReturn(spaceId);
+        expect(snapshotTaskClient.cleanupSnapshot(spaceId))
+            .andReturn(new CleanupSnapshotTaskResult());
+        replayAll();
+
+        this.manager.finalizeSnapshots();
+        assertFalse(dir.exists());
+
+        FileUtils.deleteDirectory(root);
+    }
+
     @Test
     public void testFinalizeSnapshotsUnsuccessfulAfter3Days() throws SnapshotException, ContentStoreException {
 
@@ -18,6 +18,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
 
 /**
  * @author Daniel Bernstein
@@ -51,11 +53,8 @@ public class SnapshotManifestReaderTest extends EasyMockSupport {
         List<ManifestEntry> list = ManifestTestHelper.setupManifestFile(manifestFile, 100, "checksum", "contentid");
 
         replayAll();
-        SnapshotManifestReader reader = new SnapshotManifestReader(manifestFile) {
-            protected long getItemsRead() {
-                return 0;
-            }
-        };
+        SnapshotManifestReader reader = new SnapshotManifestReader(manifestFile);
+        reader.beforeStep(new StepExecution("step", new JobExecution(1L)));
 
         ManifestEntry entry = null;
         int index = 0;
@@ -65,4 +64,35 @@ public class SnapshotManifestReaderTest extends EasyMockSupport {
             index++;
         }
     }
+
+    @Test
+    public void testRestart() throws Exception {
+        File manifestFile = File.createTempFile("test", "txt");
+        manifestFile.deleteOnExit();
+        List<ManifestEntry> list = ManifestTestHelper.setupManifestFile(manifestFile, 2500, "checksum", "contentid");
+
+        replayAll();
+        StepExecution stepExecution = new StepExecution("step", new JobExecution(1L));
+        SnapshotManifestReader reader = new SnapshotManifestReader(manifestFile);
+        reader.beforeStep(stepExecution);
+        for (int i = 0; i < 2200; i++) {
+            assertEquals(list.get(i), reader.read());
+        }
+
+        // the writer has processed fewer items than the reader has read
+        stepExecution.getExecutionContext().putLong(StepExecutionSupport.ITEMS_READ_KEY, 2150);
+
+        // restart: resume from the checkpoint at line 2000 and skip to 2150
+        reader = new SnapshotManifestReader(manifestFile);
+        reader.beforeStep(stepExecution);
+        assertEquals(2000, reader.getResumeCheckpoint().getItemNumber());
+
+        int index = 2150;
+        ManifestEntry entry;
+        while ((entry = reader.read()) != null) {
+            assertEquals(list.get(index), entry);
+            index++;
+        }
+        assertEquals(list.size(), index);
+    }
 }
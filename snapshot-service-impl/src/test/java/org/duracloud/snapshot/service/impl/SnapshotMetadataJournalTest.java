@@ -0,0 +1,193 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class SnapshotMetadataJournalTest {
+
+    private File dir;
+    private File propsFile;
+    private File md5File;
+    private File sha256File;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "metadata-journal-" + System.currentTimeMillis());
+        dir.mkdirs();
+        propsFile = new File(dir, "content-properties.json");
+        md5File = new File(dir, "manifest-md5.txt");
+        sha256File = new File(dir, "manifest-sha256.txt");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testConcurrentAppends() throws Exception {
+        int threads = 4;
+        int itemsPerThread = 500;
+        // a small capacity exercises appending threads blocking on a full queue
+        SnapshotMetadataJournal journal = new SnapshotMetadataJournal(propsFile, md5File, sha256File, 16);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < itemsPerThread; i++) {
+                        String contentId = "dir/content-" + thread + "-" + i;
+                        journal.appendMd5Checksum(contentId, "md5" + i);
+                        journal.appendSha256Checksum(contentId, "sha" + i);
+                        Map<String, String> props = new HashMap<>();
+                        props.put("mimetype", "text/plain");
+                        props.put("quote", "\"" + i + "\"");
+                        journal.appendContentProperties(contentId, props);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        journal.close();
+
+        int total = threads * itemsPerThread;
+        assertEquals(total, readManifest(md5File).size());
+        assertEquals(total, readManifest(sha256File).size());
+        assertEquals("md5" + 7, readManifest(md5File).get("dir/content-2-7"));
+
+        List<Map<String, Map<String, String>>> props =
+            new ObjectMapper().readValue(propsFile, new TypeReference<List<Map<String, Map<String, String>>>>() {
+            });
+        assertEquals(total, props.size());
+        Set<String> contentIds = new HashSet<>();
+        for (Map<String, Map<String, String>> entry : props) {
+            assertEquals(1, entry.size());
+            contentIds.addAll(entry.keySet());
+        }
+        assertEquals(total, contentIds.size());
+        assertEquals("\"3\"", findProps(props, "dir/content-1-3").get("quote"));
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        SnapshotMetadataJournal journal = new SnapshotMetadataJournal(propsFile, md5File, sha256File);
+        try {
+            journal.appendMd5Checksum("content-1", "abc123");
+            journal.appendSha256Checksum("content-1", "def456");
+            journal.checkpoint();
+
+            assertEquals("abc123", readManifest(md5File).get("content-1"));
+            assertEquals("def456", readManifest(sha256File).get("content-1"));
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testEmptyJournal() throws Exception {
+        new SnapshotMetadataJournal(propsFile, md5File, sha256File).close();
+
+        List<?> props = new ObjectMapper().readValue(propsFile, List.class);
+        assertTrue(props.isEmpty());
+        assertEquals(0, md5File.length());
+        assertEquals(0, sha256File.length());
+    }
+
+    @Test
+    public void testAppendAfterClose() throws Exception {
+        SnapshotMetadataJournal journal = new SnapshotMetadataJournal(propsFile, md5File, sha256File);
+        journal.close();
+        try {
+            journal.appendMd5Checksum("content-1", "abc123");
+            fail("append to a closed journal should fail");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAppenderFailure() throws Exception {
+        SnapshotMetadataJournal journal = new SnapshotMetadataJournal(propsFile, md5File, sha256File, 2);
+        // null properties fail in the appender thread rather than the caller
+        journal.appendContentProperties("content-1", null);
+        try {
+            journal.checkpoint();
+            fail("checkpoint should fail once the appender has failed");
+        } catch (IOException ex) {
+            // expected
+        }
+
+        // appends neither block on the full queue nor succeed
+        try {
+            for (int i = 0; i < 10; i++) {
+                journal.appendMd5Checksum("content-" + i, "abc123");
+            }
+            fail("append should fail once the appender has failed");
+        } catch (IOException ex) {
+            // expected
+        }
+
+        try {
+            journal.close();
+            fail("close should report the appender failure");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    private Map<String, String> readManifest(File file) throws Exception {
+        Map<String, String> entries = new HashMap<>();
+        for (String line : FileUtils.readLines(file, StandardCharsets.UTF_8)) {
+            ManifestEntry entry = ManifestFileHelper.parseManifestEntry(line);
+            entries.put(entry.getContentId(), entry.getChecksum());
+        }
+        return entries;
+    }
+
+    private Map<String, String> findProps(List<Map<String, Map<String, String>>> props, String contentId) {
+        for (Map<String, Map<String, String>> entry : props) {
+            if (entry.containsKey(contentId)) {
+                return entry.get(contentId);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.duracloud.common.model.ContentItem;
+import org.duracloud.retrieval.source.RetrievalSource;
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class SpaceItemReaderTest {
+
+    @Test
+    public void testReadAllItemsConcurrently() throws Exception {
+        int itemCount = 1000;
+        int highWatermark = 50;
+        AtomicInteger listed = new AtomicInteger();
+        AtomicInteger read = new AtomicInteger();
+        AtomicInteger maxAhead = new AtomicInteger();
+
+        RetrievalSource source = EasyMock.createMock(RetrievalSource.class);
+        EasyMock.expect(source.getNextContentItem()).andAnswer(() -> {
+            int i = listed.get();
+            if (i == itemCount) {
+                return null;
+            }
+            maxAhead.accumulateAndGet(listed.incrementAndGet() - read.get(), Math::max);
+            return new ContentItem("space-id", "content-" + i);
+        }).times(itemCount + 1);
+        EasyMock.replay(source);
+
+        SpaceItemReader reader = new SpaceItemReader(source, highWatermark, 10);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<String> contentIds = Collections.synchronizedList(new ArrayList<>());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    ContentItem item;
+                    while ((item = reader.read()) != null) {
+                        read.incrementAndGet();
+                        contentIds.add(item.getContentId());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            reader.close();
+        }
+
+        assertEquals(itemCount, contentIds.size());
+        // one item may be in hand in each reading thread in addition to the queue
+        assertTrue("listed " + maxAhead.get() + " ahead", maxAhead.get() <= highWatermark + 4 + 1);
+        EasyMock.verify(source);
+    }
+
+    @Test
+    public void testListingError() throws Exception {
+        RetrievalSource source = EasyMock.createMock(RetrievalSource.class);
+        EasyMock.expect(source.getNextContentItem()).andReturn(new ContentItem("space-id", "content-0"));
+        EasyMock.expect(source.getNextContentItem()).andThrow(new RuntimeException("listing failed"));
+        EasyMock.replay(source);
+
+        SpaceItemReader reader = new SpaceItemReader(source);
+        // items listed before the failure are still read
+        assertEquals("content-0", reader.read().getContentId());
+        try {
+            reader.read();
+            fail("listing error expected");
+        } catch (RuntimeException ex) {
+            assertEquals("listing failed", ex.getMessage());
+        }
+        EasyMock.verify(source);
+    }
+
+    @Test
+    public void testReadAfterClose() throws Exception {
+        RetrievalSource source = EasyMock.createMock(RetrievalSource.class);
+        EasyMock.replay(source);
+
+        SpaceItemReader reader = new SpaceItemReader(source);
+        reader.close();
+        assertNull(reader.read());
+        EasyMock.verify(source);
+    }
+}
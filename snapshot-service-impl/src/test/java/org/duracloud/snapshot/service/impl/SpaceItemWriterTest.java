@@ -7,6 +7,7 @@
  */
 package org.duracloud.snapshot.service.impl;
 
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
@@ -25,11 +26,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -50,8 +54,11 @@ import org.duracloud.retrieval.source.RetrievalSource;
 import org.duracloud.snapshot.SnapshotException;
 import org.duracloud.snapshot.common.test.SnapshotTestBase;
 import org.duracloud.snapshot.db.model.Snapshot;
+import org.duracloud.snapshot.db.model.SnapshotContentItem;
 import org.duracloud.snapshot.service.SnapshotManager;
 import org.duracloud.storage.provider.StorageProvider;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
 import org.easymock.Mock;
 import org.jetbrains.annotations.NotNull;
 import org.junit.After;
@@ -172,10 +179,10 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
 
         List<File> sourceFiles = new ArrayList<>();
         for (int i = 0; i < 100; i++) {
-            sourceFiles.add(setupContentItem(items, spaceId, contentId + String.format("%05d", i), 1));
+            sourceFiles.add(setupContentItem(items, spaceId, contentId + String.format("%05d", i)));
         }
 
-        setupContentItem(items, spaceId, Constants.SNAPSHOT_PROPS_FILENAME, 1);
+        setupContentItem(items, spaceId, Constants.SNAPSHOT_PROPS_FILENAME);
 
         sortSourceFilesAndItems(items, sourceFiles);
 
@@ -197,6 +204,8 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
             stepExecution.upgradeStatus(BatchStatus.FAILED);
             expectLastCall();
         }
+        Capture<Collection<SnapshotContentItem>> addedItems = expectContentItemsAdded();
+
         replayAll();
         writer =
             new SpaceItemWriter(snapshot,
@@ -220,6 +229,8 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
 
         verifyPropsFile(propsFile);
 
+        verifyContentItemsAdded(addedItems, items);
+
         if (manifestVerificationSuccessful) {
             assertEquals(ExitStatus.COMPLETED.getExitCode(), status.getExitCode());
         } else {
@@ -259,10 +270,10 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
 
         List<File> sourceFiles = new ArrayList<>();
         for (int i = 0; i < 100; i++) {
-            sourceFiles.add(setupContentItem(items, spaceId, contentId + String.format("%05d", i), 2));
+            sourceFiles.add(setupContentItem(items, spaceId, contentId + String.format("%05d", i)));
         }
 
-        setupContentItem(items, spaceId, Constants.SNAPSHOT_PROPS_FILENAME, 1);
+        setupContentItem(items, spaceId, Constants.SNAPSHOT_PROPS_FILENAME);
 
         sortSourceFilesAndItems(items, sourceFiles);
 
@@ -277,6 +288,8 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
         expect(spaceManifestVerifier.verify()).andReturn(true);
         expect(spaceManifestVerifier.getSpaceId()).andReturn(spaceId);
 
+        Capture<Collection<SnapshotContentItem>> addedItems = expectContentItemsAdded();
+
         replayAll();
         writer =
             new SpaceItemWriter(snapshot,
@@ -294,6 +307,8 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
 
         assertEquals("total checksum performed should be one less than the number of content items",
                      items.size() - 1, writer.getTotalChecksumsPerformed());
+        assertEquals("sha256 checksums should be computed while downloading",
+                     0, writer.getTotalChecksumFileReads());
         //close the database using protected method
         //in order to release exclusive file lock
         //by the mapdb instance.
@@ -324,6 +339,8 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
 
         verifySha256Manifest(items, sourceFiles);
 
+        verifyContentItemsAdded(addedItems, items);
+
         assertEquals(ExitStatus.COMPLETED.getExitCode(), status.getExitCode());
     }
 
@@ -334,7 +351,7 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
 
         List<File> sourceFiles = new ArrayList<>();
         for (int i = 0; i < 100; i++) {
-            sourceFiles.add(setupContentItem(items, spaceId, contentId + String.format("%05d", i), 2));
+            sourceFiles.add(setupContentItem(items, spaceId, contentId + String.format("%05d", i)));
         }
 
         for (ContentItem item : items) {
@@ -342,7 +359,7 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
                 .andReturn(createContentProperties("md5"));
         }
 
-        setupContentItem(items, spaceId, Constants.SNAPSHOT_PROPS_FILENAME, 1);
+        setupContentItem(items, spaceId, Constants.SNAPSHOT_PROPS_FILENAME);
 
         sortSourceFilesAndItems(items, sourceFiles);
 
@@ -357,6 +374,8 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
         expect(spaceManifestVerifier.verify()).andReturn(true);
         expect(spaceManifestVerifier.getSpaceId()).andReturn(spaceId);
 
+        Capture<Collection<SnapshotContentItem>> addedItems = expectContentItemsAdded();
+
         replayAll();
         writer =
             new SpaceItemWriter(snapshot,
@@ -373,6 +392,8 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
         writeItems(items, 1);
         assertEquals("total checksum performed should be one less than the number of content items",
                      items.size() - 1, writer.getTotalChecksumsPerformed());
+        assertEquals("sha256 checksums should be computed while downloading",
+                     0, writer.getTotalChecksumFileReads());
 
         //reset the database to ensure that cache is empty
         writer.closeDatabase();
@@ -402,9 +423,35 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
         verifyMd5Manifest(items, sourceFiles);
         verifySha256Manifest(items, sourceFiles);
 
+        verifyContentItemsAdded(addedItems, items);
+
         assertEquals(ExitStatus.COMPLETED.getExitCode(), status.getExitCode());
     }
 
+    private Capture<Collection<SnapshotContentItem>> expectContentItemsAdded() throws SnapshotException {
+        Capture<Collection<SnapshotContentItem>> capture = Capture.newInstance(CaptureType.ALL);
+        this.snapshotManager.addContentItems(eq(snapshot), capture(capture));
+        expectLastCall().atLeastOnce();
+        return capture;
+    }
+
+    private void verifyContentItemsAdded(Capture<Collection<SnapshotContentItem>> capture,
+                                         List<ContentItem> items) {
+        Set<String> added = new HashSet<>();
+        for (Collection<SnapshotContentItem> batch : capture.getValues()) {
+            assertTrue(batch.size() <= SpaceItemWriter.CONTENT_ITEM_BATCH_SIZE);
+            for (SnapshotContentItem item : batch) {
+                assertTrue(item.getMetadata().contains(StorageProvider.PROPERTIES_CONTENT_CHECKSUM));
+                added.add(item.getContentId());
+            }
+        }
+
+        assertEquals(items.size(), added.size());
+        for (ContentItem item : items) {
+            assertTrue(item.getContentId() + " was not added", added.contains(item.getContentId()));
+        }
+    }
+
     private void verifyMd5Manifest(List<ContentItem> items, List<File> sourceFiles) throws IOException {
         List<String> md5Lines = getLines(MD5_MANIFEST_TXT_FILE_NAME);
 
@@ -564,8 +611,7 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
      */
     private File setupContentItem(List<ContentItem> items,
                                   String spaceId,
-                                  String contentId,
-                                  int times)
+                                  String contentId)
         throws IOException, SnapshotException {
         int size = 1024 * 100;
         File content = createUniqueTempFile(size, contentId);
@@ -581,10 +627,6 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
             .andReturn(contentStream);
 
         items.add(item);
-        this.snapshotManager.addContentItem(eq(snapshot),
-                                            eq(contentId),
-                                            isA(Map.class));
-        expectLastCall().times(times);
         return content;
     }
 
@@ -0,0 +1,95 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.duracloud.common.constant.Constants;
+import org.duracloud.common.constant.ManifestFormat;
+import org.duracloud.manifest.impl.TsvManifestFormatter;
+import org.duracloud.manifeststitch.StitchedManifestGenerator;
+import org.duracloud.mill.db.model.ManifestItem;
+import org.duracloud.snapshot.common.test.SnapshotTestBase;
+import org.easymock.Mock;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class SpaceManifestChecksumsTest extends SnapshotTestBase {
+
+    private String spaceId = "space-id";
+    private File dbFile;
+
+    @Mock
+    private StitchedManifestGenerator generator;
+
+    @Before
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        dbFile = File.createTempFile("checksums", ".db");
+        dbFile.delete();
+        dbFile.deleteOnExit();
+    }
+
+    @Test
+    public void testReadsSpaceManifest() throws Exception {
+        expect(generator.generate(spaceId, ManifestFormat.TSV))
+            .andReturn(createManifest("a", "md5-shared",
+                                      "b", "md5-unique",
+                                      "c", "md5-shared",
+                                      Constants.SNAPSHOT_PROPS_FILENAME, "md5-unique"));
+        replayAll();
+
+        SpaceManifestChecksums checksums = new SpaceManifestChecksums(dbFile, generator, spaceId);
+        checksums.open();
+        try {
+            assertEquals("md5-shared", checksums.getChecksum("a"));
+            assertEquals("md5-unique", checksums.getChecksum("b"));
+            assertNull(checksums.getChecksum(Constants.SNAPSHOT_PROPS_FILENAME));
+            assertNull(checksums.getChecksum("missing"));
+            assertTrue(checksums.isShared("md5-shared"));
+            assertFalse(checksums.isShared("md5-unique"));
+        } finally {
+            checksums.close();
+        }
+
+        // a second open reuses the checksums without generating the manifest again
+        SpaceManifestChecksums reopened = new SpaceManifestChecksums(dbFile, generator, spaceId);
+        reopened.open();
+        try {
+            assertEquals("md5-shared", reopened.getChecksum("c"));
+        } finally {
+            reopened.delete();
+        }
+        assertFalse(dbFile.exists());
+    }
+
+    private ByteArrayInputStream createManifest(String... contentIdsAndChecksums) {
+        TsvManifestFormatter formatter = new TsvManifestFormatter();
+        StringBuilder manifest = new StringBuilder(formatter.getHeader() + "\n");
+        for (int i = 0; i < contentIdsAndChecksums.length; i += 2) {
+            ManifestItem item = new ManifestItem();
+            item.setSpaceId(spaceId);
+            item.setContentId(contentIdsAndChecksums[i]);
+            item.setContentChecksum(contentIdsAndChecksums[i + 1]);
+            manifest.append(formatter.formatLine(item)).append("\n");
+        }
+        return new ByteArrayInputStream(manifest.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -8,6 +8,7 @@
 package org.duracloud.snapshot.service.impl;
 
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -122,6 +123,99 @@ public class SpaceManifestSnapshotManifestVerifierTest extends SnapshotTestBase
 
     }
 
+    @Test
+    public void testSortedMergeSuccess() throws Exception {
+        List<ContentItem> items = createDistinctContentItems(count, contentIdPrefix);
+        expect(generator.generate(spaceId, ManifestFormat.TSV)).andReturn(createManifestInputStream(items));
+        ManifestTestHelper.setupManifestFile(md5Manifest, items.size(), correctChecksum, contentIdPrefix);
+        replayAll();
+        SpaceManifestSnapshotManifestVerifier verifier =
+            new SpaceManifestSnapshotManifestVerifier(md5Manifest, generator, spaceId, true);
+
+        assertTrue(verifier.verify());
+        assertTrue(verifier.getErrors().isEmpty());
+    }
+
+    @Test
+    public void testSortedMergeReportsAllDifferences() throws Exception {
+        // space: content-id-1 .. content-id-5 (content-id-1 with bad checksum)
+        // snapshot: content-id-0 .. content-id-4
+        List<ContentItem> items = createDistinctContentItems(count, contentIdPrefix);
+        items.remove(0);
+        items.add(new ContentItem(spaceId, contentIdPrefix + count));
+        items.add(new ContentItem(spaceId, Constants.SNAPSHOT_PROPS_FILENAME));
+        File spaceManifest = File.createTempFile("manifest", "tsv");
+        spaceManifest.deleteOnExit();
+        try (BufferedWriter writer =
+                 new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spaceManifest)))) {
+            TsvManifestFormatter formatter = new TsvManifestFormatter();
+            writer.write(formatter.getHeader() + "\n");
+            for (ContentItem item : items) {
+                ManifestItem manifestItem = new ManifestItem();
+                manifestItem.setContentId(item.getContentId());
+                manifestItem.setContentChecksum(
+                    item.getContentId().equals(contentIdPrefix + 1) ? incorrectChecksum : correctChecksum);
+                writer.write(formatter.formatLine(manifestItem) + "\n");
+            }
+        }
+
+        expect(generator.generate(spaceId, ManifestFormat.TSV)).andReturn(new FileInputStream(spaceManifest));
+        ManifestTestHelper.setupManifestFile(md5Manifest, count, correctChecksum, contentIdPrefix);
+        replayAll();
+        SpaceManifestSnapshotManifestVerifier verifier =
+            new SpaceManifestSnapshotManifestVerifier(md5Manifest, generator, spaceId, true);
+
+        assertFalse(verifier.verify());
+        List<String> errors = verifier.getErrors();
+        assertEquals(errors.toString(), 4, errors.size());
+        assertTrue(errors.get(0).startsWith("Space manifest does not contain"));
+        assertTrue(errors.get(0).contains(contentIdPrefix + 0));
+        assertTrue(errors.get(1).startsWith("Checksum mismatch"));
+        assertTrue(errors.get(1).contains(contentIdPrefix + 1));
+        assertTrue(errors.get(2).startsWith("Snapshot manifest does not contain"));
+        assertTrue(errors.get(2).contains(contentIdPrefix + count));
+        assertTrue(errors.get(3).contains("1 missing from space, 1 missing from snapshot, 1 checksum mismatches"));
+    }
+
+    @Test
+    public void testReferencedManifestCountsAsPartOfSnapshot() throws Exception {
+        testReferencedManifest(false);
+    }
+
+    @Test
+    public void testSortedMergeReferencedManifestCountsAsPartOfSnapshot() throws Exception {
+        testReferencedManifest(true);
+    }
+
+    private void testReferencedManifest(boolean sortedMerge) throws Exception {
+        // snapshot: content-id-0 .. content-id-4; referenced: referenced-0 .. referenced-2
+        List<ContentItem> items = createDistinctContentItems(count, contentIdPrefix);
+        items.addAll(createDistinctContentItems(3, "referenced-"));
+        expect(generator.generate(spaceId, ManifestFormat.TSV)).andReturn(createManifestInputStream(items));
+        ManifestTestHelper.setupManifestFile(md5Manifest, count, correctChecksum, contentIdPrefix);
+        File referencedManifest = File.createTempFile("referenced-manifest", "tmp");
+        referencedManifest.deleteOnExit();
+        ManifestTestHelper.setupManifestFile(referencedManifest, 3, correctChecksum, "referenced-");
+        replayAll();
+        SpaceManifestSnapshotManifestVerifier verifier =
+            new SpaceManifestSnapshotManifestVerifier(md5Manifest, referencedManifest, generator, spaceId,
+                                                      sortedMerge);
+
+        boolean verified = verifier.verify();
+        assertTrue(verifier.getErrors().toString(), verified);
+        ManifestIndex.delete(referencedManifest);
+        ManifestIndex.delete(md5Manifest);
+    }
+
+    private List<ContentItem> createDistinctContentItems(int count, String contentIdPrefix) {
+        List<ContentItem> items = new LinkedList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(new ContentItem(spaceId, contentIdPrefix + i));
+        }
+
+        return items;
+    }
+
     /**
      * @return
      */
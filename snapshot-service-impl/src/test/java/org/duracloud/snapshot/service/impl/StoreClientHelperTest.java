@@ -0,0 +1,84 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.duracloud.client.ContentStore;
+import org.duracloud.client.util.StoreClientUtil;
+import org.duracloud.snapshot.common.SnapshotServiceConstants;
+import org.duracloud.snapshot.common.test.SnapshotTestBase;
+import org.duracloud.snapshot.db.model.DuracloudEndPointConfig;
+import org.easymock.Mock;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class StoreClientHelperTest extends SnapshotTestBase {
+
+    @Mock
+    private StoreClientUtil storeClientUtil;
+
+    @Mock
+    private ContentStore contentStore;
+
+    @Mock
+    private ContentStore otherContentStore;
+
+    private DuracloudEndPointConfig createConfig(String host, String storeId) {
+        DuracloudEndPointConfig config = new DuracloudEndPointConfig();
+        config.setHost(host);
+        config.setPort(443);
+        config.setStoreId(storeId);
+        return config;
+    }
+
+    private void expectCreate(String host, String storeId, String password, ContentStore result) {
+        expect(storeClientUtil.createContentStore(host, 443, SnapshotServiceConstants.DURASTORE_CONTEXT,
+                                                  "user", password, storeId)).andReturn(result);
+    }
+
+    @Test
+    public void testReuseForSameEndpoint() {
+        expectCreate("host", "0", "password", contentStore);
+        replayAll();
+
+        StoreClientHelper helper = new StoreClientHelper(storeClientUtil, 10);
+        assertSame(contentStore, helper.create(createConfig("host", "0"), "user", "password"));
+        assertSame(contentStore, helper.create(createConfig("host", "0"), "user", "password"));
+    }
+
+    @Test
+    public void testSeparateClientsPerStoreAndCredentials() {
+        expectCreate("host", "0", "password", contentStore);
+        expectCreate("host", "1", "password", otherContentStore);
+        expectCreate("host", "0", "changed", otherContentStore);
+        replayAll();
+
+        StoreClientHelper helper = new StoreClientHelper(storeClientUtil, 10);
+        assertSame(contentStore, helper.create(createConfig("host", "0"), "user", "password"));
+        assertSame(otherContentStore, helper.create(createConfig("host", "1"), "user", "password"));
+        assertSame(otherContentStore, helper.create(createConfig("host", "0"), "user", "changed"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        expectCreate("a", "0", "password", contentStore);
+        expectCreate("b", "0", "password", otherContentStore);
+        expectCreate("a", "0", "password", otherContentStore);
+        replayAll();
+
+        StoreClientHelper helper = new StoreClientHelper(storeClientUtil, 1);
+        helper.create(createConfig("a", "0"), "user", "password");
+        helper.create(createConfig("b", "0"), "user", "password");
+        assertNotSame(contentStore, helper.create(createConfig("a", "0"), "user", "password"));
+    }
+}
@@ -11,17 +11,34 @@ import static org.easymock.EasyMock.anyInt;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
 import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.isNull;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.duracloud.client.ContentStore;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
 import org.duracloud.domain.Space;
+import org.duracloud.error.ContentStoreException;
 import org.duracloud.error.NotFoundException;
 import org.duracloud.snapshot.common.test.SnapshotTestBase;
 import org.duracloud.snapshot.db.model.Restoration;
@@ -32,9 +49,11 @@ import org.duracloud.snapshot.service.RestoreManager;
 import org.duracloud.sync.endpoint.MonitoredFile;
 import org.duracloud.sync.endpoint.SyncEndpoint;
 import org.duracloud.sync.endpoint.SyncResultType;
+import org.easymock.IAnswer;
 import org.easymock.Mock;
 import org.junit.Test;
 import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.item.ExecutionContext;
 
@@ -63,6 +82,9 @@ public class SyncWriterTest extends SnapshotTestBase {
     @Mock
     private Restoration restoration;
 
+    @Mock
+    private ContentPropertiesIndex contentPropertiesIndex;
+
     private String restorationId = "restoration-id";
 
     /* (non-Javadoc)
@@ -109,6 +131,133 @@ public class SyncWriterTest extends SnapshotTestBase {
         this.writer.write(files);
     }
 
+    @Test
+    public void testWriteWithProperties() throws Exception {
+        File file = new File(watchDir, "file.txt");
+        FileUtils.writeStringToFile(file, "content", StandardCharsets.UTF_8);
+
+        Map<String, String> props = new HashMap<>();
+        props.put(ContentStore.CONTENT_MIMETYPE, "text/plain");
+        props.put("creator", "someone");
+        expect(contentPropertiesIndex.getProperties("file.txt")).andReturn(props);
+        String checksum = new ChecksumUtil(Algorithm.MD5).generateChecksum(file);
+        expect(contentStore.addContent(eq("spaceId"),
+                                       eq("file.txt"),
+                                       isA(InputStream.class),
+                                       eq(file.length()),
+                                       eq("text/plain"),
+                                       eq(checksum),
+                                       eq(props)))
+            .andReturn(checksum);
+        replayAll();
+
+        this.writer.setContentPropertiesIndex(contentPropertiesIndex);
+        this.writer.write(Collections.singletonList(file));
+    }
+
+    @Test
+    public void testWriteWithoutProperties() throws Exception {
+        File file = new File(watchDir, "file.txt");
+        FileUtils.writeStringToFile(file, "content", StandardCharsets.UTF_8);
+
+        expect(contentPropertiesIndex.getProperties("file.txt")).andReturn(null);
+        expect(endpoint.syncFileAndReturnDetailedResult(isA(MonitoredFile.class), eq(watchDir)))
+            .andReturn(SyncResultType.ADDED);
+        replayAll();
+
+        this.writer.setContentPropertiesIndex(contentPropertiesIndex);
+        this.writer.write(Collections.singletonList(file));
+    }
+
+    @Test
+    public void testWriteVerified() throws Exception {
+        File file = new File(watchDir, "file.txt");
+        FileUtils.writeStringToFile(file, "content", StandardCharsets.UTF_8);
+        String checksum = new ChecksumUtil(Algorithm.MD5).generateChecksum(file);
+        StepExecution execution = beforeVerifiedStep(checksum);
+
+        expect(contentStore.addContent(eq("spaceId"),
+                                       eq("file.txt"),
+                                       isA(InputStream.class),
+                                       eq(file.length()),
+                                       eq("text/plain"),
+                                       isNull(String.class),
+                                       eq(new HashMap<String, String>())))
+            .andAnswer(new UploadAnswer());
+        replayAll();
+
+        this.writer.beforeStep(execution);
+        this.writer.write(Collections.singletonList(file));
+        assertEquals(0, getErrors(execution).size());
+    }
+
+    @Test
+    public void testWriteVerifiedMismatch() throws Exception {
+        File file = new File(watchDir, "file.txt");
+        FileUtils.writeStringToFile(file, "content", StandardCharsets.UTF_8);
+        StepExecution execution = beforeVerifiedStep("other-checksum");
+
+        // the upload is attempted once, and fails as its last bytes are read
+        expect(contentStore.addContent(eq("spaceId"),
+                                       eq("file.txt"),
+                                       isA(InputStream.class),
+                                       eq(file.length()),
+                                       eq("text/plain"),
+                                       isNull(String.class),
+                                       eq(new HashMap<String, String>())))
+            .andAnswer(new UploadAnswer());
+        replayAll();
+
+        this.writer.beforeStep(execution);
+        this.writer.write(Collections.singletonList(file));
+        List<String> errors = getErrors(execution);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).contains("does not match the snapshot manifest"));
+    }
+
+    /**
+     * Sets the writer up to verify uploads against a manifest listing
+     * file.txt with the given checksum.
+     */
+    private StepExecution beforeVerifiedStep(String checksum) throws Exception {
+        File manifest = new File(watchDir, ManifestFileHelper.MANIFEST_MD5_TEXT_FILE_NAME);
+        try (Writer manifestWriter = new FileWriter(manifest)) {
+            ManifestFileHelper.writeManifestEntry(manifestWriter, "file.txt", checksum);
+        }
+        writer.setVerificationManifest(manifest);
+
+        setupBeforeTransition();
+        Space space = new Space();
+        space.setContentIds(new ArrayList<String>());
+        expect(contentStore.getSpace(isA(String.class),
+                                     isNull(String.class),
+                                     anyInt(),
+                                     isNull(String.class)))
+            .andReturn(space);
+        return new StepExecution("step", new JobExecution(1L));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> getErrors(StepExecution execution) {
+        List<String> errors = (List<String>) execution.getExecutionContext().get(StepExecutionSupport.ERRORS_KEY);
+        return errors != null ? errors : new LinkedList<>();
+    }
+
+    /**
+     * Reads the uploaded content as the store would, returning its checksum.
+     */
+    private static class UploadAnswer implements IAnswer<String> {
+        @Override
+        public String answer() throws Throwable {
+            try {
+                byte[] content = IOUtils.toByteArray((InputStream) getCurrentArguments()[2]);
+                return new ChecksumUtil(Algorithm.MD5).generateChecksum(new ByteArrayInputStream(content));
+            } catch (IOException ex) {
+                throw new ContentStoreException(ex.getMessage());
+            }
+        }
+    }
+
     @Test
     public void testBeforeStep() throws Exception {
         expect(contentStore.getSpace(isA(String.class),
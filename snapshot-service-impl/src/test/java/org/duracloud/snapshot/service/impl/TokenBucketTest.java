@@ -0,0 +1,62 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private AtomicLong now = new AtomicLong(0);
+    private AtomicLong rate = new AtomicLong(1000);
+
+    @Test
+    public void testBurstThenWait() {
+        TokenBucket bucket = new TokenBucket(rate::get, now::get);
+        // a full second's worth is available at once
+        assertEquals(0, bucket.reserve(1000));
+        // the next 500 bytes must wait half a second
+        assertEquals(SECOND / 2, bucket.reserve(500));
+        // and the 500 after those a second
+        assertEquals(SECOND, bucket.reserve(500));
+
+        now.addAndGet(SECOND);
+        assertEquals(0, bucket.reserve(0));
+    }
+
+    @Test
+    public void testBurstIsCapped() {
+        TokenBucket bucket = new TokenBucket(rate::get, now::get);
+        now.addAndGet(10 * SECOND);
+        assertEquals(0, bucket.reserve(1000));
+        assertEquals(SECOND / 10, bucket.reserve(100));
+    }
+
+    @Test
+    public void testRateChange() {
+        TokenBucket bucket = new TokenBucket(rate::get, now::get);
+        assertEquals(0, bucket.reserve(1000));
+
+        rate.set(0);
+        assertEquals(0, bucket.reserve(1000000));
+
+        rate.set(2000);
+        now.addAndGet(SECOND);
+        assertEquals(0, bucket.reserve(2000));
+        assertEquals(SECOND / 2, bucket.reserve(1000));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.duracloud.client.ContentStore;
+import org.duracloud.common.constant.Constants;
+import org.duracloud.common.constant.ManifestFormat;
+import org.duracloud.manifest.impl.TsvManifestFormatter;
+import org.duracloud.manifeststitch.StitchedManifestGenerator;
+import org.duracloud.mill.db.model.ManifestItem;
+import org.duracloud.snapshot.common.test.SnapshotTestBase;
+import org.duracloud.snapshot.db.model.Snapshot;
+import org.duracloud.snapshot.db.model.SnapshotContentItem;
+import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
+import org.easymock.Mock;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class UnchangedContentIndexTest extends SnapshotTestBase {
+
+    private String spaceId = "space-id";
+    private File dbFile;
+    private Snapshot parent;
+    private long lastItemId = 0;
+
+    @Mock
+    private SnapshotContentItemRepo snapshotContentItemRepo;
+
+    @Mock
+    private StitchedManifestGenerator generator;
+
+    @Before
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        dbFile = File.createTempFile("unchanged", ".db");
+        dbFile.delete();
+        dbFile.deleteOnExit();
+        parent = new Snapshot();
+        parent.setId(1L);
+        parent.setName("parent-snapshot");
+    }
+
+    @Test
+    public void testIndexesOnlyUnchangedContent() throws Exception {
+        List<SnapshotContentItem> parentItems = new ArrayList<>();
+        parentItems.add(createItem("changed", "md5-old", null));
+        parentItems.add(createItem("deleted", "md5-deleted", null));
+        parentItems.add(createItem("referenced", "md5-referenced", 7L));
+        parentItems.add(createItem("unchanged", "md5-unchanged", null));
+        expect(snapshotContentItemRepo.findBySnapshotNameAndIdGreaterThanOrderByIdAsc(
+            eq(parent.getName()), eq(0L), isA(Pageable.class))).andReturn(parentItems);
+
+        expect(generator.generate(spaceId, ManifestFormat.TSV))
+            .andReturn(createManifest("changed", "md5-new",
+                                      "new", "md5-new",
+                                      "referenced", "md5-referenced",
+                                      "unchanged", "md5-unchanged",
+                                      Constants.SNAPSHOT_PROPS_FILENAME, "md5-props"));
+        replayAll();
+
+        UnchangedContentIndex index =
+            new UnchangedContentIndex(dbFile, parent, snapshotContentItemRepo, generator, spaceId);
+        index.open();
+        try {
+            assertEquals(2, index.size());
+            assertEquals("md5-unchanged", index.getProperties("unchanged").get(ContentStore.CONTENT_CHECKSUM));
+            assertEquals(Long.valueOf(1L), index.getHoldingSnapshotId("unchanged"));
+            assertEquals(Long.valueOf(7L), index.getHoldingSnapshotId("referenced"));
+            assertNull(index.getProperties("changed"));
+            assertNull(index.getProperties("new"));
+            assertNull(index.getProperties("deleted"));
+            assertNull(index.getHoldingSnapshotId("changed"));
+        } finally {
+            index.close();
+        }
+
+        // a second open reuses the index without querying again
+        UnchangedContentIndex reopened =
+            new UnchangedContentIndex(dbFile, parent, snapshotContentItemRepo, generator, spaceId);
+        reopened.open();
+        try {
+            assertEquals(2, reopened.size());
+        } finally {
+            reopened.delete();
+        }
+    }
+
+    @Test
+    public void testPagesThroughParentItems() throws Exception {
+        List<SnapshotContentItem> firstPage = new ArrayList<>();
+        for (int i = 0; i < UnchangedContentIndex.PAGE_SIZE; i++) {
+            firstPage.add(createItem(String.format("item-%05d", i), "md5", null));
+        }
+        SnapshotContentItem lastOfPage = firstPage.get(firstPage.size() - 1);
+        String lastContentId = lastOfPage.getContentId();
+        expect(snapshotContentItemRepo.findBySnapshotNameAndIdGreaterThanOrderByIdAsc(
+            eq(parent.getName()), eq(0L), isA(Pageable.class))).andReturn(firstPage);
+        expect(snapshotContentItemRepo.findBySnapshotNameAndIdGreaterThanOrderByIdAsc(
+            eq(parent.getName()), eq(lastOfPage.getId()), isA(Pageable.class)))
+            .andReturn(Collections.singletonList(createItem("last", "md5", null)));
+        expect(generator.generate(spaceId, ManifestFormat.TSV))
+            .andReturn(createManifest(lastContentId, "md5", "last", "md5"));
+        replayAll();
+
+        UnchangedContentIndex index =
+            new UnchangedContentIndex(dbFile, parent, snapshotContentItemRepo, generator, spaceId);
+        index.open();
+        try {
+            assertEquals(2, index.size());
+        } finally {
+            index.delete();
+        }
+    }
+
+    private SnapshotContentItem createItem(String contentId, String checksum, Long referencedSnapshotId) {
+        Map<String, String> props = new HashMap<>();
+        props.put(ContentStore.CONTENT_CHECKSUM, checksum);
+        SnapshotContentItem item = new SnapshotContentItem();
+        item.setId(++lastItemId);
+        item.setContentId(contentId);
+        item.setMetadata(PropertiesSerializer.serialize(props));
+        item.setReferencedSnapshotId(referencedSnapshotId);
+        return item;
+    }
+
+    private ByteArrayInputStream createManifest(String... contentIdsAndChecksums) {
+        TsvManifestFormatter formatter = new TsvManifestFormatter();
+        StringBuilder manifest = new StringBuilder(formatter.getHeader() + "\n");
+        for (int i = 0; i < contentIdsAndChecksums.length; i += 2) {
+            ManifestItem item = new ManifestItem();
+            item.setSpaceId(spaceId);
+            item.setContentId(contentIdsAndChecksums[i]);
+            item.setContentChecksum(contentIdsAndChecksums[i + 1]);
+            manifest.append(formatter.formatLine(item)).append("\n");
+        }
+        return new ByteArrayInputStream(manifest.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
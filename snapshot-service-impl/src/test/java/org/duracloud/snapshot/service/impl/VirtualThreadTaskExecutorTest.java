@@ -0,0 +1,82 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class VirtualThreadTaskExecutorTest {
+
+    @Test
+    public void testConcurrentTasksAreBounded() throws Exception {
+        int maxConcurrentTasks = 3;
+        int taskCount = 50;
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor(maxConcurrentTasks);
+
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            executor.execute(() -> {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                active.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue("max active " + maxActive.get(), maxActive.get() <= maxConcurrentTasks);
+    }
+
+    @Test
+    public void testFailedTaskReleasesPermit() throws Exception {
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor(1);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(() -> {
+                throw new RuntimeException("task failed");
+            });
+        }
+
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(done::countDown);
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testThreadType() throws Exception {
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor(1);
+        boolean supported = Runtime.version().feature() >= 21;
+        assertEquals(supported, executor.isVirtual());
+
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger daemon = new AtomicInteger();
+        executor.execute(() -> {
+            if (Thread.currentThread().isDaemon()) {
+                daemon.incrementAndGet();
+            }
+            done.countDown();
+        });
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        // platform and virtual item threads never keep the vm alive
+        assertEquals(1, daemon.get());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service;
+
+/**
+ * Bandwidth budgets for content transferred between the bridge and
+ * DuraCloud, in bytes per second. A null or zero budget is unlimited.
+ *
+ * @author Daniel Bernstein
+ */
+public class BandwidthLimits {
+    private Long globalBytesPerSecond;
+    private Long jobBytesPerSecond;
+    private Long hostBytesPerSecond;
+
+    public BandwidthLimits() {
+    }
+
+    /**
+     * @param globalBytesPerSecond the budget shared by all jobs
+     * @param jobBytesPerSecond    the budget of each job
+     * @param hostBytesPerSecond   the budget shared by all jobs transferring
+     *                             to or from the same DuraCloud host
+     */
+    public BandwidthLimits(Long globalBytesPerSecond, Long jobBytesPerSecond, Long hostBytesPerSecond) {
+        this.globalBytesPerSecond = globalBytesPerSecond;
+        this.jobBytesPerSecond = jobBytesPerSecond;
+        this.hostBytesPerSecond = hostBytesPerSecond;
+    }
+
+    /**
+     * @return the globalBytesPerSecond
+     */
+    public Long getGlobalBytesPerSecond() {
+        return globalBytesPerSecond;
+    }
+
+    /**
+     * @param globalBytesPerSecond the globalBytesPerSecond to set
+     */
+    public void setGlobalBytesPerSecond(Long globalBytesPerSecond) {
+        this.globalBytesPerSecond = globalBytesPerSecond;
+    }
+
+    /**
+     * @return the jobBytesPerSecond
+     */
+    public Long getJobBytesPerSecond() {
+        return jobBytesPerSecond;
+    }
+
+    /**
+     * @param jobBytesPerSecond the jobBytesPerSecond to set
+     */
+    public void setJobBytesPerSecond(Long jobBytesPerSecond) {
+        this.jobBytesPerSecond = jobBytesPerSecond;
+    }
+
+    /**
+     * @return the hostBytesPerSecond
+     */
+    public Long getHostBytesPerSecond() {
+        return hostBytesPerSecond;
+    }
+
+    /**
+     * @param hostBytesPerSecond the hostBytesPerSecond to set
+     */
+    public void setHostBytesPerSecond(Long hostBytesPerSecond) {
+        this.hostBytesPerSecond = hostBytesPerSecond;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service;
+
+/**
+ * Shapes the bandwidth used by snapshot and restore content transfers
+ * according to a schedule which may be changed while jobs are running.
+ *
+ * @author Daniel Bernstein
+ */
+public interface BandwidthManager {
+
+    /**
+     * @return the schedule in effect
+     */
+    BandwidthSchedule getSchedule();
+
+    /**
+     * Replaces the schedule. Running transfers adopt the new budgets at once.
+     *
+     * @param schedule
+     * @throws IllegalArgumentException if the schedule contains negative
+     *                                  budgets or hours out of range
+     */
+    void setSchedule(BandwidthSchedule schedule);
+
+    /**
+     * @return the budgets in effect now
+     */
+    BandwidthLimits getCurrentLimits();
+}
@@ -0,0 +1,99 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service;
+
+/**
+ * Bandwidth budgets which apply during part of each day, from the start hour
+ * up to (but not including) the end hour, in the bridge's local time. A
+ * profile whose end hour is before its start hour spans midnight. Budgets
+ * left null in a profile fall back to the defaults of the schedule.
+ *
+ * @author Daniel Bernstein
+ */
+public class BandwidthProfile extends BandwidthLimits {
+    private String name;
+    private int startHour;
+    private int endHour;
+
+    public BandwidthProfile() {
+    }
+
+    /**
+     * @param name                 describes the profile
+     * @param startHour            the hour (0-23) at which the profile starts
+     * @param endHour              the hour (0-24) at which the profile ends
+     * @param globalBytesPerSecond the budget shared by all jobs
+     * @param jobBytesPerSecond    the budget of each job
+     * @param hostBytesPerSecond   the budget of each DuraCloud host
+     */
+    public BandwidthProfile(String name,
+                            int startHour,
+                            int endHour,
+                            Long globalBytesPerSecond,
+                            Long jobBytesPerSecond,
+                            Long hostBytesPerSecond) {
+        super(globalBytesPerSecond, jobBytesPerSecond, hostBytesPerSecond);
+        this.name = name;
+        this.startHour = startHour;
+        this.endHour = endHour;
+    }
+
+    /**
+     * @param hour an hour of the day (0-23)
+     * @return true if the profile applies during the hour
+     */
+    public boolean appliesAt(int hour) {
+        if (startHour <= endHour) {
+            return hour >= startHour && hour < endHour;
+        } else {
+            return hour >= startHour || hour < endHour;
+        }
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name the name to set
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the startHour
+     */
+    public int getStartHour() {
+        return startHour;
+    }
+
+    /**
+     * @param startHour the startHour to set
+     */
+    public void setStartHour(int startHour) {
+        this.startHour = startHour;
+    }
+
+    /**
+     * @return the endHour
+     */
+    public int getEndHour() {
+        return endHour;
+    }
+
+    /**
+     * @param endHour the endHour to set
+     */
+    public void setEndHour(int endHour) {
+        this.endHour = endHour;
+    }
+}
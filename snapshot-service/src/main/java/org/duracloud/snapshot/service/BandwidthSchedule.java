@@ -0,0 +1,68 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The bandwidth budgets of the bridge: default budgets, and profiles which
+ * replace them during parts of the day. The first profile which applies at
+ * a given time wins.
+ *
+ * @author Daniel Bernstein
+ */
+public class BandwidthSchedule extends BandwidthLimits {
+    private List<BandwidthProfile> profiles = new ArrayList<>();
+
+    public BandwidthSchedule() {
+    }
+
+    /**
+     * @param globalBytesPerSecond the default budget shared by all jobs
+     * @param jobBytesPerSecond    the default budget of each job
+     * @param hostBytesPerSecond   the default budget of each DuraCloud host
+     */
+    public BandwidthSchedule(Long globalBytesPerSecond, Long jobBytesPerSecond, Long hostBytesPerSecond) {
+        super(globalBytesPerSecond, jobBytesPerSecond, hostBytesPerSecond);
+    }
+
+    /**
+     * @param hour an hour of the day (0-23)
+     * @return the budgets in effect during the hour
+     */
+    public BandwidthLimits getLimitsAt(int hour) {
+        for (BandwidthProfile profile : profiles) {
+            if (profile.appliesAt(hour)) {
+                return new BandwidthLimits(
+                    valueOrDefault(profile.getGlobalBytesPerSecond(), getGlobalBytesPerSecond()),
+                    valueOrDefault(profile.getJobBytesPerSecond(), getJobBytesPerSecond()),
+                    valueOrDefault(profile.getHostBytesPerSecond(), getHostBytesPerSecond()));
+            }
+        }
+        return new BandwidthLimits(getGlobalBytesPerSecond(), getJobBytesPerSecond(), getHostBytesPerSecond());
+    }
+
+    private Long valueOrDefault(Long value, Long defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * @return the profiles
+     */
+    public List<BandwidthProfile> getProfiles() {
+        return profiles;
+    }
+
+    /**
+     * @param profiles the profiles to set
+     */
+    public void setProfiles(List<BandwidthProfile> profiles) {
+        this.profiles = profiles != null ? profiles : new ArrayList<>();
+    }
+}
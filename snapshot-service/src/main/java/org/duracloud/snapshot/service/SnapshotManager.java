@@ -7,11 +7,13 @@
  */
 package org.duracloud.snapshot.service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 import org.duracloud.snapshot.SnapshotException;
 import org.duracloud.snapshot.db.model.Snapshot;
+import org.duracloud.snapshot.db.model.SnapshotContentItem;
 
 /**
  * @author Daniel Bernstein
@@ -28,6 +30,19 @@ public interface SnapshotManager {
                                String contentId,
                                Map<String, String> props) throws SnapshotException;
 
+    /**
+     * Adds a batch of content items to a snapshot using as few database round
+     * trips as possible. Items which have already been added to the snapshot
+     * are skipped, which makes it safe to resubmit items after a restart.
+     *
+     * @param snapshot
+     * @param items    items with the content id and (serialized) metadata set.
+     *                 The snapshot and content id hash are filled in by this method.
+     * @throws SnapshotException
+     */
+    public void addContentItems(Snapshot snapshot,
+                                Collection<SnapshotContentItem> items) throws SnapshotException;
+
     /**
      * Adds a list of snapshot alternate Id's to a snapshot. To map Bag Id's
      * to Duracloud Snapshot Id's